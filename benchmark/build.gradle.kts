@@ -65,8 +65,10 @@ baselineProfile {
 }
 
 dependencies {
+  implementation(project(":stream-webrtc-android"))
   implementation(libs.androidx.test.runner)
   implementation(libs.androidx.test.uiautomator)
   implementation(libs.androidx.benchmark.macro)
+  implementation(libs.androidx.benchmark.junit4)
   implementation(libs.androidx.profileinstaller)
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.getstream.webrtc.android.benchmark
+
+import android.os.Process
+import android.util.Log
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.webrtc.EncodedImage
+import org.webrtc.HardwareVideoEncoderFactory
+import org.webrtc.JavaI420Buffer
+import org.webrtc.VideoCodecStatus
+import org.webrtc.VideoEncoder
+import org.webrtc.VideoFrame
+
+/**
+ * Compares the hardware encoder with asynchronous codec callbacks against the polling output
+ * thread. Each iteration encodes a 720p frame and waits for its output, so the measured time is the
+ * encode latency. The process CPU time per frame is logged under [TAG].
+ */
+class HardwareVideoEncoderBenchmark {
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  @Before
+  fun setUp() {
+    initializeWebRtc()
+  }
+
+  @Test
+  fun pollingEncodeLatency720p() = measureEncodeLatency(useAsyncCodecCallbacks = false)
+
+  @Test
+  fun asyncEncodeLatency720p() = measureEncodeLatency(useAsyncCodecCallbacks = true)
+
+  private fun measureEncodeLatency(useAsyncCodecCallbacks: Boolean) {
+    val factory = HardwareVideoEncoderFactory.builder()
+      .setUseAsyncCodecCallbacks(useAsyncCodecCallbacks)
+      .createHardwareVideoEncoderFactory()
+    val codecInfo = factory.supportedCodecs.firstOrNull()
+    assumeTrue("No hardware encoder", codecInfo != null)
+    val encoder = factory.createEncoder(codecInfo!!)!!
+    val encoded = Semaphore(0)
+    val settings = VideoEncoder.Settings(
+      /* numberOfCores= */ 1, WIDTH, HEIGHT, /* startBitrate= */ 2000, FRAMERATE,
+      /* numberOfSimulcastStreams= */ 1, /* automaticResizeOn= */ false,
+      VideoEncoder.Capabilities(/* lossNotification= */ false),
+    )
+    check(encoder.initEncode(settings) { _, _ -> encoded.release() } == VideoCodecStatus.OK)
+
+    val buffer = JavaI420Buffer.allocate(WIDTH, HEIGHT)
+    var frames = 0
+    val startCpuMs = Process.getElapsedCpuTime()
+    benchmarkRule.measureRepeated {
+      val frame = VideoFrame(buffer, /* rotation= */ 0, frames * FRAME_INTERVAL_NS)
+      val info = if (frames == 0) KEY_FRAME else DELTA_FRAME
+      frames++
+      if (encoder.encode(frame, info) == VideoCodecStatus.OK) {
+        check(encoded.tryAcquire(OUTPUT_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+      }
+    }
+    val cpuMsPerFrame = (Process.getElapsedCpuTime() - startCpuMs).toDouble() / frames
+    Log.i(
+      TAG,
+      "${encoder.implementationName} async=$useAsyncCodecCallbacks: " +
+        "$cpuMsPerFrame CPU ms per frame",
+    )
+
+    encoder.release()
+    buffer.release()
+  }
+
+  private companion object {
+    const val TAG = "HardwareVideoEncoderBenchmark"
+    const val WIDTH = 1280
+    const val HEIGHT = 720
+    const val FRAMERATE = 30
+    const val OUTPUT_TIMEOUT_MS = 1000L
+    val FRAME_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1) / FRAMERATE
+    val KEY_FRAME = VideoEncoder.EncodeInfo(arrayOf(EncodedImage.FrameType.VideoFrameKey))
+    val DELTA_FRAME = VideoEncoder.EncodeInfo(arrayOf(EncodedImage.FrameType.VideoFrameDelta))
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.getstream.webrtc.android.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.webrtc.HardwareVideoDecoderFactory
+import org.webrtc.HardwareVideoEncoderFactory
+import org.webrtc.MediaCodecCapabilityIndex
+
+/**
+ * Measures getSupportedCodecs of the hardware encoder and decoder factories, as called when a
+ * peer connection is set up, with the capability index built from MediaCodecList, loaded from the
+ * shared preferences, and in memory.
+ */
+class MediaCodecCapabilityIndexBenchmark {
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  private val context = InstrumentationRegistry.getInstrumentation().targetContext
+  private val encoderFactory = HardwareVideoEncoderFactory.builder()
+    .createHardwareVideoEncoderFactory()
+  private val decoderFactory = HardwareVideoDecoderFactory(/* sharedContext= */ null)
+
+  @Before
+  fun setUp() {
+    initializeWebRtc()
+    // The index is stored in and loaded from the preferences of this context from now on.
+    MediaCodecCapabilityIndex.prefetch(context)
+    getSupportedCodecs()
+  }
+
+  @After
+  fun tearDown() {
+    MediaCodecCapabilityIndex.invalidate(context)
+  }
+
+  /** The first start of the app, or the first one after an OS update. */
+  @Test
+  fun getSupportedCodecsBuildingIndex() {
+    benchmarkRule.measureRepeated {
+      runWithTimingDisabled { MediaCodecCapabilityIndex.invalidate(context) }
+      getSupportedCodecs()
+    }
+  }
+
+  /** Later starts of the app. */
+  @Test
+  fun getSupportedCodecsLoadingIndex() {
+    benchmarkRule.measureRepeated {
+      runWithTimingDisabled { MediaCodecCapabilityIndex.invalidate(/* context= */ null) }
+      getSupportedCodecs()
+    }
+  }
+
+  /** Later calls in the same process. */
+  @Test
+  fun getSupportedCodecsWithIndex() {
+    benchmarkRule.measureRepeated {
+      getSupportedCodecs()
+    }
+  }
+
+  private fun getSupportedCodecs() {
+    encoderFactory.supportedCodecs
+    decoderFactory.supportedCodecs
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.getstream.webrtc.android.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.webrtc.JavaI420Buffer
+import org.webrtc.JniCommon
+import org.webrtc.NativeByteBufferPool
+
+/**
+ * Measures the time per frame buffer of the pooled allocation against a native malloc/free pair,
+ * for the I420 sizes of 720p and 1080p frames.
+ */
+class NativeByteBufferPoolBenchmark {
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  @Before
+  fun setUp() {
+    initializeWebRtc()
+  }
+
+  @Test
+  fun pooled720p() = measurePooled(i420Size(1280, 720))
+
+  @Test
+  fun unpooled720p() = measureUnpooled(i420Size(1280, 720))
+
+  @Test
+  fun pooled1080p() = measurePooled(i420Size(1920, 1080))
+
+  @Test
+  fun unpooled1080p() = measureUnpooled(i420Size(1920, 1080))
+
+  @Test
+  fun javaI420BufferAllocate1080p() {
+    benchmarkRule.measureRepeated {
+      JavaI420Buffer.allocate(1920, 1080).release()
+    }
+  }
+
+  private fun measurePooled(size: Int) {
+    val pool = NativeByteBufferPool(
+      NativeByteBufferPool.DEFAULT_MAX_POOLED_BYTES,
+      NativeByteBufferPool.DEFAULT_IDLE_TIMEOUT_MS,
+    )
+    benchmarkRule.measureRepeated {
+      pool.recycle(pool.acquire(size))
+    }
+    pool.trim()
+  }
+
+  private fun measureUnpooled(size: Int) {
+    benchmarkRule.measureRepeated {
+      JniCommon.nativeFreeByteBuffer(JniCommon.nativeAllocateByteBuffer(size))
+    }
+  }
+
+  private fun i420Size(width: Int, height: Int): Int =
+    width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2)
+}
@@ -17,10 +17,12 @@
 package io.getstream.webrtc.android.benchmark
 
 import android.os.Build
+import androidx.test.platform.app.InstrumentationRegistry
 import androidx.test.uiautomator.BySelector
 import androidx.test.uiautomator.UiDevice
 import androidx.test.uiautomator.UiObject2
 import androidx.test.uiautomator.Until
+import org.webrtc.PeerConnectionFactory
 
 internal fun getPermissionText(): String {
   return when {
@@ -36,3 +38,12 @@ internal fun UiDevice.waitForObject(selector: BySelector, timeout: Long = 5_000)
   }
   return null
 }
+
+/** Loads the native library, which the benchmarks of the library classes need. */
+internal fun initializeWebRtc() {
+  PeerConnectionFactory.initialize(
+    PeerConnectionFactory.InitializationOptions
+      .builder(InstrumentationRegistry.getInstrumentation().targetContext)
+      .createInitializationOptions(),
+  )
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.getstream.webrtc.android.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import java.nio.ByteBuffer
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.webrtc.JavaI420Buffer
+import org.webrtc.YuvHelper
+
+/**
+ * Compares the I420 to NV12 conversion and the 90 degree I420 rotation of 720p, 1080p and 4K
+ * frames on the calling thread against the conversion in parallel stripes.
+ */
+class YuvHelperBenchmark {
+  @get:Rule
+  val benchmarkRule = BenchmarkRule()
+
+  @Before
+  fun setUp() {
+    initializeWebRtc()
+  }
+
+  @After
+  fun tearDown() {
+    YuvHelper.setParallelConversionThreshold(0)
+  }
+
+  @Test
+  fun i420ToNV12720p() = measureI420ToNV12(1280, 720, striped = false)
+
+  @Test
+  fun i420ToNV12720pStriped() = measureI420ToNV12(1280, 720, striped = true)
+
+  @Test
+  fun i420ToNV121080p() = measureI420ToNV12(1920, 1080, striped = false)
+
+  @Test
+  fun i420ToNV121080pStriped() = measureI420ToNV12(1920, 1080, striped = true)
+
+  @Test
+  fun i420ToNV124K() = measureI420ToNV12(3840, 2160, striped = false)
+
+  @Test
+  fun i420ToNV124KStriped() = measureI420ToNV12(3840, 2160, striped = true)
+
+  @Test
+  fun i420Rotate720p() = measureI420Rotate(1280, 720, striped = false)
+
+  @Test
+  fun i420Rotate720pStriped() = measureI420Rotate(1280, 720, striped = true)
+
+  @Test
+  fun i420Rotate1080p() = measureI420Rotate(1920, 1080, striped = false)
+
+  @Test
+  fun i420Rotate1080pStriped() = measureI420Rotate(1920, 1080, striped = true)
+
+  @Test
+  fun i420Rotate4K() = measureI420Rotate(3840, 2160, striped = false)
+
+  @Test
+  fun i420Rotate4KStriped() = measureI420Rotate(3840, 2160, striped = true)
+
+  private fun measureI420ToNV12(width: Int, height: Int, striped: Boolean) {
+    val src = JavaI420Buffer.allocate(width, height)
+    val dstY = ByteBuffer.allocateDirect(width * height)
+    val dstUV = ByteBuffer.allocateDirect((width + 1) / 2 * 2 * ((height + 1) / 2))
+    YuvHelper.setParallelConversionThreshold(if (striped) 1 else 0)
+    benchmarkRule.measureRepeated {
+      YuvHelper.I420ToNV12(
+        src.dataY, src.strideY, src.dataU, src.strideU, src.dataV, src.strideV,
+        dstY, width, dstUV, (width + 1) / 2 * 2, width, height,
+      )
+    }
+    src.release()
+  }
+
+  private fun measureI420Rotate(width: Int, height: Int, striped: Boolean) {
+    val src = JavaI420Buffer.allocate(width, height)
+    val dst = JavaI420Buffer.allocate(height, width)
+    YuvHelper.setParallelConversionThreshold(if (striped) 1 else 0)
+    benchmarkRule.measureRepeated {
+      YuvHelper.I420Rotate(
+        src.dataY, src.strideY, src.dataU, src.strideU, src.dataV, src.strideV,
+        dst.dataY, dst.strideY, dst.dataU, dst.strideU, dst.dataV, dst.strideV,
+        width, height, 90,
+      )
+    }
+    src.release()
+    dst.release()
+  }
+}
@@ -57,5 +57,9 @@ tasks.withType(JavaCompile::class.java).configureEach {
 dependencies {
   implementation(libs.androidx.annotation)
 
+  testImplementation(libs.junit)
+  testImplementation(libs.robolectric)
+  testImplementation(libs.mockito.core)
+
   baselineProfile(project(":benchmark"))
 }
\ No newline at end of file
@@ -10,14 +10,21 @@
 
 package org.webrtc;
 
+import android.annotation.TargetApi;
 import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
 import android.media.MediaCodecInfo.CodecCapabilities;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.SystemClock;
 import android.view.Surface;
 import androidx.annotation.Nullable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
@@ -43,9 +50,21 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
   // MediaCodec.
   private static final int DEQUEUE_OUTPUT_BUFFER_TIMEOUT_US = 100000;
 
+  // Maximum number of codec output buffers that may be held by frames in zero-copy byte buffer
+  // mode. The codec needs the remaining buffers to continue decoding, so frames are copied while
+  // this many buffers are held.
+  static final int MAX_HELD_OUTPUT_BUFFERS = 2;
+
+  // Time the codec release waits for frames to return held output buffers, which become invalid
+  // once the codec is stopped. Frames that still hold an output buffer after this time are copied.
+  static final int HELD_OUTPUT_BUFFERS_RELEASE_TIMEOUT_MS = 1000;
+
   private final MediaCodecWrapperFactory mediaCodecWrapperFactory;
   private final String codecName;
   private final VideoCodecMimeType codecType;
+  private final boolean zeroCopyByteBufferOutput;
+  // Whether to run MediaCodec in asynchronous low latency mode, see MediaCodec.setCallback().
+  private final boolean useAsyncCallbacks;
 
   private static class FrameInfo {
     final long decodeStartTimeMs;
@@ -60,10 +79,34 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
   private final BlockingDeque<FrameInfo> frameInfos;
   private int colorFormat;
 
+  // A codec output buffer held by a frame delivered in zero-copy byte buffer mode.
+  private static class HeldOutputBuffer {
+    final MediaCodecWrapper codec;
+    final int index;
+    NV12Buffer frameBuffer;
+
+    HeldOutputBuffer(MediaCodecWrapper codec, int index) {
+      this.codec = codec;
+      this.index = index;
+    }
+  }
+
+  private final Object heldOutputBuffersLock = new Object();
+  private final List<HeldOutputBuffer> heldOutputBuffers =
+      new ArrayList<>(); /* guarded by heldOutputBuffersLock */
+
   // Output thread runs a loop which polls MediaCodec for decoded output buffers.  It reformats
   // those buffers into VideoFrames and delivers them to the callback.  Variable is set on decoder
-  // thread and is immutable while the codec is running.
+  // thread and is immutable while the codec is running.  In asynchronous mode, this is the
+  // HandlerThread that receives the MediaCodec callbacks.
   @Nullable private Thread outputThread;
+  // Handler of the callback thread in asynchronous mode, null in synchronous mode.
+  @Nullable private Handler callbackHandler;
+  // Input buffers reported by MediaCodec.Callback and not yet used, in asynchronous mode.
+  private final BlockingDeque<Integer> availableInputBuffers = new LinkedBlockingDeque<>();
+  // Frames dropped in asynchronous mode because the codec had no free input buffer. Only accessed
+  // on the decoder thread.
+  private long droppedInputFrames;
 
   // Checker that ensures work is run on the output thread.
   private ThreadChecker outputThreadChecker;
@@ -119,6 +162,31 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
 
   AndroidVideoDecoder(MediaCodecWrapperFactory mediaCodecWrapperFactory, String codecName,
       VideoCodecMimeType codecType, int colorFormat, @Nullable EglBase.Context sharedContext) {
+    this(mediaCodecWrapperFactory, codecName, codecType, colorFormat, sharedContext,
+        /* zeroCopyByteBufferOutput= */ false);
+  }
+
+  /**
+   * @param zeroCopyByteBufferOutput when decoding to byte buffers, deliver NV12 frames as views of
+   *     the codec output buffers, which are returned to the codec when the frames are released.
+   *     The conversion to I420 then only happens if a consumer calls toI420().
+   */
+  AndroidVideoDecoder(MediaCodecWrapperFactory mediaCodecWrapperFactory, String codecName,
+      VideoCodecMimeType codecType, int colorFormat, @Nullable EglBase.Context sharedContext,
+      boolean zeroCopyByteBufferOutput) {
+    this(mediaCodecWrapperFactory, codecName, codecType, colorFormat, sharedContext,
+        zeroCopyByteBufferOutput, /* useAsyncCallbacks= */ false);
+  }
+
+  /**
+   * @param useAsyncCallbacks receive input and output buffers through MediaCodec.Callback instead
+   *     of polling the codec, and request low latency decoding where supported (API 30+). decode()
+   *     then never waits for an input buffer: without one, the frame is dropped and ERROR is
+   *     returned, so that WebRTC requests a key frame. Ignored below API 23.
+   */
+  AndroidVideoDecoder(MediaCodecWrapperFactory mediaCodecWrapperFactory, String codecName,
+      VideoCodecMimeType codecType, int colorFormat, @Nullable EglBase.Context sharedContext,
+      boolean zeroCopyByteBufferOutput, boolean useAsyncCallbacks) {
     if (!isSupportedColorFormat(colorFormat)) {
       throw new IllegalArgumentException("Unsupported color format: " + colorFormat);
     }
@@ -130,6 +198,8 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
     this.codecType = codecType;
     this.colorFormat = colorFormat;
     this.sharedContext = sharedContext;
+    this.zeroCopyByteBufferOutput = zeroCopyByteBufferOutput;
+    this.useAsyncCallbacks = useAsyncCallbacks;
     this.frameInfos = new LinkedBlockingDeque<>();
   }
 
@@ -178,16 +248,38 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
       if (sharedContext == null) {
         format.setInteger(MediaFormat.KEY_COLOR_FORMAT, colorFormat);
       }
+      if (useAsyncCallbacks && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+        if (isLowLatencySupported()) {
+          format.setInteger(MediaFormat.KEY_LOW_LATENCY, 1);
+        }
+        // The callbacks must be set before configure(). The thread also delivers the output and
+        // releases the codec, like the output thread in synchronous mode.
+        final HandlerThread callbackThread = new HandlerThread(TAG + "Callbacks");
+        callbackThread.start();
+        outputThread = callbackThread;
+        callbackHandler = new Handler(callbackThread.getLooper());
+        availableInputBuffers.clear();
+        outputThreadChecker = new ThreadChecker();
+        outputThreadChecker.detachThread();
+        codec.setCallback(new CodecCallback(), callbackHandler);
+      }
       codec.configure(format, surface, null, 0);
       codec.start();
     } catch (IllegalStateException | IllegalArgumentException e) {
       Logging.e(TAG, "initDecode failed", e);
+      if (callbackHandler != null) {
+        callbackHandler.getLooper().quit();
+        callbackHandler = null;
+        outputThread = null;
+      }
       release();
       return VideoCodecStatus.FALLBACK_SOFTWARE;
     }
     running = true;
-    outputThread = createOutputThread();
-    outputThread.start();
+    if (callbackHandler == null) {
+      outputThread = createOutputThread();
+      outputThread.start();
+    }
 
     Logging.d(TAG, "initDecodeInternal done");
     return VideoCodecStatus.OK;
@@ -238,11 +330,24 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
     }
 
     int index;
-    try {
-      index = codec.dequeueInputBuffer(DEQUEUE_INPUT_TIMEOUT_US);
-    } catch (IllegalStateException e) {
-      Logging.e(TAG, "dequeueInputBuffer failed", e);
-      return VideoCodecStatus.ERROR;
+    if (callbackHandler != null) {
+      final Integer availableIndex = availableInputBuffers.poll();
+      if (availableIndex == null) {
+        // Decoder is falling behind.  Don't block the receive pipeline, drop the frame and
+        // decode from the next key frame, which WebRTC requests because of the error.
+        droppedInputFrames++;
+        keyFrameRequired = true;
+        Logging.e(TAG, "decode() - no HW buffers available; dropped frame, waiting for key frame");
+        return VideoCodecStatus.ERROR;
+      }
+      index = availableIndex;
+    } else {
+      try {
+        index = codec.dequeueInputBuffer(DEQUEUE_INPUT_TIMEOUT_US);
+      } catch (IllegalStateException e) {
+        Logging.e(TAG, "dequeueInputBuffer failed", e);
+        return VideoCodecStatus.ERROR;
+      }
     }
     if (index < 0) {
       // Decoder is falling behind.  No input buffers available.
@@ -315,6 +420,14 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
     try {
       // The outputThread actually stops and releases the codec once running is false.
       running = false;
+      if (callbackHandler != null) {
+        // Output buffers that were already reported are delivered first.
+        final Handler handler = callbackHandler;
+        handler.post(() -> {
+          releaseCodecOnOutputThread();
+          handler.getLooper().quit();
+        });
+      }
       if (!ThreadUtils.joinUninterruptibly(outputThread, MEDIA_CODEC_RELEASE_TIMEOUT_MS)) {
         // Log an exception to capture the stack trace and turn it into a TIMEOUT error.
         Logging.e(TAG, "Media decoder release timeout", new RuntimeException());
@@ -328,8 +441,13 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
         return VideoCodecStatus.ERROR;
       }
     } finally {
+      if (droppedInputFrames > 0) {
+        Logging.d(TAG, "Frames dropped without input buffer: " + droppedInputFrames);
+      }
       codec = null;
       outputThread = null;
+      callbackHandler = null;
+      availableInputBuffers.clear();
       frameInfos.clear();
     }
     return VideoCodecStatus.OK;
@@ -377,24 +495,67 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
         return;
       }
 
-      FrameInfo frameInfo = frameInfos.poll();
-      Integer decodeTimeMs = null;
-      int rotation = 0;
-      if (frameInfo != null) {
-        decodeTimeMs = (int) (SystemClock.elapsedRealtime() - frameInfo.decodeStartTimeMs);
-        rotation = frameInfo.rotation;
+      deliverOutputBuffer(index, info);
+    } catch (IllegalStateException e) {
+      Logging.e(TAG, "deliverDecodedFrame failed", e);
+    }
+  }
+
+  /** Receives the codec events on the callback thread in asynchronous mode. */
+  private class CodecCallback extends MediaCodec.Callback {
+    @Override
+    public void onInputBufferAvailable(MediaCodec mediaCodec, int index) {
+      availableInputBuffers.offer(index);
+    }
+
+    @Override
+    public void onOutputBufferAvailable(
+        MediaCodec mediaCodec, int index, MediaCodec.BufferInfo info) {
+      outputThreadChecker.checkIsOnValidThread();
+      if (!running) {
+        // Stopped after a fatal error, the codec is being released.
+        return;
+      }
+      try {
+        deliverOutputBuffer(index, info);
+      } catch (IllegalStateException e) {
+        Logging.e(TAG, "deliverDecodedFrame failed", e);
       }
+    }
 
-      hasDecodedFirstFrame = true;
+    @Override
+    public void onError(MediaCodec mediaCodec, MediaCodec.CodecException e) {
+      Logging.e(TAG, "MediaCodec error", e);
+      if (!e.isRecoverable() && !e.isTransient() && running) {
+        stopOnOutputThread(e);
+      }
+    }
 
-      if (surfaceTextureHelper != null) {
-        deliverTextureFrame(index, info, rotation, decodeTimeMs);
-      } else {
-        deliverByteFrame(index, info, rotation, decodeTimeMs);
+    @Override
+    public void onOutputFormatChanged(MediaCodec mediaCodec, MediaFormat format) {
+      outputThreadChecker.checkIsOnValidThread();
+      if (running) {
+        reformat(format);
       }
+    }
+  }
 
-    } catch (IllegalStateException e) {
-      Logging.e(TAG, "deliverDecodedFrame failed", e);
+  private void deliverOutputBuffer(int index, MediaCodec.BufferInfo info) {
+    outputThreadChecker.checkIsOnValidThread();
+    FrameInfo frameInfo = frameInfos.poll();
+    Integer decodeTimeMs = null;
+    int rotation = 0;
+    if (frameInfo != null) {
+      decodeTimeMs = (int) (SystemClock.elapsedRealtime() - frameInfo.decodeStartTimeMs);
+      rotation = frameInfo.rotation;
+    }
+
+    hasDecodedFirstFrame = true;
+
+    if (surfaceTextureHelper != null) {
+      deliverTextureFrame(index, info, rotation, decodeTimeMs);
+    } else {
+      deliverByteFrame(index, info, rotation, decodeTimeMs);
     }
   }
 
@@ -472,14 +633,20 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
     buffer.limit(info.offset + info.size);
     buffer = buffer.slice();
 
-    final VideoFrame.Buffer frameBuffer;
+    VideoFrame.Buffer frameBuffer = null;
     if (colorFormat == CodecCapabilities.COLOR_FormatYUV420Planar) {
       frameBuffer = copyI420Buffer(buffer, stride, sliceHeight, width, height);
+      codec.releaseOutputBuffer(index, /* render= */ false);
     } else {
       // All other supported color formats are NV12.
-      frameBuffer = copyNV12ToI420Buffer(buffer, stride, sliceHeight, width, height);
+      if (zeroCopyByteBufferOutput) {
+        frameBuffer = tryHoldOutputBuffer(index, buffer, stride, sliceHeight, width, height);
+      }
+      if (frameBuffer == null) {
+        frameBuffer = copyNV12ToI420Buffer(buffer, stride, sliceHeight, width, height);
+        codec.releaseOutputBuffer(index, /* render= */ false);
+      }
     }
-    codec.releaseOutputBuffer(index, /* render= */ false);
 
     long presentationTimeNs = info.presentationTimeUs * 1000;
     VideoFrame frame = new VideoFrame(frameBuffer, rotation, presentationTimeNs);
@@ -489,6 +656,73 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
     frame.release();
   }
 
+  // Wraps output buffer `index` in a frame buffer that keeps it until the frame is released.
+  // Returns null if too many output buffers are held already.
+  @Nullable
+  private VideoFrame.Buffer tryHoldOutputBuffer(
+      int index, ByteBuffer buffer, int stride, int sliceHeight, int width, int height) {
+    synchronized (heldOutputBuffersLock) {
+      if (heldOutputBuffers.size() >= MAX_HELD_OUTPUT_BUFFERS) {
+        return null;
+      }
+      final HeldOutputBuffer heldBuffer = new HeldOutputBuffer(codec, index);
+      heldBuffer.frameBuffer = new NV12Buffer(width, height, stride, sliceHeight, buffer,
+          () -> releaseHeldOutputBuffer(heldBuffer));
+      heldOutputBuffers.add(heldBuffer);
+      return heldBuffer.frameBuffer;
+    }
+  }
+
+  private void releaseHeldOutputBuffer(HeldOutputBuffer heldBuffer) {
+    synchronized (heldOutputBuffersLock) {
+      if (!heldOutputBuffers.remove(heldBuffer)) {
+        // The frame outlived the codec and no longer references the output buffer.
+        return;
+      }
+      try {
+        heldBuffer.codec.releaseOutputBuffer(heldBuffer.index, /* render= */ false);
+      } catch (IllegalStateException e) {
+        Logging.w(TAG, "releaseOutputBuffer of a held output buffer failed", e);
+      }
+      heldOutputBuffersLock.notifyAll();
+    }
+  }
+
+  // Waits for frames to release their output buffers before the codec is stopped. Frames that are
+  // still alive after the timeout are switched to a copy of their data, so that they never read
+  // the output buffers of a stopped codec.
+  private void waitForHeldOutputBuffers() {
+    final long deadlineMs = SystemClock.elapsedRealtime() + HELD_OUTPUT_BUFFERS_RELEASE_TIMEOUT_MS;
+    synchronized (heldOutputBuffersLock) {
+      while (!heldOutputBuffers.isEmpty()) {
+        final long remainingMs = deadlineMs - SystemClock.elapsedRealtime();
+        if (remainingMs <= 0) {
+          break;
+        }
+        try {
+          heldOutputBuffersLock.wait(remainingMs);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      if (heldOutputBuffers.isEmpty()) {
+        return;
+      }
+      Logging.w(TAG,
+          heldOutputBuffers.size() + " output buffers still held by frames on release, copying");
+      for (HeldOutputBuffer heldBuffer : heldOutputBuffers) {
+        heldBuffer.frameBuffer.detachFromSourceBuffer();
+        try {
+          heldBuffer.codec.releaseOutputBuffer(heldBuffer.index, /* render= */ false);
+        } catch (IllegalStateException e) {
+          Logging.w(TAG, "releaseOutputBuffer of a held output buffer failed", e);
+        }
+      }
+      heldOutputBuffers.clear();
+    }
+  }
+
   private VideoFrame.Buffer copyNV12ToI420Buffer(
       ByteBuffer buffer, int stride, int sliceHeight, int width, int height) {
     // toI420 copies the buffer.
@@ -618,6 +852,7 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
   private void releaseCodecOnOutputThread() {
     outputThreadChecker.checkIsOnValidThread();
     Logging.d(TAG, "Releasing MediaCodec on output thread");
+    waitForHeldOutputBuffers();
     try {
       codec.stop();
     } catch (Exception e) {
@@ -637,6 +872,32 @@ class AndroidVideoDecoder implements VideoDecoder, VideoSink {
     outputThreadChecker.checkIsOnValidThread();
     running = false;
     shutdownException = e;
+    if (callbackHandler != null) {
+      // There is no output loop to exit, release the codec once the current callback returns.
+      final Handler handler = callbackHandler;
+      handler.post(() -> {
+        releaseCodecOnOutputThread();
+        handler.getLooper().quit();
+      });
+    }
+  }
+
+  @TargetApi(30)
+  private boolean isLowLatencySupported() {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+      return false;
+    }
+    final MediaCodecInfo codecInfo = codec.getCodecInfo();
+    if (codecInfo == null) {
+      return false;
+    }
+    final CodecCapabilities codecCaps = codecInfo.getCapabilitiesForType(codecType.mimeType());
+    return codecCaps != null && codecCaps.isFeatureSupported(CodecCapabilities.FEATURE_LowLatency);
+  }
+
+  /** Returns the number of frames dropped because the codec had no free input buffer. */
+  long getDroppedInputFrameCount() {
+    return droppedInputFrames;
   }
 
   private boolean isSupportedColorFormat(int colorFormat) {
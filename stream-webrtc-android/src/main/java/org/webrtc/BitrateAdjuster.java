@@ -10,6 +10,8 @@
 
 package org.webrtc;
 
+import androidx.annotation.Nullable;
+
 /** Object that adjusts the bitrate of a hardware codec. */
 interface BitrateAdjuster {
   /**
@@ -23,6 +25,14 @@ interface BitrateAdjuster {
    */
   void reportEncodedFrame(int size);
 
+  /**
+   * Like {@link #reportEncodedFrame(int)}, with the average QP of the frame if the codec reports
+   * it, and whether it is a key frame.
+   */
+  default void reportEncodedFrame(int size, @Nullable Integer qp, boolean isKeyFrame) {
+    reportEncodedFrame(size);
+  }
+
   /** Gets the current bitrate. */
   int getAdjustedBitrateBps();
 
@@ -16,6 +16,7 @@ import android.os.Looper;
 import androidx.annotation.Nullable;
 import java.util.Arrays;
 import java.util.List;
+import org.webrtc.CameraEnumerationAndroid.CaptureFormat;
 
 @SuppressWarnings("deprecation")
 abstract class CameraCapturer implements CameraVideoCapturer {
@@ -321,6 +322,15 @@ abstract class CameraCapturer implements CameraVideoCapturer {
     }
   }
 
+  /** Returns the capture formats supported by the currently selected camera. */
+  List<CaptureFormat> getSupportedFormats() {
+    final String name;
+    synchronized (stateLock) {
+      name = cameraName;
+    }
+    return cameraEnumerator.getSupportedFormats(name);
+  }
+
   @Override
   public void dispose() {
     Logging.d(TAG, "dispose");
@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
+import java.util.List;
+import org.webrtc.CameraEnumerationAndroid.CaptureFormat;
+
+/**
+ * Feeds the output format chosen by the frame adapter of a {@link VideoSource} back to its
+ * capturer. The source crops, scales and drops captured frames to satisfy
+ * {@link VideoSource#adaptOutputFormat} and the CPU and bandwidth adaptation of the encoder, so a
+ * capturer running at 1080p30 while the encoder only wants 360p15 wastes most of the camera, ISP
+ * and conversion work. Once installed with {@link VideoSource#setCaptureFormatFeedback}, this class
+ * observes the adapted frames and reconfigures the capturer with
+ * {@link VideoCapturer#changeCaptureFormat} to the smallest format that still satisfies the
+ * adapter.
+ *
+ * Camera capturers are switched between the supported formats of the current camera that have the
+ * aspect ratio of the maximum format. Other capturers, e.g. {@link ScreenCapturerAndroid}, are
+ * scaled freely and screencasts keep their frame rate. A smaller format is only applied after the
+ * adapter asked for it for {@link #DOWNGRADE_DELAY_MS}. Since the adapter never asks for more than
+ * is captured, an output that matches the capture format counts as satisfied; restarting the
+ * capturer at the maximum format to find out whether more is wanted would mostly be answered with
+ * the same downgrade again. The maximum format is restored when the output format of the source is
+ * raised with {@link VideoSource#adaptOutputFormat}, or with {@link #setMaxCaptureFormat}.
+ */
+public class CaptureFormatFeedback {
+  private static final String TAG = "CaptureFormatFeedback";
+
+  /** Length of the window over which the adapted output is measured. */
+  private static final long WINDOW_MS = 1000;
+  /** Time the adapter has to ask for a smaller format before the capturer is reconfigured. */
+  public static final long DOWNGRADE_DELAY_MS = 3000;
+  /** Frames are ignored for this long after a format change while the capturer restarts. */
+  private static final long SETTLE_MS = 2000;
+  /** Formats that don't reduce the pixel rate at least this much are not worth a restart. */
+  private static final double MIN_PIXEL_RATE_REDUCTION = 0.25;
+  /** Fraction of dropped input frames from which the frame rate is considered adapted. */
+  private static final double MIN_DROP_RATIO = 0.1;
+  private static final double FPS_HEADROOM = 1.1;
+  private static final double ASPECT_RATIO_TOLERANCE = 0.02;
+
+  /** Statistics about the capture format reductions. */
+  public static class Stats {
+    public final int captureWidth;
+    public final int captureHeight;
+    public final int captureFramerate;
+    public final int formatChanges;
+    /** Fraction of the pixel rate of the maximum format that is currently not captured. */
+    public final double pixelRateReduction;
+    /**
+     * Time averaged pixel rate reduction since the feedback was created. Camera, ISP and
+     * conversion power scale with the captured pixel rate, so this estimates the power saved.
+     */
+    public final double averagePixelRateReduction;
+    /** Process CPU time per second while capturing at the maximum format, -1 if not measured. */
+    public final double cpuMsPerSecondAtMaxFormat;
+    /** Process CPU time per second while capturing at a reduced format, -1 if not measured. */
+    public final double cpuMsPerSecondAtReducedFormat;
+
+    Stats(int captureWidth, int captureHeight, int captureFramerate, int formatChanges,
+        double pixelRateReduction, double averagePixelRateReduction,
+        double cpuMsPerSecondAtMaxFormat, double cpuMsPerSecondAtReducedFormat) {
+      this.captureWidth = captureWidth;
+      this.captureHeight = captureHeight;
+      this.captureFramerate = captureFramerate;
+      this.formatChanges = formatChanges;
+      this.pixelRateReduction = pixelRateReduction;
+      this.averagePixelRateReduction = averagePixelRateReduction;
+      this.cpuMsPerSecondAtMaxFormat = cpuMsPerSecondAtMaxFormat;
+      this.cpuMsPerSecondAtReducedFormat = cpuMsPerSecondAtReducedFormat;
+    }
+
+    /** Returns the measured CPU time saved per second of capture, or 0 if not measured yet. */
+    public double getCpuMsPerSecondSaved() {
+      if (cpuMsPerSecondAtMaxFormat < 0 || cpuMsPerSecondAtReducedFormat < 0) {
+        return 0;
+      }
+      return cpuMsPerSecondAtMaxFormat - cpuMsPerSecondAtReducedFormat;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats{capture=" + captureWidth + "x" + captureHeight + "@" + captureFramerate
+          + ", formatChanges=" + formatChanges + ", pixelRateReduction=" + pixelRateReduction
+          + ", averagePixelRateReduction=" + averagePixelRateReduction
+          + ", cpuMsPerSecondAtMaxFormat=" + cpuMsPerSecondAtMaxFormat
+          + ", cpuMsPerSecondAtReducedFormat=" + cpuMsPerSecondAtReducedFormat + "}";
+    }
+  }
+
+  private final VideoCapturer capturer;
+  private final HandlerThread formatThread;
+  private final Handler formatHandler;
+
+  // All fields below are guarded by `this`. The window and timing fields are only updated on the
+  // capture thread.
+  private int maxWidth;
+  private int maxHeight;
+  private int maxFramerate;
+  private int captureWidth;
+  private int captureHeight;
+  private int captureFramerate;
+  private boolean disposed;
+
+  private long windowStartMs = -1;
+  private long windowStartCpuMs;
+  private int windowInputFrames;
+  private int windowDroppedFrames;
+  private int windowRequiredLongSide;
+  private int windowRequiredShortSide;
+
+  private long downgradeSinceMs = -1;
+  private int pendingLongSide;
+  private int pendingShortSide;
+  private int pendingFramerate;
+  private long settleUntilMs;
+
+  private int formatChanges;
+  private double reductionSeconds;
+  private double totalSeconds;
+  private double cpuMsAtMaxFormat;
+  private double secondsAtMaxFormat;
+  private double cpuMsAtReducedFormat;
+  private double secondsAtReducedFormat;
+
+  /**
+   * @param capturer capturer to reconfigure
+   * @param maxWidth width of the format the capturer was started with, which is never exceeded
+   * @param maxHeight height of the format the capturer was started with
+   * @param maxFramerate frame rate of the format the capturer was started with
+   */
+  public CaptureFormatFeedback(
+      VideoCapturer capturer, int maxWidth, int maxHeight, int maxFramerate) {
+    this.capturer = capturer;
+    this.maxWidth = maxWidth;
+    this.maxHeight = maxHeight;
+    this.maxFramerate = maxFramerate;
+    this.captureWidth = maxWidth;
+    this.captureHeight = maxHeight;
+    this.captureFramerate = maxFramerate;
+    formatThread = new HandlerThread(TAG);
+    formatThread.start();
+    formatHandler = new Handler(formatThread.getLooper());
+  }
+
+  /**
+   * Updates the maximum capture format. Must be called when the application changes the capture
+   * format itself, otherwise the previous maximum is restored when the output format is raised.
+   */
+  public synchronized void setMaxCaptureFormat(int width, int height, int framerate) {
+    maxWidth = width;
+    maxHeight = height;
+    maxFramerate = framerate;
+    captureWidth = width;
+    captureHeight = height;
+    captureFramerate = framerate;
+    resetState(SystemClock.elapsedRealtime());
+  }
+
+  public synchronized Stats getStats() {
+    return new Stats(captureWidth, captureHeight, captureFramerate, formatChanges,
+        currentPixelRateReduction(), totalSeconds > 0 ? reductionSeconds / totalSeconds : 0,
+        secondsAtMaxFormat > 0 ? cpuMsAtMaxFormat / secondsAtMaxFormat : -1,
+        secondsAtReducedFormat > 0 ? cpuMsAtReducedFormat / secondsAtReducedFormat : -1);
+  }
+
+  /** Stops reconfiguring the capturer. The capturer keeps its current format. */
+  public void dispose() {
+    synchronized (this) {
+      disposed = true;
+    }
+    formatThread.quitSafely();
+  }
+
+  /**
+   * Called by the VideoSource when the application changes its output format. Null limits are
+   * unconstrained. The maximum capture format is restored if the new output format asks for more
+   * pixels or a higher frame rate than is captured, and reduced again once the adapter settled.
+   */
+  synchronized void onOutputFormatChanged(@Nullable Integer maxLandscapePixelCount,
+      @Nullable Integer maxPortraitPixelCount, @Nullable Integer maxFps) {
+    if (disposed || isAtMaxFormat()) {
+      return;
+    }
+    final long capturePixelCount = (long) captureWidth * captureHeight;
+    if (maxLandscapePixelCount == null || maxLandscapePixelCount > capturePixelCount
+        || maxPortraitPixelCount == null || maxPortraitPixelCount > capturePixelCount
+        || maxFps == null || maxFps > captureFramerate) {
+      changeFormat(maxWidth, maxHeight, maxFramerate, SystemClock.elapsedRealtime());
+    }
+  }
+
+  /**
+   * Called by the VideoSource on the capture thread with every captured frame and the adaptation
+   * the frame adapter chose for it. `parameters` is null or dropped for frames the adapter drops.
+   */
+  synchronized void onFrameAdapted(
+      VideoFrame frame, @Nullable VideoProcessor.FrameAdaptationParameters parameters) {
+    if (disposed) {
+      return;
+    }
+    final long nowMs = SystemClock.elapsedRealtime();
+    if (nowMs < settleUntilMs) {
+      return;
+    }
+    if (windowStartMs < 0) {
+      startWindow(nowMs);
+    }
+
+    windowInputFrames++;
+    if (parameters == null || parameters.drop) {
+      windowDroppedFrames++;
+    } else if (parameters.cropWidth > 0 && parameters.cropHeight > 0) {
+      final int frameWidth = frame.getBuffer().getWidth();
+      final int frameHeight = frame.getBuffer().getHeight();
+      // Capture size needed so that cropping still leaves at least the scaled size.
+      final int requiredWidth =
+          divideRoundUp(parameters.scaleWidth * frameWidth, parameters.cropWidth);
+      final int requiredHeight =
+          divideRoundUp(parameters.scaleHeight * frameHeight, parameters.cropHeight);
+      windowRequiredLongSide =
+          Math.max(windowRequiredLongSide, Math.max(requiredWidth, requiredHeight));
+      windowRequiredShortSide =
+          Math.max(windowRequiredShortSide, Math.min(requiredWidth, requiredHeight));
+    }
+
+    if (nowMs - windowStartMs >= WINDOW_MS) {
+      evaluateWindow(nowMs);
+      startWindow(nowMs);
+    }
+  }
+
+  private void evaluateWindow(long nowMs) {
+    final double seconds = (nowMs - windowStartMs) / 1000.0;
+    final long cpuMs = Process.getElapsedCpuTime() - windowStartCpuMs;
+    final boolean atMaxFormat = isAtMaxFormat();
+    if (atMaxFormat) {
+      cpuMsAtMaxFormat += cpuMs;
+      secondsAtMaxFormat += seconds;
+    } else {
+      cpuMsAtReducedFormat += cpuMs;
+      secondsAtReducedFormat += seconds;
+    }
+    reductionSeconds += currentPixelRateReduction() * seconds;
+    totalSeconds += seconds;
+
+    final int deliveredFrames = windowInputFrames - windowDroppedFrames;
+    if (deliveredFrames == 0) {
+      // Everything dropped, e.g. the track is disabled. Nothing to learn from this window.
+      downgradeSinceMs = -1;
+      return;
+    }
+    final boolean adaptsFramerate = !capturer.isScreencast()
+        && windowDroppedFrames >= windowInputFrames * MIN_DROP_RATIO;
+    final int requiredFramerate = adaptsFramerate
+        ? Math.min(captureFramerate, (int) Math.ceil(deliveredFrames / seconds * FPS_HEADROOM))
+        : captureFramerate;
+
+    final CaptureFormat target =
+        selectFormat(windowRequiredLongSide, windowRequiredShortSide, requiredFramerate);
+    if (target != null && pixelRate(target) <= pixelRate() * (1 - MIN_PIXEL_RATE_REDUCTION)) {
+      if (downgradeSinceMs < 0) {
+        downgradeSinceMs = nowMs;
+        pendingLongSide = 0;
+        pendingShortSide = 0;
+        pendingFramerate = 0;
+      }
+      // Satisfy the most demanding window of the downgrade period.
+      pendingLongSide = Math.max(pendingLongSide, windowRequiredLongSide);
+      pendingShortSide = Math.max(pendingShortSide, windowRequiredShortSide);
+      pendingFramerate = Math.max(pendingFramerate, requiredFramerate);
+      if (nowMs - downgradeSinceMs >= DOWNGRADE_DELAY_MS) {
+        final CaptureFormat format =
+            selectFormat(pendingLongSide, pendingShortSide, pendingFramerate);
+        if (format != null && pixelRate(format) <= pixelRate() * (1 - MIN_PIXEL_RATE_REDUCTION)) {
+          changeFormat(format.width, format.height, format.framerate.max / 1000, nowMs);
+        }
+        downgradeSinceMs = -1;
+      }
+      return;
+    }
+    // The output matches the capture format within the minimum reduction, which satisfies the
+    // adapter: it can't ask for more than is captured.
+    downgradeSinceMs = -1;
+  }
+
+  /**
+   * Returns the smallest format with at least the given sides and frame rate, or null if there is
+   * none smaller than the maximum format.
+   */
+  @Nullable
+  private CaptureFormat selectFormat(int longSide, int shortSide, int framerate) {
+    if (longSide <= 0 || shortSide <= 0) {
+      return null;
+    }
+    final int maxLongSide = Math.max(maxWidth, maxHeight);
+    final int maxShortSide = Math.min(maxWidth, maxHeight);
+    if (longSide >= maxLongSide && shortSide >= maxShortSide && framerate >= maxFramerate) {
+      return null;
+    }
+    final int fps = Math.max(1, Math.min(framerate, maxFramerate));
+
+    if (!(capturer instanceof CameraCapturer)) {
+      final double scale = Math.min(1.0,
+          Math.max((double) longSide / maxLongSide, (double) shortSide / maxShortSide));
+      return new CaptureFormat(roundUpToEven(maxWidth * scale), roundUpToEven(maxHeight * scale),
+          /* minFramerate= */ 0, fps * 1000);
+    }
+
+    final List<CaptureFormat> formats = ((CameraCapturer) capturer).getSupportedFormats();
+    final double maxAspectRatio = (double) maxLongSide / maxShortSide;
+    CaptureFormat best = null;
+    for (CaptureFormat format : formats) {
+      final int formatLongSide = Math.max(format.width, format.height);
+      final int formatShortSide = Math.min(format.width, format.height);
+      if (formatShortSide == 0 || formatLongSide > maxLongSide || formatShortSide > maxShortSide
+          || formatLongSide < longSide || formatShortSide < shortSide
+          || format.framerate.max < fps * 1000) {
+        continue;
+      }
+      final double aspectRatio = (double) formatLongSide / formatShortSide;
+      if (Math.abs(aspectRatio - maxAspectRatio) > maxAspectRatio * ASPECT_RATIO_TOLERANCE) {
+        continue;
+      }
+      if (best == null || format.width * format.height < best.width * best.height) {
+        best = format;
+      }
+    }
+    return best == null
+        ? null
+        : new CaptureFormat(best.width, best.height, /* minFramerate= */ 0, fps * 1000);
+  }
+
+  private void changeFormat(int width, int height, int framerate, long nowMs) {
+    final double previousReduction = currentPixelRateReduction();
+    captureWidth = width;
+    captureHeight = height;
+    captureFramerate = framerate;
+    formatChanges++;
+    Logging.d(TAG, "Changing capture format to " + width + "x" + height + "@" + framerate
+        + ", pixel rate reduction " + percent(previousReduction) + " -> "
+        + percent(currentPixelRateReduction()) + ", " + getStats());
+    resetState(nowMs);
+    settleUntilMs = nowMs + SETTLE_MS;
+    formatHandler.post(() -> {
+      synchronized (CaptureFormatFeedback.this) {
+        if (disposed) {
+          return;
+        }
+      }
+      try {
+        capturer.changeCaptureFormat(width, height, framerate);
+      } catch (RuntimeException e) {
+        Logging.e(TAG, "changeCaptureFormat failed", e);
+      }
+    });
+  }
+
+  private void resetState(long nowMs) {
+    windowStartMs = -1;
+    downgradeSinceMs = -1;
+    settleUntilMs = nowMs;
+  }
+
+  private void startWindow(long nowMs) {
+    windowStartMs = nowMs;
+    windowStartCpuMs = Process.getElapsedCpuTime();
+    windowInputFrames = 0;
+    windowDroppedFrames = 0;
+    windowRequiredLongSide = 0;
+    windowRequiredShortSide = 0;
+  }
+
+  private boolean isAtMaxFormat() {
+    return captureWidth == maxWidth && captureHeight == maxHeight
+        && captureFramerate == maxFramerate;
+  }
+
+  private double currentPixelRateReduction() {
+    final double maxPixelRate = (double) maxWidth * maxHeight * maxFramerate;
+    return maxPixelRate > 0 ? 1 - pixelRate() / maxPixelRate : 0;
+  }
+
+  private double pixelRate() {
+    return (double) captureWidth * captureHeight * captureFramerate;
+  }
+
+  private static double pixelRate(CaptureFormat format) {
+    return (double) format.width * format.height * (format.framerate.max / 1000.0);
+  }
+
+  private static int divideRoundUp(int numerator, int denominator) {
+    return (numerator + denominator - 1) / denominator;
+  }
+
+  private static int roundUpToEven(double value) {
+    final int rounded = (int) Math.ceil(value);
+    return rounded + (rounded & 1);
+  }
+
+  private static String percent(double fraction) {
+    return Math.round(fraction * 100) + "%";
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.webrtc
+
+/**
+ * Scales each input frame once to all simulcast layer sizes, each level from the next larger
+ * one, instead of every layer scaling the full resolution frame on its own. The levels of the
+ * latest frame are kept until the next frame arrives and every layer gets its own reference.
+ * A pyramid serves the layers of one simulcast encoder, which all see the same frames.
+ *
+ * Texture frames are passed through with a lazy [VideoFrame.Buffer.cropAndScale], since scaling
+ * them only changes the transform matrix. Layer encoders in surface mode draw the texture at their
+ * own size, and layers that need byte buffers convert at their own size, so each layer still costs
+ * one GPU pass but none reads more pixels than its own size.
+ */
+internal class DownscalePyramid {
+  companion object {
+    private const val TAG = "DownscalePyramid"
+  }
+
+  private class Level(val width: Int, val height: Int) {
+    var buffer: VideoFrame.Buffer? = null
+  }
+
+  // Registered layer sizes, one entry per layer.
+  private val layerSizes = ArrayList<Pair<Int, Int>>()
+
+  // Levels of the current source frame, largest first.
+  private val levels = ArrayList<Level>()
+  private var sourceTimestampNs = -1L
+  private var sourceWidth = 0
+  private var sourceHeight = 0
+
+  private var scaledLevels = 0L
+  private var scaleTimeNs = 0L
+  private var requests = 0L
+
+  // Source pixels read by the scaling, and the pixels the layers would read scaling the full
+  // resolution frame each.
+  private var pixelsRead = 0L
+  private var independentPixelsRead = 0L
+
+  @Synchronized
+  fun addLayer(width: Int, height: Int) {
+    layerSizes.add(Pair(width, height))
+    // The next frame builds the levels for the new set of sizes.
+    clearLevels()
+  }
+
+  @Synchronized
+  fun removeLayer(width: Int, height: Int) {
+    layerSizes.remove(Pair(width, height))
+    clearLevels()
+    if (layerSizes.isEmpty() && requests > 0) {
+      Logging.d(TAG, "Scaled $scaledLevels levels for $requests layer frames, average scale time " +
+        "${if (scaledLevels > 0) scaleTimeNs / 1000 / scaledLevels else 0} us, read " +
+        "$pixelsRead pixels instead of $independentPixelsRead")
+    }
+  }
+
+  /**
+   * Returns the buffer of [frame] scaled to [width]x[height]. The caller owns the returned
+   * reference and must release it.
+   */
+  @Synchronized
+  fun getScaledBuffer(frame: VideoFrame, width: Int, height: Int): VideoFrame.Buffer {
+    val source = frame.buffer
+    if (source is VideoFrame.TextureBuffer) {
+      return source.cropAndScale(0, 0, source.width, source.height, width, height)
+    }
+    requests++
+    independentPixelsRead += source.width.toLong() * source.height
+    if (frame.timestampNs != sourceTimestampNs ||
+      source.width != sourceWidth ||
+      source.height != sourceHeight
+    ) {
+      buildLevels(frame)
+    }
+    levels.firstOrNull { it.width == width && it.height == height }?.buffer?.let {
+      it.retain()
+      return it
+    }
+    // Not a registered size, scale it from the smallest level that is large enough.
+    val parent = levels.lastOrNull { it.width >= width && it.height >= height }?.buffer ?: source
+    return scale(parent, width, height)
+  }
+
+  private fun buildLevels(frame: VideoFrame) {
+    clearLevels()
+    val source = frame.buffer
+    sourceTimestampNs = frame.timestampNs
+    sourceWidth = source.width
+    sourceHeight = source.height
+    layerSizes
+      .filter { it.first <= source.width && it.second <= source.height }
+      .filter { it.first != source.width || it.second != source.height }
+      .distinct()
+      .sortedByDescending { it.first * it.second }
+      .forEach { levels.add(Level(it.first, it.second)) }
+    var parent = source
+    for (level in levels) {
+      val buffer = scale(parent, level.width, level.height)
+      level.buffer = buffer
+      parent = buffer
+    }
+  }
+
+  private fun scale(parent: VideoFrame.Buffer, width: Int, height: Int): VideoFrame.Buffer {
+    val startNs = System.nanoTime()
+    val buffer = parent.cropAndScale(0, 0, parent.width, parent.height, width, height)
+    scaleTimeNs += System.nanoTime() - startNs
+    scaledLevels++
+    pixelsRead += parent.width.toLong() * parent.height
+    return buffer
+  }
+
+  private fun clearLevels() {
+    levels.forEach { it.buffer?.release() }
+    levels.clear()
+    sourceTimestampNs = -1L
+  }
+}
@@ -0,0 +1,591 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Handler;
+import android.os.HandlerThread;
+import androidx.annotation.Nullable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes already encoded frames to a file without decoding or re-encoding them. Frames are handed
+ * over from the encoder output thread by {@link RecordingVideoEncoderFactory}, copied into a pooled
+ * buffer and written on a dedicated file thread, so recording adds little more than a memcpy per
+ * frame on top of the call.
+ *
+ * <p>Recording starts at the first key frame. If the file thread falls behind and the buffer pool
+ * is exhausted, frames are dropped until the next key frame so that the file stays decodable. The
+ * recorded encoder is asked for that key frame instead of waiting for the next periodic one.
+ *
+ * <p>Containers other than Annex-B describe a single resolution and codec in their header. When
+ * the recorded stream changes either, the current file is closed and a new one is started next to
+ * it, with the segment number appended to the file name, e.g. recording_1.ivf.
+ */
+public class EncodedImageRecorder {
+  private static final String TAG = "EncodedImageRecorder";
+
+  // Maximum number of frames waiting to be written before frames are dropped.
+  private static final int MAX_PENDING_FRAMES = 30;
+  // Minimum time between key frame requests while waiting for a key frame.
+  private static final long KEY_FRAME_REQUEST_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1);
+
+  /** Output container of the recording. */
+  public enum Container {
+    /** IVF container. Supports VP8, VP9, AV1 and H.264. */
+    IVF,
+    /** Raw Annex-B elementary stream. Supports H.264 and H.265. */
+    ANNEX_B,
+    /** MP4 written with MediaMuxer. Supports H.264 and H.265. */
+    MP4,
+    /** WebM written with MediaMuxer. Supports VP8 and VP9. */
+    WEBM
+  }
+
+  /**
+   * Which encoder is recorded when several are attached, e.g. the layers of a simulcast encoder.
+   */
+  public enum LayerSelection {
+    /** The encoder with the largest resolution. */
+    HIGHEST_RESOLUTION,
+    /** The encoder with the smallest resolution. */
+    LOWEST_RESOLUTION
+  }
+
+  /** Writes frames into a specific container. All methods are called on the file thread. */
+  private interface ContainerWriter {
+    void write(ByteBuffer data, long presentationTimeUs, boolean isKeyFrame) throws IOException;
+
+    void close() throws IOException;
+  }
+
+  private final String outputFileName;
+  private final Container container;
+  private final LayerSelection layerSelection;
+  private final HandlerThread fileThread;
+  private final Handler fileThreadHandler;
+
+  private final Object lock = new Object();
+  // Buffers ready to be reused for the next frame. Guarded by `lock`.
+  private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+  // Attached encoders and their number of pixels. Guarded by `lock`.
+  private final Map<Object, Integer> encoders = new LinkedHashMap<>();
+  // Owner of the recording, only frames from this encoder are recorded. Guarded by `lock`.
+  @Nullable private Object owner;
+  // Number of frames posted to the file thread and not yet written. Guarded by `lock`.
+  private int pendingFrames;
+  private boolean waitingForKeyFrame = true;
+  // Set when a frame was dropped while waiting for a key frame, cleared when one is requested.
+  private boolean keyFrameNeeded;
+  private long lastKeyFrameRequestNs = -1;
+  // Codec and resolution of the current file, null before the first frame.
+  @Nullable private VideoCodecMimeType segmentCodecType;
+  private int segmentWidth;
+  private int segmentHeight;
+  private boolean released;
+  private int framesRecorded;
+  private int framesDropped;
+
+  // --- Only accessed on the file thread.
+  @Nullable private ContainerWriter writer;
+  private int segment;
+  private long firstCaptureTimeNs = -1;
+  private boolean failed;
+
+  /**
+   * Creates a recorder writing to `outputFile`. The file is created lazily when the first key frame
+   * arrives, since the codec and resolution are not known before that.
+   */
+  public EncodedImageRecorder(String outputFile, Container container) {
+    this(outputFile, container, LayerSelection.HIGHEST_RESOLUTION);
+  }
+
+  /**
+   * Creates a recorder writing to `outputFile` that records the simulcast layer chosen by
+   * `layerSelection`.
+   */
+  public EncodedImageRecorder(
+      String outputFile, Container container, LayerSelection layerSelection) {
+    this.outputFileName = outputFile;
+    this.container = container;
+    this.layerSelection = layerSelection;
+
+    fileThread = new HandlerThread(TAG + "FileThread");
+    fileThread.start();
+    fileThreadHandler = new Handler(fileThread.getLooper());
+  }
+
+  /**
+   * Registers `encoder`, or updates its resolution. Only one of the attached encoders is recorded,
+   * the one chosen by the layer selection.
+   */
+  void attach(Object encoder, int width, int height) {
+    synchronized (lock) {
+      encoders.put(encoder, width * height);
+      updateOwner();
+    }
+  }
+
+  /** Removes an encoder registered with {@link #attach}. */
+  void detach(Object encoder) {
+    synchronized (lock) {
+      encoders.remove(encoder);
+      updateOwner();
+    }
+  }
+
+  /**
+   * Returns true if `encoder` should encode its next frame as a key frame, because the recording
+   * is waiting for one. Called on the encode thread before every frame.
+   */
+  boolean shouldRequestKeyFrame(Object encoder) {
+    synchronized (lock) {
+      if (released || owner != encoder || !keyFrameNeeded) {
+        return false;
+      }
+      final long nowNs = System.nanoTime();
+      if (lastKeyFrameRequestNs >= 0
+          && nowNs - lastKeyFrameRequestNs < KEY_FRAME_REQUEST_INTERVAL_NS) {
+        return false;
+      }
+      keyFrameNeeded = false;
+      lastKeyFrameRequestNs = nowNs;
+      return true;
+    }
+  }
+
+  // Must be called with `lock` held.
+  private void updateOwner() {
+    Object selected = null;
+    int selectedPixels = 0;
+    for (Map.Entry<Object, Integer> entry : encoders.entrySet()) {
+      final int pixels = entry.getValue();
+      if (selected == null
+          || (layerSelection == LayerSelection.HIGHEST_RESOLUTION ? pixels > selectedPixels
+                                                                 : pixels < selectedPixels)) {
+        selected = entry.getKey();
+        selectedPixels = pixels;
+      }
+    }
+    if (selected != owner) {
+      owner = selected;
+      // The new encoder's stream starts with its next key frame.
+      waitingForKeyFrame = true;
+      keyFrameNeeded = true;
+    }
+  }
+
+  // Must be called with `lock` held.
+  private void dropFrame() {
+    framesDropped++;
+    waitingForKeyFrame = true;
+    keyFrameNeeded = true;
+  }
+
+  /**
+   * Mirrors `image` to the file. Called on the encoder output thread; the image is only accessed
+   * during the call.
+   */
+  void onEncodedFrame(Object encoder, EncodedImage image, VideoCodecMimeType type) {
+    final boolean isKeyFrame = image.frameType == EncodedImage.FrameType.VideoFrameKey;
+    final int width = image.encodedWidth;
+    final int height = image.encodedHeight;
+    final boolean newSegment;
+    final ByteBuffer data;
+    synchronized (lock) {
+      if (released || owner != encoder) {
+        return;
+      }
+      final boolean formatChanged = segmentCodecType != null
+          && (type != segmentCodecType || width != segmentWidth || height != segmentHeight);
+      if (!isKeyFrame && (waitingForKeyFrame || formatChanged)) {
+        dropFrame();
+        return;
+      }
+      if (pendingFrames >= MAX_PENDING_FRAMES) {
+        Logging.w(TAG, "File thread is falling behind, dropping frames until next key frame");
+        dropFrame();
+        return;
+      }
+      // An Annex-B stream carries its parameter sets in band and can change format.
+      newSegment = formatChanged && container != Container.ANNEX_B;
+      segmentCodecType = type;
+      segmentWidth = width;
+      segmentHeight = height;
+      waitingForKeyFrame = false;
+      keyFrameNeeded = false;
+      pendingFrames++;
+      data = obtainBuffer(image.buffer.remaining());
+    }
+
+    data.put(image.buffer.duplicate());
+    data.flip();
+
+    final long captureTimeNs = image.captureTimeNs;
+    final int rotation = image.rotation;
+    fileThreadHandler.post(() -> {
+      if (newSegment) {
+        startNextSegmentOnFileThread();
+      }
+      writeFrameOnFileThread(data, type, captureTimeNs, width, height, rotation, isKeyFrame);
+      synchronized (lock) {
+        pendingFrames--;
+        freeBuffers.offer(data);
+      }
+    });
+  }
+
+  /** Returns the number of frames written to the file so far. */
+  public int getFramesRecorded() {
+    synchronized (lock) {
+      return framesRecorded;
+    }
+  }
+
+  /** Returns the number of frames that were not recorded because the file thread fell behind. */
+  public int getFramesDropped() {
+    synchronized (lock) {
+      return framesDropped;
+    }
+  }
+
+  /**
+   * Stops recording and closes the file. All frames already handed over are written first.
+   */
+  public void release() {
+    synchronized (lock) {
+      if (released) {
+        return;
+      }
+      released = true;
+    }
+    fileThreadHandler.post(() -> {
+      closeWriterOnFileThread();
+      Logging.d(TAG,
+          "Recording written to " + outputFileName + ". The number of frames is "
+              + getFramesRecorded() + ", dropped " + getFramesDropped() + ", files "
+              + (segment + 1) + ".");
+      synchronized (lock) {
+        freeBuffers.clear();
+      }
+      fileThread.quit();
+    });
+    try {
+      fileThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      Logging.e(TAG, "Interrupted while waiting for the recording to complete.", e);
+    }
+  }
+
+  // Must be called with `lock` held.
+  private ByteBuffer obtainBuffer(int size) {
+    ByteBuffer buffer = freeBuffers.poll();
+    if (buffer == null || buffer.capacity() < size) {
+      // Grow with some headroom so that slightly larger key frames don't reallocate every time.
+      buffer = ByteBuffer.allocateDirect(size + size / 4);
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  private void closeWriterOnFileThread() {
+    if (writer == null) {
+      return;
+    }
+    try {
+      writer.close();
+    } catch (IOException | IllegalStateException e) {
+      Logging.e(TAG, "Error closing recording", e);
+    }
+    writer = null;
+  }
+
+  /** Closes the current file, the next frame starts a new one. */
+  private void startNextSegmentOnFileThread() {
+    closeWriterOnFileThread();
+    segment++;
+    failed = false;
+    Logging.d(TAG, "Stream format changed, continuing in " + getSegmentFileName(segment));
+  }
+
+  /** Returns the file name of a segment, with the segment number before the extension. */
+  private String getSegmentFileName(int segment) {
+    if (segment == 0) {
+      return outputFileName;
+    }
+    final int dot = outputFileName.lastIndexOf('.');
+    if (dot <= outputFileName.lastIndexOf('/')) {
+      return outputFileName + "_" + segment;
+    }
+    return outputFileName.substring(0, dot) + "_" + segment + outputFileName.substring(dot);
+  }
+
+  private void writeFrameOnFileThread(ByteBuffer data, VideoCodecMimeType type, long captureTimeNs,
+      int width, int height, int rotation, boolean isKeyFrame) {
+    if (failed) {
+      return;
+    }
+    if (writer == null) {
+      final String fileName = getSegmentFileName(segment);
+      try {
+        writer = createWriter(fileName, type, width, height, rotation, data);
+      } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+        Logging.e(TAG, "Cannot start recording to " + fileName, e);
+        failed = true;
+        return;
+      }
+      firstCaptureTimeNs = captureTimeNs;
+    }
+
+    final long presentationTimeUs =
+        TimeUnit.NANOSECONDS.toMicros(Math.max(0, captureTimeNs - firstCaptureTimeNs));
+    try {
+      writer.write(data, presentationTimeUs, isKeyFrame);
+      synchronized (lock) {
+        framesRecorded++;
+      }
+    } catch (IOException | IllegalStateException e) {
+      Logging.e(TAG, "Error writing frame to " + getSegmentFileName(segment), e);
+    }
+  }
+
+  private ContainerWriter createWriter(String fileName, VideoCodecMimeType type, int width,
+      int height, int rotation, ByteBuffer keyFrame) throws IOException {
+    switch (container) {
+      case IVF:
+        return new IvfWriter(fileName, type, width, height);
+      case ANNEX_B:
+        if (type != VideoCodecMimeType.H264 && type != VideoCodecMimeType.H265) {
+          throw new IllegalArgumentException("Annex-B is not supported for " + type);
+        }
+        return new AnnexBWriter(fileName);
+      case MP4:
+        if (type != VideoCodecMimeType.H264 && type != VideoCodecMimeType.H265) {
+          throw new IllegalArgumentException("MP4 is not supported for " + type);
+        }
+        return new MuxerWriter(fileName, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4,
+            createMuxerFormat(type, width, height, keyFrame), rotation);
+      case WEBM:
+        if (type != VideoCodecMimeType.VP8 && type != VideoCodecMimeType.VP9) {
+          throw new IllegalArgumentException("WebM is not supported for " + type);
+        }
+        return new MuxerWriter(fileName, MediaMuxer.OutputFormat.MUXER_OUTPUT_WEBM,
+            createMuxerFormat(type, width, height, keyFrame), rotation);
+    }
+    throw new IllegalArgumentException("Unknown container: " + container);
+  }
+
+  private static MediaFormat createMuxerFormat(
+      VideoCodecMimeType type, int width, int height, ByteBuffer keyFrame) {
+    MediaFormat format = MediaFormat.createVideoFormat(type.mimeType(), width, height);
+    if (type == VideoCodecMimeType.H264) {
+      // MediaMuxer needs SPS and PPS as codec specific data. The encoder prepends them to every
+      // key frame.
+      format.setByteBuffer("csd-0", extractNalUnits(keyFrame, /* minNalType= */ 7,
+          /* maxNalType= */ 7, /* hevc= */ false));
+      format.setByteBuffer("csd-1", extractNalUnits(keyFrame, /* minNalType= */ 8,
+          /* maxNalType= */ 8, /* hevc= */ false));
+    } else if (type == VideoCodecMimeType.H265) {
+      // VPS, SPS and PPS all go into csd-0 for HEVC.
+      format.setByteBuffer("csd-0", extractNalUnits(keyFrame, /* minNalType= */ 32,
+          /* maxNalType= */ 34, /* hevc= */ true));
+    }
+    return format;
+  }
+
+  /**
+   * Returns a copy of all Annex-B NAL units in `data` with a type in [minNalType, maxNalType],
+   * including their start codes.
+   */
+  private static ByteBuffer extractNalUnits(
+      ByteBuffer data, int minNalType, int maxNalType, boolean hevc) {
+    final int limit = data.limit();
+    final ByteBuffer result = ByteBuffer.allocate(limit);
+    int start = findStartCode(data, 0);
+    while (start >= 0) {
+      final int payload = start + 3;
+      final int next = findStartCode(data, payload);
+      // A four byte start code leaves a trailing zero at the end of the previous NAL unit.
+      int end = next < 0 ? limit : next;
+      if (next > 0 && data.get(next - 1) == 0) {
+        end--;
+      }
+      if (payload < limit) {
+        final int header = data.get(payload) & 0xFF;
+        final int nalType = hevc ? (header >> 1) & 0x3F : header & 0x1F;
+        if (nalType >= minNalType && nalType <= maxNalType) {
+          result.put((byte) 0).put((byte) 0).put((byte) 0).put((byte) 1);
+          for (int i = payload; i < end; i++) {
+            result.put(data.get(i));
+          }
+        }
+      }
+      start = next;
+    }
+    result.flip();
+    return result;
+  }
+
+  // Returns the index of the next three byte start code at or after `from`, or -1 if none.
+  private static int findStartCode(ByteBuffer data, int from) {
+    for (int i = from; i + 2 < data.limit(); i++) {
+      if (data.get(i) == 0 && data.get(i + 1) == 0 && data.get(i + 2) == 1) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Writes frames with the 32 byte IVF file header and 12 byte frame headers. */
+  private static class IvfWriter implements ContainerWriter {
+    private static final int FILE_HEADER_SIZE = 32;
+    private static final int FRAME_HEADER_SIZE = 12;
+    private static final int FRAME_COUNT_OFFSET = 24;
+
+    private final FileOutputStream outputStream;
+    private final FileChannel channel;
+    private final ByteBuffer frameHeader =
+        ByteBuffer.allocate(FRAME_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private int frameCount;
+
+    IvfWriter(String fileName, VideoCodecMimeType type, int width, int height) throws IOException {
+      outputStream = new FileOutputStream(fileName);
+      channel = outputStream.getChannel();
+
+      final ByteBuffer header =
+          ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.put((byte) 'D').put((byte) 'K').put((byte) 'I').put((byte) 'F');
+      header.putShort((short) 0); // Version.
+      header.putShort((short) FILE_HEADER_SIZE);
+      header.put(fourcc(type));
+      header.putShort((short) width);
+      header.putShort((short) height);
+      // Timestamps are in microseconds.
+      header.putInt(1000000); // Time base denominator.
+      header.putInt(1); // Time base numerator.
+      header.putInt(0); // Frame count, updated on close.
+      header.putInt(0); // Unused.
+      header.flip();
+      writeFully(header);
+    }
+
+    private static byte[] fourcc(VideoCodecMimeType type) {
+      switch (type) {
+        case VP8:
+          return new byte[] {'V', 'P', '8', '0'};
+        case VP9:
+          return new byte[] {'V', 'P', '9', '0'};
+        case AV1:
+          return new byte[] {'A', 'V', '0', '1'};
+        case H264:
+          return new byte[] {'H', '2', '6', '4'};
+        default:
+          throw new IllegalArgumentException("IVF is not supported for " + type);
+      }
+    }
+
+    @Override
+    public void write(ByteBuffer data, long presentationTimeUs, boolean isKeyFrame)
+        throws IOException {
+      frameHeader.clear();
+      frameHeader.putInt(data.remaining());
+      frameHeader.putLong(presentationTimeUs);
+      frameHeader.flip();
+      writeFully(frameHeader);
+      writeFully(data);
+      frameCount++;
+    }
+
+    @Override
+    public void close() throws IOException {
+      final ByteBuffer count = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+      count.putInt(frameCount);
+      count.flip();
+      channel.position(FRAME_COUNT_OFFSET);
+      writeFully(count);
+      outputStream.close();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  /** Writes the raw Annex-B stream as output by the encoder. */
+  private static class AnnexBWriter implements ContainerWriter {
+    private final FileOutputStream outputStream;
+    private final FileChannel channel;
+
+    AnnexBWriter(String fileName) throws IOException {
+      outputStream = new FileOutputStream(fileName);
+      channel = outputStream.getChannel();
+    }
+
+    @Override
+    public void write(ByteBuffer data, long presentationTimeUs, boolean isKeyFrame)
+        throws IOException {
+      while (data.hasRemaining()) {
+        channel.write(data);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      outputStream.close();
+    }
+  }
+
+  /** Writes frames using MediaMuxer. */
+  private static class MuxerWriter implements ContainerWriter {
+    private final MediaMuxer muxer;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private final int trackIndex;
+
+    MuxerWriter(String fileName, int outputFormat, MediaFormat format, int rotation)
+        throws IOException {
+      muxer = new MediaMuxer(fileName, outputFormat);
+      trackIndex = muxer.addTrack(format);
+      muxer.setOrientationHint(rotation);
+      muxer.start();
+    }
+
+    @Override
+    public void write(ByteBuffer data, long presentationTimeUs, boolean isKeyFrame) {
+      bufferInfo.set(/* offset= */ 0, data.remaining(), presentationTimeUs,
+          isKeyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+      muxer.writeSampleData(trackIndex, data, bufferInfo);
+    }
+
+    @Override
+    public void close() {
+      muxer.stop();
+      muxer.release();
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+/**
+ * Decides how many frames a {@link HardwareVideoEncoder} may hold before new input frames are
+ * dropped. Deeper queues absorb encode time spikes with fewer drops, shallower queues keep the
+ * latency low. A policy either uses a fixed depth, or adapts the depth to a latency target from
+ * the measured per-frame encode time.
+ *
+ * A policy only holds configuration, each encoder measures its own encode time.
+ */
+public class EncoderQueuePolicy {
+  /** Maximum number of frames in the encoder for any policy. */
+  public static final int MAX_DEPTH = 8;
+  // Frames the encoder may hold before the adaptive policy has a measurement. Matches the fixed
+  // default.
+  private static final int INITIAL_ADAPTIVE_DEPTH = 3;
+  // Weight of a new measurement in the moving average of the per-frame encode time.
+  private static final double ENCODE_TIME_SMOOTHING_FACTOR = 0.1;
+
+  private static final EncoderQueuePolicy DEFAULT = fixedDepth(3);
+
+  /** Returns the policy used when none is given, a fixed depth of three frames. */
+  public static EncoderQueuePolicy getDefault() {
+    return DEFAULT;
+  }
+
+  /** Lets the encoder hold at most `depth` frames, clamped to [1, MAX_DEPTH]. */
+  public static EncoderQueuePolicy fixedDepth(int depth) {
+    return new EncoderQueuePolicy(clampDepth(depth), /* targetLatencyMs= */ 0);
+  }
+
+  /**
+   * Lets the encoder hold as many frames as it can encode within `targetLatencyMs`, based on the
+   * measured time the encoder takes per frame.
+   */
+  public static EncoderQueuePolicy latencyTarget(int targetLatencyMs) {
+    if (targetLatencyMs <= 0) {
+      throw new IllegalArgumentException("Invalid latency target: " + targetLatencyMs);
+    }
+    return new EncoderQueuePolicy(/* fixedDepth= */ 0, targetLatencyMs);
+  }
+
+  // 0 for the adaptive policy.
+  private final int fixedDepth;
+  private final int targetLatencyMs;
+
+  private EncoderQueuePolicy(int fixedDepth, int targetLatencyMs) {
+    this.fixedDepth = fixedDepth;
+    this.targetLatencyMs = targetLatencyMs;
+  }
+
+  /** Creates the per-encoder state of this policy. */
+  Controller createController() {
+    return new Controller();
+  }
+
+  @Override
+  public String toString() {
+    return fixedDepth > 0 ? "fixedDepth(" + fixedDepth + ")"
+                          : "latencyTarget(" + targetLatencyMs + " ms)";
+  }
+
+  private static int clampDepth(int depth) {
+    return Math.max(1, Math.min(MAX_DEPTH, depth));
+  }
+
+  /**
+   * Tracks the encode time of one encoder and the resulting depth. Not thread safe, frames are
+   * reported on the output thread while the depth is read on the encode thread, so callers
+   * synchronize.
+   */
+  class Controller {
+    // Moving average of the time the encoder spends on one frame, 0 until measured.
+    private double frameTimeMs;
+
+    /** Returns the number of frames the encoder may hold, including a new one. */
+    int getMaxDepth() {
+      if (fixedDepth > 0) {
+        return fixedDepth;
+      }
+      if (frameTimeMs == 0) {
+        return INITIAL_ADAPTIVE_DEPTH;
+      }
+      return clampDepth((int) (targetLatencyMs / frameTimeMs));
+    }
+
+    /**
+     * Reports an encoded frame.
+     *
+     * @param latencyNs time from queuing the frame to receiving its output
+     * @param framesAhead frames in the encoder when the frame was queued
+     */
+    void onFrameEncoded(long latencyNs, int framesAhead) {
+      // The frame waited for the frames ahead of it, so each took a share of the latency.
+      final double sampleMs = latencyNs / 1e6 / (framesAhead + 1);
+      frameTimeMs = frameTimeMs == 0
+          ? sampleMs
+          : frameTimeMs + ENCODE_TIME_SMOOTHING_FACTOR * (sampleMs - frameTimeMs);
+    }
+
+    /** Forgets the measurements, e.g. after the codec was recreated. */
+    void reset() {
+      frameTimeMs = 0;
+    }
+
+    double getFrameTimeMs() {
+      return frameTimeMs;
+    }
+  }
+}
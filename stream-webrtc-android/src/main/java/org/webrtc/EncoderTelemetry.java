@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import androidx.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Snapshot of the performance of one hardware encoder, to tune the encoder configuration per
+ * device. Latencies and the achieved bitrate cover the interval since the previous snapshot of the
+ * encoder, the counters cover the lifetime of the encoder.
+ *
+ * Frames pass three stages: queued, from the encode call until the frame is in the codec; in
+ * the codec, until MediaCodec outputs it; and delivery, until the encoded image callback returns.
+ */
+public class EncoderTelemetry {
+  /**
+   * Receives a snapshot of each encoder about once per {@link #REPORT_INTERVAL_MS}, and a final
+   * one when the encoder is released.
+   */
+  public interface Listener {
+    /** Called on the output or the encode thread of the encoder, must not block. */
+    void onEncoderTelemetry(EncoderTelemetry telemetry);
+  }
+
+  public static final long REPORT_INTERVAL_MS = 1000;
+
+  /** Ways of copying a frame buffer into a byte buffer mode input buffer. */
+  public enum InputPath {
+    I420_TO_PLANAR,
+    I420_TO_SEMI_PLANAR,
+    NV12_TO_PLANAR,
+    NV12_TO_SEMI_PLANAR,
+    NV21_TO_PLANAR,
+    TEXTURE_TO_SEMI_PLANAR,
+    // Any other buffer type is converted with toI420() first.
+    CONVERTED_TO_PLANAR,
+    CONVERTED_TO_SEMI_PLANAR,
+  }
+
+  /** Ways of getting a configured codec after a resolution change. */
+  public enum CodecSwitch {
+    // The stopped codec was configured again.
+    IN_PLACE,
+    // A codec created ahead of the switch was configured.
+    STANDBY,
+    // A new codec was created during the switch.
+    NEW_CODEC,
+  }
+
+  /** Latency percentiles of the frames of an interval, all 0 without frames. */
+  public static class Percentiles {
+    public final long frames;
+    public final double p50Ms;
+    public final double p90Ms;
+    public final double p99Ms;
+    public final double maxMs;
+
+    Percentiles(long frames, double p50Ms, double p90Ms, double p99Ms, double maxMs) {
+      this.frames = frames;
+      this.p50Ms = p50Ms;
+      this.p90Ms = p90Ms;
+      this.p99Ms = p99Ms;
+      this.maxMs = maxMs;
+    }
+
+    @Override
+    public String toString() {
+      return "{frames=" + frames + ", p50=" + p50Ms + ", p90=" + p90Ms + ", p99=" + p99Ms
+          + ", max=" + maxMs + "}";
+    }
+  }
+
+  public final String codecName;
+  public final int width;
+  public final int height;
+  public final long intervalMs;
+  public final Percentiles queueLatency;
+  public final Percentiles codecLatency;
+  public final Percentiles deliveryLatency;
+  /** From the encode call until the encoded image callback returns. */
+  public final Percentiles totalLatency;
+  /** Frames in the codec when the snapshot was taken. */
+  public final int queueDepth;
+  /** Largest number of frames in the codec during the interval. */
+  public final int maxQueueDepth;
+  /** Frames the queue policy currently allows in the codec. */
+  public final int queueDepthLimit;
+  /** Input frames dropped because the queue policy didn't allow more frames in the codec. */
+  public final long queueFullDrops;
+  /** Input frames dropped because the codec had no free input buffer. */
+  public final long noInputBufferDrops;
+  /** How the last frame of the interval was copied into the codec, null in texture mode. */
+  @Nullable public final InputPath inputPath;
+  /** Average time to copy a frame into an input buffer during the interval. */
+  public final double averageInputCopyUs;
+  /** Mean size of the frames output during the interval. */
+  public final double averageFrameBytes;
+  /** Standard deviation of the frame sizes relative to their mean, comparable across bitrates. */
+  public final double frameBytesCoefficientOfVariation;
+  public final int maxFrameBytes;
+  /** Key frames produced by the codec. */
+  public final long keyFrames;
+  /** Key frames requested by WebRTC, e.g. for receivers' picture loss indications. */
+  public final long keyFrameRequests;
+  /** Key frame requests served by the key frame of a previous request. */
+  public final long coalescedKeyFrameRequests;
+  public final double averageKeyFrameBytes;
+  public final int maxKeyFrameBytes;
+  /** Bitrate requested by WebRTC. */
+  public final int targetBitrateBps;
+  /** Bitrate configured on the codec, after the bitrate adjuster. */
+  public final int configuredBitrateBps;
+  /** Bitrate of the output during the interval. */
+  public final int achievedBitrateBps;
+  /** Codec restarts because of a resolution or input mode change. */
+  public final long codecResets;
+  /** How the codec was obtained on the last codec restart, null before the first one. */
+  @Nullable public final CodecSwitch lastCodecSwitch;
+  /** From the last codec restart until the first output frame of the new codec session. */
+  public final double lastCodecSwitchMs;
+
+  EncoderTelemetry(String codecName, int width, int height, long intervalMs,
+      Percentiles queueLatency, Percentiles codecLatency, Percentiles deliveryLatency,
+      Percentiles totalLatency, int queueDepth, int maxQueueDepth, int queueDepthLimit,
+      long queueFullDrops, long noInputBufferDrops, @Nullable InputPath inputPath,
+      double averageInputCopyUs, double averageFrameBytes, double frameBytesCoefficientOfVariation,
+      int maxFrameBytes, long keyFrames, long keyFrameRequests, long coalescedKeyFrameRequests,
+      double averageKeyFrameBytes, int maxKeyFrameBytes, int targetBitrateBps,
+      int configuredBitrateBps, int achievedBitrateBps, long codecResets,
+      @Nullable CodecSwitch lastCodecSwitch, double lastCodecSwitchMs) {
+    this.codecName = codecName;
+    this.width = width;
+    this.height = height;
+    this.intervalMs = intervalMs;
+    this.queueLatency = queueLatency;
+    this.codecLatency = codecLatency;
+    this.deliveryLatency = deliveryLatency;
+    this.totalLatency = totalLatency;
+    this.queueDepth = queueDepth;
+    this.maxQueueDepth = maxQueueDepth;
+    this.queueDepthLimit = queueDepthLimit;
+    this.queueFullDrops = queueFullDrops;
+    this.noInputBufferDrops = noInputBufferDrops;
+    this.inputPath = inputPath;
+    this.averageInputCopyUs = averageInputCopyUs;
+    this.averageFrameBytes = averageFrameBytes;
+    this.frameBytesCoefficientOfVariation = frameBytesCoefficientOfVariation;
+    this.maxFrameBytes = maxFrameBytes;
+    this.keyFrames = keyFrames;
+    this.keyFrameRequests = keyFrameRequests;
+    this.coalescedKeyFrameRequests = coalescedKeyFrameRequests;
+    this.averageKeyFrameBytes = averageKeyFrameBytes;
+    this.maxKeyFrameBytes = maxKeyFrameBytes;
+    this.targetBitrateBps = targetBitrateBps;
+    this.configuredBitrateBps = configuredBitrateBps;
+    this.achievedBitrateBps = achievedBitrateBps;
+    this.codecResets = codecResets;
+    this.lastCodecSwitch = lastCodecSwitch;
+    this.lastCodecSwitchMs = lastCodecSwitchMs;
+  }
+
+  @Override
+  public String toString() {
+    return "EncoderTelemetry{codec=" + codecName + ", size=" + width + "x" + height
+        + ", intervalMs=" + intervalMs + ", queueLatency=" + queueLatency
+        + ", codecLatency=" + codecLatency + ", deliveryLatency=" + deliveryLatency
+        + ", totalLatency=" + totalLatency + ", queueDepth=" + queueDepth + "/" + maxQueueDepth
+        + "/" + queueDepthLimit + ", drops=" + queueFullDrops + "/" + noInputBufferDrops
+        + ", inputPath=" + inputPath + ", averageInputCopyUs=" + averageInputCopyUs
+        + ", averageFrameBytes=" + averageFrameBytes + ", frameBytesCoefficientOfVariation="
+        + frameBytesCoefficientOfVariation + ", maxFrameBytes=" + maxFrameBytes
+        + ", keyFrames=" + keyFrames
+        + ", keyFrameRequests=" + keyFrameRequests + ", coalescedKeyFrameRequests="
+        + coalescedKeyFrameRequests
+        + ", averageKeyFrameBytes=" + averageKeyFrameBytes + ", maxKeyFrameBytes="
+        + maxKeyFrameBytes + ", bitrate=" + achievedBitrateBps + "/" + configuredBitrateBps + "/"
+        + targetBitrateBps + ", codecResets=" + codecResets + ", lastCodecSwitch="
+        + lastCodecSwitch + "/" + lastCodecSwitchMs + "}";
+  }
+
+  /** Latency histogram with 1 ms buckets, so that recording a frame is O(1) and never allocates. */
+  private static class LatencyHistogram {
+    private static final int MAX_BUCKET_MS = 500;
+
+    // The last bucket counts all frames of MAX_BUCKET_MS and above.
+    private final int[] counts = new int[MAX_BUCKET_MS + 1];
+    private long frames;
+    private long maxNs;
+
+    void add(long latencyNs) {
+      final long latencyMs = Math.max(0, latencyNs / 1000000);
+      counts[(int) Math.min(latencyMs, MAX_BUCKET_MS)]++;
+      frames++;
+      maxNs = Math.max(maxNs, latencyNs);
+    }
+
+    Percentiles getAndReset() {
+      final Percentiles percentiles = new Percentiles(frames, getPercentileMs(0.5),
+          getPercentileMs(0.9), getPercentileMs(0.99), maxNs / 1e6);
+      Arrays.fill(counts, 0);
+      frames = 0;
+      maxNs = 0;
+      return percentiles;
+    }
+
+    // Returns the upper bound of the bucket of the percentile.
+    private double getPercentileMs(double fraction) {
+      if (frames == 0) {
+        return 0;
+      }
+      final long rank = (long) Math.ceil(fraction * frames);
+      long seen = 0;
+      for (int bucket = 0; bucket < counts.length; bucket++) {
+        seen += counts[bucket];
+        if (seen >= rank) {
+          return Math.min(bucket + 1, maxNs / 1e6);
+        }
+      }
+      return maxNs / 1e6;
+    }
+  }
+
+  /**
+   * Collects the telemetry of one encoder. Frames are queued on the encode thread and delivered
+   * on the output thread, so all methods are synchronized.
+   */
+  static class Recorder {
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+    private final LatencyHistogram codecLatency = new LatencyHistogram();
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+    private long intervalStartNs = System.nanoTime();
+    private long intervalBytes;
+    private int maxQueueDepth;
+    // Frame sizes of the interval, with Welford's online algorithm.
+    private long intervalFrames;
+    private double meanFrameBytes;
+    private double sumSquaredDeviations;
+    private int maxFrameBytes;
+    @Nullable private InputPath inputPath;
+    private long inputCopies;
+    private long inputCopyNs;
+    private long queueFullDrops;
+    private long noInputBufferDrops;
+    private long keyFrames;
+    private long keyFrameRequests;
+    private long coalescedKeyFrameRequests;
+    private long keyFrameBytes;
+    private int maxKeyFrameBytes;
+    private long codecResets;
+    @Nullable private CodecSwitch lastCodecSwitch;
+    private long lastCodecSwitchNs;
+
+    /** Reports a frame that entered the codec, with the number of frames in the codec. */
+    synchronized void onFrameQueued(long submitNs, long queuedNs, int queueDepth) {
+      queueLatency.add(queuedNs - submitNs);
+      maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+    }
+
+    synchronized void onFrameDelivered(long submitNs, long queuedNs, long outputNs,
+        long deliveredNs, int sizeBytes, boolean isKeyFrame) {
+      codecLatency.add(outputNs - queuedNs);
+      deliveryLatency.add(deliveredNs - outputNs);
+      totalLatency.add(deliveredNs - submitNs);
+      intervalBytes += sizeBytes;
+      intervalFrames++;
+      final double delta = sizeBytes - meanFrameBytes;
+      meanFrameBytes += delta / intervalFrames;
+      sumSquaredDeviations += delta * (sizeBytes - meanFrameBytes);
+      maxFrameBytes = Math.max(maxFrameBytes, sizeBytes);
+      if (isKeyFrame) {
+        keyFrames++;
+        keyFrameBytes += sizeBytes;
+        maxKeyFrameBytes = Math.max(maxKeyFrameBytes, sizeBytes);
+      }
+    }
+
+    synchronized void onKeyFrameRequested(boolean coalesced) {
+      keyFrameRequests++;
+      if (coalesced) {
+        coalescedKeyFrameRequests++;
+      }
+    }
+
+    synchronized void onFrameDropped(boolean queueFull) {
+      if (queueFull) {
+        queueFullDrops++;
+      } else {
+        noInputBufferDrops++;
+      }
+    }
+
+    synchronized void onInputCopied(InputPath path, long durationNs) {
+      inputPath = path;
+      inputCopies++;
+      inputCopyNs += durationNs;
+    }
+
+    synchronized void onCodecReset() {
+      codecResets++;
+    }
+
+    /** Reports the time from a codec reset until the first output frame of the new session. */
+    synchronized void onCodecSwitched(CodecSwitch codecSwitch, long durationNs) {
+      lastCodecSwitch = codecSwitch;
+      lastCodecSwitchNs = durationNs;
+    }
+
+    synchronized boolean isReportDue(long nowNs) {
+      return nowNs - intervalStartNs >= REPORT_INTERVAL_MS * 1000000;
+    }
+
+    /** Returns the telemetry of the interval since the last snapshot and starts a new one. */
+    synchronized EncoderTelemetry snapshot(String codecName, int width, int height,
+        int queueDepth, int queueDepthLimit, int targetBitrateBps, int configuredBitrateBps) {
+      final long nowNs = System.nanoTime();
+      final long intervalNs = nowNs - intervalStartNs;
+      final int achievedBitrateBps =
+          intervalNs > 0 ? (int) (intervalBytes * 8 * 1e9 / intervalNs) : 0;
+      final double frameBytesVariance =
+          intervalFrames > 1 ? sumSquaredDeviations / (intervalFrames - 1) : 0;
+      final EncoderTelemetry telemetry = new EncoderTelemetry(codecName, width, height,
+          intervalNs / 1000000, queueLatency.getAndReset(), codecLatency.getAndReset(),
+          deliveryLatency.getAndReset(), totalLatency.getAndReset(), queueDepth,
+          Math.max(maxQueueDepth, queueDepth), queueDepthLimit, queueFullDrops,
+          noInputBufferDrops, inputPath, inputCopies > 0 ? inputCopyNs / 1e3 / inputCopies : 0,
+          meanFrameBytes,
+          meanFrameBytes > 0 ? Math.sqrt(frameBytesVariance) / meanFrameBytes : 0, maxFrameBytes,
+          keyFrames, keyFrameRequests, coalescedKeyFrameRequests,
+          keyFrames > 0 ? (double) keyFrameBytes / keyFrames : 0, maxKeyFrameBytes,
+          targetBitrateBps, configuredBitrateBps, achievedBitrateBps, codecResets,
+          lastCodecSwitch, lastCodecSwitchNs / 1e6);
+      intervalStartNs = nowNs;
+      intervalBytes = 0;
+      maxQueueDepth = 0;
+      intervalFrames = 0;
+      meanFrameBytes = 0;
+      sumSquaredDeviations = 0;
+      maxFrameBytes = 0;
+      inputCopies = 0;
+      inputCopyNs = 0;
+      return telemetry;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import java.util.ArrayList;
+
+/**
+ * Pool of {@link GlTextureFrameBuffer}s of a single pixel format. Buffers of the requested size
+ * are preferred, otherwise a free buffer is resized. Like GlTextureFrameBuffer, this class is not
+ * thread safe and must be used by a thread with an active GL context.
+ */
+class GlTextureFrameBufferPool {
+  private final int pixelFormat;
+  private final int maxFreeBuffers;
+  private final ArrayList<GlTextureFrameBuffer> freeBuffers = new ArrayList<>();
+  private int allocatedBuffers;
+  private boolean released;
+
+  /**
+   * @param pixelFormat pixel format of the pooled buffers, see {@link GlTextureFrameBuffer}
+   * @param maxFreeBuffers number of unused buffers kept for reuse, others are released
+   */
+  public GlTextureFrameBufferPool(int pixelFormat, int maxFreeBuffers) {
+    this.pixelFormat = pixelFormat;
+    this.maxFreeBuffers = maxFreeBuffers;
+  }
+
+  /** Returns a framebuffer of the given size. Return it with {@link #recycle} when done. */
+  public GlTextureFrameBuffer acquire(int width, int height) {
+    GlTextureFrameBuffer buffer = null;
+    for (int i = freeBuffers.size() - 1; i >= 0; i--) {
+      final GlTextureFrameBuffer candidate = freeBuffers.get(i);
+      if (candidate.getWidth() == width && candidate.getHeight() == height) {
+        buffer = freeBuffers.remove(i);
+        break;
+      }
+    }
+    if (buffer == null && !freeBuffers.isEmpty()) {
+      // Reuse the texture and framebuffer ids of the least recently used buffer.
+      buffer = freeBuffers.remove(0);
+    }
+    if (buffer == null) {
+      buffer = new GlTextureFrameBuffer(pixelFormat);
+      allocatedBuffers++;
+    }
+    buffer.setSize(width, height);
+    return buffer;
+  }
+
+  /** Returns `buffer` to the pool. */
+  public void recycle(GlTextureFrameBuffer buffer) {
+    if (released || freeBuffers.size() >= maxFreeBuffers) {
+      buffer.release();
+      allocatedBuffers--;
+      return;
+    }
+    freeBuffers.add(buffer);
+  }
+
+  /** Returns the number of buffers currently allocated, both free and in use. */
+  public int getAllocatedBufferCount() {
+    return allocatedBuffers;
+  }
+
+  /** Releases all free buffers. Buffers still in use are released when recycled. */
+  public void release() {
+    for (GlTextureFrameBuffer buffer : freeBuffers) {
+      buffer.release();
+      allocatedBuffers--;
+    }
+    freeBuffers.clear();
+    released = true;
+  }
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import android.graphics.Matrix;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Handler;
+import androidx.annotation.Nullable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link VideoProcessor} that runs a chain of GPU stages (crop, blur, overlay, color correction,
+ * ...) on the GL thread of a {@link SurfaceTextureHelper}. Each stage declares which inputs it
+ * reads, either the captured frame ({@link #SOURCE}) or the outputs of earlier stages, and the size
+ * of its output. Stage outputs are rendered into framebuffers taken from a pool shared by all
+ * stages, and a framebuffer is returned to the pool as soon as the last stage reading it has run,
+ * so the frame never leaves the GPU between stages. The output of the last stage is delivered as
+ * an RGB texture frame.
+ *
+ * <p>Each stage is timed with GPU timer queries where GL_EXT_disjoint_timer_query is available, see
+ * {@link #getStageGpuTimesUs()}.
+ *
+ * <p>Frames that are not texture frames are passed through unprocessed.
+ */
+public class GlVideoProcessingPipeline implements VideoProcessor {
+  private static final String TAG = "GlVideoProcessingPipeline";
+
+  /** Input name referring to the captured frame. */
+  public static final String SOURCE = "source";
+
+  // Number of unused framebuffers kept in the pool between frames.
+  private static final int MAX_FREE_FRAME_BUFFERS = 4;
+  // Weight of the latest measurement in the smoothed stage GPU time.
+  private static final float GPU_TIME_SMOOTHING_FACTOR = 0.1f;
+
+  /** A processing step of the pipeline. All methods are called on the GL thread. */
+  public interface Stage {
+    /**
+     * Names of the inputs this stage reads, in the order they are passed to {@link #draw}. Each
+     * name is either {@link #SOURCE} or the name of a stage added earlier.
+     */
+    String[] getInputs();
+
+    /**
+     * Returns the size of the output of this stage for the given input sizes. Defaults to the size
+     * of the first input.
+     */
+    default Size getOutputSize(Size[] inputSizes) {
+      return inputSizes[0];
+    }
+
+    /**
+     * Draws the output of this stage. The output framebuffer is bound and the viewport covers the
+     * whole output when this is called. The inputs are only valid during the call.
+     */
+    void draw(VideoFrame.TextureBuffer[] inputs, int outputWidth, int outputHeight);
+
+    /** Releases all GL resources of the stage. */
+    void release();
+  }
+
+  /**
+   * Stage drawing its single input with a {@link RendererCommon.GlDrawer}, e.g. a GlRectDrawer for
+   * scaling or a custom shader for color correction. The drawer is released with the stage.
+   */
+  public static class DrawerStage implements Stage {
+    private final String input;
+    private final RendererCommon.GlDrawer drawer;
+    @Nullable private final Size outputSize;
+    private final Matrix renderMatrix = new Matrix();
+
+    /**
+     * @param input name of the input to draw
+     * @param drawer drawer used to draw the input
+     * @param outputSize size of the output, or null to keep the size of the input
+     */
+    public DrawerStage(String input, RendererCommon.GlDrawer drawer, @Nullable Size outputSize) {
+      this.input = input;
+      this.drawer = drawer;
+      this.outputSize = outputSize;
+    }
+
+    @Override
+    public String[] getInputs() {
+      return new String[] {input};
+    }
+
+    @Override
+    public Size getOutputSize(Size[] inputSizes) {
+      return outputSize != null ? outputSize : inputSizes[0];
+    }
+
+    @Override
+    public void draw(VideoFrame.TextureBuffer[] inputs, int outputWidth, int outputHeight) {
+      VideoFrameDrawer.drawTexture(drawer, inputs[0], renderMatrix, inputs[0].getWidth(),
+          inputs[0].getHeight(), /* viewportX= */ 0, /* viewportY= */ 0, outputWidth,
+          outputHeight);
+    }
+
+    @Override
+    public void release() {
+      drawer.release();
+    }
+  }
+
+  private static class StageEntry {
+    final String name;
+    final Stage stage;
+    // Index of the stage providing each input, or -1 for the source frame.
+    final int[] inputIndices;
+    final VideoFrame.TextureBuffer[] inputBuffers;
+    final Size[] inputSizes;
+    // Index of the last stage reading the output of this stage, or -1 if nobody reads it.
+    int lastReader = -1;
+    @Nullable GpuTimer timer;
+    // Smoothed GPU time of the stage, or -1 if not measured.
+    volatile long gpuTimeNs = -1;
+
+    StageEntry(String name, Stage stage, int[] inputIndices) {
+      this.name = name;
+      this.stage = stage;
+      this.inputIndices = inputIndices;
+      this.inputBuffers = new VideoFrame.TextureBuffer[inputIndices.length];
+      this.inputSizes = new Size[inputIndices.length];
+      for (int i = 0; i < inputIndices.length; i++) {
+        inputSizes[i] = new Size(0, 0);
+      }
+    }
+  }
+
+  /**
+   * Measures GPU time with GL_EXT_disjoint_timer_query. A few queries are kept in flight so that
+   * results are read without stalling.
+   */
+  private static class GpuTimer {
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+    private static final int QUERY_COUNT = 3;
+
+    private final int[] queries = new int[QUERY_COUNT];
+    private final boolean[] pending = new boolean[QUERY_COUNT];
+    private final int[] result = new int[1];
+    private int next;
+    private int oldest;
+
+    static boolean isSupported() {
+      final String version = GLES20.glGetString(GLES20.GL_VERSION);
+      final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+      return version != null && version.startsWith("OpenGL ES 3") && extensions != null
+          && extensions.contains("GL_EXT_disjoint_timer_query");
+    }
+
+    GpuTimer() {
+      GLES30.glGenQueries(QUERY_COUNT, queries, 0);
+    }
+
+    /** Starts a measurement. Returns false if all queries are still in flight. */
+    boolean begin() {
+      if (pending[next]) {
+        return false;
+      }
+      GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, queries[next]);
+      return true;
+    }
+
+    void end() {
+      GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+      pending[next] = true;
+      next = (next + 1) % QUERY_COUNT;
+    }
+
+    /** Returns the elapsed time of the oldest finished measurement, or -1 if none is ready. */
+    long poll() {
+      if (!pending[oldest]) {
+        return -1;
+      }
+      GLES30.glGetQueryObjectuiv(queries[oldest], GLES30.GL_QUERY_RESULT_AVAILABLE, result, 0);
+      if (result[0] == GLES20.GL_FALSE) {
+        return -1;
+      }
+      GLES30.glGetQueryObjectuiv(queries[oldest], GLES30.GL_QUERY_RESULT, result, 0);
+      final long elapsedNs = result[0] & 0xFFFFFFFFL;
+      pending[oldest] = false;
+      oldest = (oldest + 1) % QUERY_COUNT;
+      // The result is meaningless if the GPU was disjoint, e.g. due to a frequency change.
+      GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, result, 0);
+      return result[0] != 0 ? -1 : elapsedNs;
+    }
+
+    void release() {
+      GLES30.glDeleteQueries(QUERY_COUNT, queries, 0);
+    }
+  }
+
+  private final Handler handler;
+  private final Object sinkLock = new Object();
+  @Nullable private VideoSink sink;
+  private final List<StageEntry> stages = new CopyOnWriteArrayList<>();
+
+  // --- Only accessed on the GL thread.
+  private final GlTextureFrameBufferPool frameBufferPool =
+      new GlTextureFrameBufferPool(GLES20.GL_RGBA, MAX_FREE_FRAME_BUFFERS);
+  // Output of each stage for the frame being processed.
+  private GlTextureFrameBuffer[] stageOutputs = new GlTextureFrameBuffer[0];
+  private VideoFrame.TextureBuffer[] stageOutputBuffers = new VideoFrame.TextureBuffer[0];
+  @Nullable private YuvConverter yuvConverter;
+  private boolean isGpuTimerSupported;
+  private boolean isGpuTimerChecked;
+  private boolean released;
+
+  /**
+   * Creates a pipeline running on the thread of `surfaceTextureHelper`, which must also be the
+   * helper the capturer delivers frames with.
+   */
+  public GlVideoProcessingPipeline(SurfaceTextureHelper surfaceTextureHelper) {
+    this.handler = surfaceTextureHelper.getHandler();
+  }
+
+  /**
+   * Appends a stage to the pipeline. The output of the last stage added is the output of the
+   * pipeline.
+   *
+   * @throws IllegalArgumentException if the name is already used, an input is unknown or the
+   *     pipeline has been released
+   */
+  public void addStage(String name, Stage stage) {
+    final String error = ThreadUtils.invokeAtFrontUninterruptibly(handler, () -> {
+      if (released) {
+        return "Pipeline has been released";
+      }
+      if (SOURCE.equals(name) || indexOfStage(name) >= 0) {
+        return "Stage name already in use: " + name;
+      }
+      final String[] inputs = stage.getInputs();
+      if (inputs.length == 0) {
+        return "Stage " + name + " has no inputs";
+      }
+      final int[] inputIndices = new int[inputs.length];
+      for (int i = 0; i < inputs.length; i++) {
+        inputIndices[i] = SOURCE.equals(inputs[i]) ? -1 : indexOfStage(inputs[i]);
+        if (!SOURCE.equals(inputs[i]) && inputIndices[i] < 0) {
+          return "Unknown input " + inputs[i] + " of stage " + name;
+        }
+      }
+
+      final int stageIndex = stages.size();
+      for (int inputIndex : inputIndices) {
+        if (inputIndex >= 0) {
+          stages.get(inputIndex).lastReader = stageIndex;
+        }
+      }
+      stages.add(new StageEntry(name, stage, inputIndices));
+      stageOutputs = new GlTextureFrameBuffer[stages.size()];
+      stageOutputBuffers = new VideoFrame.TextureBuffer[stages.size()];
+      return null;
+    });
+    if (error != null) {
+      throw new IllegalArgumentException(error);
+    }
+  }
+
+  /**
+   * Returns the smoothed GPU time of each stage in microseconds, in pipeline order. The value is
+   * -1 for stages that have not been measured yet or if GPU timing is not supported.
+   */
+  public Map<String, Long> getStageGpuTimesUs() {
+    final Map<String, Long> gpuTimes = new LinkedHashMap<>();
+    for (StageEntry entry : stages) {
+      final long gpuTimeNs = entry.gpuTimeNs;
+      gpuTimes.put(entry.name, gpuTimeNs < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(gpuTimeNs));
+    }
+    return gpuTimes;
+  }
+
+  /**
+   * Releases all stages and pooled framebuffers. Frames already delivered stay valid until they
+   * are released.
+   */
+  public void release() {
+    ThreadUtils.invokeAtFrontUninterruptibly(handler, () -> {
+      if (released) {
+        return;
+      }
+      released = true;
+      for (StageEntry entry : stages) {
+        entry.stage.release();
+        if (entry.timer != null) {
+          entry.timer.release();
+        }
+      }
+      stages.clear();
+      frameBufferPool.release();
+      if (yuvConverter != null) {
+        yuvConverter.release();
+        yuvConverter = null;
+      }
+    });
+  }
+
+  @Override
+  public void setSink(@Nullable VideoSink sink) {
+    synchronized (sinkLock) {
+      this.sink = sink;
+    }
+  }
+
+  @Override
+  public void onCapturerStarted(boolean success) {}
+
+  @Override
+  public void onCapturerStopped() {}
+
+  @Override
+  public void onFrameCaptured(VideoFrame frame) {
+    if (handler.getLooper().getThread() == Thread.currentThread()) {
+      processFrame(frame);
+      return;
+    }
+    frame.retain();
+    if (!handler.post(() -> {
+          processFrame(frame);
+          frame.release();
+        })) {
+      frame.release();
+    }
+  }
+
+  private void processFrame(VideoFrame frame) {
+    if (released || stages.isEmpty() || !(frame.getBuffer() instanceof VideoFrame.TextureBuffer)) {
+      deliverFrame(frame);
+      return;
+    }
+
+    final VideoFrame.TextureBuffer source = (VideoFrame.TextureBuffer) frame.getBuffer();
+    final YuvConverter converter = getYuvConverter(source);
+    if (!isGpuTimerChecked) {
+      isGpuTimerChecked = true;
+      isGpuTimerSupported = GpuTimer.isSupported();
+      Logging.d(TAG, "GPU timer queries supported: " + isGpuTimerSupported);
+    }
+
+    final int lastStage = stages.size() - 1;
+    for (int i = 0; i <= lastStage; i++) {
+      final StageEntry entry = stages.get(i);
+      for (int j = 0; j < entry.inputIndices.length; j++) {
+        final int inputIndex = entry.inputIndices[j];
+        final VideoFrame.TextureBuffer input =
+            inputIndex < 0 ? source : stageOutputBuffers[inputIndex];
+        entry.inputBuffers[j] = input;
+        entry.inputSizes[j].width = input.getWidth();
+        entry.inputSizes[j].height = input.getHeight();
+      }
+
+      final Size outputSize = entry.stage.getOutputSize(entry.inputSizes);
+      final GlTextureFrameBuffer output =
+          frameBufferPool.acquire(outputSize.width, outputSize.height);
+      GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, output.getFrameBufferId());
+      GLES20.glViewport(0, 0, outputSize.width, outputSize.height);
+
+      if (isGpuTimerSupported && entry.timer == null) {
+        entry.timer = new GpuTimer();
+      }
+      final boolean isTimed = entry.timer != null && entry.timer.begin();
+      entry.stage.draw(entry.inputBuffers, outputSize.width, outputSize.height);
+      if (isTimed) {
+        entry.timer.end();
+      }
+      GlUtil.checkNoGLES2Error("GlVideoProcessingPipeline stage " + entry.name);
+
+      stageOutputs[i] = output;
+      stageOutputBuffers[i] = new TextureBufferImpl(outputSize.width, outputSize.height,
+          VideoFrame.TextureBuffer.Type.RGB, output.getTextureId(), new Matrix(), handler,
+          converter, /* releaseCallback= */ (Runnable) null);
+
+      // Return framebuffers that no later stage reads to the pool right away, so that the next
+      // stage can reuse them.
+      for (int inputIndex : entry.inputIndices) {
+        if (inputIndex >= 0 && stages.get(inputIndex).lastReader == i) {
+          recycleStageOutput(inputIndex);
+        }
+      }
+      if (i != lastStage && entry.lastReader < 0) {
+        recycleStageOutput(i);
+      }
+      Arrays.fill(entry.inputBuffers, null);
+    }
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    // The output texture is sampled from other contexts in the share group, e.g. by a hardware
+    // encoder in surface mode. Make sure all stages have completed before handing it over.
+    GLES20.glFinish();
+    updateGpuTimes();
+
+    final GlTextureFrameBuffer output = stageOutputs[lastStage];
+    final VideoFrame.TextureBuffer outputBuffer = new TextureBufferImpl(output.getWidth(),
+        output.getHeight(), VideoFrame.TextureBuffer.Type.RGB, output.getTextureId(), new Matrix(),
+        handler, converter, () -> handler.post(() -> frameBufferPool.recycle(output)));
+    stageOutputs[lastStage] = null;
+    stageOutputBuffers[lastStage] = null;
+
+    final VideoFrame outputFrame =
+        new VideoFrame(outputBuffer, frame.getRotation(), frame.getTimestampNs());
+    deliverFrame(outputFrame);
+    outputFrame.release();
+  }
+
+  private void recycleStageOutput(int stageIndex) {
+    if (stageOutputs[stageIndex] == null) {
+      // Already recycled, e.g. when a stage reads the same input twice.
+      return;
+    }
+    frameBufferPool.recycle(stageOutputs[stageIndex]);
+    stageOutputs[stageIndex] = null;
+    stageOutputBuffers[stageIndex] = null;
+  }
+
+  private void updateGpuTimes() {
+    for (StageEntry entry : stages) {
+      if (entry.timer == null) {
+        continue;
+      }
+      final long elapsedNs = entry.timer.poll();
+      if (elapsedNs < 0) {
+        continue;
+      }
+      final long previousNs = entry.gpuTimeNs;
+      entry.gpuTimeNs = previousNs < 0
+          ? elapsedNs
+          : (long) (previousNs + GPU_TIME_SMOOTHING_FACTOR * (elapsedNs - previousNs));
+    }
+  }
+
+  private YuvConverter getYuvConverter(VideoFrame.TextureBuffer source) {
+    if (source instanceof TextureBufferImpl) {
+      return ((TextureBufferImpl) source).getYuvConverter();
+    }
+    if (yuvConverter == null) {
+      yuvConverter = new YuvConverter();
+    }
+    return yuvConverter;
+  }
+
+  private int indexOfStage(String name) {
+    for (int i = 0; i < stages.size(); i++) {
+      if (stages.get(i).name.equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void deliverFrame(VideoFrame frame) {
+    synchronized (sinkLock) {
+      if (sink != null) {
+        sink.onFrame(frame);
+      }
+    }
+  }
+}
@@ -16,14 +16,6 @@ import java.util.Arrays;
 
 /** Factory for Android hardware VideoDecoders. */
 public class HardwareVideoDecoderFactory extends MediaCodecVideoDecoderFactory {
-  private final static Predicate<MediaCodecInfo> defaultAllowedPredicate =
-      new Predicate<MediaCodecInfo>() {
-        @Override
-        public boolean test(MediaCodecInfo arg) {
-          return MediaCodecUtils.isHardwareAccelerated(arg);
-        }
-      };
-
   /** Creates a HardwareVideoDecoderFactory that does not use surface textures. */
   @Deprecated // Not removed yet to avoid breaking callers.
   public HardwareVideoDecoderFactory() {
@@ -50,8 +42,47 @@ public class HardwareVideoDecoderFactory extends MediaCodecVideoDecoderFactory {
    */
   public HardwareVideoDecoderFactory(@Nullable EglBase.Context sharedContext,
       @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate) {
-    super(sharedContext,
-        (codecAllowedPredicate == null ? defaultAllowedPredicate
-                                       : codecAllowedPredicate.and(defaultAllowedPredicate)));
+    this(sharedContext, codecAllowedPredicate, /* zeroCopyByteBufferOutput= */ false);
+  }
+
+  /**
+   * Creates a HardwareVideoDecoderFactory that supports surface texture rendering.
+   *
+   * @param sharedContext The textures generated will be accessible from this context. May be null,
+   *                      this disables texture support.
+   * @param codecAllowedPredicate predicate to filter codecs. It is combined with the default
+   *                              predicate that only allows hardware codecs.
+   * @param zeroCopyByteBufferOutput without texture support, deliver NV12 frames as NV12Buffer
+   *                                 views of the codec output buffers. The buffers are returned
+   *                                 to the codec when the frames are released, and are only
+   *                                 converted to I420 if a consumer calls toI420().
+   */
+  public HardwareVideoDecoderFactory(@Nullable EglBase.Context sharedContext,
+      @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate,
+      boolean zeroCopyByteBufferOutput) {
+    this(sharedContext, codecAllowedPredicate, zeroCopyByteBufferOutput,
+        /* useAsyncCodecCallbacks= */ false);
+  }
+
+  /**
+   * Creates a HardwareVideoDecoderFactory that supports surface texture rendering.
+   *
+   * @param sharedContext The textures generated will be accessible from this context. May be null,
+   *                      this disables texture support.
+   * @param codecAllowedPredicate predicate to filter codecs. It is combined with the default
+   *                              predicate that only allows hardware codecs.
+   * @param zeroCopyByteBufferOutput without texture support, deliver NV12 frames as NV12Buffer
+   *                                 views of the codec output buffers.
+   * @param useAsyncCodecCallbacks run the decoders with MediaCodec callbacks (API 23+) and request
+   *                               low latency decoding where supported (API 30+). Decoding then
+   *                               never blocks the receive pipeline: when the codec has no free
+   *                               input buffer, the frame is dropped and an error is returned, so
+   *                               that a key frame is requested.
+   */
+  public HardwareVideoDecoderFactory(@Nullable EglBase.Context sharedContext,
+      @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate,
+      boolean zeroCopyByteBufferOutput, boolean useAsyncCodecCallbacks) {
+    super(sharedContext, codecAllowedPredicate, /* hardwareAcceleratedOnly= */ true,
+        zeroCopyByteBufferOutput, useAsyncCodecCallbacks);
   }
 }
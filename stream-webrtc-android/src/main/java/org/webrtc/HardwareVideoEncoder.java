@@ -21,14 +21,21 @@ import android.media.MediaFormat;
 import android.opengl.GLES20;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.view.Surface;
 import androidx.annotation.Nullable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
+import org.webrtc.EncoderTelemetry.CodecSwitch;
+import org.webrtc.EncoderTelemetry.InputPath;
 import org.webrtc.ThreadUtils.ThreadChecker;
 
 /**
@@ -39,9 +46,6 @@ class HardwareVideoEncoder implements VideoEncoder {
 
   private static final int MAX_VIDEO_FRAMERATE = 30;
 
-  // See MAX_ENCODER_Q_SIZE in androidmediaencoder.cc.
-  private static final int MAX_ENCODER_Q_SIZE = 2;
-
   private static final int MEDIA_CODEC_RELEASE_TIMEOUT_MS = 5000;
   private static final int DEQUEUE_OUTPUT_BUFFER_TIMEOUT_US = 100000;
 
@@ -94,6 +98,146 @@ class HardwareVideoEncoder implements VideoEncoder {
       }
     }
   }
+  /** Optional features of the encoder, set with HardwareVideoEncoderFactory.Builder. */
+  static class Options {
+    // Receive input and output buffers through MediaCodec.Callback on a handler thread instead of
+    // polling the codec; ignored below API 23.
+    boolean useAsyncCallbacks;
+    // Limits the number of frames in the codec, further frames are dropped.
+    EncoderQueuePolicy queuePolicy = EncoderQueuePolicy.getDefault();
+    // If positive, and supported by the codec, refresh the picture with intra coded blocks spread
+    // over this many frames instead of forcing key frames.
+    int intraRefreshPeriodFrames;
+    // Configure the codec for low latency, see RealtimeEncoderProfile.
+    boolean useRealtimeProfile;
+    // Receives an EncoderTelemetry snapshot about once per second on the output thread.
+    @Nullable EncoderTelemetry.Listener telemetryListener;
+    // Key frame requests within this time after the previous key frame request are served by
+    // that key frame instead of a new one; 0 disables coalescing.
+    int keyFrameCoalescingWindowMs;
+    // For codecs that can't be configured again after stop(), create the codec of the next
+    // resolution ahead of time. Needs a second codec instance per encoder.
+    boolean useStandbyCodec;
+
+    Options() {}
+
+    Options(Options other) {
+      useAsyncCallbacks = other.useAsyncCallbacks;
+      queuePolicy = other.queuePolicy;
+      intraRefreshPeriodFrames = other.intraRefreshPeriodFrames;
+      useRealtimeProfile = other.useRealtimeProfile;
+      telemetryListener = other.telemetryListener;
+      keyFrameCoalescingWindowMs = other.keyFrameCoalescingWindowMs;
+      useStandbyCodec = other.useStandbyCodec;
+    }
+  }
+
+  /**
+   * Fixed size FIFO of the EncodedImage.Builders of the frames in the codec. The builders are
+   * reused, so that queuing a frame doesn't allocate. One slot is always kept free, so that the
+   * builder the output thread is working on isn't handed out again before it's done.
+   *
+   * The number of queued frames is limited by the queue policy, which is fed the time each frame
+   * spent in the codec.
+   */
+  private static class OutputBuilderQueue {
+    private final EncoderQueuePolicy.Controller queueController;
+    private final EncodedImage.Builder[] builders;
+    private final long[] enqueueTimesNs;
+    private final long[] queuedTimesNs;
+    private final int[] framesAhead;
+    private int head;
+    private int size;
+    // Times of the frame last removed with poll().
+    private long polledEnqueueTimeNs;
+    private long polledQueuedTimeNs;
+
+    public OutputBuilderQueue(EncoderQueuePolicy.Controller queueController) {
+      this.queueController = queueController;
+      builders = new EncodedImage.Builder[EncoderQueuePolicy.MAX_DEPTH + 1];
+      enqueueTimesNs = new long[builders.length];
+      queuedTimesNs = new long[builders.length];
+      framesAhead = new int[builders.length];
+      for (int i = 0; i < builders.length; i++) {
+        builders[i] = EncodedImage.builder();
+      }
+    }
+
+    /**
+     * Appends a frame and returns its builder, or null if the queue policy doesn't allow another
+     * frame in the codec.
+     */
+    @Nullable
+    public synchronized EncodedImage.Builder offer(long nowNs) {
+      if (size >= queueController.getMaxDepth()) {
+        return null;
+      }
+      final int slot = (head + size) % builders.length;
+      enqueueTimesNs[slot] = nowNs;
+      queuedTimesNs[slot] = nowNs;
+      framesAhead[slot] = size;
+      size++;
+      return builders[slot];
+    }
+
+    /** Removes the oldest frame and returns its builder, or null if the queue is empty. */
+    @Nullable
+    public synchronized EncodedImage.Builder poll(long nowNs) {
+      if (size == 0) {
+        return null;
+      }
+      queueController.onFrameEncoded(nowNs - enqueueTimesNs[head], framesAhead[head]);
+      polledEnqueueTimeNs = enqueueTimesNs[head];
+      polledQueuedTimeNs = queuedTimesNs[head];
+      final EncodedImage.Builder builder = builders[head];
+      head = (head + 1) % builders.length;
+      size--;
+      return builder;
+    }
+
+    /**
+     * Records when the most recently appended frame entered the codec. If the codec has output
+     * the frame already, it stays at the time it was appended.
+     */
+    public synchronized void markQueued(long nowNs) {
+      if (size > 0) {
+        queuedTimesNs[(head + size - 1) % builders.length] = nowNs;
+      }
+    }
+
+    public synchronized long getPolledEnqueueTimeNs() {
+      return polledEnqueueTimeNs;
+    }
+
+    public synchronized long getPolledQueuedTimeNs() {
+      return polledQueuedTimeNs;
+    }
+
+    /** Removes the most recently appended frame. */
+    public synchronized void removeLast() {
+      if (size > 0) {
+        size--;
+      }
+    }
+
+    public synchronized int size() {
+      return size;
+    }
+
+    public synchronized void clear() {
+      size = 0;
+      queueController.reset();
+    }
+
+    public synchronized int getMaxDepth() {
+      return queueController.getMaxDepth();
+    }
+  }
+
+  // Encoders that hold or create a standby codec.
+  private static final Set<HardwareVideoEncoder> standbyCodecOwners =
+    new HashSet<>(); /* guarded by standbyCodecOwners */
+
   // --- Initialized on construction.
   private final MediaCodecWrapperFactory mediaCodecWrapperFactory;
   private final String codecName;
@@ -108,17 +252,34 @@ class HardwareVideoEncoder implements VideoEncoder {
   private final BitrateAdjuster bitrateAdjuster;
   // EGL context shared with the application.  Used to access texture inputs.
   private final EglBase14.Context sharedContext;
+  // Whether to run MediaCodec in asynchronous mode, see MediaCodec.setCallback().
+  private final boolean useAsyncCallbacks;
+  // Number of frames over which the codec refreshes the picture with intra coded blocks, instead
+  // of periodic key frames. 0 if disabled.
+  private final int intraRefreshPeriodFrames;
+  // Whether to configure the codec with the RealtimeEncoderProfile if the device allows it.
+  private final boolean useRealtimeProfile;
+  @Nullable private final EncoderTelemetry.Listener telemetryListener;
+  // Key frame requests within this time after the previous key frame request are dropped, so that
+  // a burst of requests from many receivers produces a single key frame. 0 if disabled.
+  private final long keyFrameCoalescingWindowNs;
 
   // Drawer used to draw input textures onto the codec's input surface.
   private final GlRectDrawer textureDrawer = new GlRectDrawer();
   private final VideoFrameDrawer videoFrameDrawer = new VideoFrameDrawer();
   // A queue of EncodedImage.Builders that correspond to frames in the codec.  These builders are
   // pre-populated with all the information that can't be sent through MediaCodec.
-  private final BlockingDeque<EncodedImage.Builder> outputBuilders = new LinkedBlockingDeque<>();
+  private final OutputBuilderQueue outputBuilders;
+  // Input buffers reported by MediaCodec.Callback and not yet used, in asynchronous byte buffer
+  // mode.
+  private final BlockingDeque<Integer> availableInputBuffers = new LinkedBlockingDeque<>();
 
   private final ThreadChecker encodeThreadChecker = new ThreadChecker();
   private final ThreadChecker outputThreadChecker = new ThreadChecker();
   private final BusyCount outputBuffersBusyCount = new BusyCount();
+  private final EncoderTelemetry.Recorder telemetryRecorder = new EncoderTelemetry.Recorder();
+  // Bitrate requested by WebRTC, for the telemetry.
+  private volatile int targetBitrateBps;
 
   // --- Set on initialize and immutable until release.
   private Callback callback;
@@ -126,8 +287,11 @@ class HardwareVideoEncoder implements VideoEncoder {
 
   // --- Valid and immutable while an encoding session is running.
   @Nullable private MediaCodecWrapper codec;
-  // Thread that delivers encoded frames to the user callback.
+  // Thread that delivers encoded frames to the user callback. In asynchronous mode this is the
+  // HandlerThread that receives the MediaCodec callbacks.
   @Nullable private Thread outputThread;
+  // Handler of the callback thread, null in synchronous mode.
+  @Nullable private Handler callbackHandler;
 
   // EGL base wrapping the shared texture context.  Holds hooks to both the shared context and the
   // input surface.  Making this base current allows textures from the context to be drawn onto the
@@ -147,8 +311,30 @@ class HardwareVideoEncoder implements VideoEncoder {
   // Size of frame for current color format and stride, in bytes.
   private int frameSizeBytes;
   private boolean useSurfaceMode;
+  // True if the codec accepted intra refresh.
+  private boolean intraRefreshEnabled;
+
+  // --- Codec reuse across resolution changes, only accessed from the encoding thread.
+  // Stopped codec of the previous session, configured again by initEncodeInternal().
+  @Nullable private MediaCodecWrapper reusableCodec;
+  // Cleared when configuring a stopped codec failed. From then on, if allowed, a standby codec is
+  // created ahead of the next resolution change instead.
+  private boolean canReconfigureInPlace = true;
+  // Creates standbyCodec in the background.
+  @Nullable private Thread standbyCodecThread;
+  // Whether standby codecs may be created. Cleared for good when they are released under
+  // pressure, see releaseStandbyCodecs().
+  private volatile boolean standbyCodecAllowed;
+  private final Object standbyCodecLock = new Object();
+  @Nullable private MediaCodecWrapper standbyCodec; /* guarded by standbyCodecLock */
+  // How the codec of the current session was obtained.
+  private volatile CodecSwitch codecSwitch = CodecSwitch.NEW_CODEC;
+  // Start of the resolution change until the first output frame of the new session, or -1.
+  private volatile long switchStartNs = -1;
 
   // --- Only accessed from the encoding thread.
+  // The key frame request never changes, so the same Bundle is passed every time.
+  private final Bundle keyFrameRequestParams = new Bundle();
   // Presentation timestamp of next frame to encode.
   private long nextPresentationTimestampUs;
   // Presentation timestamp of the last requested (or forced) key frame.
@@ -158,13 +344,26 @@ class HardwareVideoEncoder implements VideoEncoder {
   // Contents of the last observed config frame output by the MediaCodec. Used by H.264.
   @Nullable private ByteBuffer configBuffer;
   private int adjustedBitrate;
+  // Reused for every output buffer and bitrate update.
+  private final MediaCodec.BufferInfo outputBufferInfo = new MediaCodec.BufferInfo();
+  private final Bundle bitrateParams = new Bundle();
+  private final CodecSpecificInfo codecSpecificInfo = new CodecSpecificInfo();
+  // Callbacks returning an output buffer to the codec, by buffer index. Created on first use of
+  // an index, since the indices are small and reused for the lifetime of the codec.
+  private final ArrayList<Runnable> outputBufferReleaseCallbacks = new ArrayList<>();
 
   // Whether the encoder is running.  Volatile so that the output thread can watch this value and
   // exit when the encoder stops.
   private volatile boolean running;
+  // Whether the output thread only stops the codec, so that it can be configured again.
+  private volatile boolean keepCodecOnStop;
+  // Set by the output thread if the codec was stopped and kept.
+  private volatile boolean codecKept;
   // Any exception thrown during shutdown.  The output thread releases the MediaCodec and uses this
   // value to send exceptions thrown during release back to the encoder thread.
   @Nullable private volatile Exception shutdownException;
+  // Error reported by the asynchronous callback, returned by the next call to encode().
+  @Nullable private volatile MediaCodec.CodecException asyncCodecError;
 
   // True if collection of encoding statistics is enabled.
   private boolean isEncodingStatisticsEnabled;
@@ -188,6 +387,17 @@ class HardwareVideoEncoder implements VideoEncoder {
                               VideoCodecMimeType codecType, Integer surfaceColorFormat, Integer yuvColorFormat,
                               Map<String, String> params, int keyFrameIntervalSec, int forceKeyFrameIntervalMs,
                               BitrateAdjuster bitrateAdjuster, EglBase14.Context sharedContext) {
+    this(mediaCodecWrapperFactory, codecName, codecType, surfaceColorFormat, yuvColorFormat, params,
+      keyFrameIntervalSec, forceKeyFrameIntervalMs, bitrateAdjuster, sharedContext,
+      new Options());
+  }
+
+  /** Creates a new HardwareVideoEncoder with the optional features of `options`. */
+  public HardwareVideoEncoder(MediaCodecWrapperFactory mediaCodecWrapperFactory, String codecName,
+                              VideoCodecMimeType codecType, Integer surfaceColorFormat, Integer yuvColorFormat,
+                              Map<String, String> params, int keyFrameIntervalSec, int forceKeyFrameIntervalMs,
+                              BitrateAdjuster bitrateAdjuster, EglBase14.Context sharedContext,
+                              Options options) {
     this.mediaCodecWrapperFactory = mediaCodecWrapperFactory;
     this.codecName = codecName;
     this.codecType = codecType;
@@ -198,6 +408,16 @@ class HardwareVideoEncoder implements VideoEncoder {
     this.forcedKeyFrameNs = TimeUnit.MILLISECONDS.toNanos(forceKeyFrameIntervalMs);
     this.bitrateAdjuster = bitrateAdjuster;
     this.sharedContext = sharedContext;
+    this.useAsyncCallbacks = options.useAsyncCallbacks;
+    this.intraRefreshPeriodFrames = options.intraRefreshPeriodFrames;
+    this.useRealtimeProfile = options.useRealtimeProfile;
+    this.telemetryListener = options.telemetryListener;
+    this.keyFrameCoalescingWindowNs =
+      TimeUnit.MILLISECONDS.toNanos(options.keyFrameCoalescingWindowMs);
+    this.outputBuilders = new OutputBuilderQueue(options.queuePolicy.createController());
+    this.standbyCodecAllowed = options.useStandbyCodec;
+
+    keyFrameRequestParams.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
 
     // Allow construction on a different thread.
     encodeThreadChecker.detachThread();
@@ -209,6 +429,7 @@ class HardwareVideoEncoder implements VideoEncoder {
 
     this.callback = callback;
     automaticResizeOn = settings.automaticResizeOn;
+    switchStartNs = -1;
 
     if (settings.width % REQUIRED_RESOLUTION_ALIGNMENT != 0
       || settings.height % REQUIRED_RESOLUTION_ALIGNMENT != 0) {
@@ -221,6 +442,7 @@ class HardwareVideoEncoder implements VideoEncoder {
 
     if (settings.startBitrate != 0 && settings.maxFramerate != 0) {
       bitrateAdjuster.setTargets(settings.startBitrate * 1000, settings.maxFramerate);
+      targetBitrateBps = settings.startBitrate * 1000;
     }
     adjustedBitrate = bitrateAdjuster.getAdjustedBitrateBps();
 
@@ -239,11 +461,27 @@ class HardwareVideoEncoder implements VideoEncoder {
 
     isEncodingStatisticsEnabled = false;
 
-    try {
-      codec = mediaCodecWrapperFactory.createByCodecName(codecName);
-    } catch (IOException | IllegalArgumentException e) {
-      Logging.e(TAG, "Cannot create media encoder " + codecName);
-      return VideoCodecStatus.FALLBACK_SOFTWARE;
+    final boolean reconfiguringInPlace = reusableCodec != null;
+    if (reconfiguringInPlace) {
+      codec = reusableCodec;
+      reusableCodec = null;
+      codecSwitch = CodecSwitch.IN_PLACE;
+    } else {
+      codec = takeStandbyCodec();
+      codecSwitch = CodecSwitch.STANDBY;
+    }
+    if (codec == null) {
+      try {
+        codec = mediaCodecWrapperFactory.createByCodecName(codecName);
+      } catch (IOException | IllegalArgumentException e) {
+        if (releaseStandbyCodecs()) {
+          Logging.w(TAG, "Cannot create media encoder " + codecName + ", retrying", e);
+          return initEncodeInternal();
+        }
+        Logging.e(TAG, "Cannot create media encoder " + codecName);
+        return VideoCodecStatus.FALLBACK_SOFTWARE;
+      }
+      codecSwitch = CodecSwitch.NEW_CODEC;
     }
 
     final int colorFormat = useSurfaceMode ? surfaceColorFormat : yuvColorFormat;
@@ -283,6 +521,38 @@ class HardwareVideoEncoder implements VideoEncoder {
         isEncodingStatisticsEnabled = true;
       }
 
+      final boolean realtimeProfile =
+        useRealtimeProfile && RealtimeEncoderProfile.isAllowed(codecName);
+      if (realtimeProfile) {
+        RealtimeEncoderProfile.applyToFormat(
+          format, (int) Math.round(bitrateAdjuster.getAdjustedFramerateFps()));
+      } else if (useRealtimeProfile) {
+        Logging.w(TAG, "Realtime profile is denied for " + codecName + " on " + Build.MODEL);
+      }
+
+      intraRefreshEnabled = false;
+      if (intraRefreshPeriodFrames > 0) {
+        if (isIntraRefreshSupported()) {
+          format.setInteger(MediaFormat.KEY_INTRA_REFRESH_PERIOD, intraRefreshPeriodFrames);
+          intraRefreshEnabled = true;
+        } else {
+          Logging.w(TAG, codecName + " doesn't support intra refresh, using key frames");
+        }
+      }
+
+      if (useAsyncCallbacks && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+        // The callbacks must be set before configure(). The thread also delivers the output and
+        // releases the codec, like the output thread in synchronous mode.
+        final HandlerThread callbackThread = new HandlerThread(TAG + "Callbacks");
+        callbackThread.start();
+        outputThread = callbackThread;
+        callbackHandler = new Handler(callbackThread.getLooper());
+        availableInputBuffers.clear();
+        asyncCodecError = null;
+        outputThreadChecker.detachThread();
+        codec.setCallback(new CodecCallback(), callbackHandler);
+      }
+
       Logging.d(TAG, "Format: " + format);
       codec.configure(
         format, null /* surface */, null /* crypto */, MediaCodec.CONFIGURE_FLAG_ENCODE);
@@ -297,16 +567,45 @@ class HardwareVideoEncoder implements VideoEncoder {
       updateInputFormat(codec.getInputFormat());
 
       codec.start();
+
+      if (realtimeProfile) {
+        try {
+          RealtimeEncoderProfile.applyVendorParameters(codec);
+        } catch (IllegalStateException e) {
+          // The standard keys still apply.
+          Logging.w(TAG, "Setting vendor low latency parameters failed", e);
+        }
+      }
     } catch (IllegalArgumentException | IllegalStateException e) {
+      if (reconfiguringInPlace) {
+        // Some codecs can't be configured again after stop(). Use a new instance instead.
+        Logging.w(TAG, "Reconfiguring " + codecName + " in place failed", e);
+        canReconfigureInPlace = false;
+        stopSession(/* releaseCodec= */ true);
+        return initEncodeInternal();
+      }
+      if (releaseStandbyCodecs()) {
+        // The standby codecs may have taken the codec resources, e.g. on devices with few codec
+        // instances.
+        Logging.w(TAG, "initEncodeInternal failed, retrying", e);
+        stopSession(/* releaseCodec= */ true);
+        return initEncodeInternal();
+      }
       Logging.e(TAG, "initEncodeInternal failed", e);
       release();
       return VideoCodecStatus.FALLBACK_SOFTWARE;
     }
 
+    if (!canReconfigureInPlace) {
+      prepareStandbyCodec();
+    }
+
     running = true;
-    outputThreadChecker.detachThread();
-    outputThread = createOutputThread();
-    outputThread.start();
+    if (callbackHandler == null) {
+      outputThreadChecker.detachThread();
+      outputThread = createOutputThread();
+      outputThread.start();
+    }
 
     return VideoCodecStatus.OK;
   }
@@ -314,13 +613,47 @@ class HardwareVideoEncoder implements VideoEncoder {
   @Override
   public VideoCodecStatus release() {
     encodeThreadChecker.checkIsOnValidThread();
+    final VideoCodecStatus returnValue = stopSession(/* releaseCodec= */ true);
+    final EncoderTelemetry telemetry = getTelemetry();
+    Logging.d(TAG, "Telemetry: " + telemetry);
+    if (telemetryListener != null) {
+      telemetryListener.onEncoderTelemetry(telemetry);
+    }
+    releaseStandbyCodec();
+    if (reusableCodec != null) {
+      releaseCodecQuietly(reusableCodec);
+      reusableCodec = null;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Stops the encoding session. Unless `releaseCodec` is set, the codec is only stopped, and
+   * codecKept tells whether it can be configured again.
+   */
+  private VideoCodecStatus stopSession(boolean releaseCodec) {
+    encodeThreadChecker.checkIsOnValidThread();
 
     final VideoCodecStatus returnValue;
+    codecKept = false;
     if (outputThread == null) {
+      // The session failed to start, the codec was never handed to an output thread.
+      if (codec != null) {
+        releaseCodecQuietly(codec);
+      }
       returnValue = VideoCodecStatus.OK;
     } else {
       // The outputThread actually stops and releases the codec once running is false.
+      keepCodecOnStop = !releaseCodec;
       running = false;
+      if (callbackHandler != null) {
+        // Output buffers that were already reported are delivered first.
+        final Handler handler = callbackHandler;
+        handler.post(() -> {
+          releaseCodecOnOutputThread();
+          handler.getLooper().quit();
+        });
+      }
       if (!ThreadUtils.joinUninterruptibly(outputThread, MEDIA_CODEC_RELEASE_TIMEOUT_MS)) {
         Logging.e(TAG, "Media encoder release timeout");
         returnValue = VideoCodecStatus.TIMEOUT;
@@ -347,6 +680,8 @@ class HardwareVideoEncoder implements VideoEncoder {
 
     codec = null;
     outputThread = null;
+    callbackHandler = null;
+    availableInputBuffers.clear();
 
     // Allow changing thread after release.
     encodeThreadChecker.detachThread();
@@ -360,6 +695,9 @@ class HardwareVideoEncoder implements VideoEncoder {
     if (codec == null) {
       return VideoCodecStatus.UNINITIALIZED;
     }
+    if (asyncCodecError != null) {
+      return handleAsyncCodecError();
+    }
 
     final boolean isTextureBuffer = videoFrame.getBuffer() instanceof VideoFrame.TextureBuffer;
 
@@ -374,9 +712,12 @@ class HardwareVideoEncoder implements VideoEncoder {
       }
     }
 
-    if (outputBuilders.size() > MAX_ENCODER_Q_SIZE) {
+    final long submitNs = System.nanoTime();
+    final EncodedImage.Builder builder = outputBuilders.offer(submitNs);
+    if (builder == null) {
       // Too many frames in the encoder.  Drop this frame.
       Logging.e(TAG, "Dropped frame, encoder queue full");
+      telemetryRecorder.onFrameDropped(/* queueFull= */ true);
       return VideoCodecStatus.NO_OUTPUT; // See webrtc bug 2887.
     }
 
@@ -387,16 +728,23 @@ class HardwareVideoEncoder implements VideoEncoder {
       }
     }
 
-    if (requestedKeyFrame || shouldForceKeyFrame(videoFrame.getTimestampNs())) {
+    if (requestedKeyFrame) {
+      final boolean coalesced = isKeyFrameRequestCoalesced(videoFrame.getTimestampNs());
+      telemetryRecorder.onKeyFrameRequested(coalesced);
+      if (coalesced) {
+        Logging.d(TAG, "Key frame request coalesced with the previous one");
+      } else {
+        requestKeyFrame(videoFrame.getTimestampNs());
+      }
+    } else if (shouldForceKeyFrame(videoFrame.getTimestampNs())) {
       requestKeyFrame(videoFrame.getTimestampNs());
     }
 
-    EncodedImage.Builder builder = EncodedImage.builder()
+    builder
       .setCaptureTimeNs(videoFrame.getTimestampNs())
       .setEncodedWidth(videoFrame.getBuffer().getWidth())
       .setEncodedHeight(videoFrame.getBuffer().getHeight())
       .setRotation(videoFrame.getRotation());
-    outputBuilders.offer(builder);
 
     long presentationTimestampUs = nextPresentationTimestampUs;
     // Round frame duration down to avoid bitrate overshoot.
@@ -414,12 +762,37 @@ class HardwareVideoEncoder implements VideoEncoder {
     // Check if the queue was successful.
     if (returnValue != VideoCodecStatus.OK) {
       // Keep the output builders in sync with buffers in the codec.
-      outputBuilders.pollLast();
+      outputBuilders.removeLast();
+    } else {
+      final long queuedNs = System.nanoTime();
+      outputBuilders.markQueued(queuedNs);
+      telemetryRecorder.onFrameQueued(submitNs, queuedNs, outputBuilders.size());
     }
 
     return returnValue;
   }
 
+  /**
+   * Turns the error reported by the asynchronous callback into the status of the current frame,
+   * which is dropped. Transient errors only drop the frame, recoverable errors reconfigure the
+   * codec, and after any other error the codec is unusable and software encoding takes over.
+   */
+  private VideoCodecStatus handleAsyncCodecError() {
+    final MediaCodec.CodecException error = asyncCodecError;
+    if (error.isTransient()) {
+      asyncCodecError = null;
+      return VideoCodecStatus.ERROR;
+    }
+    if (error.isRecoverable()) {
+      Logging.w(TAG, "Reconfiguring the codec after a recoverable error");
+      asyncCodecError = null;
+      final VideoCodecStatus status = resetCodec(width, height, useSurfaceMode);
+      return status == VideoCodecStatus.OK ? VideoCodecStatus.ERROR
+        : VideoCodecStatus.FALLBACK_SOFTWARE;
+    }
+    return VideoCodecStatus.FALLBACK_SOFTWARE;
+  }
+
   private VideoCodecStatus encodeTextureBuffer(
     VideoFrame videoFrame, long presentationTimestampUs) {
     encodeThreadChecker.checkIsOnValidThread();
@@ -443,16 +816,22 @@ class HardwareVideoEncoder implements VideoEncoder {
     encodeThreadChecker.checkIsOnValidThread();
     // No timeout.  Don't block for an input buffer, drop frames if the encoder falls behind.
     int index;
-    try {
-      index = codec.dequeueInputBuffer(0 /* timeout */);
-    } catch (IllegalStateException e) {
-      Logging.e(TAG, "dequeueInputBuffer failed", e);
-      return VideoCodecStatus.ERROR;
+    if (callbackHandler != null) {
+      final Integer availableIndex = availableInputBuffers.poll();
+      index = availableIndex != null ? availableIndex : -1;
+    } else {
+      try {
+        index = codec.dequeueInputBuffer(0 /* timeout */);
+      } catch (IllegalStateException e) {
+        Logging.e(TAG, "dequeueInputBuffer failed", e);
+        return VideoCodecStatus.ERROR;
+      }
     }
 
     if (index == -1) {
       // Encoder is falling behind.  No input buffers available.  Drop the frame.
       Logging.d(TAG, "Dropped frame, no input buffers available");
+      telemetryRecorder.onFrameDropped(/* queueFull= */ false);
       return VideoCodecStatus.NO_OUTPUT; // See webrtc bug 2887.
     }
 
@@ -491,6 +870,7 @@ class HardwareVideoEncoder implements VideoEncoder {
       framerate = MAX_VIDEO_FRAMERATE;
     }
     bitrateAdjuster.setTargets(bitrateAllocation.getSum(), framerate);
+    targetBitrateBps = bitrateAllocation.getSum();
     return VideoCodecStatus.OK;
   }
 
@@ -498,6 +878,7 @@ class HardwareVideoEncoder implements VideoEncoder {
   public VideoCodecStatus setRates(RateControlParameters rcParameters) {
     encodeThreadChecker.checkIsOnValidThread();
     bitrateAdjuster.setTargets(rcParameters.bitrate.getSum(), rcParameters.framerateFps);
+    targetBitrateBps = rcParameters.bitrate.getSum();
     return VideoCodecStatus.OK;
   }
 
@@ -534,7 +915,15 @@ class HardwareVideoEncoder implements VideoEncoder {
 
   private VideoCodecStatus resetCodec(int newWidth, int newHeight, boolean newUseSurfaceMode) {
     encodeThreadChecker.checkIsOnValidThread();
-    VideoCodecStatus status = release();
+    final long startNs = System.nanoTime();
+    telemetryRecorder.onCodecReset();
+    // Stopping and configuring the same codec again avoids the slow release and creation of a
+    // codec, which otherwise freezes the video on every resolution change.
+    final MediaCodecWrapper previousCodec = codec;
+    VideoCodecStatus status = stopSession(/* releaseCodec= */ !canReconfigureInPlace);
+    if (codecKept) {
+      reusableCodec = previousCodec;
+    }
     if (status != VideoCodecStatus.OK) {
       return status;
     }
@@ -547,12 +936,117 @@ class HardwareVideoEncoder implements VideoEncoder {
     width = newWidth;
     height = newHeight;
     useSurfaceMode = newUseSurfaceMode;
-    return initEncodeInternal();
+    switchStartNs = startNs;
+    status = initEncodeInternal();
+    if (status != VideoCodecStatus.OK) {
+      switchStartNs = -1;
+    }
+    return status;
+  }
+
+  /** Creates a codec in the background for the next resolution change, if allowed. */
+  private void prepareStandbyCodec() {
+    encodeThreadChecker.checkIsOnValidThread();
+    if (!standbyCodecAllowed || standbyCodecThread != null) {
+      return;
+    }
+    synchronized (standbyCodecOwners) {
+      standbyCodecOwners.add(this);
+    }
+    standbyCodecThread = new Thread(() -> {
+      MediaCodecWrapper created = null;
+      try {
+        created = mediaCodecWrapperFactory.createByCodecName(codecName);
+      } catch (IOException | IllegalArgumentException e) {
+        Logging.w(TAG, "Cannot create standby encoder " + codecName, e);
+      }
+      if (created == null) {
+        return;
+      }
+      synchronized (standbyCodecLock) {
+        if (standbyCodecAllowed) {
+          standbyCodec = created;
+          return;
+        }
+      }
+      // Released under pressure while it was being created.
+      releaseCodecQuietly(created);
+    }, TAG + "Standby");
+    standbyCodecThread.start();
+  }
+
+  /** Returns the standby codec, waiting for its creation if necessary, or null if none. */
+  @Nullable
+  private MediaCodecWrapper takeStandbyCodec() {
+    encodeThreadChecker.checkIsOnValidThread();
+    if (standbyCodecThread == null) {
+      return null;
+    }
+    ThreadUtils.joinUninterruptibly(standbyCodecThread);
+    standbyCodecThread = null;
+    synchronized (standbyCodecOwners) {
+      standbyCodecOwners.remove(this);
+    }
+    synchronized (standbyCodecLock) {
+      final MediaCodecWrapper standby = standbyCodec;
+      standbyCodec = null;
+      return standby;
+    }
+  }
+
+  /**
+   * Releases the standby codecs of all encoders and stops them from creating new ones, to free
+   * codec instances and memory for other codecs. May be called on any thread. Returns true if a
+   * standby codec was released or was being created.
+   */
+  static boolean releaseStandbyCodecs() {
+    final HardwareVideoEncoder[] owners;
+    synchronized (standbyCodecOwners) {
+      owners = standbyCodecOwners.toArray(new HardwareVideoEncoder[0]);
+    }
+    boolean released = false;
+    for (HardwareVideoEncoder owner : owners) {
+      final MediaCodecWrapper standby;
+      synchronized (owner.standbyCodecLock) {
+        released |= owner.standbyCodecAllowed;
+        owner.standbyCodecAllowed = false;
+        standby = owner.standbyCodec;
+        owner.standbyCodec = null;
+      }
+      if (standby != null) {
+        Logging.d(TAG, "Releasing standby encoder " + owner.codecName);
+        releaseCodecQuietly(standby);
+      }
+    }
+    return released;
+  }
+
+  private void releaseStandbyCodec() {
+    final MediaCodecWrapper standby = takeStandbyCodec();
+    if (standby != null) {
+      releaseCodecQuietly(standby);
+    }
+  }
+
+  private static void releaseCodecQuietly(MediaCodecWrapper codec) {
+    try {
+      codec.release();
+    } catch (Exception e) {
+      Logging.e(TAG, "Media encoder release failed", e);
+    }
   }
 
   private boolean shouldForceKeyFrame(long presentationTimestampNs) {
     encodeThreadChecker.checkIsOnValidThread();
-    return forcedKeyFrameNs > 0 && presentationTimestampNs > lastKeyFrameNs + forcedKeyFrameNs;
+    // Intra refresh continuously cleans up the picture, without the size spike of a key frame.
+    return !intraRefreshEnabled && forcedKeyFrameNs > 0
+      && presentationTimestampNs > lastKeyFrameNs + forcedKeyFrameNs;
+  }
+
+  private boolean isKeyFrameRequestCoalesced(long presentationTimestampNs) {
+    encodeThreadChecker.checkIsOnValidThread();
+    return keyFrameCoalescingWindowNs > 0 && lastKeyFrameNs >= 0
+      && presentationTimestampNs < lastKeyFrameNs + keyFrameCoalescingWindowNs;
   }
 
   private void requestKeyFrame(long presentationTimestampNs) {
@@ -562,9 +1056,7 @@ class HardwareVideoEncoder implements VideoEncoder {
     // be encoded as a key frame, but sadly that flag is ignored.  Instead,
     // we request a key frame "soon".
     try {
-      Bundle b = new Bundle();
-      b.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
-      codec.setParameters(b);
+      codec.setParameters(keyFrameRequestParams);
     } catch (IllegalStateException e) {
       Logging.e(TAG, "requestKeyFrame failed", e);
       return;
@@ -588,7 +1080,7 @@ class HardwareVideoEncoder implements VideoEncoder {
   protected void deliverEncodedImage() {
     outputThreadChecker.checkIsOnValidThread();
     try {
-      MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+      final MediaCodec.BufferInfo info = outputBufferInfo;
       int index = codec.dequeueOutputBuffer(info, DEQUEUE_OUTPUT_BUFFER_TIMEOUT_US);
       if (index < 0) {
         if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
@@ -596,99 +1088,171 @@ class HardwareVideoEncoder implements VideoEncoder {
         }
         return;
       }
+      deliverOutputBuffer(index, info);
+    } catch (IllegalStateException e) {
+      Logging.e(TAG, "deliverOutput failed", e);
+    }
+  }
 
-      ByteBuffer outputBuffer = codec.getOutputBuffer(index);
-      outputBuffer.position(info.offset);
-      outputBuffer.limit(info.offset + info.size);
+  /** Receives the codec events on the callback thread in asynchronous mode. */
+  private class CodecCallback extends MediaCodec.Callback {
+    @Override
+    public void onInputBufferAvailable(MediaCodec mediaCodec, int index) {
+      availableInputBuffers.offer(index);
+    }
 
-      if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-        Logging.d(TAG, "Config frame generated. Offset: " + info.offset + ". Size: " + info.size);
-        if (info.size > 0
-          && (codecType == VideoCodecMimeType.H264 || codecType == VideoCodecMimeType.H265)) {
-          // In case of H264 and H265 config buffer contains SPS and PPS headers. Presence of these
-          // headers makes IDR frame a truly keyframe. Some encoders issue IDR frames without SPS
-          // and PPS. We save config buffer here to prepend it to all IDR frames encoder delivers.
-          configBuffer = ByteBuffer.allocateDirect(info.size);
-          configBuffer.put(outputBuffer);
-        }
-        return;
+    @Override
+    public void onOutputBufferAvailable(
+      MediaCodec mediaCodec, int index, MediaCodec.BufferInfo info) {
+      outputThreadChecker.checkIsOnValidThread();
+      try {
+        deliverOutputBuffer(index, info);
+      } catch (IllegalStateException e) {
+        Logging.e(TAG, "deliverOutput failed", e);
       }
+    }
 
-      bitrateAdjuster.reportEncodedFrame(info.size);
-      if (adjustedBitrate != bitrateAdjuster.getAdjustedBitrateBps()) {
-        updateBitrate();
-      }
+    @Override
+    public void onError(MediaCodec mediaCodec, MediaCodec.CodecException e) {
+      Logging.e(TAG, "MediaCodec error", e);
+      asyncCodecError = e;
+    }
 
-      final boolean isKeyFrame = (info.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0;
-      if (isKeyFrame) {
-        Logging.d(TAG, "Sync frame generated");
-      }
+    @Override
+    public void onOutputFormatChanged(MediaCodec mediaCodec, MediaFormat format) {
+      Logging.d(TAG, "Output format changed: " + format);
+    }
+  }
 
-      // Extract QP before releasing output buffer.
-      Integer qp = null;
-      if (isEncodingStatisticsEnabled) {
-        MediaFormat format = codec.getOutputFormat(index);
-        if (format != null && format.containsKey(MediaFormat.KEY_VIDEO_QP_AVERAGE)) {
-          qp = format.getInteger(MediaFormat.KEY_VIDEO_QP_AVERAGE);
+  private void deliverOutputBuffer(int index, MediaCodec.BufferInfo info) {
+    ByteBuffer outputBuffer = codec.getOutputBuffer(index);
+    outputBuffer.position(info.offset);
+    outputBuffer.limit(info.offset + info.size);
+
+    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+      Logging.d(TAG, "Config frame generated. Offset: " + info.offset + ". Size: " + info.size);
+      if (info.size > 0
+        && (codecType == VideoCodecMimeType.H264 || codecType == VideoCodecMimeType.H265)) {
+        // In case of H264 and H265 config buffer contains SPS and PPS headers. Presence of these
+        // headers makes IDR frame a truly keyframe. Some encoders issue IDR frames without SPS
+        // and PPS. We save config buffer here to prepend it to all IDR frames encoder delivers.
+        if (configBuffer == null || configBuffer.capacity() < info.size) {
+          configBuffer = ByteBuffer.allocateDirect(info.size);
         }
+        configBuffer.clear();
+        configBuffer.put(outputBuffer);
+        configBuffer.flip();
       }
+      return;
+    }
 
-      final ByteBuffer frameBuffer;
-      final Runnable releaseCallback;
-      if (isKeyFrame && configBuffer != null) {
-        Logging.d(TAG,
-          "Prepending config buffer of size " + configBuffer.capacity()
-            + " to output buffer with offset " + info.offset + ", size " + info.size);
-        frameBuffer = ByteBuffer.allocateDirect(info.size + configBuffer.capacity());
-        configBuffer.rewind();
-        frameBuffer.put(configBuffer);
-        frameBuffer.put(outputBuffer);
-        frameBuffer.rewind();
-        codec.releaseOutputBuffer(index, /* render= */ false);
-        releaseCallback = null;
-      } else {
-        frameBuffer = outputBuffer.slice();
-        outputBuffersBusyCount.increment();
-        releaseCallback = () -> {
-          // This callback should not throw any exceptions since
-          // it may be called on an arbitrary thread.
-          // Check bug webrtc:11230 for more details.
-          try {
-            codec.releaseOutputBuffer(index, /* render= */ false);
-          } catch (Exception e) {
-            Logging.e(TAG, "releaseOutputBuffer failed", e);
-          }
-          outputBuffersBusyCount.decrement();
-        };
+    final boolean isKeyFrame = (info.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0;
+    if (isKeyFrame) {
+      Logging.d(TAG, "Sync frame generated");
+    }
+
+    // Extract QP before releasing output buffer.
+    Integer qp = null;
+    if (isEncodingStatisticsEnabled) {
+      MediaFormat format = codec.getOutputFormat(index);
+      if (format != null && format.containsKey(MediaFormat.KEY_VIDEO_QP_AVERAGE)) {
+        qp = format.getInteger(MediaFormat.KEY_VIDEO_QP_AVERAGE);
       }
+    }
 
-      final EncodedImage.FrameType frameType = isKeyFrame ? EncodedImage.FrameType.VideoFrameKey
-        : EncodedImage.FrameType.VideoFrameDelta;
+    bitrateAdjuster.reportEncodedFrame(info.size, qp, isKeyFrame);
+    final long startNs = switchStartNs;
+    if (startNs >= 0) {
+      switchStartNs = -1;
+      telemetryRecorder.onCodecSwitched(codecSwitch, System.nanoTime() - startNs);
+    }
+    if (adjustedBitrate != bitrateAdjuster.getAdjustedBitrateBps()) {
+      updateBitrate();
+    }
 
-      EncodedImage.Builder builder = outputBuilders.poll();
-      builder.setBuffer(frameBuffer, releaseCallback);
-      builder.setFrameType(frameType);
-      builder.setQp(qp);
+    final ByteBuffer frameBuffer;
+    final Runnable releaseCallback;
+    if (isKeyFrame && configBuffer != null) {
+      Logging.d(TAG,
+        "Prepending config buffer of size " + configBuffer.limit()
+          + " to output buffer with offset " + info.offset + ", size " + info.size);
+      // Assemble the key frame in a pooled native buffer that is recycled once the image is
+      // released.
+      final NativeByteBufferPool pool = NativeByteBufferPool.getDefault();
+      final ByteBuffer keyFrameBuffer = pool.acquire(info.size + configBuffer.limit());
+      configBuffer.rewind();
+      keyFrameBuffer.put(configBuffer);
+      keyFrameBuffer.put(outputBuffer);
+      keyFrameBuffer.rewind();
+      codec.releaseOutputBuffer(index, /* render= */ false);
+      frameBuffer = keyFrameBuffer;
+      releaseCallback = () -> pool.recycle(keyFrameBuffer);
+    } else {
+      frameBuffer = outputBuffer.slice();
+      outputBuffersBusyCount.increment();
+      releaseCallback = getOutputBufferReleaseCallback(index);
+    }
 
-      EncodedImage encodedImage = builder.createEncodedImage();
-      // TODO(mellem):  Set codec-specific info.
-      callback.onEncodedFrame(encodedImage, new CodecSpecificInfo());
-      // Note that the callback may have retained the image.
-      encodedImage.release();
-    } catch (IllegalStateException e) {
-      Logging.e(TAG, "deliverOutput failed", e);
+    final EncodedImage.FrameType frameType = isKeyFrame ? EncodedImage.FrameType.VideoFrameKey
+      : EncodedImage.FrameType.VideoFrameDelta;
+
+    final long outputNs = System.nanoTime();
+    EncodedImage.Builder builder = outputBuilders.poll(outputNs);
+    builder.setBuffer(frameBuffer, releaseCallback);
+    builder.setFrameType(frameType);
+    builder.setQp(qp);
+
+    EncodedImage encodedImage = builder.createEncodedImage();
+    // Don't keep the buffer reachable from the reused builder.
+    builder.setBuffer(null, null);
+    callback.onEncodedFrame(encodedImage, codecSpecificInfo);
+    // Note that the callback may have retained the image.
+    encodedImage.release();
+
+    final long deliveredNs = System.nanoTime();
+    telemetryRecorder.onFrameDelivered(outputBuilders.getPolledEnqueueTimeNs(),
+      outputBuilders.getPolledQueuedTimeNs(), outputNs, deliveredNs, info.size, isKeyFrame);
+    if (telemetryListener != null && telemetryRecorder.isReportDue(deliveredNs)) {
+      telemetryListener.onEncoderTelemetry(getTelemetry());
     }
   }
 
+  private Runnable getOutputBufferReleaseCallback(int index) {
+    outputThreadChecker.checkIsOnValidThread();
+    while (outputBufferReleaseCallbacks.size() <= index) {
+      final int callbackIndex = outputBufferReleaseCallbacks.size();
+      outputBufferReleaseCallbacks.add(() -> {
+        // This callback should not throw any exceptions since
+        // it may be called on an arbitrary thread.
+        // Check bug webrtc:11230 for more details.
+        try {
+          codec.releaseOutputBuffer(callbackIndex, /* render= */ false);
+        } catch (Exception e) {
+          Logging.e(TAG, "releaseOutputBuffer failed", e);
+        }
+        outputBuffersBusyCount.decrement();
+      });
+    }
+    return outputBufferReleaseCallbacks.get(index);
+  }
+
   private void releaseCodecOnOutputThread() {
     outputThreadChecker.checkIsOnValidThread();
     Logging.d(TAG, "Releasing MediaCodec on output thread");
     outputBuffersBusyCount.waitForZero();
+    boolean stopped = false;
     try {
       codec.stop();
+      stopped = true;
     } catch (Exception e) {
       Logging.e(TAG, "Media encoder stop failed", e);
     }
+    if (keepCodecOnStop && stopped) {
+      codecKept = true;
+      configBuffer = null;
+      Logging.d(TAG, "Stopped MediaCodec on output thread, keeping it for reuse");
+      return;
+    }
     try {
       codec.release();
     } catch (Exception e) {
@@ -704,9 +1268,8 @@ class HardwareVideoEncoder implements VideoEncoder {
     outputThreadChecker.checkIsOnValidThread();
     adjustedBitrate = bitrateAdjuster.getAdjustedBitrateBps();
     try {
-      Bundle params = new Bundle();
-      params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, adjustedBitrate);
-      codec.setParameters(params);
+      bitrateParams.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, adjustedBitrate);
+      codec.setParameters(bitrateParams);
       return VideoCodecStatus.OK;
     } catch (IllegalStateException e) {
       Logging.e(TAG, "updateBitrate failed", e);
@@ -751,6 +1314,19 @@ class HardwareVideoEncoder implements VideoEncoder {
         + " frameSizeBytes: " + frameSizeBytes);
   }
 
+  private boolean isIntraRefreshSupported() {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+      return false;
+    }
+    MediaCodecInfo codecInfo = codec.getCodecInfo();
+    if (codecInfo == null) {
+      return false;
+    }
+    CodecCapabilities codecCaps = codecInfo.getCapabilitiesForType(codecType.mimeType());
+    return codecCaps != null
+      && codecCaps.isFeatureSupported(CodecCapabilities.FEATURE_IntraRefresh);
+  }
+
   protected boolean isEncodingStatisticsSupported() {
     // WebRTC quality scaler, which adjusts resolution and/or frame rate based on encoded QP,
     // expects QP to be in native bitstream range for given codec. Native QP range for VP8 is
@@ -776,17 +1352,92 @@ class HardwareVideoEncoder implements VideoEncoder {
 
   // Visible for testing.
   protected void fillInputBuffer(ByteBuffer buffer, VideoFrame.Buffer frame) {
-    VideoFrame.I420Buffer i420 = frame.toI420();
+    final long startNs = System.nanoTime();
+    final InputPath path = copyToInputBuffer(buffer, frame);
+    telemetryRecorder.onInputCopied(path, System.nanoTime() - startNs);
+  }
+
+  /**
+   * Copies `frame` into the codec layout, directly from the known buffer types and with toI420()
+   * for all others.
+   */
+  private InputPath copyToInputBuffer(ByteBuffer buffer, VideoFrame.Buffer frame) {
+    final int width = frame.getWidth();
+    final int height = frame.getHeight();
+    final int chromaWidth = (width + 1) / 2;
+    final int chromaHeight = (height + 1) / 2;
+    // The last row of each plane does not need padding.
+    final ByteBuffer dstY = slicePlane(buffer, 0, stride * (height - 1) + width);
+
     if (isSemiPlanar) {
+      // The UV plane is tightly packed, as YuvHelper.I420ToNV12 has always written it.
+      final int uvStride = chromaWidth * 2;
+      final int uvPos = stride * sliceHeight;
+      final ByteBuffer dstUV = slicePlane(buffer, uvPos, uvPos + uvStride * chromaHeight);
+      if (frame instanceof NV12Buffer
+        && ((NV12Buffer) frame).copyToNV12(dstY, stride, dstUV, uvStride)) {
+        return InputPath.NV12_TO_SEMI_PLANAR;
+      }
+      if (frame instanceof TextureBufferImpl) {
+        // Read back NV12 instead of converting the I420 read back on the CPU.
+        final NV12Buffer nv12 = ((TextureBufferImpl) frame).toNV12();
+        if (nv12 != null) {
+          nv12.copyToNV12(dstY, stride, dstUV, uvStride);
+          nv12.release();
+          return InputPath.TEXTURE_TO_SEMI_PLANAR;
+        }
+      }
+      final boolean isI420 = frame instanceof VideoFrame.I420Buffer;
+      final VideoFrame.I420Buffer i420 = isI420 ? (VideoFrame.I420Buffer) frame : frame.toI420();
       YuvHelper.I420ToNV12(i420.getDataY(), i420.getStrideY(), i420.getDataU(), i420.getStrideU(),
-        i420.getDataV(), i420.getStrideV(), buffer, i420.getWidth(), i420.getHeight(), stride,
-        sliceHeight);
-    } else {
-      YuvHelper.I420Copy(i420.getDataY(), i420.getStrideY(), i420.getDataU(), i420.getStrideU(),
-        i420.getDataV(), i420.getStrideV(), buffer, i420.getWidth(), i420.getHeight(), stride,
-        sliceHeight);
+        i420.getDataV(), i420.getStrideV(), dstY, stride, dstUV, uvStride, width, height);
+      if (!isI420) {
+        i420.release();
+      }
+      return isI420 ? InputPath.I420_TO_SEMI_PLANAR : InputPath.CONVERTED_TO_SEMI_PLANAR;
+    }
+
+    final int chromaStride = (stride + 1) / 2;
+    final int uPos = stride * sliceHeight;
+    final int vPos = uPos + chromaStride * ((sliceHeight + 1) / 2);
+    final int chromaSize = chromaStride * (chromaHeight - 1) + chromaWidth;
+    final ByteBuffer dstU = slicePlane(buffer, uPos, uPos + chromaSize);
+    final ByteBuffer dstV = slicePlane(buffer, vPos, vPos + chromaSize);
+    if (frame instanceof NV12Buffer
+      && ((NV12Buffer) frame).copyToI420(dstY, stride, dstU, chromaStride, dstV, chromaStride)) {
+      return InputPath.NV12_TO_PLANAR;
+    }
+    if (frame instanceof NV21Buffer) {
+      ((NV21Buffer) frame).copyToI420(dstY, stride, dstU, chromaStride, dstV, chromaStride);
+      return InputPath.NV21_TO_PLANAR;
+    }
+    final boolean isI420 = frame instanceof VideoFrame.I420Buffer;
+    final VideoFrame.I420Buffer i420 = isI420 ? (VideoFrame.I420Buffer) frame : frame.toI420();
+    YuvHelper.I420Copy(i420.getDataY(), i420.getStrideY(), i420.getDataU(), i420.getStrideU(),
+      i420.getDataV(), i420.getStrideV(), dstY, stride, dstU, chromaStride, dstV, chromaStride,
+      width, height);
+    if (!isI420) {
+      i420.release();
     }
-    i420.release();
+    return isI420 ? InputPath.I420_TO_PLANAR : InputPath.CONVERTED_TO_PLANAR;
+  }
+
+  private static ByteBuffer slicePlane(ByteBuffer buffer, int start, int end) {
+    buffer.clear();
+    buffer.position(start);
+    buffer.limit(end);
+    final ByteBuffer plane = buffer.slice();
+    buffer.clear();
+    return plane;
+  }
+
+  /**
+   * Returns the telemetry of the encoder. Latencies and the achieved bitrate cover the interval
+   * since the previous snapshot, which includes the ones passed to the telemetry listener.
+   */
+  private EncoderTelemetry getTelemetry() {
+    return telemetryRecorder.snapshot(codecName, width, height, outputBuilders.size(),
+      outputBuilders.getMaxDepth(), targetBitrateBps, adjustedBitrate);
   }
 
   protected boolean isSemiPlanar(int colorFormat) {
@@ -15,7 +15,6 @@ import static org.webrtc.MediaCodecUtils.INTEL_PREFIX;
 import static org.webrtc.MediaCodecUtils.QCOM_PREFIX;
 
 import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.os.Build;
 import androidx.annotation.Nullable;
 import java.util.ArrayList;
@@ -47,6 +46,138 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
   private final boolean enableIntelVp8Encoder;
   private final boolean enableH264HighProfile;
   @Nullable private final Predicate<MediaCodecInfo> codecAllowedPredicate;
+  private final boolean useQpFeedbackBitrateAdjuster;
+  private final HardwareVideoEncoder.Options encoderOptions;
+
+  /** Builder for a HardwareVideoEncoderFactory with optional encoder features. */
+  public static class Builder {
+    @Nullable private EglBase.Context sharedContext;
+    private boolean enableIntelVp8Encoder = true;
+    private boolean enableH264HighProfile;
+    @Nullable private Predicate<MediaCodecInfo> codecAllowedPredicate;
+    private boolean useQpFeedbackBitrateAdjuster;
+    private final HardwareVideoEncoder.Options encoderOptions = new HardwareVideoEncoder.Options();
+
+    private Builder() {}
+
+    /**
+     * The textures generated will be accessible from this context. Texture support is disabled
+     * without a context, which is the default.
+     */
+    public Builder setSharedContext(@Nullable EglBase.Context sharedContext) {
+      this.sharedContext = sharedContext;
+      return this;
+    }
+
+    /** Enables Intel's VP8 encoder. The default is enabled. */
+    public Builder setEnableIntelVp8Encoder(boolean enableIntelVp8Encoder) {
+      this.enableIntelVp8Encoder = enableIntelVp8Encoder;
+      return this;
+    }
+
+    /** Enables H264 High Profile. The default is disabled. */
+    public Builder setEnableH264HighProfile(boolean enableH264HighProfile) {
+      this.enableH264HighProfile = enableH264HighProfile;
+      return this;
+    }
+
+    /** Optional predicate to filter codecs. All codecs are allowed without a predicate. */
+    public Builder setCodecAllowedPredicate(
+        @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate) {
+      this.codecAllowedPredicate = codecAllowedPredicate;
+      return this;
+    }
+
+    /**
+     * Runs the codecs in asynchronous mode, receiving input and output buffers through
+     * MediaCodec.Callback instead of polling. Only used on API 23 and above. The default is off.
+     */
+    public Builder setUseAsyncCodecCallbacks(boolean useAsyncCodecCallbacks) {
+      encoderOptions.useAsyncCallbacks = useAsyncCodecCallbacks;
+      return this;
+    }
+
+    /**
+     * Limits the number of frames in each encoder, frames beyond it are dropped. The default is
+     * {@link EncoderQueuePolicy#getDefault()}.
+     */
+    public Builder setQueuePolicy(EncoderQueuePolicy queuePolicy) {
+      encoderOptions.queuePolicy = queuePolicy;
+      return this;
+    }
+
+    /**
+     * If positive, encoders that support intra refresh (API 24+) spread intra coding over this
+     * many frames instead of forcing periodic key frames. The default is 0, which disables intra
+     * refresh.
+     */
+    public Builder setIntraRefreshPeriodFrames(int intraRefreshPeriodFrames) {
+      encoderOptions.intraRefreshPeriodFrames = intraRefreshPeriodFrames;
+      return this;
+    }
+
+    /**
+     * Configures the encoders for low latency with the {@link RealtimeEncoderProfile}, unless
+     * denied for the device. The default is off.
+     */
+    public Builder setUseRealtimeProfile(boolean useRealtimeProfile) {
+      encoderOptions.useRealtimeProfile = useRealtimeProfile;
+      return this;
+    }
+
+    /**
+     * Corrects the bitrate of all encoders from their measured output and QP instead of the per
+     * vendor adjustments. The default is off.
+     */
+    public Builder setUseQpFeedbackBitrateAdjuster(boolean useQpFeedbackBitrateAdjuster) {
+      this.useQpFeedbackBitrateAdjuster = useQpFeedbackBitrateAdjuster;
+      return this;
+    }
+
+    /** Optional listener for the {@link EncoderTelemetry} of every encoder of the factory. */
+    public Builder setTelemetryListener(@Nullable EncoderTelemetry.Listener telemetryListener) {
+      encoderOptions.telemetryListener = telemetryListener;
+      return this;
+    }
+
+    /**
+     * Key frame requests within this time after the previous one are served by its key frame
+     * instead of a new one, so that many receivers losing the same packets cause a single key
+     * frame. The default is 0, which disables coalescing.
+     */
+    public Builder setKeyFrameCoalescingWindowMs(int keyFrameCoalescingWindowMs) {
+      encoderOptions.keyFrameCoalescingWindowMs = keyFrameCoalescingWindowMs;
+      return this;
+    }
+
+    /**
+     * Some codecs can't be configured again after they were stopped for a resolution change. For
+     * those, create the codec of the next resolution in the background, which shortens the switch
+     * but holds a second codec instance per encoder. Standby codecs are released when creating a
+     * codec fails and on {@link #releaseStandbyCodecs()}. The default is off.
+     */
+    public Builder setUseStandbyCodec(boolean useStandbyCodec) {
+      encoderOptions.useStandbyCodec = useStandbyCodec;
+      return this;
+    }
+
+    public HardwareVideoEncoderFactory createHardwareVideoEncoderFactory() {
+      return new HardwareVideoEncoderFactory(this);
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Releases the standby codecs of all encoders, see {@link Builder#setUseStandbyCodec}, e.g.
+   * from {@code ComponentCallbacks2.onTrimMemory()}. The encoders don't create standby codecs
+   * afterwards. May be called on any thread.
+   */
+  public static void releaseStandbyCodecs() {
+    HardwareVideoEncoder.releaseStandbyCodecs();
+  }
 
   /**
    * Creates a HardwareVideoEncoderFactory that supports surface texture encoding.
@@ -74,16 +205,27 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
    */
   public HardwareVideoEncoderFactory(EglBase.Context sharedContext, boolean enableIntelVp8Encoder,
                                      boolean enableH264HighProfile, @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate) {
+    this(builder()
+      .setSharedContext(sharedContext)
+      .setEnableIntelVp8Encoder(enableIntelVp8Encoder)
+      .setEnableH264HighProfile(enableH264HighProfile)
+      .setCodecAllowedPredicate(codecAllowedPredicate));
+  }
+
+  private HardwareVideoEncoderFactory(Builder builder) {
     // Texture mode requires EglBase14.
-    if (sharedContext instanceof EglBase14.Context) {
-      this.sharedContext = (EglBase14.Context) sharedContext;
+    if (builder.sharedContext instanceof EglBase14.Context) {
+      this.sharedContext = (EglBase14.Context) builder.sharedContext;
     } else {
       Logging.w(TAG, "No shared EglBase.Context.  Encoders will not use texture mode.");
       this.sharedContext = null;
     }
-    this.enableIntelVp8Encoder = enableIntelVp8Encoder;
-    this.enableH264HighProfile = enableH264HighProfile;
-    this.codecAllowedPredicate = codecAllowedPredicate;
+    this.enableIntelVp8Encoder = builder.enableIntelVp8Encoder;
+    this.enableH264HighProfile = builder.enableH264HighProfile;
+    this.codecAllowedPredicate = builder.codecAllowedPredicate;
+    this.useQpFeedbackBitrateAdjuster = builder.useQpFeedbackBitrateAdjuster;
+    // Copied, so that later changes to the builder don't affect this factory.
+    this.encoderOptions = new HardwareVideoEncoder.Options(builder.encoderOptions);
   }
 
   @Deprecated
@@ -95,18 +237,16 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
   @Override
   public VideoEncoder createEncoder(VideoCodecInfo input) {
     VideoCodecMimeType type = VideoCodecMimeType.valueOf(input.getName());
-    MediaCodecInfo info = findCodecForType(type);
+    MediaCodecCapabilityIndex.Codec info = findCodecForType(type);
 
     if (info == null) {
       return null;
     }
 
-    String codecName = info.getName();
-    String mime = type.mimeType();
-    Integer surfaceColorFormat = MediaCodecUtils.selectColorFormat(
-      MediaCodecUtils.TEXTURE_COLOR_FORMATS, info.getCapabilitiesForType(mime));
-    Integer yuvColorFormat = MediaCodecUtils.selectColorFormat(
-      MediaCodecUtils.ENCODER_COLOR_FORMATS, info.getCapabilitiesForType(mime));
+    String codecName = info.name;
+    Integer surfaceColorFormat =
+      info.selectColorFormat(MediaCodecUtils.TEXTURE_COLOR_FORMATS, type);
+    Integer yuvColorFormat = info.selectColorFormat(MediaCodecUtils.ENCODER_COLOR_FORMATS, type);
 
     if (type == VideoCodecMimeType.H264) {
       boolean isHighProfile = H264Utils.isSameH264Profile(
@@ -125,7 +265,7 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     return new HardwareVideoEncoder(new MediaCodecWrapperFactoryImpl(), codecName, type,
       surfaceColorFormat, yuvColorFormat, input.params, PERIODIC_KEY_FRAME_INTERVAL_S,
       getForcedKeyFrameIntervalMs(type, codecName), createBitrateAdjuster(type, codecName),
-      sharedContext);
+      sharedContext, encoderOptions);
   }
 
   @Override
@@ -136,7 +276,7 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     for (VideoCodecMimeType type :
       new VideoCodecMimeType[] {VideoCodecMimeType.VP8, VideoCodecMimeType.VP9,
         VideoCodecMimeType.H264, VideoCodecMimeType.AV1, VideoCodecMimeType.H265}) {
-      MediaCodecInfo codec = findCodecForType(type);
+      MediaCodecCapabilityIndex.Codec codec = findCodecForType(type);
       if (codec != null) {
         String name = type.name();
         // TODO(sakal): Always add H264 HP once WebRTC correctly removes codecs that are not
@@ -154,19 +294,9 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     return supportedCodecInfos.toArray(new VideoCodecInfo[supportedCodecInfos.size()]);
   }
 
-  private @Nullable MediaCodecInfo findCodecForType(VideoCodecMimeType type) {
-    for (int i = 0; i < MediaCodecList.getCodecCount(); ++i) {
-      MediaCodecInfo info = null;
-      try {
-        info = MediaCodecList.getCodecInfoAt(i);
-      } catch (IllegalArgumentException e) {
-        Logging.e(TAG, "Cannot retrieve encoder codec info", e);
-      }
-
-      if (info == null || !info.isEncoder()) {
-        continue;
-      }
-
+  private @Nullable MediaCodecCapabilityIndex.Codec findCodecForType(VideoCodecMimeType type) {
+    for (MediaCodecCapabilityIndex.Codec info :
+      MediaCodecCapabilityIndex.get().getCodecs(/* encoders= */ true)) {
       if (isSupportedCodec(info, type)) {
         return info;
       }
@@ -174,25 +304,23 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     return null; // No support for this type.
   }
 
-  // Returns true if the given MediaCodecInfo indicates a supported encoder for the given type.
-  private boolean isSupportedCodec(MediaCodecInfo info, VideoCodecMimeType type) {
-    if (!MediaCodecUtils.codecSupportsType(info, type)) {
+  // Returns true if the given codec is a supported encoder for the given type.
+  private boolean isSupportedCodec(MediaCodecCapabilityIndex.Codec info, VideoCodecMimeType type) {
+    if (!info.supportsType(type)) {
       return false;
     }
     // Check for a supported color format.
-    if (MediaCodecUtils.selectColorFormat(
-      MediaCodecUtils.ENCODER_COLOR_FORMATS, info.getCapabilitiesForType(type.mimeType()))
-      == null) {
+    if (info.selectColorFormat(MediaCodecUtils.ENCODER_COLOR_FORMATS, type) == null) {
       return false;
     }
     return isHardwareSupportedInCurrentSdk(info, type) && isMediaCodecAllowed(info);
   }
 
-  // Returns true if the given MediaCodecInfo indicates a hardware module that is supported on the
-  // current SDK.
-  private boolean isHardwareSupportedInCurrentSdk(MediaCodecInfo info, VideoCodecMimeType type) {
+  // Returns true if the given codec is a hardware module that is supported on the current SDK.
+  private boolean isHardwareSupportedInCurrentSdk(
+    MediaCodecCapabilityIndex.Codec info, VideoCodecMimeType type) {
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-      return info.isHardwareAccelerated();
+      return info.isHardwareAccelerated;
     }
 
     switch (type) {
@@ -209,8 +337,8 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     return false;
   }
 
-  private boolean isHardwareSupportedInCurrentSdkVp8(MediaCodecInfo info) {
-    String name = info.getName();
+  private boolean isHardwareSupportedInCurrentSdkVp8(MediaCodecCapabilityIndex.Codec info) {
+    String name = info.name;
     // QCOM Vp8 encoder is always supported.
     return name.startsWith(QCOM_PREFIX)
       // Exynos VP8 encoder is supported in M or later.
@@ -219,28 +347,29 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
       || (name.startsWith(INTEL_PREFIX) && enableIntelVp8Encoder);
   }
 
-  private boolean isHardwareSupportedInCurrentSdkVp9(MediaCodecInfo info) {
-    String name = info.getName();
+  private boolean isHardwareSupportedInCurrentSdkVp9(MediaCodecCapabilityIndex.Codec info) {
+    String name = info.name;
     return (name.startsWith(QCOM_PREFIX) || name.startsWith(EXYNOS_PREFIX))
       // Both QCOM and Exynos VP9 encoders are supported in N or later.
       && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
   }
 
-  private boolean isHardwareSupportedInCurrentSdkH264(MediaCodecInfo info) {
+  private boolean isHardwareSupportedInCurrentSdkH264(MediaCodecCapabilityIndex.Codec info) {
     // First, H264 hardware might perform poorly on this model.
     if (H264_HW_EXCEPTION_MODELS.contains(Build.MODEL)) {
       return false;
     }
-    String name = info.getName();
+    String name = info.name;
     // QCOM and Exynos H264 encoders are always supported.
     return name.startsWith(QCOM_PREFIX) || name.startsWith(EXYNOS_PREFIX);
   }
 
-  private boolean isMediaCodecAllowed(MediaCodecInfo info) {
+  private boolean isMediaCodecAllowed(MediaCodecCapabilityIndex.Codec info) {
     if (codecAllowedPredicate == null) {
       return true;
     }
-    return codecAllowedPredicate.test(info);
+    MediaCodecInfo codecInfo = info.getInfo();
+    return codecInfo != null && codecAllowedPredicate.test(codecInfo);
   }
 
   private int getForcedKeyFrameIntervalMs(VideoCodecMimeType type, String codecName) {
@@ -258,6 +387,9 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
   }
 
   private BitrateAdjuster createBitrateAdjuster(VideoCodecMimeType type, String codecName) {
+    if (useQpFeedbackBitrateAdjuster) {
+      return new QpFeedbackBitrateAdjuster(getMaxQp(type));
+    }
     if (codecName.startsWith(EXYNOS_PREFIX)) {
       if (type == VideoCodecMimeType.VP8) {
         // Exynos VP8 encoders need dynamic bitrate adjustment.
@@ -271,8 +403,22 @@ public class HardwareVideoEncoderFactory implements VideoEncoderFactory {
     return new BaseBitrateAdjuster();
   }
 
-  private boolean isH264HighProfileSupported(MediaCodecInfo info) {
+  private static int getMaxQp(VideoCodecMimeType type) {
+    switch (type) {
+      case VP8:
+      case VP9:
+        return 127;
+      case AV1:
+        return 255;
+      case H264:
+      case H265:
+      default:
+        return 51;
+    }
+  }
+
+  private boolean isH264HighProfileSupported(MediaCodecCapabilityIndex.Codec info) {
     return enableH264HighProfile && Build.VERSION.SDK_INT > Build.VERSION_CODES.M
-      && info.getName().startsWith(EXYNOS_PREFIX);
+      && info.name.startsWith(EXYNOS_PREFIX);
   }
 }
\ No newline at end of file
@@ -75,7 +75,10 @@ public class JavaI420Buffer implements VideoFrame.I420Buffer {
         width, height, dataY, strideY, dataU, strideU, dataV, strideV, releaseCallback);
   }
 
-  /** Allocates an empty I420Buffer suitable for an image of the given dimensions. */
+  /**
+   * Allocates an empty I420Buffer suitable for an image of the given dimensions. The memory is
+   * taken from and returned to {@link NativeByteBufferPool#getDefault()}.
+   */
   public static JavaI420Buffer allocate(int width, int height) {
     int chromaHeight = (height + 1) / 2;
     int strideUV = (width + 1) / 2;
@@ -83,8 +86,8 @@ public class JavaI420Buffer implements VideoFrame.I420Buffer {
     int uPos = yPos + width * height;
     int vPos = uPos + strideUV * chromaHeight;
 
-    ByteBuffer buffer =
-        JniCommon.nativeAllocateByteBuffer(width * height + 2 * strideUV * chromaHeight);
+    final NativeByteBufferPool pool = NativeByteBufferPool.getDefault();
+    ByteBuffer buffer = pool.acquire(width * height + 2 * strideUV * chromaHeight);
 
     buffer.position(yPos);
     buffer.limit(uPos);
@@ -99,7 +102,7 @@ public class JavaI420Buffer implements VideoFrame.I420Buffer {
     ByteBuffer dataV = buffer.slice();
 
     return new JavaI420Buffer(width, height, dataY, width, dataU, strideUV, dataV, strideUV,
-        () -> { JniCommon.nativeFreeByteBuffer(buffer); });
+        () -> { pool.recycle(buffer); });
   }
 
   @Override
@@ -185,11 +188,34 @@ public class JavaI420Buffer implements VideoFrame.I420Buffer {
     }
 
     JavaI420Buffer newBuffer = JavaI420Buffer.allocate(scaleWidth, scaleHeight);
-    nativeCropAndScaleI420(buffer.getDataY(), buffer.getStrideY(), buffer.getDataU(),
-        buffer.getStrideU(), buffer.getDataV(), buffer.getStrideV(), cropX, cropY, cropWidth,
-        cropHeight, newBuffer.getDataY(), newBuffer.getStrideY(), newBuffer.getDataU(),
-        newBuffer.getStrideU(), newBuffer.getDataV(), newBuffer.getStrideV(), scaleWidth,
-        scaleHeight);
+    // With an odd output height the chroma rows are not scaled by the same ratio as the luma rows.
+    if (cropHeight % scaleHeight != 0 || scaleHeight % 2 != 0) {
+      nativeCropAndScaleI420(buffer.getDataY(), buffer.getStrideY(), buffer.getDataU(),
+          buffer.getStrideU(), buffer.getDataV(), buffer.getStrideV(), cropX, cropY, cropWidth,
+          cropHeight, newBuffer.getDataY(), newBuffer.getStrideY(), newBuffer.getDataU(),
+          newBuffer.getStrideU(), newBuffer.getDataV(), newBuffer.getStrideV(), scaleWidth,
+          scaleHeight);
+      return newBuffer;
+    }
+    // With an integer vertical ratio every output row only depends on its own group of input
+    // rows, so stripes of the output can be scaled independently.
+    final int ratio = cropHeight / scaleHeight;
+    final ByteBuffer dstY = newBuffer.getDataY();
+    final ByteBuffer dstU = newBuffer.getDataU();
+    final ByteBuffer dstV = newBuffer.getDataV();
+    final int dstStrideY = newBuffer.getStrideY();
+    final int dstStrideU = newBuffer.getStrideU();
+    final int dstStrideV = newBuffer.getStrideV();
+    YuvHelper.convertInStripes(scaleWidth, scaleHeight, (startRow, endRow) -> {
+      final int chromaRow = startRow / 2;
+      nativeCropAndScaleI420(buffer.getDataY(), buffer.getStrideY(), buffer.getDataU(),
+          buffer.getStrideU(), buffer.getDataV(), buffer.getStrideV(), cropX,
+          cropY + startRow * ratio, cropWidth, (endRow - startRow) * ratio,
+          YuvHelper.offset(dstY, startRow * dstStrideY), dstStrideY,
+          YuvHelper.offset(dstU, chromaRow * dstStrideU), dstStrideU,
+          YuvHelper.offset(dstV, chromaRow * dstStrideV), dstStrideV, scaleWidth,
+          endRow - startRow);
+    });
     return newBuffer;
   }
 
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process wide index of the video codecs of {@link MediaCodecList} and their color formats.
+ * Querying MediaCodecList and the capabilities of each codec goes through binder calls to the
+ * media service, which the codec factories used to repeat for every
+ * {@link VideoEncoderFactory#getSupportedCodecs} and createEncoder/createDecoder call. The index is
+ * built on first use, or in the background with {@link #prefetch}.
+ *
+ * With {@link #prefetch(Context)} the index is also stored in the shared preferences of the app and
+ * loaded from there on the next start, until the OS build fingerprint changes.
+ */
+@SuppressWarnings("deprecation") // API level 16 requires use of deprecated methods.
+public class MediaCodecCapabilityIndex {
+  private static final String TAG = "MediaCodecCapabilityIndex";
+
+  private static final String PREFERENCES_NAME = "org.webrtc.MediaCodecCapabilityIndex";
+  private static final String KEY_FINGERPRINT = "fingerprint";
+  private static final String KEY_INDEX = "index";
+  private static final int VERSION = 1;
+
+  private static final Object lock = new Object();
+  private static @Nullable MediaCodecCapabilityIndex instance;
+  // Context of prefetch(Context), also used when the index is needed before the prefetch started.
+  private static @Nullable Context prefetchContext;
+
+  /** Video codec of the index, with the color formats of the video types it supports. */
+  static class Codec {
+    final String name;
+    final boolean isEncoder;
+    final boolean isHardwareAccelerated;
+    // Color formats by mime type.
+    private final Map<String, int[]> colorFormats;
+    private @Nullable MediaCodecInfo info; /* guarded by index */
+    private MediaCodecCapabilityIndex index;
+
+    private Codec(String name, boolean isEncoder, boolean isHardwareAccelerated,
+        Map<String, int[]> colorFormats, @Nullable MediaCodecInfo info) {
+      this.name = name;
+      this.isEncoder = isEncoder;
+      this.isHardwareAccelerated = isHardwareAccelerated;
+      this.colorFormats = colorFormats;
+      this.info = info;
+    }
+
+    boolean supportsType(VideoCodecMimeType type) {
+      return colorFormats.containsKey(type.mimeType());
+    }
+
+    /** Returns the first of `supportedColorFormats` that the codec supports for `type`. */
+    @Nullable
+    Integer selectColorFormat(int[] supportedColorFormats, VideoCodecMimeType type) {
+      final int[] codecColorFormats = colorFormats.get(type.mimeType());
+      if (codecColorFormats == null) {
+        return null;
+      }
+      return MediaCodecUtils.selectColorFormat(supportedColorFormats, codecColorFormats);
+    }
+
+    /**
+     * Returns the MediaCodecInfo of the codec. For an index loaded from the shared preferences
+     * the infos of all codecs are looked up by name on first use, and are null for codecs that are
+     * no longer listed. Prefer the cached fields where they suffice.
+     */
+    @Nullable
+    MediaCodecInfo getInfo() {
+      synchronized (index) {
+        index.resolveInfos();
+        return info;
+      }
+    }
+  }
+
+  private final List<Codec> codecs;
+  private boolean infosResolved; /* guarded by this */
+
+  private MediaCodecCapabilityIndex(List<Codec> codecs) {
+    this.codecs = Collections.unmodifiableList(codecs);
+    for (Codec codec : codecs) {
+      codec.index = this;
+    }
+  }
+
+  /** Builds the index on a background thread, unless it has been built already. */
+  public static void prefetch() {
+    startPrefetch(/* context= */ null);
+  }
+
+  /**
+   * Builds the index on a background thread, unless it has been built already. The index is
+   * loaded from the shared preferences if it was stored there by the same OS build, otherwise it
+   * is built and stored.
+   */
+  public static void prefetch(Context context) {
+    startPrefetch(context.getApplicationContext());
+  }
+
+  /** Drops the index, including a stored one, so that it is built again on next use. */
+  public static void invalidate(@Nullable Context context) {
+    synchronized (lock) {
+      instance = null;
+      if (context != null) {
+        getPreferences(context.getApplicationContext()).edit().clear().apply();
+      }
+    }
+  }
+
+  /** Returns the index, building it if needed. Blocks while a prefetch is in progress. */
+  static MediaCodecCapabilityIndex get() {
+    return getOrCreate(/* context= */ null);
+  }
+
+  /** Returns the video encoders or decoders in the order of MediaCodecList. */
+  List<Codec> getCodecs(boolean encoders) {
+    final List<Codec> result = new ArrayList<>();
+    for (Codec codec : codecs) {
+      if (codec.isEncoder == encoders) {
+        result.add(codec);
+      }
+    }
+    return result;
+  }
+
+  // Looks up the MediaCodecInfos missing from a loaded index in a single pass over MediaCodecList.
+  private synchronized void resolveInfos() {
+    if (infosResolved) {
+      return;
+    }
+    infosResolved = true;
+    final Map<String, Codec> unresolved = new HashMap<>();
+    for (Codec codec : codecs) {
+      if (codec.info == null) {
+        unresolved.put(getInfoKey(codec.name, codec.isEncoder), codec);
+      }
+    }
+    if (unresolved.isEmpty()) {
+      return;
+    }
+    for (int i = 0; i < MediaCodecList.getCodecCount(); ++i) {
+      final MediaCodecInfo candidate = getCodecInfoAt(i);
+      if (candidate == null) {
+        continue;
+      }
+      final Codec codec = unresolved.get(getInfoKey(candidate.getName(), candidate.isEncoder()));
+      if (codec != null) {
+        codec.info = candidate;
+      }
+    }
+  }
+
+  private static String getInfoKey(String name, boolean isEncoder) {
+    return (isEncoder ? "E" : "D") + name;
+  }
+
+  private static void startPrefetch(@Nullable Context context) {
+    synchronized (lock) {
+      if (instance != null) {
+        return;
+      }
+      if (context != null) {
+        prefetchContext = context;
+      }
+    }
+    final Thread thread = new Thread(() -> getOrCreate(context), TAG);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  /**
+   * Returns the index, loading it from or storing it in the shared preferences of `context`, or of
+   * the context passed to {@link #prefetch(Context)} if it is null.
+   */
+  static MediaCodecCapabilityIndex getOrCreate(@Nullable Context context) {
+    synchronized (lock) {
+      if (instance != null) {
+        return instance;
+      }
+      if (context == null) {
+        context = prefetchContext;
+      }
+      final long startMs = SystemClock.elapsedRealtime();
+      List<Codec> codecs = null;
+      if (context != null) {
+        codecs = load(getPreferences(context));
+      }
+      if (codecs != null) {
+        Logging.d(TAG, "Loaded " + codecs.size() + " codecs in "
+            + (SystemClock.elapsedRealtime() - startMs) + " ms");
+      } else {
+        codecs = build();
+        Logging.d(TAG, "Indexed " + codecs.size() + " codecs in "
+            + (SystemClock.elapsedRealtime() - startMs) + " ms");
+        if (context != null) {
+          store(getPreferences(context), codecs);
+        }
+      }
+      instance = new MediaCodecCapabilityIndex(codecs);
+      return instance;
+    }
+  }
+
+  private static List<Codec> build() {
+    final List<Codec> codecs = new ArrayList<>();
+    for (int i = 0; i < MediaCodecList.getCodecCount(); ++i) {
+      final MediaCodecInfo info = getCodecInfoAt(i);
+      if (info == null) {
+        continue;
+      }
+      final Map<String, int[]> colorFormats = new HashMap<>();
+      for (VideoCodecMimeType type : VideoCodecMimeType.values()) {
+        if (!MediaCodecUtils.codecSupportsType(info, type)) {
+          continue;
+        }
+        try {
+          colorFormats.put(
+              type.mimeType(), info.getCapabilitiesForType(type.mimeType()).colorFormats);
+        } catch (IllegalArgumentException e) {
+          Logging.e(TAG, "Cannot retrieve capabilities of " + info.getName(), e);
+        }
+      }
+      if (!colorFormats.isEmpty()) {
+        codecs.add(new Codec(info.getName(), info.isEncoder(),
+            MediaCodecUtils.isHardwareAccelerated(info), colorFormats, info));
+      }
+    }
+    return codecs;
+  }
+
+  private static @Nullable MediaCodecInfo getCodecInfoAt(int index) {
+    try {
+      return MediaCodecList.getCodecInfoAt(index);
+    } catch (IllegalArgumentException e) {
+      Logging.e(TAG, "Cannot retrieve codec info", e);
+      return null;
+    }
+  }
+
+  private static SharedPreferences getPreferences(Context context) {
+    return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+  }
+
+  private static String getFingerprint() {
+    return VERSION + "/" + Build.FINGERPRINT;
+  }
+
+  // Stores one line per codec: name, E or D, hardware accelerated 1 or 0, and the color formats
+  // as "mime=format,format;mime=format".
+  private static void store(SharedPreferences preferences, List<Codec> codecs) {
+    final StringBuilder index = new StringBuilder();
+    for (Codec codec : codecs) {
+      index.append(codec.name).append('\t').append(codec.isEncoder ? 'E' : 'D').append('\t')
+          .append(codec.isHardwareAccelerated ? '1' : '0').append('\t');
+      boolean firstType = true;
+      for (Map.Entry<String, int[]> entry : codec.colorFormats.entrySet()) {
+        if (!firstType) {
+          index.append(';');
+        }
+        firstType = false;
+        index.append(entry.getKey()).append('=');
+        final int[] formats = entry.getValue();
+        for (int i = 0; i < formats.length; ++i) {
+          if (i > 0) {
+            index.append(',');
+          }
+          index.append(formats[i]);
+        }
+      }
+      index.append('\n');
+    }
+    preferences.edit()
+        .putString(KEY_FINGERPRINT, getFingerprint())
+        .putString(KEY_INDEX, index.toString())
+        .apply();
+  }
+
+  private static @Nullable List<Codec> load(SharedPreferences preferences) {
+    final String index = preferences.getString(KEY_INDEX, null);
+    if (index == null || !getFingerprint().equals(preferences.getString(KEY_FINGERPRINT, null))) {
+      return null;
+    }
+    final List<Codec> codecs = new ArrayList<>();
+    try {
+      for (String line : index.split("\n")) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        final String[] fields = line.split("\t");
+        final Map<String, int[]> colorFormats = new HashMap<>();
+        for (String type : fields[3].split(";")) {
+          final int separator = type.indexOf('=');
+          final String formatList = type.substring(separator + 1);
+          final String[] formatStrings =
+              formatList.isEmpty() ? new String[0] : formatList.split(",");
+          final int[] formats = new int[formatStrings.length];
+          for (int i = 0; i < formats.length; ++i) {
+            formats[i] = Integer.parseInt(formatStrings[i]);
+          }
+          colorFormats.put(type.substring(0, separator), formats);
+        }
+        codecs.add(new Codec(fields[0], fields[1].equals("E"), fields[2].equals("1"),
+            colorFormats, /* info= */ null));
+      }
+    } catch (RuntimeException e) {
+      Logging.w(TAG, "Ignoring malformed stored index", e);
+      return null;
+    }
+    return codecs;
+  }
+}
@@ -15,8 +15,6 @@ import static org.webrtc.MediaCodecUtils.MARVELL_PREFIX;
 import static org.webrtc.MediaCodecUtils.QCOM_PREFIX;
 
 import android.media.MediaCodecInfo;
-import android.media.MediaCodecInfo.CodecCapabilities;
-import android.media.MediaCodecList;
 import android.os.Build;
 import androidx.annotation.Nullable;
 import java.util.ArrayList;
@@ -29,6 +27,9 @@ class MediaCodecVideoDecoderFactory implements VideoDecoderFactory {
 
   private final @Nullable EglBase.Context sharedContext;
   private final @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate;
+  private final boolean hardwareAcceleratedOnly;
+  private final boolean zeroCopyByteBufferOutput;
+  private final boolean useAsyncCodecCallbacks;
 
   /**
    * MediaCodecVideoDecoderFactory with support of codecs filtering.
@@ -40,24 +41,77 @@ class MediaCodecVideoDecoderFactory implements VideoDecoderFactory {
    */
   public MediaCodecVideoDecoderFactory(@Nullable EglBase.Context sharedContext,
                                        @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate) {
+    this(sharedContext, codecAllowedPredicate, /* zeroCopyByteBufferOutput= */ false);
+  }
+
+  /**
+   * MediaCodecVideoDecoderFactory with support of codecs filtering and zero-copy output.
+   *
+   * @param sharedContext The textures generated will be accessible from this context. May be null,
+   *                      this disables texture support.
+   * @param codecAllowedPredicate optional predicate to test if codec allowed. All codecs are
+   *                              allowed when predicate is not provided.
+   * @param zeroCopyByteBufferOutput without texture support, deliver NV12 frames as views of the
+   *                                 codec output buffers instead of copying them to I420.
+   */
+  public MediaCodecVideoDecoderFactory(@Nullable EglBase.Context sharedContext,
+                                       @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate,
+                                       boolean zeroCopyByteBufferOutput) {
+    this(sharedContext, codecAllowedPredicate, zeroCopyByteBufferOutput,
+        /* useAsyncCodecCallbacks= */ false);
+  }
+
+  /**
+   * MediaCodecVideoDecoderFactory with support of codecs filtering, zero-copy output and
+   * asynchronous low latency decoding.
+   *
+   * @param sharedContext The textures generated will be accessible from this context. May be null,
+   *                      this disables texture support.
+   * @param codecAllowedPredicate optional predicate to test if codec allowed. All codecs are
+   *                              allowed when predicate is not provided.
+   * @param zeroCopyByteBufferOutput without texture support, deliver NV12 frames as views of the
+   *                                 codec output buffers instead of copying them to I420.
+   * @param useAsyncCodecCallbacks run the codecs in asynchronous mode with low latency decoding
+   *                               where supported. decode() then never blocks, frames without a
+   *                               free input buffer are dropped until the next key frame.
+   */
+  public MediaCodecVideoDecoderFactory(@Nullable EglBase.Context sharedContext,
+                                       @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate,
+                                       boolean zeroCopyByteBufferOutput,
+                                       boolean useAsyncCodecCallbacks) {
+    this(sharedContext, codecAllowedPredicate, /* hardwareAcceleratedOnly= */ false,
+        zeroCopyByteBufferOutput, useAsyncCodecCallbacks);
+  }
+
+  /**
+   * Like the public constructors, and with `hardwareAcceleratedOnly` only allows hardware
+   * accelerated codecs. That is decided with the cached capabilities of the codec, so that
+   * MediaCodecList is not queried for an index loaded from the shared preferences.
+   */
+  MediaCodecVideoDecoderFactory(@Nullable EglBase.Context sharedContext,
+                                @Nullable Predicate<MediaCodecInfo> codecAllowedPredicate,
+                                boolean hardwareAcceleratedOnly, boolean zeroCopyByteBufferOutput,
+                                boolean useAsyncCodecCallbacks) {
     this.sharedContext = sharedContext;
     this.codecAllowedPredicate = codecAllowedPredicate;
+    this.hardwareAcceleratedOnly = hardwareAcceleratedOnly;
+    this.zeroCopyByteBufferOutput = zeroCopyByteBufferOutput;
+    this.useAsyncCodecCallbacks = useAsyncCodecCallbacks;
   }
 
   @Nullable
   @Override
   public VideoDecoder createDecoder(VideoCodecInfo codecType) {
     VideoCodecMimeType type = VideoCodecMimeType.valueOf(codecType.getName());
-    MediaCodecInfo info = findCodecForType(type);
+    MediaCodecCapabilityIndex.Codec info = findCodecForType(type);
 
     if (info == null) {
       return null;
     }
 
-    CodecCapabilities capabilities = info.getCapabilitiesForType(type.mimeType());
-    return new AndroidVideoDecoder(new MediaCodecWrapperFactoryImpl(), info.getName(), type,
-      MediaCodecUtils.selectColorFormat(MediaCodecUtils.DECODER_COLOR_FORMATS, capabilities),
-      sharedContext);
+    return new AndroidVideoDecoder(new MediaCodecWrapperFactoryImpl(), info.name, type,
+      info.selectColorFormat(MediaCodecUtils.DECODER_COLOR_FORMATS, type),
+      sharedContext, zeroCopyByteBufferOutput, useAsyncCodecCallbacks);
   }
 
   @Override
@@ -68,7 +122,7 @@ class MediaCodecVideoDecoderFactory implements VideoDecoderFactory {
     for (VideoCodecMimeType type :
       new VideoCodecMimeType[] {VideoCodecMimeType.VP8, VideoCodecMimeType.VP9,
         VideoCodecMimeType.H264, VideoCodecMimeType.AV1, VideoCodecMimeType.H265}) {
-      MediaCodecInfo codec = findCodecForType(type);
+      MediaCodecCapabilityIndex.Codec codec = findCodecForType(type);
       if (codec != null) {
         String name = type.name();
         if (type == VideoCodecMimeType.H264 && isH264HighProfileSupported(codec)) {
@@ -84,19 +138,9 @@ class MediaCodecVideoDecoderFactory implements VideoDecoderFactory {
     return supportedCodecInfos.toArray(new VideoCodecInfo[supportedCodecInfos.size()]);
   }
 
-  private @Nullable MediaCodecInfo findCodecForType(VideoCodecMimeType type) {
-    for (int i = 0; i < MediaCodecList.getCodecCount(); ++i) {
-      MediaCodecInfo info = null;
-      try {
-        info = MediaCodecList.getCodecInfoAt(i);
-      } catch (IllegalArgumentException e) {
-        Logging.e(TAG, "Cannot retrieve decoder codec info", e);
-      }
-
-      if (info == null || info.isEncoder()) {
-        continue;
-      }
-
+  private @Nullable MediaCodecCapabilityIndex.Codec findCodecForType(VideoCodecMimeType type) {
+    for (MediaCodecCapabilityIndex.Codec info :
+      MediaCodecCapabilityIndex.get().getCodecs(/* encoders= */ false)) {
       if (isSupportedCodec(info, type)) {
         return info;
       }
@@ -106,28 +150,30 @@ class MediaCodecVideoDecoderFactory implements VideoDecoderFactory {
   }
 
   // Returns true if the given MediaCodecInfo indicates a supported encoder for the given type.
-  private boolean isSupportedCodec(MediaCodecInfo info, VideoCodecMimeType type) {
-    if (!MediaCodecUtils.codecSupportsType(info, type)) {
+  private boolean isSupportedCodec(MediaCodecCapabilityIndex.Codec info, VideoCodecMimeType type) {
+    if (!info.supportsType(type)) {
       return false;
     }
     // Check for a supported color format.
-    if (MediaCodecUtils.selectColorFormat(
-      MediaCodecUtils.DECODER_COLOR_FORMATS, info.getCapabilitiesForType(type.mimeType()))
-      == null) {
+    if (info.selectColorFormat(MediaCodecUtils.DECODER_COLOR_FORMATS, type) == null) {
       return false;
     }
     return isCodecAllowed(info);
   }
 
-  private boolean isCodecAllowed(MediaCodecInfo info) {
+  private boolean isCodecAllowed(MediaCodecCapabilityIndex.Codec info) {
+    if (hardwareAcceleratedOnly && !info.isHardwareAccelerated) {
+      return false;
+    }
     if (codecAllowedPredicate == null) {
       return true;
     }
-    return codecAllowedPredicate.test(info);
+    MediaCodecInfo codecInfo = info.getInfo();
+    return codecInfo != null && codecAllowedPredicate.test(codecInfo);
   }
 
-  private boolean isH264HighProfileSupported(MediaCodecInfo info) {
-    String name = info.getName();
+  private boolean isH264HighProfileSupported(MediaCodecCapabilityIndex.Codec info) {
+    String name = info.name;
     // Support H.264 HP decoding on QCOM and Marvell chips
     if (name.startsWith(QCOM_PREFIX) || name.startsWith(MARVELL_PREFIX)) {
       return true;
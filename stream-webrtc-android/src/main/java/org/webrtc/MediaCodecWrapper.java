@@ -15,8 +15,10 @@ import android.media.MediaCodecInfo;
 import android.media.MediaCrypto;
 import android.media.MediaFormat;
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.Surface;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * Subset of methods defined in {@link android.media.MediaCodec} needed by
@@ -56,5 +58,11 @@ interface MediaCodecWrapper {
 
   void setParameters(Bundle params);
 
+  /** Switches the codec to asynchronous mode. Must be called before configure(). API 23+. */
+  void setCallback(MediaCodec.Callback callback, Handler handler);
+
   MediaCodecInfo getCodecInfo();
+
+  /** Returns the vendor parameters of a configured codec. API 31+. */
+  List<String> getSupportedVendorParameters();
 }
@@ -10,15 +10,18 @@
 
 package org.webrtc;
 
+import android.annotation.TargetApi;
 import android.media.MediaCodec;
 import android.media.MediaCodec.BufferInfo;
 import android.media.MediaCodecInfo;
 import android.media.MediaCrypto;
 import android.media.MediaFormat;
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.Surface;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * Implementation of MediaCodecWrapperFactory that returns MediaCodecInterfaces wrapping
@@ -113,10 +116,22 @@ class MediaCodecWrapperFactoryImpl implements MediaCodecWrapperFactory {
       mediaCodec.setParameters(params);
     }
 
+    @TargetApi(23)
+    @Override
+    public void setCallback(MediaCodec.Callback callback, Handler handler) {
+      mediaCodec.setCallback(callback, handler);
+    }
+
     @Override
     public MediaCodecInfo getCodecInfo() {
       return mediaCodec.getCodecInfo();
     }
+
+    @TargetApi(31)
+    @Override
+    public List<String> getSupportedVendorParameters() {
+      return mediaCodec.getSupportedVendorParameters();
+    }
   }
 
   @Override
@@ -18,8 +18,10 @@ public class NV12Buffer implements VideoFrame.Buffer {
   private final int height;
   private final int stride;
   private final int sliceHeight;
-  private final ByteBuffer buffer;
   private final RefCountDelegate refCountDelegate;
+  // Guards `buffer`, which is replaced by a copy in detachFromSourceBuffer().
+  private final Object bufferLock = new Object();
+  private ByteBuffer buffer; /* guarded by bufferLock */
 
   public NV12Buffer(int width, int height, int stride, int sliceHeight, ByteBuffer buffer,
       @Nullable Runnable releaseCallback) {
@@ -60,12 +62,76 @@ public class NV12Buffer implements VideoFrame.Buffer {
   public VideoFrame.Buffer cropAndScale(
       int cropX, int cropY, int cropWidth, int cropHeight, int scaleWidth, int scaleHeight) {
     JavaI420Buffer newBuffer = JavaI420Buffer.allocate(scaleWidth, scaleHeight);
-    nativeCropAndScale(cropX, cropY, cropWidth, cropHeight, scaleWidth, scaleHeight, buffer, width,
-        height, stride, sliceHeight, newBuffer.getDataY(), newBuffer.getStrideY(),
-        newBuffer.getDataU(), newBuffer.getStrideU(), newBuffer.getDataV(), newBuffer.getStrideV());
+    synchronized (bufferLock) {
+      nativeCropAndScale(cropX, cropY, cropWidth, cropHeight, scaleWidth, scaleHeight, buffer,
+          width, height, stride, sliceHeight, newBuffer.getDataY(), newBuffer.getStrideY(),
+          newBuffer.getDataU(), newBuffer.getStrideU(), newBuffer.getDataV(),
+          newBuffer.getStrideV());
+    }
     return newBuffer;
   }
 
+  /**
+   * Replaces the wrapped memory with a copy owned by this buffer. Used when the memory has to be
+   * returned to its owner, e.g. a codec that is released, while the frame is still in use.
+   */
+  void detachFromSourceBuffer() {
+    synchronized (bufferLock) {
+      final ByteBuffer source = buffer.duplicate();
+      source.clear();
+      final ByteBuffer copy = ByteBuffer.allocateDirect(source.capacity());
+      copy.put(source);
+      copy.clear();
+      buffer = copy;
+    }
+  }
+
+  /**
+   * Copies the buffer into the given NV12 planes without an intermediate buffer. Returns false if
+   * the buffer is not direct, in which case nothing is copied.
+   */
+  boolean copyToNV12(ByteBuffer dstY, int dstStrideY, ByteBuffer dstUV, int dstStrideUV) {
+    synchronized (bufferLock) {
+      return copyToNV12Locked(dstY, dstStrideY, dstUV, dstStrideUV);
+    }
+  }
+
+  private boolean copyToNV12Locked(
+      ByteBuffer dstY, int dstStrideY, ByteBuffer dstUV, int dstStrideUV) {
+    if (!buffer.isDirect()) {
+      return false;
+    }
+    final int chromaHeight = (height + 1) / 2;
+    final int uvWidth = (width + 1) / 2 * 2;
+    final int uvPos = stride * sliceHeight;
+    final ByteBuffer srcY = buffer.duplicate();
+    srcY.clear();
+    srcY.limit(stride * (height - 1) + width);
+    final ByteBuffer srcUV = buffer.duplicate();
+    srcUV.clear();
+    srcUV.position(uvPos);
+    srcUV.limit(uvPos + stride * (chromaHeight - 1) + uvWidth);
+    YuvHelper.copyPlane(srcY.slice(), stride, dstY, dstStrideY, width, height);
+    YuvHelper.copyPlane(srcUV.slice(), stride, dstUV, dstStrideUV, uvWidth, chromaHeight);
+    return true;
+  }
+
+  /**
+   * Converts the buffer into the given I420 planes without an intermediate buffer. Returns false if
+   * the buffer is not direct, in which case nothing is converted.
+   */
+  boolean copyToI420(ByteBuffer dstY, int dstStrideY, ByteBuffer dstU, int dstStrideU,
+      ByteBuffer dstV, int dstStrideV) {
+    synchronized (bufferLock) {
+      if (!buffer.isDirect()) {
+        return false;
+      }
+      nativeCropAndScale(0, 0, width, height, width, height, buffer, width, height, stride,
+          sliceHeight, dstY, dstStrideY, dstU, dstStrideU, dstV, dstStrideV);
+    }
+    return true;
+  }
+
   private static native void nativeCropAndScale(int cropX, int cropY, int cropWidth, int cropHeight,
       int scaleWidth, int scaleHeight, ByteBuffer src, int srcWidth, int srcHeight, int srcStride,
       int srcSliceHeight, ByteBuffer dstY, int dstStrideY, ByteBuffer dstU, int dstStrideU,
@@ -63,6 +63,14 @@ public class NV21Buffer implements VideoFrame.Buffer {
     return newBuffer;
   }
 
+  /** Converts the buffer into the given I420 planes without an intermediate buffer. */
+  void copyToI420(ByteBuffer dstY, int dstStrideY, ByteBuffer dstU, int dstStrideU,
+      ByteBuffer dstV, int dstStrideV) {
+    nativeCropAndScale(0 /* cropX */, 0 /* cropY */, width /* cropWidth */,
+        height /* cropHeight */, width /* scaleWidth */, height /* scaleHeight */, data, width,
+        height, dstY, dstStrideY, dstU, dstStrideU, dstV, dstStrideV);
+  }
+
   private static native void nativeCropAndScale(int cropX, int cropY, int cropWidth, int cropHeight,
       int scaleWidth, int scaleHeight, byte[] src, int srcWidth, int srcHeight, ByteBuffer dstY,
       int dstStrideY, ByteBuffer dstU, int dstStrideU, ByteBuffer dstV, int dstStrideV);
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread safe pool of native byte buffers allocated with
+ * {@link JniCommon#nativeAllocateByteBuffer}. Frame buffers are allocated and freed for every
+ * frame, e.g. by {@link JavaI420Buffer#allocate}, which costs a native malloc/free pair and a new
+ * DirectByteBuffer each time. Returned buffers are kept in buckets of similar size instead, so that
+ * a stream of frames of the same resolution reuses the same few buffers.
+ *
+ * Bucket sizes are rounded up to at most 1/8 above the requested size. The memory held by free
+ * buffers is limited to a configurable cap, and buckets that haven't been used for the idle timeout
+ * are freed, so that the memory is returned after a call or a resolution change. While the pool
+ * holds buffers, a timer frees idle buckets even if the pool isn't used anymore.
+ */
+public class NativeByteBufferPool {
+  private static final String TAG = "NativeByteBufferPool";
+
+  public static final long DEFAULT_MAX_POOLED_BYTES = 32 * 1024 * 1024;
+  public static final long DEFAULT_IDLE_TIMEOUT_MS = 10000;
+  private static final int MIN_BUCKET_SIZE = 4096;
+  private static final long TRIM_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1);
+  private static final String TRIM_THREAD_NAME = "NativeByteBufferPoolTrimThread";
+
+  // Shared by all pools, created when the first trim is scheduled.
+  private static @Nullable Timer trimTimer;
+
+  private static final NativeByteBufferPool defaultPool =
+      new NativeByteBufferPool(DEFAULT_MAX_POOLED_BYTES, DEFAULT_IDLE_TIMEOUT_MS);
+
+  /** Returns the pool used for the buffers allocated by this library. */
+  public static NativeByteBufferPool getDefault() {
+    return defaultPool;
+  }
+
+  private static class Bucket {
+    final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+    long lastUsedNs;
+  }
+
+  // Buckets by size, least recently used first.
+  private final LinkedHashMap<Integer, Bucket> buckets =
+      new LinkedHashMap<>(/* initialCapacity= */ 16, /* loadFactor= */ 0.75f,
+          /* accessOrder= */ true);
+  private long maxPooledBytes;
+  private long idleTimeoutNs;
+  private long pooledBytes;
+  private long lastTrimNs;
+  private long hitCount;
+  private long missCount;
+  // Frees the idle buckets when the least recently used one times out, null if the pool is empty.
+  private @Nullable TimerTask trimTask;
+
+  /**
+   * @param maxPooledBytes maximum number of bytes held by free buffers, 0 disables pooling
+   * @param idleTimeoutMs time after which unused buffers of a size are freed
+   */
+  public NativeByteBufferPool(long maxPooledBytes, long idleTimeoutMs) {
+    this.maxPooledBytes = maxPooledBytes;
+    this.idleTimeoutNs = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+    this.lastTrimNs = System.nanoTime();
+  }
+
+  /**
+   * Returns a native buffer with a capacity of at least `size` bytes and position 0, limit `size`.
+   * The contents are undefined. The buffer must be returned with {@link #recycle}, not with
+   * {@link JniCommon#nativeFreeByteBuffer}.
+   */
+  public ByteBuffer acquire(int size) {
+    final int bucketSize = getBucketSize(size);
+    ByteBuffer buffer = null;
+    synchronized (this) {
+      final long nowNs = System.nanoTime();
+      final Bucket bucket = buckets.get(bucketSize);
+      if (bucket != null) {
+        bucket.lastUsedNs = nowNs;
+        buffer = bucket.buffers.poll();
+      }
+      if (buffer != null) {
+        pooledBytes -= bucketSize;
+        hitCount++;
+      } else {
+        missCount++;
+      }
+      trimIdleBuckets(nowNs);
+    }
+    if (buffer == null) {
+      buffer = allocateBuffer(bucketSize);
+    }
+    buffer.clear();
+    buffer.limit(size);
+    return buffer;
+  }
+
+  /** Returns a buffer obtained from {@link #acquire} to the pool, or frees it. */
+  public void recycle(ByteBuffer buffer) {
+    final int bucketSize = buffer.capacity();
+    synchronized (this) {
+      if (bucketSize <= maxPooledBytes) {
+        final long nowNs = System.nanoTime();
+        evict(maxPooledBytes - bucketSize);
+        Bucket bucket = buckets.get(bucketSize);
+        if (bucket == null) {
+          bucket = new Bucket();
+          buckets.put(bucketSize, bucket);
+        }
+        bucket.lastUsedNs = nowNs;
+        bucket.buffers.push(buffer);
+        pooledBytes += bucketSize;
+        trimIdleBuckets(nowNs);
+        scheduleTrim(nowNs);
+        return;
+      }
+    }
+    freeBuffer(buffer);
+  }
+
+  /** Sets the maximum number of bytes held by free buffers and frees buffers above it. */
+  public synchronized void setMaxPooledBytes(long maxPooledBytes) {
+    this.maxPooledBytes = maxPooledBytes;
+    evict(maxPooledBytes);
+  }
+
+  public synchronized void setIdleTimeoutMs(long idleTimeoutMs) {
+    this.idleTimeoutNs = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+    // Reschedule for the new timeout.
+    if (trimTask != null) {
+      trimTask.cancel();
+      trimTask = null;
+    }
+    scheduleTrim(System.nanoTime());
+  }
+
+  /** Frees all buffers that are currently in the pool. */
+  public synchronized void trim() {
+    evict(/* maxBytes= */ 0);
+  }
+
+  /** Returns the number of bytes held by free buffers. */
+  public synchronized long getPooledBytes() {
+    return pooledBytes;
+  }
+
+  /** Returns the number of acquired buffers that were taken from the pool. */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of acquired buffers that had to be allocated. */
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  ByteBuffer allocateBuffer(int size) {
+    return JniCommon.nativeAllocateByteBuffer(size);
+  }
+
+  void freeBuffer(ByteBuffer buffer) {
+    JniCommon.nativeFreeByteBuffer(buffer);
+  }
+
+  static int getBucketSize(int size) {
+    if (size <= MIN_BUCKET_SIZE) {
+      return MIN_BUCKET_SIZE;
+    }
+    // Round up to a multiple of 1/8 of the next lower power of two.
+    final int step = Integer.highestOneBit(size - 1) / 8;
+    return ((size + step - 1) / step) * step;
+  }
+
+  /** Frees free buffers, least recently used sizes first, until at most `maxBytes` remain. */
+  private void evict(long maxBytes) {
+    final Iterator<Map.Entry<Integer, Bucket>> iterator = buckets.entrySet().iterator();
+    while (pooledBytes > maxBytes && iterator.hasNext()) {
+      final Map.Entry<Integer, Bucket> entry = iterator.next();
+      final Bucket bucket = entry.getValue();
+      while (pooledBytes > maxBytes && !bucket.buffers.isEmpty()) {
+        freeBuffer(bucket.buffers.pollLast());
+        pooledBytes -= entry.getKey();
+      }
+      if (bucket.buffers.isEmpty()) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private void trimIdleBuckets(long nowNs) {
+    if (nowNs - lastTrimNs < TRIM_INTERVAL_NS) {
+      return;
+    }
+    freeIdleBuckets(nowNs);
+  }
+
+  private void freeIdleBuckets(long nowNs) {
+    lastTrimNs = nowNs;
+    final Iterator<Map.Entry<Integer, Bucket>> iterator = buckets.entrySet().iterator();
+    while (iterator.hasNext()) {
+      final Map.Entry<Integer, Bucket> entry = iterator.next();
+      final Bucket bucket = entry.getValue();
+      if (nowNs - bucket.lastUsedNs < idleTimeoutNs) {
+        // Buckets are ordered by access, all following buckets are more recent.
+        break;
+      }
+      if (!bucket.buffers.isEmpty()) {
+        Logging.d(TAG, "Freeing " + bucket.buffers.size() + " idle buffers of " + entry.getKey()
+            + " bytes");
+      }
+      for (ByteBuffer buffer : bucket.buffers) {
+        freeBuffer(buffer);
+        pooledBytes -= entry.getKey();
+      }
+      iterator.remove();
+    }
+  }
+
+  /** Schedules the trim task for when the least recently used bucket times out. */
+  private void scheduleTrim(long nowNs) {
+    if (trimTask != null || buckets.isEmpty()) {
+      return;
+    }
+    final Bucket leastRecentlyUsed = buckets.values().iterator().next();
+    final long delayNs = Math.max(0, leastRecentlyUsed.lastUsedNs + idleTimeoutNs - nowNs);
+    trimTask = new TimerTask() {
+      @Override
+      public void run() {
+        onTrimTask(this);
+      }
+    };
+    getTrimTimer().schedule(trimTask, TimeUnit.NANOSECONDS.toMillis(delayNs) + 1);
+  }
+
+  private synchronized void onTrimTask(TimerTask task) {
+    if (task != trimTask) {
+      return;
+    }
+    trimTask = null;
+    final long nowNs = System.nanoTime();
+    freeIdleBuckets(nowNs);
+    scheduleTrim(nowNs);
+  }
+
+  private static synchronized Timer getTrimTimer() {
+    if (trimTimer == null) {
+      trimTimer = new Timer(TRIM_THREAD_NAME, /* isDaemon= */ true);
+    }
+    return trimTimer;
+  }
+}
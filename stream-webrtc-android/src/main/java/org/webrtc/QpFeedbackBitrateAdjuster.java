@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import androidx.annotation.Nullable;
+
+/**
+ * BitrateAdjuster that keeps the measured output bitrate of the encoder within a tolerance band
+ * around the target. The bitrate configured on the codec is the target times a scale, and the
+ * scale is corrected every adjustment interval by the ratio of the target and the measured
+ * bitrate, so that it converges to whatever the codec needs to hit the target.
+ *
+ * The average QP of delta frames, when the codec reports it, keeps the scale from winding up
+ * while the codec cannot follow: a codec that undershoots at a very low QP is already at its best
+ * quality, and one that overshoots at a very high QP is already at its worst. Codecs that don't
+ * report QP get the same correction without these guards, limited only by the scale range.
+ */
+class QpFeedbackBitrateAdjuster extends BaseBitrateAdjuster {
+  // Measure the output bitrate over half a second of frames.
+  private static final double ADJUSTMENT_INTERVAL_SEC = 0.5;
+  // Output bitrates within 10% of the target are left alone.
+  private static final double TOLERANCE = 0.1;
+  // Fraction of the error corrected per interval, in the log domain.
+  private static final double GAIN = 0.5;
+  private static final double MIN_SCALE = 0.25;
+  private static final double MAX_SCALE = 4;
+  // Errors beyond this factor either way are corrected like this factor, which limits the step of
+  // a single interval to a factor of two.
+  private static final double MAX_ERROR = 4;
+  // Fractions of the QP range considered saturated.
+  private static final double LOW_QP_FRACTION = 0.2;
+  private static final double HIGH_QP_FRACTION = 0.9;
+  private static final double QP_SMOOTHING_FACTOR = 0.2;
+
+  private static final double BITS_PER_BYTE = 8.0;
+
+  private final int maxQp;
+  private double scale = 1;
+  private double intervalBytes;
+  private double intervalSec;
+  // Moving average of the QP of delta frames, -1 until the first report. The QP guards are off
+  // while it is -1, e.g. for codecs without encoding statistics.
+  private double averageQp = -1;
+
+  /** @param maxQp largest QP of the codec, e.g. 51 for H.264 and 127 for VP8 */
+  public QpFeedbackBitrateAdjuster(int maxQp) {
+    this.maxQp = maxQp;
+  }
+
+  @Override
+  public void setTargets(int targetBitrateBps, double targetFramerateFps) {
+    if (targetBitrateBps != this.targetBitrateBps) {
+      // Frames of the interval were encoded for the previous target.
+      intervalBytes = 0;
+      intervalSec = 0;
+    }
+    super.setTargets(targetBitrateBps, targetFramerateFps);
+  }
+
+  @Override
+  public void reportEncodedFrame(int size) {
+    reportEncodedFrame(size, /* qp= */ null, /* isKeyFrame= */ false);
+  }
+
+  @Override
+  public void reportEncodedFrame(int size, @Nullable Integer qp, boolean isKeyFrame) {
+    if (targetFramerateFps == 0 || targetBitrateBps == 0) {
+      return;
+    }
+    // Key frames are coded at a different QP, they would skew the average.
+    if (qp != null && !isKeyFrame) {
+      averageQp = averageQp < 0
+          ? qp
+          : averageQp + QP_SMOOTHING_FACTOR * (qp - averageQp);
+    }
+
+    intervalBytes += size;
+    intervalSec += 1.0 / targetFramerateFps;
+    if (intervalSec < ADJUSTMENT_INTERVAL_SEC) {
+      return;
+    }
+
+    final double measuredBps = intervalBytes * BITS_PER_BYTE / intervalSec;
+    intervalBytes = 0;
+    intervalSec = 0;
+    final double ratio = measuredBps / targetBitrateBps;
+    if (ratio < 1 - TOLERANCE) {
+      if (averageQp >= 0 && averageQp <= maxQp * LOW_QP_FRACTION) {
+        // The codec already spends all the bits the content needs.
+        return;
+      }
+    } else if (ratio > 1 + TOLERANCE) {
+      if (averageQp >= maxQp * HIGH_QP_FRACTION) {
+        // The codec can't reduce the frame sizes any further.
+        return;
+      }
+    } else {
+      return;
+    }
+    final double error = Math.max(1 / MAX_ERROR, Math.min(MAX_ERROR, ratio));
+    scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * Math.pow(error, -GAIN)));
+  }
+
+  @Override
+  public int getAdjustedBitrateBps() {
+    return (int) (targetBitrateBps * scale);
+  }
+}
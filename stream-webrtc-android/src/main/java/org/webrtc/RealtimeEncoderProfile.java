@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Low latency configuration of hardware video encoders, enabled with the realtime option of
+ * {@link HardwareVideoEncoderFactory}. Without it, some SoCs buffer several frames inside the
+ * codec. The profile sets the realtime priority, the operating rate, the low latency key and the
+ * vendor low latency parameters that a codec reports as supported.
+ *
+ * Codecs that misbehave with these keys can be excluded per device with {@link #deny}. Rules are
+ * matched in the order they were added and the last matching rule wins, so {@link #allow} can
+ * re-enable a codec on a specific model.
+ */
+public class RealtimeEncoderProfile {
+  private static final String TAG = "RealtimeEncoderProfile";
+
+  // Vendor parameters that put the encoder in low latency mode. Only set if the codec lists them
+  // in MediaCodec.getSupportedVendorParameters().
+  private static final String[] VENDOR_LOW_LATENCY_KEYS = {
+      "vendor.qti-ext-enc-low-latency.enable",
+  };
+
+  private static class Rule {
+    @Nullable final String model;
+    final String codecNamePrefix;
+    final boolean allowed;
+
+    Rule(@Nullable String model, String codecNamePrefix, boolean allowed) {
+      this.model = model;
+      this.codecNamePrefix = codecNamePrefix;
+      this.allowed = allowed;
+    }
+
+    boolean matches(String model, String codecName) {
+      return (this.model == null || this.model.equals(model))
+          && codecName.startsWith(codecNamePrefix);
+    }
+  }
+
+  private static final List<Rule> rules = new ArrayList<>();
+
+  static {
+    // Software codecs don't buffer frames for throughput, the profile doesn't change them.
+    rules.add(new Rule(/* model= */ null, "OMX.google.", /* allowed= */ false));
+    rules.add(new Rule(/* model= */ null, "c2.android.", /* allowed= */ false));
+  }
+
+  private RealtimeEncoderProfile() {}
+
+  /**
+   * Allows the profile for codecs whose name starts with `codecNamePrefix`, on devices of the
+   * given Build.MODEL or on all devices if `model` is null.
+   */
+  public static synchronized void allow(@Nullable String model, String codecNamePrefix) {
+    rules.add(new Rule(model, codecNamePrefix, /* allowed= */ true));
+  }
+
+  /**
+   * Excludes codecs whose name starts with `codecNamePrefix` from the profile, on devices of the
+   * given Build.MODEL or on all devices if `model` is null.
+   */
+  public static synchronized void deny(@Nullable String model, String codecNamePrefix) {
+    rules.add(new Rule(model, codecNamePrefix, /* allowed= */ false));
+  }
+
+  /** Returns whether the profile may be applied to the codec on this device. */
+  static synchronized boolean isAllowed(String codecName) {
+    boolean allowed = true;
+    for (Rule rule : rules) {
+      if (rule.matches(Build.MODEL, codecName)) {
+        allowed = rule.allowed;
+      }
+    }
+    return allowed;
+  }
+
+  /** Adds the low latency keys to the format passed to configure(). */
+  static void applyToFormat(MediaFormat format, int framerateFps) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+      // 0 is realtime priority.
+      format.setInteger(MediaFormat.KEY_PRIORITY, 0);
+      format.setInteger(MediaFormat.KEY_OPERATING_RATE, framerateFps);
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+      // Output each frame as soon as it is encoded.
+      format.setInteger(MediaFormat.KEY_LATENCY, 1);
+    }
+  }
+
+  /** Enables the vendor low latency parameters the configured codec supports. */
+  static void applyVendorParameters(MediaCodecWrapper codec) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S) {
+      return;
+    }
+    final List<String> supported = codec.getSupportedVendorParameters();
+    final Bundle params = new Bundle();
+    for (String key : VENDOR_LOW_LATENCY_KEYS) {
+      if (supported.contains(key)) {
+        params.putInt(key, 1);
+      }
+    }
+    if (!params.isEmpty()) {
+      Logging.d(TAG, "Setting vendor low latency parameters: " + params.keySet());
+      codec.setParameters(params);
+    }
+  }
+}
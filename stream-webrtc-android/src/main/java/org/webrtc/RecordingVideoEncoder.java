@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+/**
+ * Forwards all calls to the wrapped encoder and mirrors every encoded frame to an
+ * {@link EncodedImageRecorder}. Requests a key frame from the wrapped encoder when the recorder
+ * waits for one.
+ */
+class RecordingVideoEncoder implements VideoEncoder {
+  private static final VideoEncoder.EncodeInfo KEY_FRAME_INFO = new VideoEncoder.EncodeInfo(
+      new EncodedImage.FrameType[] {EncodedImage.FrameType.VideoFrameKey});
+
+  private final VideoEncoder internalEncoder;
+  private final VideoCodecMimeType codecType;
+  private final EncodedImageRecorder recorder;
+
+  public RecordingVideoEncoder(
+      VideoEncoder internalEncoder, VideoCodecMimeType codecType, EncodedImageRecorder recorder) {
+    this.internalEncoder = internalEncoder;
+    this.codecType = codecType;
+    this.recorder = recorder;
+  }
+
+  @Override
+  public VideoCodecStatus initEncode(
+      VideoEncoder.Settings settings, VideoEncoder.Callback callback) {
+    // The recorder only records one of the attached encoders, e.g. one simulcast layer.
+    recorder.attach(this, settings.width, settings.height);
+    return internalEncoder.initEncode(settings, (frame, info) -> {
+      callback.onEncodedFrame(frame, info);
+      // The frame is released by the encoder once this callback returns.
+      recorder.onEncodedFrame(this, frame, codecType);
+    });
+  }
+
+  @Override
+  public VideoCodecStatus release() {
+    recorder.detach(this);
+    return internalEncoder.release();
+  }
+
+  @Override
+  public VideoCodecStatus encode(VideoFrame frame, VideoEncoder.EncodeInfo encodeInfo) {
+    if (recorder.shouldRequestKeyFrame(this)) {
+      return internalEncoder.encode(frame, KEY_FRAME_INFO);
+    }
+    return internalEncoder.encode(frame, encodeInfo);
+  }
+
+  @Override
+  public VideoCodecStatus setRateAllocation(
+      VideoEncoder.BitrateAllocation allocation, int frameRate) {
+    return internalEncoder.setRateAllocation(allocation, frameRate);
+  }
+
+  @Override
+  public VideoEncoder.ScalingSettings getScalingSettings() {
+    return internalEncoder.getScalingSettings();
+  }
+
+  @Override
+  public String getImplementationName() {
+    return internalEncoder.getImplementationName();
+  }
+
+  @Override
+  public boolean isHardwareEncoder() {
+    return internalEncoder.isHardwareEncoder();
+  }
+
+  @Override
+  public VideoCodecStatus setRates(VideoEncoder.RateControlParameters rcParameters) {
+    return internalEncoder.setRates(rcParameters);
+  }
+
+  @Override
+  public VideoEncoder.ResolutionBitrateLimits[] getResolutionBitrateLimits() {
+    return internalEncoder.getResolutionBitrateLimits();
+  }
+
+  @Override
+  public VideoEncoder.EncoderInfo getEncoderInfo() {
+    return internalEncoder.getEncoderInfo();
+  }
+}
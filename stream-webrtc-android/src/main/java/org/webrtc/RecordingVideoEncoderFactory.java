@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Wraps a VideoEncoderFactory so that the encoded output of its encoders is also written to an
+ * {@link EncodedImageRecorder}. This is a much cheaper alternative to recording with a
+ * {@link VideoFileRenderer}, since frames are neither decoded nor read back from the GPU.
+ *
+ * Only encoders that deliver frames through the Java callback can be recorded, e.g. the encoders
+ * of {@link HardwareVideoEncoderFactory}. Factories such as {@link DefaultVideoEncoderFactory} and
+ * {@link SimulcastVideoEncoderFactory} return native wrappers around those encoders; the wrappers
+ * are rebuilt around recording encoders. Encoders implemented in native code, such as the software
+ * encoders, bypass the Java callback and are not recorded, which includes the time after a
+ * software fallback.
+ */
+public class RecordingVideoEncoderFactory implements VideoEncoderFactory {
+  private static final String TAG = "RecordingVideoEncoderFactory";
+
+  private final VideoEncoderFactory factory;
+  private final EncodedImageRecorder recorder;
+
+  public RecordingVideoEncoderFactory(VideoEncoderFactory factory, EncodedImageRecorder recorder) {
+    this.factory = factory;
+    this.recorder = recorder;
+  }
+
+  @Nullable
+  @Override
+  public VideoEncoder createEncoder(VideoCodecInfo videoCodecInfo) {
+    VideoEncoder encoder = factory.createEncoder(videoCodecInfo);
+    if (encoder == null) {
+      return null;
+    }
+    return tapEncoder(encoder, VideoCodecMimeType.valueOf(videoCodecInfo.getName()));
+  }
+
+  /** Returns `encoder` with its Java encoders, if any, wrapped in RecordingVideoEncoders. */
+  private VideoEncoder tapEncoder(VideoEncoder encoder, VideoCodecMimeType codecType) {
+    if (encoder instanceof VideoEncoderFallback) {
+      // The fallback is a software encoder, only the primary can be recorded.
+      final VideoEncoderFallback fallbackEncoder = (VideoEncoderFallback) encoder;
+      return new VideoEncoderFallback(
+          fallbackEncoder.fallback, tapEncoder(fallbackEncoder.primary, codecType));
+    }
+    if (encoder instanceof SimulcastVideoEncoder) {
+      // The layer encoders are created by the native simulcast adapter from the primary factory.
+      final SimulcastVideoEncoder simulcastEncoder = (SimulcastVideoEncoder) encoder;
+      return new SimulcastVideoEncoder(
+          new RecordingVideoEncoderFactory(simulcastEncoder.primary, recorder),
+          simulcastEncoder.fallback, simulcastEncoder.info);
+    }
+    if (encoder instanceof WrappedNativeVideoEncoder) {
+      Logging.w(TAG, "Native encoder " + encoder + " can't be recorded");
+      return encoder;
+    }
+    return new RecordingVideoEncoder(encoder, codecType, recorder);
+  }
+
+  @Override
+  public VideoCodecInfo[] getSupportedCodecs() {
+    return factory.getSupportedCodecs();
+  }
+
+  @Override
+  public VideoCodecInfo[] getImplementations() {
+    return factory.getImplementations();
+  }
+
+  @Override
+  public VideoEncoderSelector getEncoderSelector() {
+    return factory.getEncoderSelector();
+  }
+}
@@ -19,6 +19,7 @@ package org.webrtc
 import java.util.concurrent.Callable
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
 
 /**
  * The main difference with the standard [SimulcastVideoEncoderFactory] is that this fixes issues
@@ -28,6 +29,14 @@ import java.util.concurrent.Executors
  * standard [SimulcastVideoEncoderFactory] and it will use the SW encoder if HW fails
  * or is not available.
  *
+ * Every layer encoder runs on its own thread. By default the caller blocks until a layer has
+ * encoded a frame before the next layer is called, so the layers are encoded one after another.
+ * With [parallelLayerEncoding], a layer only waits for its own previous frame, so all layers of a
+ * frame are encoded concurrently. Errors are then reported with the next frame of the layer.
+ * The layers of each simulcast encoder scale the frames through a [DownscalePyramid] of that
+ * encoder, so every layer size is scaled once per frame from the next larger layer instead of from
+ * the full resolution frame.
+ *
  * Original source: https://github.com/shiguredo/sora-android-sdk/blob/3cc88e806ab2f2327bf3042072
  * e98d6da9df4408/sora-android-sdk/src/main/kotlin/jp/shiguredo/sora/sdk/codec/SimulcastVideoEnc
  * oderFactoryWrapper.kt#L18
@@ -37,10 +46,26 @@ class SimulcastAlignedVideoEncoderFactory(
   enableIntelVp8Encoder: Boolean = true,
   enableH264HighProfile: Boolean = false,
   resolutionAdjustment: ResolutionAdjustment,
+  parallelLayerEncoding: Boolean = false,
 ) : VideoEncoderFactory {
 
+  constructor(
+    sharedContext: EglBase.Context?,
+    enableIntelVp8Encoder: Boolean,
+    enableH264HighProfile: Boolean,
+    resolutionAdjustment: ResolutionAdjustment,
+  ) : this(
+    sharedContext,
+    enableIntelVp8Encoder,
+    enableH264HighProfile,
+    resolutionAdjustment,
+    parallelLayerEncoding = false,
+  )
+
   private class StreamEncoderWrapper(
     private val encoder: VideoEncoder,
+    private val parallelLayerEncoding: Boolean,
+    private val pyramid: DownscalePyramid,
   ) : VideoEncoder {
     companion object {
       val TAG = StreamEncoderWrapper::class.simpleName
@@ -49,11 +74,52 @@ class SimulcastAlignedVideoEncoderFactory(
     private val executor: ExecutorService = Executors.newSingleThreadExecutor()
     private var streamSettings: VideoEncoder.Settings? = null
 
+    /**
+     * Encodes one frame on the executor without blocking the caller. The task is reused for
+     * every frame, and holds a single permit that is taken while a frame is being encoded.
+     */
+    private inner class LayerEncodeTask : Runnable {
+      private val idle = Semaphore(1)
+      private var frame: VideoFrame? = null
+      private var encodeInfo: VideoEncoder.EncodeInfo? = null
+      private var lastStatus = VideoCodecStatus.OK
+
+      /** Waits for the previous frame and starts encoding [frame]. Returns the previous status. */
+      fun submit(frame: VideoFrame, encodeInfo: VideoEncoder.EncodeInfo?): VideoCodecStatus {
+        idle.acquireUninterruptibly()
+        val previousStatus = lastStatus
+        frame.retain()
+        this.frame = frame
+        this.encodeInfo = encodeInfo
+        executor.execute(this)
+        return previousStatus
+      }
+
+      override fun run() {
+        val frame = this.frame!!
+        try {
+          lastStatus = encodeOnExecutor(frame, encodeInfo)
+        } catch (e: RuntimeException) {
+          Logging.e(TAG, "encode failed", e)
+          lastStatus = VideoCodecStatus.ERROR
+        } finally {
+          frame.release()
+          this.frame = null
+          this.encodeInfo = null
+          idle.release()
+        }
+      }
+    }
+
+    private val layerEncodeTask = LayerEncodeTask()
+
     override fun initEncode(
       settings: VideoEncoder.Settings,
       callback: VideoEncoder.Callback?,
     ): VideoCodecStatus {
+      streamSettings?.let { pyramid.removeLayer(it.width, it.height) }
       streamSettings = settings
+      pyramid.addLayer(settings.width, settings.height)
       val future = executor.submit(
         Callable {
           Logging.v(
@@ -79,35 +145,45 @@ class SimulcastAlignedVideoEncoderFactory(
 
     override fun release(): VideoCodecStatus {
       val future = executor.submit(Callable { return@Callable encoder.release() })
-      return future.get()
+      val result = future.get()
+      streamSettings?.let { pyramid.removeLayer(it.width, it.height) }
+      streamSettings = null
+      return result
     }
 
     override fun encode(frame: VideoFrame, encodeInfo: VideoEncoder.EncodeInfo?): VideoCodecStatus {
-      val future = executor.submit(
-        Callable {
-          return@Callable streamSettings?.let {
-            if (frame.buffer.width == it.width) {
-              encoder.encode(frame, encodeInfo)
-            } else {
-              val originalWidth = frame.buffer.width
-              val originalHeight = frame.buffer.height
-              val scaledBuffer = frame.buffer.cropAndScale(
-                0, 0, originalWidth, originalHeight,
-                it.width, it.height,
-              )
-              val scaledFrame = VideoFrame(scaledBuffer, frame.rotation, frame.timestampNs)
-              val result = encoder.encode(scaledFrame, encodeInfo)
-              scaledBuffer.release()
-              result
-            }
-          } ?: run {
-            VideoCodecStatus.ERROR
-          }
-        },
-      )
+      if (parallelLayerEncoding) {
+        val previousStatus = layerEncodeTask.submit(frame, encodeInfo)
+        // Dropped frames don't need to be reported late, errors do.
+        return if (previousStatus == VideoCodecStatus.NO_OUTPUT) {
+          VideoCodecStatus.OK
+        } else {
+          previousStatus
+        }
+      }
+      val future = executor.submit(Callable { return@Callable encodeOnExecutor(frame, encodeInfo) })
       return future.get()
     }
 
+    private fun encodeOnExecutor(
+      frame: VideoFrame,
+      encodeInfo: VideoEncoder.EncodeInfo?,
+    ): VideoCodecStatus {
+      return streamSettings?.let {
+        if (frame.buffer.width == it.width) {
+          encoder.encode(frame, encodeInfo)
+        } else {
+          val scaledBuffer = pyramid.getScaledBuffer(frame, it.width, it.height)
+          val scaledFrame = VideoFrame(scaledBuffer, frame.rotation, frame.timestampNs)
+          val result = encoder.encode(scaledFrame, encodeInfo)
+          scaledBuffer.release()
+          result
+        }
+      } ?: run {
+        VideoCodecStatus.ERROR
+      }
+    }
+
     override fun setRateAllocation(
       allocation: VideoEncoder.BitrateAllocation?,
       frameRate: Int,
@@ -136,13 +212,16 @@ class SimulcastAlignedVideoEncoderFactory(
 
   private class StreamEncoderWrapperFactory(
     private val factory: VideoEncoderFactory,
+    private val parallelLayerEncoding: Boolean,
+    // Shared by the layers of one simulcast encoder.
+    private val pyramid: DownscalePyramid,
   ) : VideoEncoderFactory {
     override fun createEncoder(videoCodecInfo: VideoCodecInfo?): VideoEncoder? {
       val encoder = factory.createEncoder(videoCodecInfo)
       if (encoder == null) {
         return null
       }
-      return StreamEncoderWrapper(encoder)
+      return StreamEncoderWrapper(encoder, parallelLayerEncoding, pyramid)
     }
 
     override fun getSupportedCodecs(): Array<VideoCodecInfo> {
@@ -150,7 +229,8 @@ class SimulcastAlignedVideoEncoderFactory(
     }
   }
 
-  private val primary: VideoEncoderFactory
+  private val encoderFactory: VideoEncoderFactory
+  private val parallelLayerEncoding: Boolean
   private val fallback: VideoEncoderFactory?
   private val native: SimulcastVideoEncoderFactory
 
@@ -161,7 +241,7 @@ class SimulcastAlignedVideoEncoderFactory(
       enableH264HighProfile,
     )
 
-    val encoderFactory = if (resolutionAdjustment == ResolutionAdjustment.NONE) {
+    encoderFactory = if (resolutionAdjustment == ResolutionAdjustment.NONE) {
       hardwareVideoEncoderFactory
     } else {
       HardwareVideoEncoderWrapperFactory(
@@ -170,13 +250,19 @@ class SimulcastAlignedVideoEncoderFactory(
       )
     }
 
-    primary = StreamEncoderWrapperFactory(encoderFactory)
+    this.parallelLayerEncoding = parallelLayerEncoding
     fallback = SoftwareVideoEncoderFactory()
-    native = SimulcastVideoEncoderFactory(primary, fallback)
+    native = SimulcastVideoEncoderFactory(encoderFactory, fallback)
   }
 
   override fun createEncoder(info: VideoCodecInfo?): VideoEncoder? {
-    return native.createEncoder(info)
+    // The layer encoders are created by the native simulcast adapter, all through this factory.
+    val primary = StreamEncoderWrapperFactory(
+      encoderFactory,
+      parallelLayerEncoding,
+      DownscalePyramid(),
+    )
+    return SimulcastVideoEncoderFactory(primary, fallback).createEncoder(info)
   }
 
   override fun getSupportedCodecs(): Array<VideoCodecInfo> {
@@ -13,10 +13,19 @@ package org.webrtc;
 import android.graphics.Matrix;
 import android.os.Handler;
 import androidx.annotation.Nullable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Android texture buffer that glues together the necessary information together with a generic
  * release callback. ToI420() is implemented by providing a Handler and a YuvConverter.
+ *
+ * The result of toI420() is cached until the buffer is destroyed, and shared by the buffer and
+ * all buffers derived from it with cropAndScale() or applyTransformMatrix(). Consumers of a frame
+ * that is fanned out to several sinks therefore only pay for one conversion per distinct crop and
+ * scale. Like all frame buffers, the returned I420 buffers must not be modified.
  */
 public class TextureBufferImpl implements VideoFrame.TextureBuffer {
   interface RefCountMonitor {
@@ -25,6 +34,92 @@ public class TextureBufferImpl implements VideoFrame.TextureBuffer {
     void onDestroy(TextureBufferImpl textureBuffer);
   }
 
+  /** Receives the result of {@link #toI420Async}. */
+  public interface I420Callback {
+    /**
+     * Called on the toI420 handler thread with the converted buffer, or with null if the
+     * conversion failed. The receiver must release the buffer.
+     */
+    void onI420Buffer(@Nullable VideoFrame.I420Buffer i420Buffer);
+  }
+
+  private static final String TAG = "TextureBufferImpl";
+
+  private static final AtomicLong avoidedConversions = new AtomicLong();
+
+  /** Identifies the output of a conversion within a family of derived buffers. */
+  private static class I420CacheKey {
+    private final int width;
+    private final int height;
+    private final int unscaledWidth;
+    private final int unscaledHeight;
+    private final float[] matrixValues = new float[9];
+
+    I420CacheKey(TextureBufferImpl buffer) {
+      this.width = buffer.width;
+      this.height = buffer.height;
+      this.unscaledWidth = buffer.unscaledWidth;
+      this.unscaledHeight = buffer.unscaledHeight;
+      buffer.transformMatrix.getValues(matrixValues);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof I420CacheKey)) {
+        return false;
+      }
+      final I420CacheKey key = (I420CacheKey) other;
+      return width == key.width && height == key.height && unscaledWidth == key.unscaledWidth
+          && unscaledHeight == key.unscaledHeight && Arrays.equals(matrixValues, key.matrixValues);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * width + height) + Arrays.hashCode(matrixValues);
+    }
+  }
+
+  /** Converted buffers of a texture, owned by the buffer the others are derived from. */
+  private static class I420Cache {
+    private final Map<I420CacheKey, VideoFrame.I420Buffer> buffers = new HashMap<>();
+    private boolean released;
+
+    /** Returns a retained cached buffer or null. */
+    @Nullable
+    public synchronized VideoFrame.I420Buffer get(I420CacheKey key) {
+      final VideoFrame.I420Buffer buffer = buffers.get(key);
+      if (buffer != null) {
+        buffer.retain();
+        avoidedConversions.incrementAndGet();
+      }
+      return buffer;
+    }
+
+    public synchronized void put(I420CacheKey key, VideoFrame.I420Buffer buffer) {
+      if (released) {
+        return;
+      }
+      buffer.retain();
+      buffers.put(key, buffer);
+    }
+
+    public synchronized void release() {
+      for (VideoFrame.I420Buffer buffer : buffers.values()) {
+        buffer.release();
+      }
+      buffers.clear();
+      released = true;
+    }
+  }
+
+  /**
+   * Returns the number of toI420() calls, process wide, that were served from the cache instead of
+   * running a conversion.
+   */
+  public static long getAvoidedI420ConversionCount() {
+    return avoidedConversions.get();
+  }
+
   // This is the full resolution the texture has in memory after applying the transformation matrix
   // that might include cropping. This resolution is useful to know when sampling the texture to
   // avoid downscaling artifacts.
@@ -40,6 +135,7 @@ public class TextureBufferImpl implements VideoFrame.TextureBuffer {
   private final YuvConverter yuvConverter;
   private final RefCountDelegate refCountDelegate;
   private final RefCountMonitor refCountMonitor;
+  private final I420Cache i420Cache;
 
   public TextureBufferImpl(int width, int height, Type type, int id, Matrix transformMatrix,
       Handler toI420Handler, YuvConverter yuvConverter, @Nullable Runnable releaseCallback) {
@@ -57,18 +153,18 @@ public class TextureBufferImpl implements VideoFrame.TextureBuffer {
               releaseCallback.run();
             }
           }
-        });
+        }, /* parentI420Cache= */ null);
   }
 
   TextureBufferImpl(int width, int height, Type type, int id, Matrix transformMatrix,
       Handler toI420Handler, YuvConverter yuvConverter, RefCountMonitor refCountMonitor) {
     this(width, height, width, height, type, id, transformMatrix, toI420Handler, yuvConverter,
-        refCountMonitor);
+        refCountMonitor, /* parentI420Cache= */ null);
   }
 
   private TextureBufferImpl(int unscaledWidth, int unscaledHeight, int width, int height, Type type,
       int id, Matrix transformMatrix, Handler toI420Handler, YuvConverter yuvConverter,
-      RefCountMonitor refCountMonitor) {
+      RefCountMonitor refCountMonitor, @Nullable I420Cache parentI420Cache) {
     this.unscaledWidth = unscaledWidth;
     this.unscaledHeight = unscaledHeight;
     this.width = width;
@@ -78,8 +174,19 @@ public class TextureBufferImpl implements VideoFrame.TextureBuffer {
     this.transformMatrix = transformMatrix;
     this.toI420Handler = toI420Handler;
     this.yuvConverter = yuvConverter;
-    this.refCountDelegate = new RefCountDelegate(() -> refCountMonitor.onDestroy(this));
     this.refCountMonitor = refCountMonitor;
+    if (parentI420Cache == null) {
+      // Derived buffers keep this buffer alive, so the cache is released last.
+      final I420Cache cache = new I420Cache();
+      this.i420Cache = cache;
+      this.refCountDelegate = new RefCountDelegate(() -> {
+        cache.release();
+        refCountMonitor.onDestroy(this);
+      });
+    } else {
+      this.i420Cache = parentI420Cache;
+      this.refCountDelegate = new RefCountDelegate(() -> refCountMonitor.onDestroy(this));
+    }
   }
 
   @Override
@@ -109,8 +216,63 @@ public class TextureBufferImpl implements VideoFrame.TextureBuffer {
 
   @Override
   public VideoFrame.I420Buffer toI420() {
+    final I420CacheKey key = new I420CacheKey(this);
+    final VideoFrame.I420Buffer cached = i420Cache.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    return ThreadUtils.invokeAtFrontUninterruptibly(toI420Handler, () -> convertToI420(key));
+  }
+
+  /**
+   * Converts the buffer to I420 like {@link #toI420()}, but returns right away instead of blocking
+   * until the texture has been read back. This lets callers overlap the conversion of one frame
+   * with the processing of the previous one. The buffer is retained until the conversion is done,
+   * so the caller may release it after this call. Callbacks run in the order of the calls.
+   */
+  public void toI420Async(I420Callback callback) {
+    final I420CacheKey key = new I420CacheKey(this);
+    retain();
+    final boolean posted = toI420Handler.post(() -> {
+      final VideoFrame.I420Buffer i420Buffer;
+      try {
+        i420Buffer = convertToI420(key);
+      } finally {
+        release();
+      }
+      callback.onI420Buffer(i420Buffer);
+    });
+    if (!posted) {
+      Logging.w(TAG, "toI420 handler is not running, can't convert");
+      release();
+      callback.onI420Buffer(null);
+    }
+  }
+
+  // Runs on the toI420 handler.
+  @Nullable
+  private VideoFrame.I420Buffer convertToI420(I420CacheKey key) {
+    // Another caller may have converted the same buffer while this call was waiting.
+    final VideoFrame.I420Buffer converted = i420Cache.get(key);
+    if (converted != null) {
+      return converted;
+    }
+    final VideoFrame.I420Buffer buffer = yuvConverter.convert(this);
+    if (buffer != null) {
+      i420Cache.put(key, buffer);
+    }
+    return buffer;
+  }
+
+  /**
+   * Converts the texture to NV12 on the toI420 handler, like {@link #toI420()}. Consumers that need
+   * NV12 should prefer this over converting the result of toI420() on the CPU. Returns null if the
+   * conversion failed.
+   */
+  @Nullable
+  public NV12Buffer toNV12() {
     return ThreadUtils.invokeAtFrontUninterruptibly(
-        toI420Handler, () -> yuvConverter.convert(this));
+        toI420Handler, () -> yuvConverter.convertToNV12(this));
   }
 
   @Override
@@ -198,6 +360,6 @@ public class TextureBufferImpl implements VideoFrame.TextureBuffer {
           public void onDestroy(TextureBufferImpl textureBuffer) {
             release();
           }
-        });
+        }, i420Cache);
   }
 }
@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Steps the video quality down as the device heats up, before the OS throttles the CPU and the
+ * encoders collapse. The governor listens to the thermal status of {@link PowerManager} (API 29+)
+ * and polls the thermal headroom forecast (API 30+), which warns before the status changes.
+ *
+ * Each {@link Level} caps the output format of the {@link VideoSource} through
+ * {@link VideoSource#adaptOutputFormat}, and the frame rate and bitrate of the encodings of the
+ * added {@link RtpSender}s. While running, the governor owns the output format of the source.
+ * Levels are raised as soon as the device gets hotter, and lowered one at a time after it stayed
+ * cooler for {@link #RECOVERY_DELAY_MS}, so that the quality doesn't oscillate around a threshold.
+ * Every decision is logged.
+ */
+public class ThermalEncodingGovernor {
+  private static final String TAG = "ThermalEncodingGovernor";
+
+  /** Time the device has to stay cooler before the level is lowered by one step. */
+  public static final long RECOVERY_DELAY_MS = 30000;
+  private static final long HEADROOM_POLL_INTERVAL_MS = 10000;
+  private static final int HEADROOM_FORECAST_SECONDS = 10;
+  // Headroom thresholds for levels 1 to 4. A headroom of 1 is the forecast of SEVERE throttling.
+  private static final float[] HEADROOM_THRESHOLDS = {0.85f, 0.95f, 1.05f, 1.2f};
+  // Headroom has to drop this much below a threshold to count as cooler.
+  private static final float HEADROOM_HYSTERESIS = 0.05f;
+
+  /** Caps applied at a thermal level, relative to the unthrottled format and encodings. */
+  public enum Level {
+    NONE(1.0, Integer.MAX_VALUE, 1.0),
+    LIGHT(1.0, 24, 0.8),
+    MODERATE(0.75, 20, 0.6),
+    SEVERE(0.5, 15, 0.4),
+    CRITICAL(0.5, 10, 0.25);
+
+    /** Scale of the width and height of the output format. */
+    public final double resolutionScale;
+    /** Maximum frame rate of the output format and encodings. */
+    public final int maxFramerate;
+    /** Scale of the maximum bitrate of the encodings. */
+    public final double bitrateScale;
+
+    Level(double resolutionScale, int maxFramerate, double bitrateScale) {
+      this.resolutionScale = resolutionScale;
+      this.maxFramerate = maxFramerate;
+      this.bitrateScale = bitrateScale;
+    }
+  }
+
+  /** The unthrottled limits of an encoding, restored at level NONE. */
+  private static class EncodingLimits {
+    final Integer maxBitrateBps;
+    final Integer maxFramerate;
+
+    EncodingLimits(Integer maxBitrateBps, Integer maxFramerate) {
+      this.maxBitrateBps = maxBitrateBps;
+      this.maxFramerate = maxFramerate;
+    }
+  }
+
+  private final Context context;
+  private final VideoSource videoSource;
+  private final int maxWidth;
+  private final int maxHeight;
+  private final int maxFramerate;
+  private final HandlerThread governorThread;
+  private final Handler governorHandler;
+  private final Runnable pollHeadroom = this::pollHeadroom;
+  private final Runnable recover = this::recover;
+
+  // All fields below are guarded by `this`.
+  private final Map<RtpSender, List<EncodingLimits>> senders = new IdentityHashMap<>();
+  private Object thermalStatusListener;
+  private int thermalStatus;
+  private float headroom = Float.NaN;
+  private Level level = Level.NONE;
+  // Time since which the device is cooler than the current level, -1 if it isn't.
+  private long coolerSinceMs = -1;
+  private boolean running;
+
+  /**
+   * @param context any context, used to get the PowerManager
+   * @param videoSource source whose output format is capped
+   * @param maxWidth width of the unthrottled output format
+   * @param maxHeight height of the unthrottled output format
+   * @param maxFramerate frame rate of the unthrottled output format
+   */
+  public ThermalEncodingGovernor(Context context, VideoSource videoSource, int maxWidth,
+      int maxHeight, int maxFramerate) {
+    this.context = context.getApplicationContext();
+    this.videoSource = videoSource;
+    this.maxWidth = maxWidth;
+    this.maxHeight = maxHeight;
+    this.maxFramerate = maxFramerate;
+    governorThread = new HandlerThread(TAG);
+    governorThread.start();
+    governorHandler = new Handler(governorThread.getLooper());
+  }
+
+  /**
+   * Caps the encodings of `sender`. The maximum bitrate and frame rate the encodings have now are
+   * the unthrottled limits; encodings without a maximum bitrate only get their frame rate capped.
+   */
+  public synchronized void addSender(RtpSender sender) {
+    final List<EncodingLimits> limits = new ArrayList<>();
+    for (RtpParameters.Encoding encoding : sender.getParameters().encodings) {
+      limits.add(new EncodingLimits(encoding.maxBitrateBps, encoding.maxFramerate));
+    }
+    senders.put(sender, limits);
+    if (level != Level.NONE) {
+      applyToSender(sender, limits, level);
+    }
+  }
+
+  /** Restores the unthrottled limits of the encodings of `sender` and stops capping them. */
+  public synchronized void removeSender(RtpSender sender) {
+    final List<EncodingLimits> limits = senders.remove(sender);
+    if (limits != null && level != Level.NONE) {
+      applyToSender(sender, limits, Level.NONE);
+    }
+  }
+
+  /** Starts following the thermal state. Does nothing below API 29. */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+      Logging.w(TAG, "Thermal status is not available below API 29");
+      return;
+    }
+    running = true;
+    addThermalStatusListener();
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+      governorHandler.post(pollHeadroom);
+    }
+    Logging.d(TAG, "Started, unthrottled format " + maxWidth + "x" + maxHeight + "@"
+        + maxFramerate);
+  }
+
+  /** Stops following the thermal state and restores the unthrottled format and encodings. */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    governorHandler.removeCallbacks(pollHeadroom);
+    removeThermalStatusListener();
+    stopRecovery();
+    setLevel(Level.NONE, "stopped");
+  }
+
+  /** Stops the governor and its thread. */
+  public void dispose() {
+    stop();
+    governorThread.quitSafely();
+  }
+
+  public synchronized Level getLevel() {
+    return level;
+  }
+
+  @TargetApi(29)
+  private void addThermalStatusListener() {
+    final PowerManager powerManager =
+        (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+    final PowerManager.OnThermalStatusChangedListener listener = this::onThermalStatusChanged;
+    thermalStatusListener = listener;
+    // Reports the current status right away.
+    powerManager.addThermalStatusListener(governorHandler::post, listener);
+  }
+
+  @TargetApi(29)
+  private void removeThermalStatusListener() {
+    final PowerManager powerManager =
+        (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+    powerManager.removeThermalStatusListener(
+        (PowerManager.OnThermalStatusChangedListener) thermalStatusListener);
+    thermalStatusListener = null;
+  }
+
+  private synchronized void onThermalStatusChanged(int status) {
+    if (!running) {
+      return;
+    }
+    Logging.d(TAG, "Thermal status " + status);
+    thermalStatus = status;
+    update();
+  }
+
+  @TargetApi(30)
+  private void pollHeadroom() {
+    final PowerManager powerManager =
+        (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+    // Binder call, made outside the lock. NaN if unsupported or polled too often.
+    final float newHeadroom = powerManager.getThermalHeadroom(HEADROOM_FORECAST_SECONDS);
+    synchronized (this) {
+      if (!running) {
+        return;
+      }
+      headroom = newHeadroom;
+      update();
+      governorHandler.postDelayed(pollHeadroom, HEADROOM_POLL_INTERVAL_MS);
+    }
+  }
+
+  // Runs when the recovery delay elapsed. The thermal status listener only reports changes, and
+  // below API 30 nothing is polled, so the level would otherwise never be lowered.
+  private synchronized void recover() {
+    if (!running) {
+      return;
+    }
+    update();
+  }
+
+  /** Moves towards the level the current thermal state calls for. */
+  private void update() {
+    final long nowMs = SystemClock.elapsedRealtime();
+    final Level statusLevel = getStatusLevel(thermalStatus);
+    final int targetOrdinal = Math.max(statusLevel.ordinal(),
+        getHeadroomLevel(headroom, /* hysteresis= */ 0).ordinal());
+    if (targetOrdinal > level.ordinal()) {
+      stopRecovery();
+      setLevel(Level.values()[targetOrdinal],
+          "status " + thermalStatus + ", headroom " + headroom);
+      return;
+    }
+    // Only cooler if the headroom also left the current level by the hysteresis margin.
+    final int coolerOrdinal = Math.max(statusLevel.ordinal(),
+        getHeadroomLevel(headroom, HEADROOM_HYSTERESIS).ordinal());
+    if (coolerOrdinal >= level.ordinal()) {
+      stopRecovery();
+      return;
+    }
+    if (coolerSinceMs < 0) {
+      startRecovery(nowMs);
+      Logging.d(TAG, "Cooler than " + level + " (status " + thermalStatus + ", headroom "
+          + headroom + "), recovering in " + RECOVERY_DELAY_MS + " ms");
+      return;
+    }
+    if (nowMs - coolerSinceMs >= RECOVERY_DELAY_MS) {
+      setLevel(Level.values()[level.ordinal() - 1],
+          "cooler for " + RECOVERY_DELAY_MS + " ms, status " + thermalStatus + ", headroom "
+              + headroom);
+      if (level == Level.NONE) {
+        stopRecovery();
+      } else {
+        // Restart the delay for the next step.
+        startRecovery(nowMs);
+      }
+    }
+  }
+
+  private void startRecovery(long nowMs) {
+    coolerSinceMs = nowMs;
+    governorHandler.removeCallbacks(recover);
+    governorHandler.postDelayed(recover, RECOVERY_DELAY_MS);
+  }
+
+  private void stopRecovery() {
+    coolerSinceMs = -1;
+    governorHandler.removeCallbacks(recover);
+  }
+
+  private static Level getStatusLevel(int thermalStatus) {
+    switch (thermalStatus) {
+      case PowerManager.THERMAL_STATUS_NONE:
+        return Level.NONE;
+      case PowerManager.THERMAL_STATUS_LIGHT:
+        return Level.LIGHT;
+      case PowerManager.THERMAL_STATUS_MODERATE:
+        return Level.MODERATE;
+      case PowerManager.THERMAL_STATUS_SEVERE:
+        return Level.SEVERE;
+      default:
+        return Level.CRITICAL;
+    }
+  }
+
+  private static Level getHeadroomLevel(float headroom, float hysteresis) {
+    // NaN compares false, so an unknown headroom adds no level.
+    int ordinal = 0;
+    for (float threshold : HEADROOM_THRESHOLDS) {
+      if (headroom >= threshold - hysteresis) {
+        ordinal++;
+      }
+    }
+    return Level.values()[ordinal];
+  }
+
+  private void setLevel(Level newLevel, String reason) {
+    if (newLevel == level) {
+      return;
+    }
+    final int width = scale(maxWidth, newLevel.resolutionScale);
+    final int height = scale(maxHeight, newLevel.resolutionScale);
+    final int framerate = Math.min(maxFramerate, newLevel.maxFramerate);
+    Logging.d(TAG, "Level " + level + " -> " + newLevel + " (" + reason + "): output format "
+        + width + "x" + height + "@" + framerate + ", bitrate scale " + newLevel.bitrateScale);
+    level = newLevel;
+    videoSource.adaptOutputFormat(width, height, framerate);
+    for (Map.Entry<RtpSender, List<EncodingLimits>> entry : senders.entrySet()) {
+      applyToSender(entry.getKey(), entry.getValue(), newLevel);
+    }
+  }
+
+  private void applyToSender(RtpSender sender, List<EncodingLimits> limits, Level level) {
+    final RtpParameters parameters = sender.getParameters();
+    final int count = Math.min(limits.size(), parameters.encodings.size());
+    for (int i = 0; i < count; i++) {
+      final RtpParameters.Encoding encoding = parameters.encodings.get(i);
+      final EncodingLimits encodingLimits = limits.get(i);
+      if (level == Level.NONE) {
+        encoding.maxBitrateBps = encodingLimits.maxBitrateBps;
+        encoding.maxFramerate = encodingLimits.maxFramerate;
+        continue;
+      }
+      if (encodingLimits.maxBitrateBps != null) {
+        encoding.maxBitrateBps = (int) (encodingLimits.maxBitrateBps * level.bitrateScale);
+      }
+      encoding.maxFramerate = encodingLimits.maxFramerate != null
+          ? Math.min(encodingLimits.maxFramerate, level.maxFramerate)
+          : level.maxFramerate;
+    }
+    if (!sender.setParameters(parameters)) {
+      Logging.w(TAG, "Failed to apply " + level + " to sender " + sender.id());
+    }
+  }
+
+  // Scales a dimension, keeping it even for the I420 chroma planes.
+  private static int scale(int size, double scale) {
+    return Math.max(2, (int) Math.round(size * scale / 2) * 2);
+  }
+}
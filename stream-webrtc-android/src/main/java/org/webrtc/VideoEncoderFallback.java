@@ -14,8 +14,8 @@ package org.webrtc;
  * A combined video encoder that falls back on a secondary encoder if the primary encoder fails.
  */
 public class VideoEncoderFallback extends WrappedNativeVideoEncoder {
-  private final VideoEncoder fallback;
-  private final VideoEncoder primary;
+  final VideoEncoder fallback;
+  final VideoEncoder primary;
 
   public VideoEncoderFallback(VideoEncoder fallback, VideoEncoder primary) {
     this.fallback = fallback;
@@ -37,6 +37,10 @@ public class VideoFileRenderer implements VideoSink {
   private EglBase eglBase;
   private YuvConverter yuvConverter;
   private int frameCount;
+  // Texture frames that are being converted asynchronously and haven't been posted to the file
+  // thread yet.
+  private final Object pendingConversionsLock = new Object();
+  private int pendingConversions;
 
   public VideoFileRenderer(String outputFile, int outputFileWidth, int outputFileHeight,
       final EglBase.Context sharedContext) throws IOException {
@@ -108,24 +112,62 @@ public class VideoFileRenderer implements VideoSink {
         buffer.cropAndScale(cropX, cropY, cropWidth, cropHeight, targetWidth, targetHeight);
     frame.release();
 
+    final int rotation = frame.getRotation();
+    if (scaledBuffer instanceof TextureBufferImpl) {
+      // Don't block the render thread on the texture readback, so that the next frame can be
+      // scaled while this one is converted. Conversions of the same source finish in order.
+      synchronized (pendingConversionsLock) {
+        pendingConversions++;
+      }
+      ((TextureBufferImpl) scaledBuffer).toI420Async(i420 -> {
+        if (i420 != null) {
+          fileThreadHandler.post(() -> writeFrameOnFileThread(i420, rotation));
+        }
+        synchronized (pendingConversionsLock) {
+          pendingConversions--;
+          pendingConversionsLock.notifyAll();
+        }
+      });
+      scaledBuffer.release();
+      return;
+    }
+
     final VideoFrame.I420Buffer i420 = scaledBuffer.toI420();
     scaledBuffer.release();
 
-    fileThreadHandler.post(() -> {
-      YuvHelper.I420Rotate(i420.getDataY(), i420.getStrideY(), i420.getDataU(), i420.getStrideU(),
-          i420.getDataV(), i420.getStrideV(), outputFrameBuffer, i420.getWidth(), i420.getHeight(),
-          frame.getRotation());
-      i420.release();
+    fileThreadHandler.post(() -> writeFrameOnFileThread(i420, rotation));
+  }
 
-      try {
-        videoOutFile.write("FRAME\n".getBytes(Charset.forName("US-ASCII")));
-        videoOutFile.write(
-            outputFrameBuffer.array(), outputFrameBuffer.arrayOffset(), outputFrameSize);
-      } catch (IOException e) {
-        throw new RuntimeException("Error writing video to disk", e);
+  private void writeFrameOnFileThread(VideoFrame.I420Buffer i420, int rotation) {
+    YuvHelper.I420Rotate(i420.getDataY(), i420.getStrideY(), i420.getDataU(), i420.getStrideU(),
+        i420.getDataV(), i420.getStrideV(), outputFrameBuffer, i420.getWidth(), i420.getHeight(),
+        rotation);
+    i420.release();
+
+    try {
+      videoOutFile.write("FRAME\n".getBytes(Charset.forName("US-ASCII")));
+      videoOutFile.write(
+          outputFrameBuffer.array(), outputFrameBuffer.arrayOffset(), outputFrameSize);
+    } catch (IOException e) {
+      throw new RuntimeException("Error writing video to disk", e);
+    }
+    frameCount++;
+  }
+
+  private void awaitPendingConversions() {
+    boolean wasInterrupted = false;
+    synchronized (pendingConversionsLock) {
+      while (pendingConversions > 0) {
+        try {
+          pendingConversionsLock.wait();
+        } catch (InterruptedException e) {
+          wasInterrupted = true;
+        }
       }
-      frameCount++;
-    });
+    }
+    if (wasInterrupted) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   /**
@@ -140,6 +182,7 @@ public class VideoFileRenderer implements VideoSink {
       cleanupBarrier.countDown();
     });
     ThreadUtils.awaitUninterruptibly(cleanupBarrier);
+    awaitPendingConversions();
     fileThreadHandler.post(() -> {
       try {
         videoOutFile.close();
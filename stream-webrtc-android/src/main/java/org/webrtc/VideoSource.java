@@ -33,6 +33,7 @@ public class VideoSource extends MediaSource {
   private final Object videoProcessorLock = new Object();
   @Nullable private VideoProcessor videoProcessor;
   private boolean isCapturerRunning;
+  @Nullable private volatile CaptureFormatFeedback captureFormatFeedback;
 
   private final CapturerObserver capturerObserver = new CapturerObserver() {
     @Override
@@ -61,6 +62,10 @@ public class VideoSource extends MediaSource {
     public void onFrameCaptured(VideoFrame frame) {
       final VideoProcessor.FrameAdaptationParameters parameters =
           nativeAndroidVideoTrackSource.adaptFrame(frame);
+      final CaptureFormatFeedback feedback = captureFormatFeedback;
+      if (feedback != null) {
+        feedback.onFrameAdapted(frame, parameters);
+      }
       synchronized (videoProcessorLock) {
         if (videoProcessor != null) {
           videoProcessor.onFrameCaptured(frame, parameters);
@@ -112,6 +117,10 @@ public class VideoSource extends MediaSource {
       @Nullable Integer maxPortraitPixelCount, @Nullable Integer maxFps) {
     nativeAndroidVideoTrackSource.adaptOutputFormat(targetLandscapeAspectRatio,
         maxLandscapePixelCount, targetPortraitAspectRatio, maxPortraitPixelCount, maxFps);
+    final CaptureFormatFeedback feedback = captureFormatFeedback;
+    if (feedback != null) {
+      feedback.onOutputFormatChanged(maxLandscapePixelCount, maxPortraitPixelCount, maxFps);
+    }
   }
 
   public void setIsScreencast(boolean isScreencast) {
@@ -145,6 +154,15 @@ public class VideoSource extends MediaSource {
     }
   }
 
+  /**
+   * Lets the capturer follow the adapted output format, so that it doesn't capture frames that are
+   * only downscaled or dropped afterwards. See {@link CaptureFormatFeedback}. Pass null to stop
+   * the feedback; the caller remains responsible for disposing the previous feedback.
+   */
+  public void setCaptureFormatFeedback(@Nullable CaptureFormatFeedback feedback) {
+    captureFormatFeedback = feedback;
+  }
+
   public CapturerObserver getCapturerObserver() {
     return capturerObserver;
   }
@@ -47,6 +47,23 @@ public final class YuvConverter {
       + "      sample(tc + 1.5 * xUnit).rgb);\n"
       + "}\n";
 
+  // Writes two interleaved U and V pairs into each RGBA pixel, which gives the NV12 chroma plane.
+  private static final String INTERLEAVED_CHROMA_FRAGMENT_SHADER =
+      // Difference in texture coordinate corresponding to one chroma sample in the x direction.
+      "uniform vec2 xUnit;\n"
+      // Color conversion coefficients of U and V, including constant term
+      + "uniform vec4 uCoeffs;\n"
+      + "uniform vec4 vCoeffs;\n"
+      + "\n"
+      + "void main() {\n"
+      + "  vec3 left = sample(tc - 0.5 * xUnit).rgb;\n"
+      + "  vec3 right = sample(tc + 0.5 * xUnit).rgb;\n"
+      + "  gl_FragColor.r = uCoeffs.a + dot(uCoeffs.rgb, left);\n"
+      + "  gl_FragColor.g = vCoeffs.a + dot(vCoeffs.rgb, left);\n"
+      + "  gl_FragColor.b = uCoeffs.a + dot(uCoeffs.rgb, right);\n"
+      + "  gl_FragColor.a = vCoeffs.a + dot(vCoeffs.rgb, right);\n"
+      + "}\n";
+
   private static class ShaderCallbacks implements GlGenericDrawer.ShaderCallbacks {
     // Y'UV444 to RGB888, see https://en.wikipedia.org/wiki/YUV#Y%E2%80%B2UV444_to_RGB888_conversion
     // We use the ITU-R BT.601 coefficients for Y, U and V.
@@ -104,11 +121,37 @@ public final class YuvConverter {
     }
   }
 
+  private static class InterleavedChromaShaderCallbacks
+      implements GlGenericDrawer.ShaderCallbacks {
+    private int xUnitLoc;
+    private int uCoeffsLoc;
+    private int vCoeffsLoc;
+
+    @Override
+    public void onNewShader(GlShader shader) {
+      xUnitLoc = shader.getUniformLocation("xUnit");
+      uCoeffsLoc = shader.getUniformLocation("uCoeffs");
+      vCoeffsLoc = shader.getUniformLocation("vCoeffs");
+    }
+
+    @Override
+    public void onPrepareShader(GlShader shader, float[] texMatrix, int frameWidth, int frameHeight,
+        int viewportWidth, int viewportHeight) {
+      GLES20.glUniform4fv(uCoeffsLoc, /* count= */ 1, ShaderCallbacks.uCoeffs, /* offset= */ 0);
+      GLES20.glUniform4fv(vCoeffsLoc, /* count= */ 1, ShaderCallbacks.vCoeffs, /* offset= */ 0);
+      // One chroma sample covers two pixels.
+      GLES20.glUniform2f(
+          xUnitLoc, 2.0f * texMatrix[0] / frameWidth, 2.0f * texMatrix[1] / frameWidth);
+    }
+  }
+
   private final ThreadUtils.ThreadChecker threadChecker = new ThreadUtils.ThreadChecker();
   private final GlTextureFrameBuffer i420TextureFrameBuffer =
       new GlTextureFrameBuffer(GLES20.GL_RGBA);
   private final ShaderCallbacks shaderCallbacks = new ShaderCallbacks();
   private final GlGenericDrawer drawer = new GlGenericDrawer(FRAGMENT_SHADER, shaderCallbacks);
+  private final GlGenericDrawer interleavedChromaDrawer = new GlGenericDrawer(
+      INTERLEAVED_CHROMA_FRAGMENT_SHADER, new InterleavedChromaShaderCallbacks());
   private final VideoFrameDrawer videoFrameDrawer;
 
   /**
@@ -134,6 +177,78 @@ public final class YuvConverter {
     return null;
   }
 
+  /**
+   * Converts the texture buffer to NV12. This saves consumers that need NV12, e.g. semi-planar
+   * hardware encoders, the CPU conversion from I420. Returns null if the conversion failed.
+   */
+  @Nullable
+  public NV12Buffer convertToNV12(TextureBuffer inputTextureBuffer) {
+    try {
+      return convertToNV12Internal(inputTextureBuffer);
+    } catch (GLException e) {
+      Logging.w(TAG, "Failed to convert TextureBuffer to NV12", e);
+    }
+    return null;
+  }
+
+  private NV12Buffer convertToNV12Internal(TextureBuffer inputTextureBuffer) {
+    TextureBuffer preparedBuffer = (TextureBuffer) videoFrameDrawer.prepareBufferForViewportSize(
+        inputTextureBuffer, inputTextureBuffer.getWidth(), inputTextureBuffer.getHeight());
+
+    // Same RGBA packing as in convertInternal, except that below the Y plane each row holds
+    // interleaved U and V samples, two pairs per RGBA pixel:
+    //
+    //    +---------+
+    //    |  Y      |
+    //    |         |
+    //    +---------+
+    //    | UVUV... |
+    //    +---------+
+    final int frameWidth = preparedBuffer.getWidth();
+    final int frameHeight = preparedBuffer.getHeight();
+    final int stride = ((frameWidth + 7) / 8) * 8;
+    final int uvHeight = (frameHeight + 1) / 2;
+    final int totalHeight = frameHeight + uvHeight;
+    final NativeByteBufferPool pool = NativeByteBufferPool.getDefault();
+    final ByteBuffer nv12ByteBuffer = pool.acquire(stride * totalHeight);
+    final int viewportWidth = stride / 4;
+
+    // Produce a frame buffer starting at top-left corner, not bottom-left.
+    final Matrix renderMatrix = new Matrix();
+    renderMatrix.preTranslate(0.5f, 0.5f);
+    renderMatrix.preScale(1f, -1f);
+    renderMatrix.preTranslate(-0.5f, -0.5f);
+
+    i420TextureFrameBuffer.setSize(viewportWidth, totalHeight);
+
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, i420TextureFrameBuffer.getFrameBufferId());
+    GlUtil.checkNoGLES2Error("glBindFramebuffer");
+
+    // Draw Y.
+    shaderCallbacks.setPlaneY();
+    VideoFrameDrawer.drawTexture(drawer, preparedBuffer, renderMatrix, frameWidth, frameHeight,
+        /* viewportX= */ 0, /* viewportY= */ 0, viewportWidth,
+        /* viewportHeight= */ frameHeight);
+
+    // Draw interleaved UV.
+    VideoFrameDrawer.drawTexture(interleavedChromaDrawer, preparedBuffer, renderMatrix, frameWidth,
+        frameHeight, /* viewportX= */ 0, /* viewportY= */ frameHeight, viewportWidth,
+        /* viewportHeight= */ uvHeight);
+
+    GLES20.glReadPixels(0, 0, i420TextureFrameBuffer.getWidth(), i420TextureFrameBuffer.getHeight(),
+        GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, nv12ByteBuffer);
+
+    GlUtil.checkNoGLES2Error("YuvConverter.convertToNV12");
+
+    // Restore normal framebuffer.
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+    preparedBuffer.release();
+
+    return new NV12Buffer(frameWidth, frameHeight, stride, /* sliceHeight= */ frameHeight,
+        nv12ByteBuffer, () -> { pool.recycle(nv12ByteBuffer); });
+  }
+
   private I420Buffer convertInternal(TextureBuffer inputTextureBuffer) {
     TextureBuffer preparedBuffer = (TextureBuffer) videoFrameDrawer.prepareBufferForViewportSize(
         inputTextureBuffer, inputTextureBuffer.getWidth(), inputTextureBuffer.getHeight());
@@ -172,7 +287,8 @@ public final class YuvConverter {
     final int uvHeight = (frameHeight + 1) / 2;
     // Total height of the combined memory layout.
     final int totalHeight = frameHeight + uvHeight;
-    final ByteBuffer i420ByteBuffer = JniCommon.nativeAllocateByteBuffer(stride * totalHeight);
+    final NativeByteBufferPool pool = NativeByteBufferPool.getDefault();
+    final ByteBuffer i420ByteBuffer = pool.acquire(stride * totalHeight);
     // Viewport width is divided by four since we are squeezing in four color bytes in each RGBA
     // pixel.
     final int viewportWidth = stride / 4;
@@ -238,12 +354,13 @@ public final class YuvConverter {
     preparedBuffer.release();
 
     return JavaI420Buffer.wrap(frameWidth, frameHeight, dataY, stride, dataU, stride, dataV, stride,
-        () -> { JniCommon.nativeFreeByteBuffer(i420ByteBuffer); });
+        () -> { pool.recycle(i420ByteBuffer); });
   }
 
   public void release() {
     threadChecker.checkIsOnValidThread();
     drawer.release();
+    interleavedChromaDrawer.release();
     i420TextureFrameBuffer.release();
     videoFrameDrawer.release();
     // Allow this class to be reused.
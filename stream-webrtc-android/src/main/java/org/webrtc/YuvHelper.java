@@ -10,10 +10,111 @@
 
 package org.webrtc;
 
+import androidx.annotation.Nullable;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /** Wraps libyuv methods to Java. All passed byte buffers must be direct byte buffers. */
 public class YuvHelper {
+  private static final int MAX_STRIPES = 4;
+
+  // Frames with at least this many pixels are converted in parallel stripes, 0 disables striping.
+  private static volatile int parallelConversionMinPixels;
+  // Number of stripes a frame is split into, one per core.
+  private static volatile int stripeCount =
+      Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors());
+  // Shared by all striped conversions, created on first use.
+  @Nullable private static ExecutorService stripeExecutor; /* guarded by YuvHelper.class */
+
+  /** Converts the rows [startRow, endRow) of an image. `startRow` is always even. */
+  interface StripeConversion {
+    void convert(int startRow, int endRow);
+  }
+
+  /**
+   * Enables splitting the I420Copy, I420ToNV12 and I420Rotate conversions and the scaling of
+   * JavaI420Buffer.cropAndScaleI420 into horizontal stripes that are converted in parallel on a
+   * small shared thread pool. Conversions of frames with fewer than `minPixels` pixels stay on the
+   * calling thread. Striping only pays off for large frames, e.g. 1440p or 4K screen shares, since
+   * handing the stripes over to the pool costs tens of microseconds. 0 disables striping, which is
+   * the default.
+   */
+  public static void setParallelConversionThreshold(int minPixels) {
+    parallelConversionMinPixels = minPixels;
+  }
+
+  // Visible for testing.
+  static void setStripeCount(int stripes) {
+    stripeCount = stripes;
+  }
+
+  /**
+   * Runs `conversion` over the rows of a `width` x `height` image, either at once on the calling
+   * thread or in parallel stripes if the image is at least as large as the threshold.
+   */
+  static void convertInStripes(int width, int height, StripeConversion conversion) {
+    final int minPixels = parallelConversionMinPixels;
+    final int stripes = stripeCount;
+    if (minPixels <= 0 || width * height < minPixels || stripes < 2 || height < 2 * stripes) {
+      conversion.convert(0, height);
+      return;
+    }
+    final ExecutorService executor = getStripeExecutor(stripes - 1);
+    // Stripes start at even rows so that they also split the subsampled chroma planes.
+    final int stripeHeight = (height / stripes + 1) & ~1;
+    final CountDownLatch done = new CountDownLatch(stripes - 1);
+    final AtomicReference<RuntimeException> error = new AtomicReference<>();
+    for (int i = 1; i < stripes; i++) {
+      final int startRow = i * stripeHeight;
+      final int endRow = (i == stripes - 1) ? height : Math.min(height, startRow + stripeHeight);
+      executor.execute(() -> {
+        try {
+          if (startRow < endRow) {
+            conversion.convert(startRow, endRow);
+          }
+        } catch (RuntimeException e) {
+          error.compareAndSet(null, e);
+        } finally {
+          done.countDown();
+        }
+      });
+    }
+    conversion.convert(0, Math.min(height, stripeHeight));
+    ThreadUtils.awaitUninterruptibly(done);
+    if (error.get() != null) {
+      throw error.get();
+    }
+  }
+
+  private static synchronized ExecutorService getStripeExecutor(int threads) {
+    if (stripeExecutor == null) {
+      final AtomicInteger nextThreadId = new AtomicInteger(0);
+      stripeExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = Executors.defaultThreadFactory().newThread(r);
+          thread.setName("YuvHelper-stripe-" + nextThreadId.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return stripeExecutor;
+  }
+
+  /** Returns a view of `buffer` starting `offset` bytes after its start. */
+  static ByteBuffer offset(ByteBuffer buffer, int offset) {
+    final ByteBuffer view = buffer.duplicate();
+    view.clear();
+    view.position(offset);
+    return view.slice();
+  }
+
   /**
    * Copy I420 Buffer to a contiguously allocated buffer.
    * <p> In Android, MediaCodec can request a buffer of a specific layout with the stride and
@@ -138,7 +239,7 @@ public class YuvHelper {
     dst.position(startV);
     final ByteBuffer dstV = dst.slice();
 
-    nativeI420Rotate(srcY, srcStrideY, srcU, srcStrideU, srcV, srcStrideV, dstY, dstWidth, dstU,
+    I420Rotate(srcY, srcStrideY, srcU, srcStrideU, srcV, srcStrideV, dstY, dstWidth, dstU,
         dstChromaWidth, dstV, dstChromaWidth, srcWidth, srcHeight, rotationMode);
   }
 
@@ -167,8 +268,19 @@ public class YuvHelper {
         || width <= 0 || height <= 0) {
       throw new IllegalArgumentException("Invalid I420Copy input arguments");
     }
-    nativeI420Copy(srcY, srcStrideY, srcU, srcStrideU, srcV, srcStrideV, dstY, dstStrideY, dstU,
-        dstStrideU, dstV, dstStrideV, width, height);
+    convertInStripes(width, height, (startRow, endRow) -> {
+      if (startRow == 0 && endRow == height) {
+        nativeI420Copy(srcY, srcStrideY, srcU, srcStrideU, srcV, srcStrideV, dstY, dstStrideY,
+            dstU, dstStrideU, dstV, dstStrideV, width, height);
+        return;
+      }
+      final int chromaRow = startRow / 2;
+      nativeI420Copy(offset(srcY, startRow * srcStrideY), srcStrideY,
+          offset(srcU, chromaRow * srcStrideU), srcStrideU, offset(srcV, chromaRow * srcStrideV),
+          srcStrideV, offset(dstY, startRow * dstStrideY), dstStrideY,
+          offset(dstU, chromaRow * dstStrideU), dstStrideU, offset(dstV, chromaRow * dstStrideV),
+          dstStrideV, width, endRow - startRow);
+    });
   }
 
   public static void I420ToNV12(ByteBuffer srcY, int srcStrideY, ByteBuffer srcU, int srcStrideU,
@@ -178,16 +290,58 @@ public class YuvHelper {
         || height <= 0) {
       throw new IllegalArgumentException("Invalid I420ToNV12 input arguments");
     }
-    nativeI420ToNV12(srcY, srcStrideY, srcU, srcStrideU, srcV, srcStrideV, dstY, dstStrideY, dstUV,
-        dstStrideUV, width, height);
+    convertInStripes(width, height, (startRow, endRow) -> {
+      if (startRow == 0 && endRow == height) {
+        nativeI420ToNV12(srcY, srcStrideY, srcU, srcStrideU, srcV, srcStrideV, dstY, dstStrideY,
+            dstUV, dstStrideUV, width, height);
+        return;
+      }
+      final int chromaRow = startRow / 2;
+      nativeI420ToNV12(offset(srcY, startRow * srcStrideY), srcStrideY,
+          offset(srcU, chromaRow * srcStrideU), srcStrideU, offset(srcV, chromaRow * srcStrideV),
+          srcStrideV, offset(dstY, startRow * dstStrideY), dstStrideY,
+          offset(dstUV, chromaRow * dstStrideUV), dstStrideUV, width, endRow - startRow);
+    });
   }
 
   public static void I420Rotate(ByteBuffer srcY, int srcStrideY, ByteBuffer srcU, int srcStrideU,
       ByteBuffer srcV, int srcStrideV, ByteBuffer dstY, int dstStrideY, ByteBuffer dstU,
       int dstStrideU, ByteBuffer dstV, int dstStrideV, int srcWidth, int srcHeight,
       int rotationMode) {
-    nativeI420Rotate(srcY, srcStrideY, srcU, srcStrideU, srcV, srcStrideV, dstY, dstStrideY, dstU,
-        dstStrideU, dstV, dstStrideV, srcWidth, srcHeight, rotationMode);
+    if (srcWidth % 2 != 0 || srcHeight % 2 != 0) {
+      // Odd sizes don't split into matching luma and chroma stripes.
+      nativeI420Rotate(srcY, srcStrideY, srcU, srcStrideU, srcV, srcStrideV, dstY, dstStrideY,
+          dstU, dstStrideU, dstV, dstStrideV, srcWidth, srcHeight, rotationMode);
+      return;
+    }
+    convertInStripes(srcWidth, srcHeight, (startRow, endRow) -> {
+      if (startRow == 0 && endRow == srcHeight) {
+        nativeI420Rotate(srcY, srcStrideY, srcU, srcStrideU, srcV, srcStrideV, dstY, dstStrideY,
+            dstU, dstStrideU, dstV, dstStrideV, srcWidth, srcHeight, rotationMode);
+        return;
+      }
+      // Source rows map to destination rows for 0 and 180 degrees and to destination columns for
+      // 90 and 270 degrees, mirrored for 90 and 180 degrees.
+      final int dstStart =
+          (rotationMode == 90 || rotationMode == 180) ? srcHeight - endRow : startRow;
+      final int dstOffsetY;
+      final int dstOffsetU;
+      final int dstOffsetV;
+      if (rotationMode % 180 == 0) {
+        dstOffsetY = dstStart * dstStrideY;
+        dstOffsetU = dstStart / 2 * dstStrideU;
+        dstOffsetV = dstStart / 2 * dstStrideV;
+      } else {
+        dstOffsetY = dstStart;
+        dstOffsetU = dstStart / 2;
+        dstOffsetV = dstStart / 2;
+      }
+      final int chromaRow = startRow / 2;
+      nativeI420Rotate(offset(srcY, startRow * srcStrideY), srcStrideY,
+          offset(srcU, chromaRow * srcStrideU), srcStrideU, offset(srcV, chromaRow * srcStrideV),
+          srcStrideV, offset(dstY, dstOffsetY), dstStrideY, offset(dstU, dstOffsetU), dstStrideU,
+          offset(dstV, dstOffsetV), dstStrideV, srcWidth, endRow - startRow, rotationMode);
+    });
   }
 
   private static native void nativeCopyPlane(
@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecInfo.CodecCapabilities;
+import android.media.MediaFormat;
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.MediaCodecInfoBuilder;
+import org.robolectric.shadows.ShadowSystemClock;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(instrumentedPackages = {"org.webrtc.JniCommon", "org.webrtc.NV12Buffer"},
+    shadows = {LibyuvShadows.ShadowJniCommon.class, LibyuvShadows.ShadowNV12Buffer.class})
+public class AndroidVideoDecoderTest {
+  private static final String CODEC_NAME = "fake.vp8.decoder";
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+  private static final int FRAME_SIZE_BYTES = WIDTH * HEIGHT * 3 / 2;
+  private static final long FRAME_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(33);
+  private static final long OUTPUT_TIMEOUT_MS = 5000;
+
+  private final BlockingQueue<Long> decodedTimestampsNs = new LinkedBlockingQueue<>();
+  private final BlockingQueue<VideoFrame> heldFrames = new LinkedBlockingQueue<>();
+  private FakeMediaCodecWrapper fakeCodec;
+
+  private AndroidVideoDecoder createDecoder(
+      boolean useAsyncCallbacks, @Nullable MediaCodecInfo codecInfo) {
+    final MediaFormat format =
+        MediaFormat.createVideoFormat(VideoCodecMimeType.VP8.mimeType(), WIDTH, HEIGHT);
+    return new AndroidVideoDecoder(name -> {
+      fakeCodec = new FakeMediaCodecWrapper(format, format, codecInfo);
+      return fakeCodec;
+    }, CODEC_NAME, VideoCodecMimeType.VP8, CodecCapabilities.COLOR_FormatYUV420SemiPlanar,
+        /* sharedContext= */ null, /* zeroCopyByteBufferOutput= */ true, useAsyncCallbacks);
+  }
+
+  private AndroidVideoDecoder createAsyncDecoder() {
+    return createDecoder(/* useAsyncCallbacks= */ true, /* codecInfo= */ null);
+  }
+
+  private void initDecode(AndroidVideoDecoder decoder) {
+    // The frames are released right after the callback, which returns their output buffers.
+    assertEquals(VideoCodecStatus.OK,
+        decoder.initDecode(new VideoDecoder.Settings(/* numberOfCores= */ 1, WIDTH, HEIGHT),
+            (frame, decodeTimeMs, qp) -> decodedTimestampsNs.offer(frame.getTimestampNs())));
+  }
+
+  /** Initializes the decoder with a callback that keeps the frames until the test releases them. */
+  private void initDecodeHoldingFrames(AndroidVideoDecoder decoder) {
+    assertEquals(VideoCodecStatus.OK,
+        decoder.initDecode(new VideoDecoder.Settings(/* numberOfCores= */ 1, WIDTH, HEIGHT),
+            (frame, decodeTimeMs, qp) -> {
+              frame.retain();
+              heldFrames.offer(frame);
+            }));
+  }
+
+  private static MediaCodecInfo createCodecInfo(boolean lowLatency) {
+    final MediaFormat format =
+        MediaFormat.createVideoFormat(VideoCodecMimeType.VP8.mimeType(), WIDTH, HEIGHT);
+    format.setFeatureEnabled(CodecCapabilities.FEATURE_LowLatency, lowLatency);
+    return MediaCodecInfoBuilder.newBuilder()
+        .setName(CODEC_NAME)
+        .setIsEncoder(false)
+        .setCapabilities(MediaCodecInfoBuilder.CodecCapabilitiesBuilder.newBuilder()
+                             .setMediaFormat(format)
+                             .setIsEncoder(false)
+                             .setColorFormats(
+                                 new int[] {CodecCapabilities.COLOR_FormatYUV420SemiPlanar})
+                             .build())
+        .build();
+  }
+
+  private static EncodedImage createImage(int frameIndex, boolean keyFrame) {
+    return EncodedImage.builder()
+        .setBuffer(ByteBuffer.allocateDirect(100), /* releaseCallback= */ null)
+        .setEncodedWidth(WIDTH)
+        .setEncodedHeight(HEIGHT)
+        .setCaptureTimeNs(frameIndex * FRAME_INTERVAL_NS)
+        .setFrameType(
+            keyFrame ? EncodedImage.FrameType.VideoFrameKey : EncodedImage.FrameType.VideoFrameDelta)
+        .createEncodedImage();
+  }
+
+  /** Decodes a frame once the input buffers reported so far reached the decoder. */
+  private VideoCodecStatus decode(AndroidVideoDecoder decoder, int frameIndex, boolean keyFrame)
+      throws InterruptedException {
+    assertTrue(fakeCodec.waitForCallbacks(OUTPUT_TIMEOUT_MS));
+    return decoder.decode(createImage(frameIndex, keyFrame),
+        new VideoDecoder.DecodeInfo(/* isMissingFrames= */ false, /* renderTimeMs= */ 0));
+  }
+
+  private void outputFrame(int frameIndex) {
+    assertTrue(fakeCodec.addOutputData(new byte[FRAME_SIZE_BYTES],
+        TimeUnit.NANOSECONDS.toMicros(frameIndex * FRAME_INTERVAL_NS), /* flags= */ 0));
+  }
+
+  private static byte[] outputData(int frameIndex) {
+    final byte[] data = new byte[FRAME_SIZE_BYTES];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (frameIndex * 7 + i);
+    }
+    return data;
+  }
+
+  /** Decodes and outputs a frame, and returns it as held by the callback. */
+  private VideoFrame decodeAndHold(AndroidVideoDecoder decoder, int frameIndex)
+      throws InterruptedException {
+    assertEquals(VideoCodecStatus.OK, decode(decoder, frameIndex, /* keyFrame= */ frameIndex == 0));
+    assertTrue(fakeCodec.addOutputData(outputData(frameIndex),
+        TimeUnit.NANOSECONDS.toMicros(frameIndex * FRAME_INTERVAL_NS), /* flags= */ 0));
+    final VideoFrame frame = heldFrames.poll(OUTPUT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertNotNull(frame);
+    return frame;
+  }
+
+  /**
+   * Releases the decoder while frames hold output buffers. The release waits for them on the
+   * paused system clock, which is advanced until the wait times out.
+   */
+  private static void releaseAfterHeldBuffersTimeout(AndroidVideoDecoder decoder)
+      throws InterruptedException {
+    final Thread clockThread = new Thread(() -> {
+      try {
+        while (true) {
+          Thread.sleep(50);
+          ShadowSystemClock.advanceBy(
+              Duration.ofMillis(AndroidVideoDecoder.HELD_OUTPUT_BUFFERS_RELEASE_TIMEOUT_MS));
+        }
+      } catch (InterruptedException e) {
+        // The release is done.
+      }
+    });
+    clockThread.start();
+    try {
+      assertEquals(VideoCodecStatus.OK, decoder.release());
+    } finally {
+      clockThread.interrupt();
+      clockThread.join();
+    }
+  }
+
+  private static byte[] getDataY(VideoFrame frame) {
+    final VideoFrame.I420Buffer i420 = frame.getBuffer().toI420();
+    final byte[] data = new byte[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; y++) {
+      final ByteBuffer row = i420.getDataY().duplicate();
+      row.position(y * i420.getStrideY());
+      row.get(data, y * WIDTH, WIDTH);
+    }
+    i420.release();
+    return data;
+  }
+
+  private static byte[] getExpectedDataY(int frameIndex) {
+    final byte[] data = new byte[WIDTH * HEIGHT];
+    System.arraycopy(outputData(frameIndex), 0, data, 0, data.length);
+    return data;
+  }
+
+  @Test
+  public void decodesThroughCallbacks() throws InterruptedException {
+    final AndroidVideoDecoder decoder = createAsyncDecoder();
+    initDecode(decoder);
+    assertTrue(fakeCodec.isAsync());
+
+    for (int i = 0; i < 5; i++) {
+      assertEquals(VideoCodecStatus.OK, decode(decoder, i, /* keyFrame= */ i == 0));
+      outputFrame(i);
+      final Long timestampNs = decodedTimestampsNs.poll(OUTPUT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      assertNotNull(timestampNs);
+      assertEquals(i * FRAME_INTERVAL_NS, (long) timestampNs);
+    }
+
+    // The input buffers come from the callbacks, the decoder never waits for one.
+    assertEquals(0, fakeCodec.getDequeueInputBufferCalls());
+    assertEquals(5, fakeCodec.getQueuedInputs().size());
+    assertEquals(VideoCodecStatus.OK, decoder.release());
+    assertEquals(FakeMediaCodecWrapper.State.RELEASED, fakeCodec.getState());
+    assertEquals(5, fakeCodec.getReleasedOutputBuffers());
+    assertEquals(0, fakeCodec.getIllegalStateCalls());
+  }
+
+  @Test
+  public void dropsFrameAndWaitsForKeyFrameWithoutInputBuffers() throws InterruptedException {
+    final AndroidVideoDecoder decoder = createAsyncDecoder();
+    initDecode(decoder);
+    fakeCodec.setReturnInputBuffers(false);
+
+    for (int i = 0; i < FakeMediaCodecWrapper.NUM_INPUT_BUFFERS; i++) {
+      assertEquals(VideoCodecStatus.OK, decode(decoder, i, /* keyFrame= */ i == 0));
+    }
+    // The codec holds all input buffers. The frame is dropped instead of waiting for one, and the
+    // error makes WebRTC request a key frame.
+    int frameIndex = FakeMediaCodecWrapper.NUM_INPUT_BUFFERS;
+    assertEquals(VideoCodecStatus.ERROR, decode(decoder, frameIndex++, /* keyFrame= */ false));
+    assertEquals(1, decoder.getDroppedInputFrameCount());
+    assertEquals(0, fakeCodec.getDequeueInputBufferCalls());
+
+    fakeCodec.setReturnInputBuffers(true);
+    fakeCodec.returnConsumedInputBuffers();
+    // Delta frames can't be decoded without the dropped frame.
+    assertEquals(VideoCodecStatus.NO_OUTPUT, decode(decoder, frameIndex++, /* keyFrame= */ false));
+    assertEquals(VideoCodecStatus.OK, decode(decoder, frameIndex++, /* keyFrame= */ true));
+    assertEquals(VideoCodecStatus.OK, decode(decoder, frameIndex++, /* keyFrame= */ false));
+    assertEquals(FakeMediaCodecWrapper.NUM_INPUT_BUFFERS + 2, fakeCodec.getQueuedInputs().size());
+    assertEquals(VideoCodecStatus.OK, decoder.release());
+  }
+
+  @Test
+  public void releaseIgnoresOutputReportedWhileStopping() throws InterruptedException {
+    final AndroidVideoDecoder decoder = createAsyncDecoder();
+    initDecode(decoder);
+    for (int i = 0; i < FakeMediaCodecWrapper.NUM_INPUT_BUFFERS; i++) {
+      assertEquals(VideoCodecStatus.OK, decode(decoder, i, /* keyFrame= */ i == 0));
+    }
+
+    // Reports output while the decoder is released.
+    final Thread outputThread = new Thread(() -> {
+      for (int i = 0; i < 100; i++) {
+        fakeCodec.addOutputData(new byte[FRAME_SIZE_BYTES], i, /* flags= */ 0);
+        Thread.yield();
+      }
+    });
+    outputThread.start();
+    assertEquals(VideoCodecStatus.OK, decoder.release());
+    outputThread.join();
+
+    assertEquals(FakeMediaCodecWrapper.State.RELEASED, fakeCodec.getState());
+    // Output reported before the release was delivered, nothing touched the stopped codec.
+    assertEquals(decodedTimestampsNs.size(), fakeCodec.getReleasedOutputBuffers());
+    assertEquals(0, fakeCodec.getIllegalStateCalls());
+  }
+
+  @Test
+  public void restartsWithFreshInputBuffersOnResolutionChange() throws InterruptedException {
+    final AndroidVideoDecoder decoder = createAsyncDecoder();
+    initDecode(decoder);
+    final FakeMediaCodecWrapper firstCodec = fakeCodec;
+    assertEquals(VideoCodecStatus.OK, decode(decoder, 0, /* keyFrame= */ true));
+
+    final EncodedImage image = EncodedImage.builder()
+                                   .setBuffer(ByteBuffer.allocateDirect(100),
+                                       /* releaseCallback= */ null)
+                                   .setEncodedWidth(2 * WIDTH)
+                                   .setEncodedHeight(2 * HEIGHT)
+                                   .setFrameType(EncodedImage.FrameType.VideoFrameKey)
+                                   .createEncodedImage();
+    final VideoDecoder.DecodeInfo info =
+        new VideoDecoder.DecodeInfo(/* isMissingFrames= */ false, /* renderTimeMs= */ 0);
+    VideoCodecStatus status = decoder.decode(image, info);
+    // The new codec may not have reported its input buffers yet.
+    if (status == VideoCodecStatus.ERROR) {
+      assertTrue(fakeCodec.waitForCallbacks(OUTPUT_TIMEOUT_MS));
+      status = decoder.decode(image, info);
+    }
+    assertEquals(VideoCodecStatus.OK, status);
+
+    assertTrue(firstCodec != fakeCodec);
+    assertEquals(FakeMediaCodecWrapper.State.RELEASED, firstCodec.getState());
+    assertEquals(2 * WIDTH,
+        fakeCodec.getConfiguredFormat().getInteger(MediaFormat.KEY_WIDTH));
+    assertEquals(1, fakeCodec.getQueuedInputs().size());
+    assertEquals(0, firstCodec.getIllegalStateCalls());
+    assertEquals(0, fakeCodec.getIllegalStateCalls());
+    assertEquals(VideoCodecStatus.OK, decoder.release());
+  }
+
+  @Test
+  public void requestsLowLatencyWhenSupported() {
+    final AndroidVideoDecoder decoder =
+        createDecoder(/* useAsyncCallbacks= */ true, createCodecInfo(/* lowLatency= */ true));
+    initDecode(decoder);
+    assertEquals(1, fakeCodec.getConfiguredFormat().getInteger(MediaFormat.KEY_LOW_LATENCY));
+    assertEquals(VideoCodecStatus.OK, decoder.release());
+  }
+
+  @Test
+  public void usesCallbacksWithoutLowLatencyFeature() {
+    final AndroidVideoDecoder decoder =
+        createDecoder(/* useAsyncCallbacks= */ true, createCodecInfo(/* lowLatency= */ false));
+    initDecode(decoder);
+    assertTrue(fakeCodec.isAsync());
+    assertFalse(fakeCodec.getConfiguredFormat().containsKey(MediaFormat.KEY_LOW_LATENCY));
+    assertEquals(VideoCodecStatus.OK, decoder.release());
+
+    // Codecs without capabilities, too.
+    final AndroidVideoDecoder decoderWithoutInfo = createAsyncDecoder();
+    initDecode(decoderWithoutInfo);
+    assertTrue(fakeCodec.isAsync());
+    assertFalse(fakeCodec.getConfiguredFormat().containsKey(MediaFormat.KEY_LOW_LATENCY));
+    assertEquals(VideoCodecStatus.OK, decoderWithoutInfo.release());
+  }
+
+  @Test
+  public void pollsWithoutLowLatencyInSynchronousMode() {
+    final AndroidVideoDecoder decoder =
+        createDecoder(/* useAsyncCallbacks= */ false, createCodecInfo(/* lowLatency= */ true));
+    initDecode(decoder);
+    assertFalse(fakeCodec.isAsync());
+    assertFalse(fakeCodec.getConfiguredFormat().containsKey(MediaFormat.KEY_LOW_LATENCY));
+    assertEquals(VideoCodecStatus.OK, decoder.release());
+  }
+
+  @Test
+  public void copiesFramesWhileMaxOutputBuffersAreHeld() throws InterruptedException {
+    final AndroidVideoDecoder decoder = createAsyncDecoder();
+    initDecodeHoldingFrames(decoder);
+
+    final VideoFrame[] frames = new VideoFrame[AndroidVideoDecoder.MAX_HELD_OUTPUT_BUFFERS + 1];
+    for (int i = 0; i < frames.length; i++) {
+      frames[i] = decodeAndHold(decoder, i);
+    }
+    for (int i = 0; i < AndroidVideoDecoder.MAX_HELD_OUTPUT_BUFFERS; i++) {
+      assertTrue(frames[i].getBuffer() instanceof NV12Buffer);
+    }
+    // The codec keeps enough output buffers to continue, the next frame is a copy.
+    final VideoFrame copied = frames[AndroidVideoDecoder.MAX_HELD_OUTPUT_BUFFERS];
+    assertTrue(copied.getBuffer() instanceof VideoFrame.I420Buffer);
+    assertEquals(1, fakeCodec.getReleasedOutputBuffers());
+    assertArrayEquals(
+        getExpectedDataY(AndroidVideoDecoder.MAX_HELD_OUTPUT_BUFFERS), getDataY(copied));
+
+    // Releasing a frame returns its output buffer, and the next frame holds one again.
+    frames[0].release();
+    assertEquals(2, fakeCodec.getReleasedOutputBuffers());
+    final VideoFrame next = decodeAndHold(decoder, frames.length);
+    assertTrue(next.getBuffer() instanceof NV12Buffer);
+
+    for (int i = 1; i < frames.length; i++) {
+      frames[i].release();
+    }
+    next.release();
+    assertEquals(frames.length + 1, fakeCodec.getReleasedOutputBuffers());
+    assertEquals(VideoCodecStatus.OK, decoder.release());
+    assertEquals(0, fakeCodec.getIllegalStateCalls());
+  }
+
+  @Test
+  public void returnsHeldOutputBuffersBeforeStoppingCodec() throws InterruptedException {
+    final AndroidVideoDecoder decoder = createAsyncDecoder();
+    initDecodeHoldingFrames(decoder);
+    final VideoFrame first = decodeAndHold(decoder, 0);
+    final VideoFrame second = decodeAndHold(decoder, 1);
+
+    releaseAfterHeldBuffersTimeout(decoder);
+
+    // The output buffers went back to the codec while it was still executing.
+    assertEquals(FakeMediaCodecWrapper.State.RELEASED, fakeCodec.getState());
+    assertEquals(2, fakeCodec.getReleasedOutputBuffers());
+    assertEquals(0, fakeCodec.getIllegalStateCalls());
+    // Releasing the frames later doesn't touch the released codec.
+    first.release();
+    second.release();
+    assertEquals(2, fakeCodec.getReleasedOutputBuffers());
+    assertEquals(0, fakeCodec.getIllegalStateCalls());
+  }
+
+  @Test
+  public void heldFramesConvertToI420AfterRelease() throws InterruptedException {
+    final AndroidVideoDecoder decoder = createAsyncDecoder();
+    initDecodeHoldingFrames(decoder);
+    final VideoFrame first = decodeAndHold(decoder, 0);
+    final VideoFrame second = decodeAndHold(decoder, 1);
+
+    releaseAfterHeldBuffersTimeout(decoder);
+
+    // The stopped codec overwrote its output buffers, the frames read their copies.
+    assertArrayEquals(getExpectedDataY(0), getDataY(first));
+    assertArrayEquals(getExpectedDataY(1), getDataY(second));
+    first.release();
+    second.release();
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowSystemClock;
+
+@RunWith(RobolectricTestRunner.class)
+public class CaptureFormatFeedbackTest {
+  private static final int MAX_WIDTH = 1280;
+  private static final int MAX_HEIGHT = 720;
+  private static final int MAX_FRAMERATE = 30;
+
+  /** Capturer that is scaled freely and records the format changes. */
+  private static class FakeCapturer implements VideoCapturer {
+    final BlockingQueue<String> formatChanges = new LinkedBlockingQueue<>();
+
+    @Override
+    public void initialize(SurfaceTextureHelper surfaceTextureHelper, Context applicationContext,
+        CapturerObserver capturerObserver) {}
+
+    @Override
+    public void startCapture(int width, int height, int framerate) {}
+
+    @Override
+    public void stopCapture() {}
+
+    @Override
+    public void changeCaptureFormat(int width, int height, int framerate) {
+      formatChanges.add(width + "x" + height + "@" + framerate);
+    }
+
+    @Override
+    public void dispose() {}
+
+    @Override
+    public boolean isScreencast() {
+      return false;
+    }
+  }
+
+  private FakeCapturer capturer;
+  private CaptureFormatFeedback feedback;
+
+  @Before
+  public void setUp() {
+    capturer = new FakeCapturer();
+    feedback = new CaptureFormatFeedback(capturer, MAX_WIDTH, MAX_HEIGHT, MAX_FRAMERATE);
+  }
+
+  @After
+  public void tearDown() {
+    feedback.dispose();
+  }
+
+  @Test
+  public void downgradesToTheAdaptedOutputFormat() throws InterruptedException {
+    adapt(/* seconds= */ 5, MAX_WIDTH, MAX_HEIGHT, MAX_FRAMERATE, 640, 360, /* dropRatio= */ 0);
+
+    assertEquals("640x360@30", pollFormatChange());
+    final CaptureFormatFeedback.Stats stats = feedback.getStats();
+    assertEquals(640, stats.captureWidth);
+    assertEquals(360, stats.captureHeight);
+    assertEquals(0.75, stats.pixelRateReduction, 1e-9);
+  }
+
+  @Test
+  public void outputAtTheReducedCaptureFormatIsSatisfied() throws InterruptedException {
+    adapt(/* seconds= */ 5, MAX_WIDTH, MAX_HEIGHT, MAX_FRAMERATE, 640, 360, /* dropRatio= */ 0);
+    assertEquals("640x360@30", pollFormatChange());
+
+    // The adapter keeps asking for exactly what is captured. This must not restart the capturer
+    // at the maximum format only to be downgraded again.
+    adapt(/* seconds= */ 120, 640, 360, MAX_FRAMERATE, 640, 360, /* dropRatio= */ 0);
+    assertEquals(1, feedback.getStats().formatChanges);
+    assertEquals(640, feedback.getStats().captureWidth);
+  }
+
+  @Test
+  public void ignoresReductionsBelowTheMinimum() {
+    // 7/8 of each side is 77% of the pixel rate, not worth a restart.
+    adapt(/* seconds= */ 10, MAX_WIDTH, MAX_HEIGHT, MAX_FRAMERATE, 1120, 630, /* dropRatio= */ 0);
+    assertEquals(0, feedback.getStats().formatChanges);
+  }
+
+  @Test
+  public void ignoresReductionsShorterThanTheDowngradeDelay() {
+    adapt(/* seconds= */ 2, MAX_WIDTH, MAX_HEIGHT, MAX_FRAMERATE, 640, 360, /* dropRatio= */ 0);
+    adapt(/* seconds= */ 10, MAX_WIDTH, MAX_HEIGHT, MAX_FRAMERATE, MAX_WIDTH, MAX_HEIGHT,
+        /* dropRatio= */ 0);
+    assertEquals(0, feedback.getStats().formatChanges);
+  }
+
+  @Test
+  public void downgradesTheFramerateOfDroppedFrames() throws InterruptedException {
+    adapt(/* seconds= */ 5, MAX_WIDTH, MAX_HEIGHT, MAX_FRAMERATE, MAX_WIDTH, MAX_HEIGHT,
+        /* dropRatio= */ 0.5);
+    // Up to 16 delivered frames per window of 31 frames, plus 10% headroom.
+    assertEquals("1280x720@18", pollFormatChange());
+
+    adapt(/* seconds= */ 60, MAX_WIDTH, MAX_HEIGHT, 18, MAX_WIDTH, MAX_HEIGHT,
+        /* dropRatio= */ 0);
+    assertEquals(1, feedback.getStats().formatChanges);
+  }
+
+  @Test
+  public void raisedOutputFormatRestoresTheMaximumFormat() throws InterruptedException {
+    adapt(/* seconds= */ 5, MAX_WIDTH, MAX_HEIGHT, MAX_FRAMERATE, 640, 360, /* dropRatio= */ 0);
+    assertEquals("640x360@30", pollFormatChange());
+
+    // Asking for no more than is captured keeps the format.
+    feedback.onOutputFormatChanged(640 * 360, 640 * 360, MAX_FRAMERATE);
+    assertEquals(1, feedback.getStats().formatChanges);
+
+    feedback.onOutputFormatChanged(MAX_WIDTH * MAX_HEIGHT, MAX_WIDTH * MAX_HEIGHT, MAX_FRAMERATE);
+    assertEquals("1280x720@30", pollFormatChange());
+    assertEquals(0, feedback.getStats().pixelRateReduction, 1e-9);
+  }
+
+  /**
+   * Feeds `seconds` of captured frames to the feedback, adapted to `outputWidth`x`outputHeight`
+   * with `dropRatio` of the frames dropped.
+   */
+  private void adapt(int seconds, int captureWidth, int captureHeight, int fps, int outputWidth,
+      int outputHeight, double dropRatio) {
+    final VideoFrame.Buffer buffer = mock(VideoFrame.Buffer.class);
+    when(buffer.getWidth()).thenReturn(captureWidth);
+    when(buffer.getHeight()).thenReturn(captureHeight);
+    final long frameIntervalMs = 1000 / fps;
+    double dropped = 0;
+    for (int i = 0; i < seconds * fps; i++) {
+      ShadowSystemClock.advanceBy(Duration.ofMillis(frameIntervalMs));
+      final long timestampNs = TimeUnit.MILLISECONDS.toNanos(i * frameIntervalMs);
+      dropped += dropRatio;
+      final boolean drop = dropped >= 1;
+      if (drop) {
+        dropped -= 1;
+      }
+      feedback.onFrameAdapted(new VideoFrame(buffer, /* rotation= */ 0, timestampNs),
+          new VideoProcessor.FrameAdaptationParameters(/* cropX= */ 0, /* cropY= */ 0,
+              captureWidth, captureHeight, outputWidth, outputHeight, timestampNs, drop));
+    }
+  }
+
+  private String pollFormatChange() throws InterruptedException {
+    final String format = capturer.formatChanges.poll(5, TimeUnit.SECONDS);
+    assertNotNull(format);
+    return format;
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class DownscalePyramidTest {
+  /** Buffer that records the buffer it was scaled from and the pixels read by scaling. */
+  static class TestBuffer implements VideoFrame.Buffer {
+    final int width;
+    final int height;
+    @Nullable final TestBuffer parent;
+    final List<TestBuffer> scaledBuffers;
+    int refCount = 1;
+
+    TestBuffer(int width, int height) {
+      this(width, height, /* parent= */ null, new ArrayList<>());
+    }
+
+    private TestBuffer(
+        int width, int height, @Nullable TestBuffer parent, List<TestBuffer> scaledBuffers) {
+      this.width = width;
+      this.height = height;
+      this.parent = parent;
+      this.scaledBuffers = scaledBuffers;
+    }
+
+    long getPixelsRead() {
+      long pixels = 0;
+      for (TestBuffer buffer : scaledBuffers) {
+        pixels += (long) buffer.parent.width * buffer.parent.height;
+      }
+      return pixels;
+    }
+
+    @Override
+    public int getWidth() {
+      return width;
+    }
+
+    @Override
+    public int getHeight() {
+      return height;
+    }
+
+    @Override
+    public VideoFrame.I420Buffer toI420() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void retain() {
+      refCount++;
+    }
+
+    @Override
+    public void release() {
+      if (--refCount < 0) {
+        throw new IllegalStateException("Released too often");
+      }
+    }
+
+    @Override
+    public VideoFrame.Buffer cropAndScale(int cropX, int cropY, int cropWidth, int cropHeight,
+        int scaleWidth, int scaleHeight) {
+      final TestBuffer buffer = new TestBuffer(scaleWidth, scaleHeight, this, scaledBuffers);
+      scaledBuffers.add(buffer);
+      return buffer;
+    }
+  }
+
+  private static DownscalePyramid createPyramid() {
+    final DownscalePyramid pyramid = new DownscalePyramid();
+    pyramid.addLayer(1280, 720);
+    pyramid.addLayer(640, 360);
+    pyramid.addLayer(320, 180);
+    return pyramid;
+  }
+
+  @Test
+  public void scalesEachLevelFromTheNextLargerLevel() {
+    final DownscalePyramid pyramid = createPyramid();
+    final TestBuffer source = new TestBuffer(1280, 720);
+    final VideoFrame frame = new VideoFrame(source, /* rotation= */ 0, /* timestampNs= */ 1);
+
+    final TestBuffer small = (TestBuffer) pyramid.getScaledBuffer(frame, 320, 180);
+    final TestBuffer medium = (TestBuffer) pyramid.getScaledBuffer(frame, 640, 360);
+
+    assertEquals(2, source.scaledBuffers.size());
+    assertSame(source, medium.parent);
+    assertSame(medium, small.parent);
+    // The full resolution layer is not scaled.
+    assertEquals(1280 * 720 + 640 * 360, source.getPixelsRead());
+  }
+
+  @Test
+  public void readsFewerPixelsThanIndependentLayers() {
+    final DownscalePyramid pyramid = new DownscalePyramid();
+    pyramid.addLayer(1920, 1080);
+    pyramid.addLayer(960, 540);
+    pyramid.addLayer(480, 270);
+    final TestBuffer source = new TestBuffer(1920, 1080);
+
+    final int frames = 10;
+    long independentPixelsRead = 0;
+    for (int i = 0; i < frames; i++) {
+      final VideoFrame frame = new VideoFrame(source, /* rotation= */ 0, /* timestampNs= */ i);
+      pyramid.getScaledBuffer(frame, 960, 540).release();
+      pyramid.getScaledBuffer(frame, 480, 270).release();
+      independentPixelsRead += 2 * 1920 * 1080;
+    }
+
+    assertEquals(frames * (1920 * 1080 + 960 * 540), source.getPixelsRead());
+    // The second scaled layer reads a quarter of the pixels instead of all of them.
+    assertEquals(0.625, (double) source.getPixelsRead() / independentPixelsRead, 1e-9);
+  }
+
+  @Test
+  public void givesEachLayerItsOwnReference() {
+    final DownscalePyramid pyramid = createPyramid();
+    final TestBuffer source = new TestBuffer(1280, 720);
+    final VideoFrame frame = new VideoFrame(source, /* rotation= */ 0, /* timestampNs= */ 1);
+
+    final TestBuffer medium = (TestBuffer) pyramid.getScaledBuffer(frame, 640, 360);
+    final TestBuffer small = (TestBuffer) pyramid.getScaledBuffer(frame, 320, 180);
+    // The pyramid keeps a reference to its levels until the next frame.
+    assertEquals(2, medium.refCount);
+    assertEquals(2, small.refCount);
+    medium.release();
+    small.release();
+    assertEquals(1, medium.refCount);
+
+    final VideoFrame nextFrame = new VideoFrame(source, /* rotation= */ 0, /* timestampNs= */ 2);
+    final TestBuffer nextSmall = (TestBuffer) pyramid.getScaledBuffer(nextFrame, 320, 180);
+    assertEquals(0, medium.refCount);
+    assertEquals(0, small.refCount);
+    assertEquals(4, source.scaledBuffers.size());
+
+    nextSmall.release();
+    pyramid.removeLayer(1280, 720);
+    pyramid.removeLayer(640, 360);
+    pyramid.removeLayer(320, 180);
+    assertEquals(0, nextSmall.refCount);
+    assertEquals(1, source.refCount);
+  }
+
+  @Test
+  public void scalesUnregisteredSizeFromSmallestLargerLevel() {
+    final DownscalePyramid pyramid = createPyramid();
+    final TestBuffer source = new TestBuffer(1280, 720);
+    final VideoFrame frame = new VideoFrame(source, /* rotation= */ 0, /* timestampNs= */ 1);
+
+    final TestBuffer buffer = (TestBuffer) pyramid.getScaledBuffer(frame, 480, 270);
+
+    assertEquals(640, buffer.parent.width);
+    assertEquals(1, buffer.refCount);
+    buffer.release();
+  }
+
+  @Test
+  public void passesTexturesThroughLazily() {
+    final DownscalePyramid pyramid = createPyramid();
+    final VideoFrame.TextureBuffer source = mock(VideoFrame.TextureBuffer.class);
+    final VideoFrame.Buffer scaled = mock(VideoFrame.Buffer.class);
+    when(source.getWidth()).thenReturn(1280);
+    when(source.getHeight()).thenReturn(720);
+    when(source.cropAndScale(0, 0, 1280, 720, 320, 180)).thenReturn(scaled);
+    final VideoFrame frame = new VideoFrame(source, /* rotation= */ 0, /* timestampNs= */ 1);
+
+    assertSame(scaled, pyramid.getScaledBuffer(frame, 320, 180));
+    verify(source).cropAndScale(0, 0, 1280, 720, 320, 180);
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.webrtc.RecordingVideoEncoderFactoryTest.encode;
+import static org.webrtc.RecordingVideoEncoderFactoryTest.initEncode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.webrtc.RecordingVideoEncoderFactoryTest.FakeJavaEncoder;
+
+@RunWith(RobolectricTestRunner.class)
+public class EncodedImageRecorderTest {
+  private static final int IVF_WIDTH_OFFSET = 12;
+  private static final int IVF_HEIGHT_OFFSET = 14;
+  private static final int IVF_FRAME_COUNT_OFFSET = 24;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = new File(folder.getRoot(), "recording.ivf");
+  }
+
+  private static ByteBuffer readHeader(File file) throws IOException {
+    return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static void assertIvfHeader(File file, int width, int height, int frames)
+      throws IOException {
+    final ByteBuffer header = readHeader(file);
+    assertEquals(width, header.getShort(IVF_WIDTH_OFFSET));
+    assertEquals(height, header.getShort(IVF_HEIGHT_OFFSET));
+    assertEquals(frames, header.getInt(IVF_FRAME_COUNT_OFFSET));
+  }
+
+  @Test
+  public void requestsKeyFrameWhenRecordingStarts() throws IOException {
+    final EncodedImageRecorder recorder =
+        new EncodedImageRecorder(file.getPath(), EncodedImageRecorder.Container.IVF);
+    // The encoder is already running, so its next key frame could be an hour away.
+    final FakeJavaEncoder fakeEncoder = new FakeJavaEncoder(/* keyFrameFirst= */ false);
+    final RecordingVideoEncoder encoder =
+        new RecordingVideoEncoder(fakeEncoder, VideoCodecMimeType.VP8, recorder);
+    initEncode(encoder, 640, 360);
+
+    encode(encoder, 10);
+    encoder.release();
+    recorder.release();
+
+    // The first frame is requested as a key frame, so nothing is dropped.
+    assertEquals(1, fakeEncoder.keyFrameRequests);
+    assertEquals(0, recorder.getFramesDropped());
+    assertEquals(10, recorder.getFramesRecorded());
+    assertIvfHeader(file, 640, 360, 10);
+  }
+
+  @Test
+  public void startsNewFileOnResolutionChange() throws IOException {
+    final EncodedImageRecorder recorder =
+        new EncodedImageRecorder(file.getPath(), EncodedImageRecorder.Container.IVF);
+    final RecordingVideoEncoder encoder =
+        new RecordingVideoEncoder(new FakeJavaEncoder(), VideoCodecMimeType.VP8, recorder);
+
+    initEncode(encoder, 640, 360);
+    encode(encoder, 3);
+    // The encoder is reconfigured for the new resolution and starts with a key frame.
+    initEncode(encoder, 320, 180);
+    encode(encoder, 2);
+    encoder.release();
+    recorder.release();
+
+    assertEquals(5, recorder.getFramesRecorded());
+    assertIvfHeader(file, 640, 360, 3);
+    assertIvfHeader(new File(folder.getRoot(), "recording_1.ivf"), 320, 180, 2);
+  }
+
+  @Test
+  public void recordsSelectedSimulcastLayer() throws IOException {
+    final File lowFile = new File(folder.getRoot(), "low.ivf");
+    final EncodedImageRecorder highRecorder =
+        new EncodedImageRecorder(file.getPath(), EncodedImageRecorder.Container.IVF,
+            EncodedImageRecorder.LayerSelection.HIGHEST_RESOLUTION);
+    final EncodedImageRecorder lowRecorder =
+        new EncodedImageRecorder(lowFile.getPath(), EncodedImageRecorder.Container.IVF,
+            EncodedImageRecorder.LayerSelection.LOWEST_RESOLUTION);
+
+    for (EncodedImageRecorder recorder : new EncodedImageRecorder[] {highRecorder, lowRecorder}) {
+      // The simulcast adapter initializes the layers from the lowest resolution up.
+      final VideoEncoder[] layers = new VideoEncoder[3];
+      final int[][] sizes = {{320, 180}, {640, 360}, {1280, 720}};
+      for (int i = 0; i < layers.length; i++) {
+        layers[i] = new RecordingVideoEncoder(
+            new FakeJavaEncoder(), VideoCodecMimeType.VP8, recorder);
+        initEncode(layers[i], sizes[i][0], sizes[i][1]);
+      }
+      for (int frame = 0; frame < 4; frame++) {
+        for (VideoEncoder layer : layers) {
+          encode(layer, 1);
+        }
+      }
+      for (VideoEncoder layer : layers) {
+        layer.release();
+      }
+      recorder.release();
+      assertEquals(4, recorder.getFramesRecorded());
+    }
+
+    assertIvfHeader(file, 1280, 720, 4);
+    assertIvfHeader(lowFile, 320, 180, 4);
+    assertFalse(new File(folder.getRoot(), "recording_1.ivf").exists());
+    assertTrue(lowFile.exists());
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class EncoderQueuePolicyTest {
+  private static final long MS = 1_000_000;
+  private static final double FRAME_INTERVAL_MS = 33;
+
+  /** Frame in the simulated encoder. */
+  private static class QueuedFrame {
+    final double queuedMs;
+    final double outputMs;
+    final int framesAhead;
+
+    QueuedFrame(double queuedMs, double outputMs, int framesAhead) {
+      this.queuedMs = queuedMs;
+      this.outputMs = outputMs;
+      this.framesAhead = framesAhead;
+    }
+  }
+
+  /** Outcome of a trace, for the frames from `fromFrame` on. */
+  private static class TraceResult {
+    int drops;
+    double maxLatencyMs;
+    int minDepth = Integer.MAX_VALUE;
+  }
+
+  /**
+   * Feeds a frame every FRAME_INTERVAL_MS to a simulated encoder that encodes one frame at a time,
+   * taking `encodeTimesMs[i]` for frame i. Frames are dropped when the encoder already holds the
+   * depth allowed by the controller, like HardwareVideoEncoder does.
+   */
+  private static TraceResult runTrace(
+      EncoderQueuePolicy policy, double[] encodeTimesMs, int fromFrame) {
+    final EncoderQueuePolicy.Controller controller = policy.createController();
+    final ArrayDeque<QueuedFrame> queue = new ArrayDeque<>();
+    final TraceResult result = new TraceResult();
+    double lastOutputMs = 0;
+    for (int i = 0; i < encodeTimesMs.length; i++) {
+      final double nowMs = i * FRAME_INTERVAL_MS;
+      while (!queue.isEmpty() && queue.peek().outputMs <= nowMs) {
+        final QueuedFrame frame = queue.poll();
+        final double latencyMs = frame.outputMs - frame.queuedMs;
+        controller.onFrameEncoded((long) (latencyMs * MS), frame.framesAhead);
+        if (i >= fromFrame) {
+          result.maxLatencyMs = Math.max(result.maxLatencyMs, latencyMs);
+        }
+      }
+      final int depth = controller.getMaxDepth();
+      if (i >= fromFrame) {
+        result.minDepth = Math.min(result.minDepth, depth);
+      }
+      if (queue.size() >= depth) {
+        if (i >= fromFrame) {
+          result.drops++;
+        }
+        continue;
+      }
+      lastOutputMs = Math.max(nowMs, lastOutputMs) + encodeTimesMs[i];
+      queue.add(new QueuedFrame(nowMs, lastOutputMs, queue.size()));
+    }
+    return result;
+  }
+
+  private static double[] constantTrace(int frames, double encodeTimeMs) {
+    final double[] trace = new double[frames];
+    Arrays.fill(trace, encodeTimeMs);
+    return trace;
+  }
+
+  @Test
+  public void fixedDepthIgnoresEncodeTime() {
+    final EncoderQueuePolicy.Controller controller =
+        EncoderQueuePolicy.fixedDepth(2).createController();
+    assertEquals(2, controller.getMaxDepth());
+    controller.onFrameEncoded(500 * MS, /* framesAhead= */ 0);
+    assertEquals(2, controller.getMaxDepth());
+    assertEquals(1, EncoderQueuePolicy.fixedDepth(0).createController().getMaxDepth());
+    assertEquals(EncoderQueuePolicy.MAX_DEPTH,
+        EncoderQueuePolicy.fixedDepth(100).createController().getMaxDepth());
+  }
+
+  @Test
+  public void adaptiveDepthStartsAtDefaultDepthUntilMeasured() {
+    final EncoderQueuePolicy.Controller controller =
+        EncoderQueuePolicy.latencyTarget(100).createController();
+    assertEquals(3, controller.getMaxDepth());
+    controller.onFrameEncoded(20 * MS, /* framesAhead= */ 0);
+    assertEquals(5, controller.getMaxDepth());
+    controller.reset();
+    assertEquals(3, controller.getMaxDepth());
+  }
+
+  @Test
+  public void sharesLatencyWithFramesAhead() {
+    final EncoderQueuePolicy.Controller controller =
+        EncoderQueuePolicy.latencyTarget(100).createController();
+    // The frame waited for three frames ahead of it.
+    controller.onFrameEncoded(40 * MS, /* framesAhead= */ 3);
+    assertEquals(10, controller.getFrameTimeMs(), 1e-9);
+    assertEquals(EncoderQueuePolicy.MAX_DEPTH, controller.getMaxDepth());
+  }
+
+  @Test
+  public void adaptiveDepthConvergesToLatencyTarget() {
+    final EncoderQueuePolicy.Controller controller =
+        EncoderQueuePolicy.latencyTarget(100).createController();
+    for (int i = 0; i < 100; i++) {
+      controller.onFrameEncoded(25 * MS, /* framesAhead= */ 0);
+    }
+    assertEquals(4, controller.getMaxDepth());
+    for (int i = 0; i < 100; i++) {
+      controller.onFrameEncoded(50 * MS, /* framesAhead= */ 0);
+    }
+    assertEquals(2, controller.getMaxDepth());
+    for (int i = 0; i < 100; i++) {
+      controller.onFrameEncoded(250 * MS, /* framesAhead= */ 0);
+    }
+    assertEquals(1, controller.getMaxDepth());
+    for (int i = 0; i < 100; i++) {
+      controller.onFrameEncoded(1 * MS, /* framesAhead= */ 0);
+    }
+    assertEquals(EncoderQueuePolicy.MAX_DEPTH, controller.getMaxDepth());
+  }
+
+  @Test
+  public void singleSpikeOnlyLowersDepthBriefly() {
+    final EncoderQueuePolicy.Controller controller =
+        EncoderQueuePolicy.latencyTarget(100).createController();
+    for (int i = 0; i < 50; i++) {
+      controller.onFrameEncoded(10 * MS, /* framesAhead= */ 0);
+    }
+    assertEquals(EncoderQueuePolicy.MAX_DEPTH, controller.getMaxDepth());
+    controller.onFrameEncoded(100 * MS, /* framesAhead= */ 0);
+    assertEquals(5, controller.getMaxDepth());
+    int frames = 0;
+    while (controller.getMaxDepth() < EncoderQueuePolicy.MAX_DEPTH) {
+      controller.onFrameEncoded(10 * MS, /* framesAhead= */ 0);
+      frames++;
+    }
+    assertTrue("Recovered after " + frames + " frames", frames <= 20);
+  }
+
+  @Test
+  public void adaptiveDepthAbsorbsJitterWithoutDrops() {
+    // Averages 30 ms per frame, below the frame interval, but every other frame takes 50 ms.
+    final double[] trace = new double[300];
+    for (int i = 0; i < trace.length; i++) {
+      trace[i] = i % 2 == 0 ? 10 : 50;
+    }
+
+    final TraceResult adaptive =
+        runTrace(EncoderQueuePolicy.latencyTarget(100), trace, /* fromFrame= */ 0);
+    assertEquals(0, adaptive.drops);
+    assertTrue(adaptive.maxLatencyMs <= 100);
+
+    // A single frame queue drops whenever a slow frame is still in the encoder.
+    final TraceResult fixed =
+        runTrace(EncoderQueuePolicy.fixedDepth(1), trace, /* fromFrame= */ 0);
+    assertTrue(fixed.drops > 50);
+  }
+
+  @Test
+  public void adaptiveDepthBoundsLatencyWhenEncoderSlowsDown() {
+    // The encoder slows down from 20 ms to 60 ms per frame, slower than the frame rate.
+    final double[] trace = new double[300];
+    for (int i = 0; i < trace.length; i++) {
+      trace[i] = i < 100 ? 20 : 60;
+    }
+    final int settledFrame = 150;
+
+    final TraceResult adaptive =
+        runTrace(EncoderQueuePolicy.latencyTarget(150), trace, settledFrame);
+    assertEquals(2, adaptive.minDepth);
+    // Each kept frame waits for at most one frame ahead of it.
+    assertTrue("Latency " + adaptive.maxLatencyMs, adaptive.maxLatencyMs <= 2 * 60);
+
+    final TraceResult deep = runTrace(EncoderQueuePolicy.fixedDepth(8), trace, settledFrame);
+    assertTrue("Latency " + deep.maxLatencyMs, deep.maxLatencyMs >= 7 * 60);
+    // Neither queue depth keeps up with the input, they drop the same share of frames.
+    assertEquals(deep.drops, adaptive.drops, /* delta= */ 2);
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.webrtc.EncoderTelemetry.CodecSwitch;
+import org.webrtc.EncoderTelemetry.InputPath;
+
+public class EncoderTelemetryTest {
+  private static final long MS = 1_000_000;
+
+  private static void deliverFrame(EncoderTelemetry.Recorder recorder, int sizeBytes) {
+    recorder.onFrameDelivered(0, 1 * MS, 11 * MS, 12 * MS, sizeBytes, /* isKeyFrame= */ false);
+  }
+
+  private static EncoderTelemetry snapshot(EncoderTelemetry.Recorder recorder) {
+    return recorder.snapshot("codec", 640, 480, /* queueDepth= */ 0, /* queueDepthLimit= */ 2,
+        /* targetBitrateBps= */ 500_000, /* configuredBitrateBps= */ 500_000);
+  }
+
+  @Test
+  public void reportsFrameSizesOfInterval() {
+    final EncoderTelemetry.Recorder recorder = new EncoderTelemetry.Recorder();
+    deliverFrame(recorder, 1000);
+    deliverFrame(recorder, 3000);
+
+    EncoderTelemetry telemetry = snapshot(recorder);
+    assertEquals(2000, telemetry.averageFrameBytes, 1e-9);
+    // Sample standard deviation sqrt(2e6) relative to the mean.
+    assertEquals(Math.sqrt(2e6) / 2000, telemetry.frameBytesCoefficientOfVariation, 1e-9);
+    assertEquals(3000, telemetry.maxFrameBytes);
+    assertEquals(10, telemetry.codecLatency.maxMs, 1e-9);
+
+    telemetry = snapshot(recorder);
+    assertEquals(0, telemetry.averageFrameBytes, 1e-9);
+    assertEquals(0, telemetry.maxFrameBytes);
+  }
+
+  @Test
+  public void reportsDropsInputCopiesAndCodecSwitches() {
+    final EncoderTelemetry.Recorder recorder = new EncoderTelemetry.Recorder();
+    EncoderTelemetry telemetry = snapshot(recorder);
+    assertNull(telemetry.inputPath);
+    assertNull(telemetry.lastCodecSwitch);
+
+    recorder.onFrameDropped(/* queueFull= */ true);
+    recorder.onFrameDropped(/* queueFull= */ true);
+    recorder.onFrameDropped(/* queueFull= */ false);
+    recorder.onInputCopied(InputPath.I420_TO_PLANAR, 300_000);
+    recorder.onInputCopied(InputPath.NV12_TO_SEMI_PLANAR, 100_000);
+    recorder.onCodecReset();
+    recorder.onCodecSwitched(CodecSwitch.IN_PLACE, 40 * MS);
+
+    telemetry = snapshot(recorder);
+    assertEquals(2, telemetry.queueFullDrops);
+    assertEquals(1, telemetry.noInputBufferDrops);
+    assertEquals(InputPath.NV12_TO_SEMI_PLANAR, telemetry.inputPath);
+    assertEquals(200, telemetry.averageInputCopyUs, 1e-9);
+    assertEquals(1, telemetry.codecResets);
+    assertEquals(CodecSwitch.IN_PLACE, telemetry.lastCodecSwitch);
+    assertEquals(40, telemetry.lastCodecSwitchMs, 1e-9);
+
+    // Counters cover the lifetime of the encoder, the copy time only the interval.
+    telemetry = snapshot(recorder);
+    assertEquals(2, telemetry.queueFullDrops);
+    assertEquals(0, telemetry.averageInputCopyUs, 1e-9);
+  }
+}
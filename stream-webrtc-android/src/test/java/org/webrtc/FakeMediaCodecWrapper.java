@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCrypto;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.Surface;
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fake MediaCodecWrapper that records the queued input and outputs the data added by the test.
+ * Queued input buffers are consumed immediately. In asynchronous mode, buffers are reported to the
+ * MediaCodec.Callback on its handler.
+ */
+class FakeMediaCodecWrapper implements MediaCodecWrapper {
+  static final int NUM_INPUT_BUFFERS = 3;
+  static final int NUM_OUTPUT_BUFFERS = 4;
+  private static final int INPUT_BUFFER_SIZE = 1024 * 1024;
+
+  enum State { STOPPED, CONFIGURED, EXECUTING, RELEASED }
+
+  static class QueuedInput {
+    final int index;
+    final int size;
+    final long presentationTimeUs;
+    final int flags;
+
+    QueuedInput(int index, int size, long presentationTimeUs, int flags) {
+      this.index = index;
+      this.size = size;
+      this.presentationTimeUs = presentationTimeUs;
+      this.flags = flags;
+    }
+  }
+
+  private static class Output {
+    final int index;
+    final MediaCodec.BufferInfo info;
+
+    Output(int index, MediaCodec.BufferInfo info) {
+      this.index = index;
+      this.info = info;
+    }
+  }
+
+  private final MediaFormat inputFormat;
+  private final MediaFormat outputFormat;
+  @Nullable private final MediaCodecInfo codecInfo;
+  private final ByteBuffer[] inputBuffers = new ByteBuffer[NUM_INPUT_BUFFERS];
+  private final ByteBuffer[] outputBuffers = new ByteBuffer[NUM_OUTPUT_BUFFERS];
+  private final boolean[] inputBufferDequeued = new boolean[NUM_INPUT_BUFFERS];
+  // Queued input buffers that were not made available again.
+  private final boolean[] inputBufferConsumed = new boolean[NUM_INPUT_BUFFERS];
+  private final boolean[] outputBufferInUse = new boolean[NUM_OUTPUT_BUFFERS];
+  private final BlockingDeque<Output> pendingOutputs = new LinkedBlockingDeque<>();
+  private final List<QueuedInput> queuedInputs = new ArrayList<>();
+  private final List<Bundle> parameters = new ArrayList<>();
+  // BufferInfos that outputs were returned in, by identity.
+  private final Set<MediaCodec.BufferInfo> outputBufferInfos =
+      Collections.newSetFromMap(new IdentityHashMap<>());
+  private State state = State.STOPPED;
+  @Nullable private MediaFormat configuredFormat;
+  @Nullable private MediaCodec.Callback callback;
+  @Nullable private Handler callbackHandler;
+  // Whether consumed input buffers become available again.
+  private boolean returnInputBuffers = true;
+  private int releasedOutputBuffers;
+  private int dequeueInputBufferCalls;
+  // Calls that a real codec would reject in its current state.
+  private int illegalStateCalls;
+  @Nullable private Thread outputThread;
+
+  FakeMediaCodecWrapper(MediaFormat inputFormat, MediaFormat outputFormat) {
+    this(inputFormat, outputFormat, /* codecInfo= */ null);
+  }
+
+  FakeMediaCodecWrapper(
+      MediaFormat inputFormat, MediaFormat outputFormat, @Nullable MediaCodecInfo codecInfo) {
+    this.inputFormat = inputFormat;
+    this.outputFormat = outputFormat;
+    this.codecInfo = codecInfo;
+    for (int i = 0; i < NUM_INPUT_BUFFERS; i++) {
+      inputBuffers[i] = ByteBuffer.allocateDirect(INPUT_BUFFER_SIZE);
+    }
+  }
+
+  /**
+   * Outputs `data` as the next output buffer. Returns false if all output buffers are in use.
+   */
+  synchronized boolean addOutputData(byte[] data, long presentationTimeUs, int flags) {
+    int index = -1;
+    for (int i = 0; i < NUM_OUTPUT_BUFFERS; i++) {
+      if (!outputBufferInUse[i]) {
+        index = i;
+        break;
+      }
+    }
+    if (index < 0) {
+      return false;
+    }
+    outputBufferInUse[index] = true;
+    if (outputBuffers[index] == null || outputBuffers[index].capacity() < data.length) {
+      outputBuffers[index] = ByteBuffer.allocateDirect(data.length);
+    }
+    outputBuffers[index].clear();
+    outputBuffers[index].put(data);
+    final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    info.set(/* offset= */ 0, data.length, presentationTimeUs, flags);
+    if (callback != null) {
+      final int outputIndex = index;
+      final MediaCodec.Callback outputCallback = callback;
+      callbackHandler.post(() -> {
+        synchronized (this) {
+          outputThread = Thread.currentThread();
+        }
+        outputCallback.onOutputBufferAvailable(null, outputIndex, info);
+      });
+    } else {
+      pendingOutputs.offer(new Output(index, info));
+    }
+    return true;
+  }
+
+  /** Reports `error` through the asynchronous callback. */
+  synchronized void postError(MediaCodec.CodecException error) {
+    final MediaCodec.Callback errorCallback = callback;
+    callbackHandler.post(() -> errorCallback.onError(null, error));
+  }
+
+  /** Waits until the callbacks posted so far have run. Returns false on timeout. */
+  boolean waitForCallbacks(long timeoutMs) throws InterruptedException {
+    final Handler handler;
+    synchronized (this) {
+      handler = callbackHandler;
+    }
+    if (handler == null) {
+      return true;
+    }
+    final CountDownLatch latch = new CountDownLatch(1);
+    handler.post(latch::countDown);
+    return latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stops returning consumed input buffers, so that the codec runs out of them. */
+  synchronized void setReturnInputBuffers(boolean returnInputBuffers) {
+    this.returnInputBuffers = returnInputBuffers;
+  }
+
+  /** Makes the input buffers that were consumed while input buffers were withheld available. */
+  synchronized void returnConsumedInputBuffers() {
+    if (state != State.EXECUTING) {
+      return;
+    }
+    for (int i = 0; i < NUM_INPUT_BUFFERS; i++) {
+      if (!inputBufferConsumed[i]) {
+        continue;
+      }
+      inputBufferConsumed[i] = false;
+      if (callback != null) {
+        postInputBufferAvailable(i);
+      } else {
+        inputBufferDequeued[i] = false;
+      }
+    }
+  }
+
+  synchronized int getDequeueInputBufferCalls() {
+    return dequeueInputBufferCalls;
+  }
+
+  synchronized int getIllegalStateCalls() {
+    return illegalStateCalls;
+  }
+
+  synchronized List<QueuedInput> getQueuedInputs() {
+    return new ArrayList<>(queuedInputs);
+  }
+
+  synchronized List<Bundle> getParameters() {
+    return new ArrayList<>(parameters);
+  }
+
+  /** Returns the number of distinct BufferInfos that dequeueOutputBuffer() filled in. */
+  synchronized int getOutputBufferInfoCount() {
+    return outputBufferInfos.size();
+  }
+
+  /** Returns the thread that the last output was dequeued or reported on. */
+  @Nullable
+  synchronized Thread getOutputThread() {
+    return outputThread;
+  }
+
+  synchronized int getReleasedOutputBuffers() {
+    return releasedOutputBuffers;
+  }
+
+  synchronized State getState() {
+    return state;
+  }
+
+  @Nullable
+  synchronized MediaFormat getConfiguredFormat() {
+    return configuredFormat;
+  }
+
+  synchronized boolean isAsync() {
+    return callback != null;
+  }
+
+  @Override
+  public synchronized void configure(
+      MediaFormat format, Surface surface, MediaCrypto crypto, int flags) {
+    checkState(State.STOPPED);
+    configuredFormat = format;
+    state = State.CONFIGURED;
+  }
+
+  @Override
+  public synchronized void start() {
+    checkState(State.CONFIGURED);
+    state = State.EXECUTING;
+    if (callback != null) {
+      for (int i = 0; i < NUM_INPUT_BUFFERS; i++) {
+        postInputBufferAvailable(i);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void flush() {
+    checkState(State.EXECUTING);
+    pendingOutputs.clear();
+    Arrays.fill(inputBufferDequeued, false);
+    Arrays.fill(inputBufferConsumed, false);
+    Arrays.fill(outputBufferInUse, false);
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (state == State.RELEASED) {
+      throw new IllegalStateException("stop() on a released codec");
+    }
+    state = State.STOPPED;
+    pendingOutputs.clear();
+    Arrays.fill(inputBufferDequeued, false);
+    Arrays.fill(inputBufferConsumed, false);
+    Arrays.fill(outputBufferInUse, false);
+    // A stopped codec reuses the memory of its output buffers, which frames must no longer read.
+    for (ByteBuffer buffer : outputBuffers) {
+      if (buffer != null) {
+        buffer.clear();
+        buffer.put(new byte[buffer.capacity()]);
+        buffer.clear();
+      }
+    }
+  }
+
+  @Override
+  public synchronized void release() {
+    state = State.RELEASED;
+    pendingOutputs.clear();
+  }
+
+  @Override
+  public synchronized int dequeueInputBuffer(long timeoutUs) {
+    dequeueInputBufferCalls++;
+    checkState(State.EXECUTING);
+    for (int i = 0; i < NUM_INPUT_BUFFERS; i++) {
+      if (!inputBufferDequeued[i]) {
+        inputBufferDequeued[i] = true;
+        return i;
+      }
+    }
+    return MediaCodec.INFO_TRY_AGAIN_LATER;
+  }
+
+  @Override
+  public synchronized void queueInputBuffer(
+      int index, int offset, int size, long presentationTimeUs, int flags) {
+    checkState(State.EXECUTING);
+    queuedInputs.add(new QueuedInput(index, size, presentationTimeUs, flags));
+    inputBufferDequeued[index] = true;
+    if (returnInputBuffers) {
+      if (callback != null) {
+        postInputBufferAvailable(index);
+      } else {
+        inputBufferDequeued[index] = false;
+      }
+    } else {
+      inputBufferConsumed[index] = true;
+    }
+  }
+
+  @Override
+  public int dequeueOutputBuffer(MediaCodec.BufferInfo info, long timeoutUs) {
+    synchronized (this) {
+      checkState(State.EXECUTING);
+    }
+    final Output output;
+    try {
+      output = pendingOutputs.poll(timeoutUs, TimeUnit.MICROSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return MediaCodec.INFO_TRY_AGAIN_LATER;
+    }
+    if (output == null) {
+      return MediaCodec.INFO_TRY_AGAIN_LATER;
+    }
+    info.set(output.info.offset, output.info.size, output.info.presentationTimeUs,
+        output.info.flags);
+    synchronized (this) {
+      outputBufferInfos.add(info);
+      outputThread = Thread.currentThread();
+    }
+    return output.index;
+  }
+
+  @Override
+  public synchronized void releaseOutputBuffer(int index, boolean render) {
+    checkState(State.EXECUTING);
+    if (!outputBufferInUse[index]) {
+      throw new IllegalStateException("Output buffer " + index + " is not in use");
+    }
+    outputBufferInUse[index] = false;
+    releasedOutputBuffers++;
+  }
+
+  @Override
+  public synchronized MediaFormat getInputFormat() {
+    return inputFormat;
+  }
+
+  @Override
+  public synchronized MediaFormat getOutputFormat() {
+    return outputFormat;
+  }
+
+  @Override
+  public synchronized MediaFormat getOutputFormat(int index) {
+    return outputFormat;
+  }
+
+  @Override
+  public synchronized ByteBuffer getInputBuffer(int index) {
+    checkState(State.EXECUTING);
+    final ByteBuffer buffer = inputBuffers[index];
+    buffer.clear();
+    return buffer;
+  }
+
+  @Override
+  public synchronized ByteBuffer getOutputBuffer(int index) {
+    checkState(State.EXECUTING);
+    final ByteBuffer buffer = outputBuffers[index].duplicate();
+    buffer.clear();
+    return buffer;
+  }
+
+  @Override
+  public Surface createInputSurface() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public synchronized void setParameters(Bundle params) {
+    parameters.add(params);
+  }
+
+  @Override
+  public synchronized void setCallback(MediaCodec.Callback callback, Handler handler) {
+    checkState(State.STOPPED);
+    this.callback = callback;
+    this.callbackHandler = handler;
+  }
+
+  @Override
+  @Nullable
+  public MediaCodecInfo getCodecInfo() {
+    return codecInfo;
+  }
+
+  @Override
+  public List<String> getSupportedVendorParameters() {
+    return Collections.emptyList();
+  }
+
+  // Must be called with the lock held.
+  private void postInputBufferAvailable(int index) {
+    inputBufferDequeued[index] = true;
+    final MediaCodec.Callback inputCallback = callback;
+    callbackHandler.post(() -> inputCallback.onInputBufferAvailable(null, index));
+  }
+
+  private void checkState(State expected) {
+    if (state != expected) {
+      illegalStateCalls++;
+      throw new IllegalStateException("Expected state " + expected + " but was " + state);
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.media.MediaCodecInfo.CodecCapabilities;
+import android.media.MediaFormat;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Checks that the direct copies of the encoder input produce the same codec layout as converting
+ * the frame with toI420() and the contiguous YuvHelper.I420ToNV12 and I420Copy helpers.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(instrumentedPackages = {"org.webrtc.JniCommon", "org.webrtc.YuvHelper",
+            "org.webrtc.NV12Buffer", "org.webrtc.NV21Buffer"},
+    shadows = {LibyuvShadows.ShadowJniCommon.class, LibyuvShadows.ShadowYuvHelper.class,
+        LibyuvShadows.ShadowNV12Buffer.class, LibyuvShadows.ShadowNV21Buffer.class})
+public class HardwareVideoEncoderInputTest {
+  // Larger than the frames, as reported by many hardware encoders.
+  private static final int STRIDE = 32;
+  private static final int SLICE_HEIGHT = 16;
+  private static final byte PADDING = (byte) 0x5a;
+
+  private final Random random = new Random(/* seed= */ 42);
+
+  private static HardwareVideoEncoder createEncoder(int colorFormat, int width, int height) {
+    final VideoCodecMimeType codecType = VideoCodecMimeType.VP8;
+    final MediaFormat inputFormat = MediaFormat.createVideoFormat(codecType.mimeType(), width,
+        height);
+    inputFormat.setInteger(MediaFormat.KEY_STRIDE, STRIDE);
+    inputFormat.setInteger(MediaFormat.KEY_SLICE_HEIGHT, SLICE_HEIGHT);
+    final HardwareVideoEncoder encoder = new HardwareVideoEncoder(name
+        -> new FakeMediaCodecWrapper(
+            inputFormat, MediaFormat.createVideoFormat(codecType.mimeType(), width, height)),
+        "fake.vp8.encoder", codecType, /* surfaceColorFormat= */ null, colorFormat,
+        new HashMap<>(), /* keyFrameIntervalSec= */ 100, /* forceKeyFrameIntervalMs= */ 0,
+        new BaseBitrateAdjuster(), /* sharedContext= */ null);
+    assertEquals(VideoCodecStatus.OK,
+        encoder.initEncode(new VideoEncoder.Settings(/* numberOfCores= */ 1, width, height,
+                               /* startBitrate= */ 1000, /* maxFramerate= */ 30,
+                               /* numberOfSimulcastStreams= */ 1, /* automaticResizeOn= */ false,
+                               new VideoEncoder.Capabilities(/* lossNotification= */ false)),
+            (image, info) -> {}));
+    return encoder;
+  }
+
+  private static int frameSize(boolean isSemiPlanar, int height) {
+    return isSemiPlanar ? STRIDE * SLICE_HEIGHT + STRIDE * ((height + 1) / 2)
+                        : STRIDE * SLICE_HEIGHT + (STRIDE + 1) / 2 * ((SLICE_HEIGHT + 1) / 2) * 2;
+  }
+
+  private ByteBuffer randomBuffer(int size) {
+    final byte[] data = new byte[size];
+    random.nextBytes(data);
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    buffer.put(data);
+    buffer.clear();
+    return buffer;
+  }
+
+  private static ByteBuffer paddedBuffer(int size) {
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    final byte[] padding = new byte[size];
+    Arrays.fill(padding, PADDING);
+    buffer.put(padding);
+    buffer.clear();
+    return buffer;
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    final byte[] data = new byte[buffer.capacity()];
+    final ByteBuffer view = buffer.duplicate();
+    view.clear();
+    view.get(data);
+    return data;
+  }
+
+  /** Returns the codec input written by converting `frame` with toI420() first. */
+  private static byte[] convertWithI420(
+      VideoFrame.Buffer frame, boolean isSemiPlanar, int frameSize) {
+    final ByteBuffer expected = paddedBuffer(frameSize);
+    final VideoFrame.I420Buffer i420 = frame.toI420();
+    if (isSemiPlanar) {
+      YuvHelper.I420ToNV12(i420.getDataY(), i420.getStrideY(), i420.getDataU(), i420.getStrideU(),
+          i420.getDataV(), i420.getStrideV(), expected.duplicate(), frame.getWidth(),
+          frame.getHeight(), STRIDE, SLICE_HEIGHT);
+    } else {
+      YuvHelper.I420Copy(i420.getDataY(), i420.getStrideY(), i420.getDataU(), i420.getStrideU(),
+          i420.getDataV(), i420.getStrideV(), expected.duplicate(), frame.getWidth(),
+          frame.getHeight(), STRIDE, SLICE_HEIGHT);
+    }
+    i420.release();
+    return toArray(expected);
+  }
+
+  private void copiesLikeI420Conversion(int colorFormat, VideoFrame.Buffer frame) {
+    final boolean isSemiPlanar = colorFormat != CodecCapabilities.COLOR_FormatYUV420Planar;
+    final int frameSize = frameSize(isSemiPlanar, frame.getHeight());
+    final byte[] expected = convertWithI420(frame, isSemiPlanar, frameSize);
+
+    final HardwareVideoEncoder encoder =
+        createEncoder(colorFormat, frame.getWidth(), frame.getHeight());
+    final ByteBuffer actual = paddedBuffer(frameSize);
+    encoder.fillInputBuffer(actual, frame);
+    assertEquals(VideoCodecStatus.OK, encoder.release());
+    frame.release();
+
+    assertArrayEquals(expected, toArray(actual));
+  }
+
+  private VideoFrame.Buffer createI420Buffer(int width, int height) {
+    // Source strides differ from the codec stride and the frame width.
+    final int strideY = width + 3;
+    final int strideUV = (width + 1) / 2 + 5;
+    final int chromaHeight = (height + 1) / 2;
+    return JavaI420Buffer.wrap(width, height, randomBuffer(strideY * height), strideY,
+        randomBuffer(strideUV * chromaHeight), strideUV, randomBuffer(strideUV * chromaHeight),
+        strideUV, /* releaseCallback= */ null);
+  }
+
+  private VideoFrame.Buffer createNV12Buffer(int width, int height) {
+    final int stride = width + 6;
+    final int sliceHeight = height + 2;
+    return new NV12Buffer(width, height, stride, sliceHeight,
+        randomBuffer(stride * sliceHeight + stride * ((height + 1) / 2)),
+        /* releaseCallback= */ null);
+  }
+
+  private VideoFrame.Buffer createNV21Buffer(int width, int height) {
+    final byte[] data = new byte[width * height + (width + 1) / 2 * 2 * ((height + 1) / 2)];
+    random.nextBytes(data);
+    return new NV21Buffer(data, width, height, /* releaseCallback= */ null);
+  }
+
+  private void copiesAllBufferTypes(int colorFormat) {
+    // 22x14 has odd chroma dimensions.
+    for (int[] size : new int[][] {{16, 8}, {22, 14}}) {
+      final int width = size[0];
+      final int height = size[1];
+      copiesLikeI420Conversion(colorFormat, createI420Buffer(width, height));
+      copiesLikeI420Conversion(colorFormat, createNV12Buffer(width, height));
+      copiesLikeI420Conversion(colorFormat, createNV21Buffer(width, height));
+    }
+  }
+
+  @Test
+  public void semiPlanarInputMatchesI420Conversion() {
+    copiesAllBufferTypes(CodecCapabilities.COLOR_FormatYUV420SemiPlanar);
+  }
+
+  @Test
+  public void planarInputMatchesI420Conversion() {
+    copiesAllBufferTypes(CodecCapabilities.COLOR_FormatYUV420Planar);
+  }
+}
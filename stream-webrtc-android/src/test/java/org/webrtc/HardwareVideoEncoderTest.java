@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo.CodecCapabilities;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import androidx.annotation.Nullable;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class HardwareVideoEncoderTest {
+  private static final String CODEC_NAME = "fake.vp8.encoder";
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  private static final int FRAME_SIZE_BYTES = WIDTH * HEIGHT * 3 / 2;
+  private static final long FRAME_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(33);
+  private static final long OUTPUT_TIMEOUT_MS = 5000;
+  private static final long MAX_ALLOCATED_BYTES_PER_FRAME = 320;
+  private static final VideoEncoder.EncodeInfo DELTA_FRAME = new VideoEncoder.EncodeInfo(
+      new EncodedImage.FrameType[] {EncodedImage.FrameType.VideoFrameDelta});
+  private static final VideoEncoder.EncodeInfo KEY_FRAME = new VideoEncoder.EncodeInfo(
+      new EncodedImage.FrameType[] {EncodedImage.FrameType.VideoFrameKey});
+
+  /** Copy of an encoded image, which is only valid during the callback. */
+  static class ReceivedImage {
+    final byte[] data;
+    final EncodedImage.FrameType frameType;
+    final long captureTimeNs;
+    final int encodedWidth;
+
+    ReceivedImage(EncodedImage image) {
+      data = new byte[image.buffer.remaining()];
+      image.buffer.duplicate().get(data);
+      frameType = image.frameType;
+      captureTimeNs = image.captureTimeNs;
+      encodedWidth = image.encodedWidth;
+    }
+  }
+
+  /** Skips the native I420 to NV12 conversion. */
+  static class TestHardwareVideoEncoder extends HardwareVideoEncoder {
+    TestHardwareVideoEncoder(
+        MediaCodecWrapperFactory factory, VideoCodecMimeType codecType, Options options) {
+      super(factory, CODEC_NAME, codecType, /* surfaceColorFormat= */ null,
+          CodecCapabilities.COLOR_FormatYUV420SemiPlanar, new HashMap<>(),
+          /* keyFrameIntervalSec= */ 100, /* forceKeyFrameIntervalMs= */ 0,
+          new BaseBitrateAdjuster(), /* sharedContext= */ null, options);
+    }
+
+    @Override
+    protected void fillInputBuffer(ByteBuffer buffer, VideoFrame.Buffer frame) {}
+  }
+
+  private final BlockingQueue<ReceivedImage> receivedImages = new LinkedBlockingQueue<>();
+  private FakeMediaCodecWrapper fakeCodec;
+
+  private HardwareVideoEncoder createEncoder(boolean useAsyncCallbacks) {
+    return createEncoder(VideoCodecMimeType.VP8, useAsyncCallbacks);
+  }
+
+  private HardwareVideoEncoder createEncoder(
+      VideoCodecMimeType codecType, boolean useAsyncCallbacks) {
+    final HardwareVideoEncoder.Options options = new HardwareVideoEncoder.Options();
+    options.useAsyncCallbacks = useAsyncCallbacks;
+    return new TestHardwareVideoEncoder(name -> {
+      fakeCodec = new FakeMediaCodecWrapper(
+          MediaFormat.createVideoFormat(codecType.mimeType(), WIDTH, HEIGHT),
+          MediaFormat.createVideoFormat(codecType.mimeType(), WIDTH, HEIGHT));
+      return fakeCodec;
+    }, codecType, options);
+  }
+
+  private static void initEncode(HardwareVideoEncoder encoder, VideoEncoder.Callback callback) {
+    assertEquals(VideoCodecStatus.OK,
+        encoder.initEncode(new VideoEncoder.Settings(/* numberOfCores= */ 1, WIDTH, HEIGHT,
+                               /* startBitrate= */ 1000, /* maxFramerate= */ 30,
+                               /* numberOfSimulcastStreams= */ 1, /* automaticResizeOn= */ false,
+                               new VideoEncoder.Capabilities(/* lossNotification= */ false)),
+            callback));
+  }
+
+  private void initEncode(HardwareVideoEncoder encoder) {
+    initEncode(encoder, (image, info) -> receivedImages.offer(new ReceivedImage(image)));
+  }
+
+  private static VideoFrame createFrame(int frameIndex) {
+    final VideoFrame.Buffer buffer = mock(VideoFrame.Buffer.class);
+    when(buffer.getWidth()).thenReturn(WIDTH);
+    when(buffer.getHeight()).thenReturn(HEIGHT);
+    return new VideoFrame(buffer, /* rotation= */ 0, frameIndex * FRAME_INTERVAL_NS);
+  }
+
+  /**
+   * Encodes a frame. In asynchronous mode the input buffers are reported on the callback thread,
+   * which is waited for first.
+   */
+  private VideoCodecStatus encode(
+      HardwareVideoEncoder encoder, int frameIndex, VideoEncoder.EncodeInfo info)
+      throws InterruptedException {
+    assertTrue(fakeCodec.waitForCallbacks(OUTPUT_TIMEOUT_MS));
+    return encoder.encode(createFrame(frameIndex), info);
+  }
+
+  private static byte[] outputData(int frameIndex) {
+    final byte[] data = new byte[100 + frameIndex];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (frameIndex + i);
+    }
+    return data;
+  }
+
+  private void encodesAndDeliversFrames(boolean useAsyncCallbacks) throws InterruptedException {
+    final HardwareVideoEncoder encoder = createEncoder(useAsyncCallbacks);
+    initEncode(encoder);
+    assertEquals(useAsyncCallbacks, fakeCodec.isAsync());
+    assertEquals(FakeMediaCodecWrapper.State.EXECUTING, fakeCodec.getState());
+
+    final int frames = 3;
+    for (int i = 0; i < frames; i++) {
+      assertEquals(VideoCodecStatus.OK, encode(encoder, i, DELTA_FRAME));
+    }
+    final List<FakeMediaCodecWrapper.QueuedInput> inputs = fakeCodec.getQueuedInputs();
+    assertEquals(frames, inputs.size());
+    for (int i = 0; i < frames; i++) {
+      assertEquals(FRAME_SIZE_BYTES, inputs.get(i).size);
+      if (i > 0) {
+        assertTrue(inputs.get(i).presentationTimeUs > inputs.get(i - 1).presentationTimeUs);
+      }
+    }
+
+    for (int i = 0; i < frames; i++) {
+      assertTrue(fakeCodec.addOutputData(outputData(i), inputs.get(i).presentationTimeUs,
+          i == 0 ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0));
+    }
+    for (int i = 0; i < frames; i++) {
+      final ReceivedImage image = receivedImages.poll(OUTPUT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      assertNotNull("Missing encoded image " + i, image);
+      assertArrayEquals(outputData(i), image.data);
+      assertEquals(i * FRAME_INTERVAL_NS, image.captureTimeNs);
+      assertEquals(WIDTH, image.encodedWidth);
+      assertEquals(i == 0 ? EncodedImage.FrameType.VideoFrameKey
+                          : EncodedImage.FrameType.VideoFrameDelta,
+          image.frameType);
+    }
+
+    assertEquals(VideoCodecStatus.OK, encoder.release());
+    assertEquals(FakeMediaCodecWrapper.State.RELEASED, fakeCodec.getState());
+    // The output buffers go back to the codec once the images are released.
+    assertEquals(frames, fakeCodec.getReleasedOutputBuffers());
+  }
+
+  @Test
+  public void encodesAndDeliversFramesInSynchronousMode() throws InterruptedException {
+    encodesAndDeliversFrames(/* useAsyncCallbacks= */ false);
+  }
+
+  @Test
+  public void encodesAndDeliversFramesWithAsynchronousCallbacks() throws InterruptedException {
+    encodesAndDeliversFrames(/* useAsyncCallbacks= */ true);
+  }
+
+  private void requestsKeyFrame(boolean useAsyncCallbacks) throws InterruptedException {
+    final HardwareVideoEncoder encoder = createEncoder(useAsyncCallbacks);
+    initEncode(encoder);
+
+    assertEquals(VideoCodecStatus.OK, encode(encoder, 0, DELTA_FRAME));
+    assertTrue(fakeCodec.getParameters().isEmpty());
+    assertEquals(VideoCodecStatus.OK, encode(encoder, 1, KEY_FRAME));
+
+    final List<Bundle> parameters = fakeCodec.getParameters();
+    assertEquals(1, parameters.size());
+    assertEquals(0, parameters.get(0).getInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, -1));
+    assertEquals(VideoCodecStatus.OK, encoder.release());
+  }
+
+  @Test
+  public void requestsKeyFrameInSynchronousMode() throws InterruptedException {
+    requestsKeyFrame(/* useAsyncCallbacks= */ false);
+  }
+
+  @Test
+  public void requestsKeyFrameWithAsynchronousCallbacks() throws InterruptedException {
+    requestsKeyFrame(/* useAsyncCallbacks= */ true);
+  }
+
+  private void dropsFramesWithoutInputBuffers(boolean useAsyncCallbacks)
+      throws InterruptedException {
+    final HardwareVideoEncoder encoder = createEncoder(useAsyncCallbacks);
+    initEncode(encoder);
+    fakeCodec.setReturnInputBuffers(false);
+
+    for (int i = 0; i < FakeMediaCodecWrapper.NUM_INPUT_BUFFERS; i++) {
+      assertEquals(VideoCodecStatus.OK, encode(encoder, i, DELTA_FRAME));
+      // Frees the queue slot, the input buffer stays with the codec.
+      assertTrue(fakeCodec.addOutputData(
+          outputData(i), fakeCodec.getQueuedInputs().get(i).presentationTimeUs, /* flags= */ 0));
+      assertNotNull(receivedImages.poll(OUTPUT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    assertEquals(VideoCodecStatus.NO_OUTPUT,
+        encoder.encode(createFrame(FakeMediaCodecWrapper.NUM_INPUT_BUFFERS), DELTA_FRAME));
+    assertEquals(FakeMediaCodecWrapper.NUM_INPUT_BUFFERS, fakeCodec.getQueuedInputs().size());
+    assertEquals(VideoCodecStatus.OK, encoder.release());
+  }
+
+  @Test
+  public void dropsFramesWithoutInputBuffersInSynchronousMode() throws InterruptedException {
+    dropsFramesWithoutInputBuffers(/* useAsyncCallbacks= */ false);
+  }
+
+  @Test
+  public void dropsFramesWithoutInputBuffersWithAsynchronousCallbacks()
+      throws InterruptedException {
+    dropsFramesWithoutInputBuffers(/* useAsyncCallbacks= */ true);
+  }
+
+  /** Creates the exception of an error with the given MediaCodec.CodecException.ACTION_* code. */
+  private static MediaCodec.CodecException createCodecException(
+      @Nullable String actionCodeName)
+      throws ReflectiveOperationException {
+    int actionCode = 0;
+    if (actionCodeName != null) {
+      final Field field = MediaCodec.CodecException.class.getDeclaredField(actionCodeName);
+      field.setAccessible(true);
+      actionCode = field.getInt(null);
+    }
+    final Constructor<MediaCodec.CodecException> constructor =
+        MediaCodec.CodecException.class.getDeclaredConstructor(
+            int.class, int.class, String.class);
+    constructor.setAccessible(true);
+    return constructor.newInstance(/* errorCode= */ 0, actionCode, "Fake codec error");
+  }
+
+  /** Reports `error` through the callback and returns the status of the next two frames. */
+  private VideoCodecStatus[] encodeAfterError(MediaCodec.CodecException error)
+      throws InterruptedException {
+    final HardwareVideoEncoder encoder = createEncoder(/* useAsyncCallbacks= */ true);
+    initEncode(encoder);
+    assertEquals(VideoCodecStatus.OK, encode(encoder, 0, DELTA_FRAME));
+
+    fakeCodec.postError(error);
+    final VideoCodecStatus[] statuses = {
+        encode(encoder, 1, DELTA_FRAME), encode(encoder, 2, DELTA_FRAME)};
+    encoder.release();
+    return statuses;
+  }
+
+  @Test
+  public void fatalCodecErrorFallsBackToSoftware() throws Exception {
+    assertArrayEquals(
+        new VideoCodecStatus[] {
+            VideoCodecStatus.FALLBACK_SOFTWARE, VideoCodecStatus.FALLBACK_SOFTWARE},
+        encodeAfterError(createCodecException(/* actionCodeName= */ null)));
+  }
+
+  @Test
+  public void transientCodecErrorDropsOneFrame() throws Exception {
+    assertArrayEquals(new VideoCodecStatus[] {VideoCodecStatus.ERROR, VideoCodecStatus.OK},
+        encodeAfterError(createCodecException("ACTION_TRANSIENT")));
+  }
+
+  @Test
+  public void recoverableCodecErrorReconfiguresTheCodec() throws Exception {
+    assertArrayEquals(new VideoCodecStatus[] {VideoCodecStatus.ERROR, VideoCodecStatus.OK},
+        encodeAfterError(createCodecException("ACTION_RECOVERABLE")));
+  }
+
+  private static long getAllocatedBytes(Thread thread) {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(thread.getId());
+  }
+
+  /**
+   * Encodes and delivers `frames` frames, with a key frame request and a bitrate change every
+   * tenth frame, and returns the bytes allocated on the output thread for the delta frames.
+   */
+  private long encodeAndDeliver(HardwareVideoEncoder encoder, int firstFrame, int frames,
+      Semaphore delivered) throws InterruptedException {
+    long allocatedBytes = 0;
+    for (int i = firstFrame; i < firstFrame + frames; i++) {
+      final boolean keyFrame = i % 10 == 0;
+      if (keyFrame) {
+        encoder.setRates(new VideoEncoder.RateControlParameters(
+            createAllocation(1_000_000 + (i % 20) * 1000), /* framerateFps= */ 30));
+      }
+      assertEquals(VideoCodecStatus.OK, encode(encoder, i, keyFrame ? KEY_FRAME : DELTA_FRAME));
+      final List<FakeMediaCodecWrapper.QueuedInput> inputs = fakeCodec.getQueuedInputs();
+      final Thread outputThread = fakeCodec.getOutputThread();
+      final long allocatedBefore = outputThread != null ? getAllocatedBytes(outputThread) : 0;
+      assertTrue(fakeCodec.addOutputData(outputData(0), inputs.get(inputs.size() - 1)
+          .presentationTimeUs, keyFrame ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0));
+      assertTrue(delivered.tryAcquire(OUTPUT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+      // Key frames are logged.
+      if (outputThread != null && !keyFrame) {
+        allocatedBytes += getAllocatedBytes(outputThread) - allocatedBefore;
+      }
+    }
+    return allocatedBytes;
+  }
+
+  private static VideoEncoder.BitrateAllocation createAllocation(int bitrateBps) {
+    final int[][] bitratesBbs = new int[1][1];
+    bitratesBbs[0][0] = bitrateBps;
+    return new VideoEncoder.BitrateAllocation(bitratesBbs);
+  }
+
+  @Test
+  public void reusesOutputObjectsInSteadyState() throws InterruptedException {
+    final HardwareVideoEncoder encoder = createEncoder(/* useAsyncCallbacks= */ false);
+    final Semaphore delivered = new Semaphore(0);
+    initEncode(encoder, (image, info) -> delivered.release());
+
+    encodeAndDeliver(encoder, /* firstFrame= */ 0, /* frames= */ 20, delivered);
+    final int frames = 200;
+    final long allocatedBytes = encodeAndDeliver(encoder, /* firstFrame= */ 20, frames, delivered);
+    final int deltaFrames = frames - frames / 10;
+    // Left per frame: the EncodedImage with its RefCountDelegate, the slice of the output buffer
+    // and the fake codec's duplicate of it, about 256 bytes. The BufferInfo, builder and release
+    // callback that were allocated per frame before add more than 64 bytes.
+    assertTrue("Allocated " + allocatedBytes / deltaFrames + " bytes per frame",
+        allocatedBytes / deltaFrames < MAX_ALLOCATED_BYTES_PER_FRAME);
+
+    // One BufferInfo, and one Bundle each for key frame requests and bitrate updates.
+    assertEquals(1, fakeCodec.getOutputBufferInfoCount());
+    final Set<Bundle> bundles = Collections.newSetFromMap(new IdentityHashMap<>());
+    bundles.addAll(fakeCodec.getParameters());
+    assertEquals(2, bundles.size());
+    assertEquals(VideoCodecStatus.OK, encoder.release());
+  }
+
+  @Test
+  public void recyclesKeyFrameAssemblyBuffer() throws InterruptedException {
+    final byte[] config = {0, 0, 0, 1, 0x67, 0x42, 0, 0, 0, 1, 0x68};
+    final NativeByteBufferPool pool = NativeByteBufferPool.getDefault();
+    // Seeds the pool, a miss would allocate a native buffer.
+    pool.recycle(ByteBuffer.allocateDirect(
+        NativeByteBufferPool.getBucketSize(config.length + outputData(0).length)));
+    final HardwareVideoEncoder encoder =
+        createEncoder(VideoCodecMimeType.H264, /* useAsyncCallbacks= */ false);
+    initEncode(encoder);
+    assertTrue(fakeCodec.addOutputData(
+        config, /* presentationTimeUs= */ 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG));
+
+    final long missCount = pool.getMissCount();
+    final long hitCount = pool.getHitCount();
+    final int keyFrames = 10;
+    for (int i = 0; i < keyFrames; i++) {
+      assertEquals(VideoCodecStatus.OK, encode(encoder, i, KEY_FRAME));
+      assertTrue(fakeCodec.addOutputData(outputData(0),
+          fakeCodec.getQueuedInputs().get(i).presentationTimeUs,
+          MediaCodec.BUFFER_FLAG_SYNC_FRAME));
+      final ReceivedImage image = receivedImages.poll(OUTPUT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      assertNotNull(image);
+      final byte[] expected = new byte[config.length + outputData(0).length];
+      System.arraycopy(config, 0, expected, 0, config.length);
+      System.arraycopy(outputData(0), 0, expected, config.length, outputData(0).length);
+      assertArrayEquals(expected, image.data);
+    }
+
+    assertEquals(missCount, pool.getMissCount());
+    assertEquals(hitCount + keyFrames, pool.getHitCount());
+    // The output buffers are released right after the copy.
+    assertEquals(keyFrames, fakeCodec.getReleasedOutputBuffers());
+    assertEquals(VideoCodecStatus.OK, encoder.release());
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+
+/**
+ * Java versions of the libyuv functions behind the native methods of the frame buffers, so that
+ * the conversions can run on the JVM. Like the native code they address the buffers from their
+ * start and ignore the position. Tests that use them have to instrument the shadowed classes with
+ * {@code @Config(instrumentedPackages = ...)}.
+ */
+final class LibyuvShadows {
+  // Names of the threads that ran the shadowed conversions.
+  static final Set<String> conversionThreads = ConcurrentHashMap.newKeySet();
+
+  private LibyuvShadows() {}
+
+  @Implements(value = JniCommon.class, isInAndroidSdk = false)
+  public static class ShadowJniCommon {
+    @Implementation
+    protected static ByteBuffer nativeAllocateByteBuffer(int size) {
+      return ByteBuffer.allocateDirect(size);
+    }
+
+    @Implementation
+    protected static void nativeFreeByteBuffer(ByteBuffer buffer) {}
+  }
+
+  @Implements(value = YuvHelper.class, isInAndroidSdk = false)
+  public static class ShadowYuvHelper {
+    @Implementation
+    protected static void nativeCopyPlane(
+        ByteBuffer src, int srcStride, ByteBuffer dst, int dstStride, int width, int height) {
+      copyPlane(src, 0, srcStride, dst, 0, dstStride, width, height);
+    }
+
+    @Implementation
+    protected static void nativeI420Copy(ByteBuffer srcY, int srcStrideY, ByteBuffer srcU,
+        int srcStrideU, ByteBuffer srcV, int srcStrideV, ByteBuffer dstY, int dstStrideY,
+        ByteBuffer dstU, int dstStrideU, ByteBuffer dstV, int dstStrideV, int width, int height) {
+      conversionThreads.add(Thread.currentThread().getName());
+      final int chromaWidth = (width + 1) / 2;
+      final int chromaHeight = (height + 1) / 2;
+      copyPlane(srcY, 0, srcStrideY, dstY, 0, dstStrideY, width, height);
+      copyPlane(srcU, 0, srcStrideU, dstU, 0, dstStrideU, chromaWidth, chromaHeight);
+      copyPlane(srcV, 0, srcStrideV, dstV, 0, dstStrideV, chromaWidth, chromaHeight);
+    }
+
+    @Implementation
+    protected static void nativeI420ToNV12(ByteBuffer srcY, int srcStrideY, ByteBuffer srcU,
+        int srcStrideU, ByteBuffer srcV, int srcStrideV, ByteBuffer dstY, int dstStrideY,
+        ByteBuffer dstUV, int dstStrideUV, int width, int height) {
+      conversionThreads.add(Thread.currentThread().getName());
+      copyPlane(srcY, 0, srcStrideY, dstY, 0, dstStrideY, width, height);
+      for (int y = 0; y < (height + 1) / 2; y++) {
+        for (int x = 0; x < (width + 1) / 2; x++) {
+          dstUV.put(y * dstStrideUV + 2 * x, srcU.get(y * srcStrideU + x));
+          dstUV.put(y * dstStrideUV + 2 * x + 1, srcV.get(y * srcStrideV + x));
+        }
+      }
+    }
+
+    @Implementation
+    protected static void nativeI420Rotate(ByteBuffer srcY, int srcStrideY, ByteBuffer srcU,
+        int srcStrideU, ByteBuffer srcV, int srcStrideV, ByteBuffer dstY, int dstStrideY,
+        ByteBuffer dstU, int dstStrideU, ByteBuffer dstV, int dstStrideV, int srcWidth,
+        int srcHeight, int rotationMode) {
+      conversionThreads.add(Thread.currentThread().getName());
+      final int chromaWidth = (srcWidth + 1) / 2;
+      final int chromaHeight = (srcHeight + 1) / 2;
+      rotatePlane(srcY, srcStrideY, dstY, dstStrideY, srcWidth, srcHeight, rotationMode);
+      rotatePlane(srcU, srcStrideU, dstU, dstStrideU, chromaWidth, chromaHeight, rotationMode);
+      rotatePlane(srcV, srcStrideV, dstV, dstStrideV, chromaWidth, chromaHeight, rotationMode);
+    }
+  }
+
+  @Implements(value = JavaI420Buffer.class, isInAndroidSdk = false)
+  public static class ShadowJavaI420Buffer {
+    @Implementation
+    protected static void nativeCropAndScaleI420(ByteBuffer srcY, int srcStrideY,
+        ByteBuffer srcU, int srcStrideU, ByteBuffer srcV, int srcStrideV, int cropX, int cropY,
+        int cropWidth, int cropHeight, ByteBuffer dstY, int dstStrideY, ByteBuffer dstU,
+        int dstStrideU, ByteBuffer dstV, int dstStrideV, int scaleWidth, int scaleHeight) {
+      conversionThreads.add(Thread.currentThread().getName());
+      scalePlane(srcY, srcStrideY, cropX, cropY, cropWidth, cropHeight, dstY, dstStrideY,
+          scaleWidth, scaleHeight);
+      final int chromaCropX = cropX / 2;
+      final int chromaCropY = cropY / 2;
+      final int chromaCropWidth = (cropWidth + 1) / 2;
+      final int chromaCropHeight = (cropHeight + 1) / 2;
+      final int chromaScaleWidth = (scaleWidth + 1) / 2;
+      final int chromaScaleHeight = (scaleHeight + 1) / 2;
+      scalePlane(srcU, srcStrideU, chromaCropX, chromaCropY, chromaCropWidth, chromaCropHeight,
+          dstU, dstStrideU, chromaScaleWidth, chromaScaleHeight);
+      scalePlane(srcV, srcStrideV, chromaCropX, chromaCropY, chromaCropWidth, chromaCropHeight,
+          dstV, dstStrideV, chromaScaleWidth, chromaScaleHeight);
+    }
+  }
+
+  @Implements(value = NV12Buffer.class, isInAndroidSdk = false)
+  public static class ShadowNV12Buffer {
+    @Implementation
+    protected static void nativeCropAndScale(int cropX, int cropY, int cropWidth, int cropHeight,
+        int scaleWidth, int scaleHeight, ByteBuffer src, int srcWidth, int srcHeight,
+        int srcStride, int srcSliceHeight, ByteBuffer dstY, int dstStrideY, ByteBuffer dstU,
+        int dstStrideU, ByteBuffer dstV, int dstStrideV) {
+      checkUnscaled(cropX, cropY, cropWidth, cropHeight, scaleWidth, scaleHeight);
+      splitSemiPlanar(src, srcStride, srcStride * srcSliceHeight, srcStride, /* uFirst= */ true,
+          dstY, dstStrideY, dstU, dstStrideU, dstV, dstStrideV, scaleWidth, scaleHeight);
+    }
+  }
+
+  @Implements(value = NV21Buffer.class, isInAndroidSdk = false)
+  public static class ShadowNV21Buffer {
+    @Implementation
+    protected static void nativeCropAndScale(int cropX, int cropY, int cropWidth, int cropHeight,
+        int scaleWidth, int scaleHeight, byte[] src, int srcWidth, int srcHeight, ByteBuffer dstY,
+        int dstStrideY, ByteBuffer dstU, int dstStrideU, ByteBuffer dstV, int dstStrideV) {
+      checkUnscaled(cropX, cropY, cropWidth, cropHeight, scaleWidth, scaleHeight);
+      // The interleaved chroma rows are rounded up to whole UV pairs.
+      splitSemiPlanar(ByteBuffer.wrap(src), srcWidth, srcWidth * srcHeight,
+          (srcWidth + 1) / 2 * 2, /* uFirst= */ false, dstY, dstStrideY, dstU, dstStrideU, dstV,
+          dstStrideV, scaleWidth, scaleHeight);
+    }
+  }
+
+  private static void checkUnscaled(
+      int cropX, int cropY, int cropWidth, int cropHeight, int scaleWidth, int scaleHeight) {
+    if (cropX != 0 || cropY != 0 || cropWidth != scaleWidth || cropHeight != scaleHeight) {
+      throw new UnsupportedOperationException("Only whole, unscaled frames are supported");
+    }
+  }
+
+  /** Splits an NV12 image, or an NV21 image if `uFirst` is false, into I420 planes. */
+  private static void splitSemiPlanar(ByteBuffer src, int srcStride, int srcUVPos,
+      int srcStrideUV, boolean uFirst, ByteBuffer dstY, int dstStrideY, ByteBuffer dstU,
+      int dstStrideU, ByteBuffer dstV, int dstStrideV, int width, int height) {
+    final int uOffset = uFirst ? 0 : 1;
+    copyPlane(src, 0, srcStride, dstY, 0, dstStrideY, width, height);
+    for (int y = 0; y < (height + 1) / 2; y++) {
+      for (int x = 0; x < (width + 1) / 2; x++) {
+        final int pos = srcUVPos + y * srcStrideUV + 2 * x;
+        dstU.put(y * dstStrideU + x, src.get(pos + uOffset));
+        dstV.put(y * dstStrideV + x, src.get(pos + 1 - uOffset));
+      }
+    }
+  }
+
+  /** Rotates a plane clockwise by `rotationMode` degrees, like libyuv::RotatePlane. */
+  private static void rotatePlane(ByteBuffer src, int srcStride, ByteBuffer dst, int dstStride,
+      int width, int height, int rotationMode) {
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        final int dstPos;
+        switch (rotationMode) {
+          case 0:
+            dstPos = y * dstStride + x;
+            break;
+          case 90:
+            dstPos = x * dstStride + (height - 1 - y);
+            break;
+          case 180:
+            dstPos = (height - 1 - y) * dstStride + (width - 1 - x);
+            break;
+          case 270:
+            dstPos = (width - 1 - x) * dstStride + y;
+            break;
+          default:
+            throw new IllegalArgumentException("Invalid rotation " + rotationMode);
+        }
+        dst.put(dstPos, src.get(y * srcStride + x));
+      }
+    }
+  }
+
+  /**
+   * Scales the crop of a plane with a box filter, which averages the source pixels that each
+   * destination pixel covers, like libyuv::ScalePlane with kFilterBox.
+   */
+  private static void scalePlane(ByteBuffer src, int srcStride, int cropX, int cropY,
+      int cropWidth, int cropHeight, ByteBuffer dst, int dstStride, int scaleWidth,
+      int scaleHeight) {
+    for (int y = 0; y < scaleHeight; y++) {
+      final int startY = y * cropHeight / scaleHeight;
+      final int endY = Math.max(startY + 1, (y + 1) * cropHeight / scaleHeight);
+      for (int x = 0; x < scaleWidth; x++) {
+        final int startX = x * cropWidth / scaleWidth;
+        final int endX = Math.max(startX + 1, (x + 1) * cropWidth / scaleWidth);
+        int sum = 0;
+        for (int sy = startY; sy < endY; sy++) {
+          for (int sx = startX; sx < endX; sx++) {
+            sum += src.get((cropY + sy) * srcStride + cropX + sx) & 0xff;
+          }
+        }
+        final int count = (endY - startY) * (endX - startX);
+        dst.put(y * dstStride + x, (byte) ((sum + count / 2) / count));
+      }
+    }
+  }
+
+  static void copyPlane(ByteBuffer src, int srcPos, int srcStride, ByteBuffer dst, int dstPos,
+      int dstStride, int width, int height) {
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        dst.put(dstPos + y * dstStride + x, src.get(srcPos + y * srcStride + x));
+      }
+    }
+  }
+}
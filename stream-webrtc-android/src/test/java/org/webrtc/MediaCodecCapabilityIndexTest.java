@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecInfo.CodecCapabilities;
+import android.media.MediaFormat;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.MediaCodecInfoBuilder;
+import org.robolectric.shadows.ShadowBuild;
+import org.robolectric.shadows.ShadowMediaCodecList;
+
+@RunWith(RobolectricTestRunner.class)
+public class MediaCodecCapabilityIndexTest {
+  private static final String HARDWARE_VP8_DECODER = "c2.qti.vp8.decoder";
+  private static final String SOFTWARE_H264_DECODER = "c2.android.avc.decoder";
+  private static final String HARDWARE_VP8_ENCODER = "c2.qti.vp8.encoder";
+
+  private Context context;
+
+  @Before
+  public void setUp() {
+    context = RuntimeEnvironment.getApplication();
+    MediaCodecCapabilityIndex.invalidate(context);
+    ShadowMediaCodecList.reset();
+    addCodec(HARDWARE_VP8_DECODER, VideoCodecMimeType.VP8, /* isEncoder= */ false,
+        /* isHardwareAccelerated= */ true, CodecCapabilities.COLOR_FormatYUV420SemiPlanar);
+    addCodec(SOFTWARE_H264_DECODER, VideoCodecMimeType.H264, /* isEncoder= */ false,
+        /* isHardwareAccelerated= */ false, CodecCapabilities.COLOR_FormatYUV420Planar,
+        CodecCapabilities.COLOR_FormatYUV420Flexible);
+    addCodec(HARDWARE_VP8_ENCODER, VideoCodecMimeType.VP8, /* isEncoder= */ true,
+        /* isHardwareAccelerated= */ true, CodecCapabilities.COLOR_FormatYUV420SemiPlanar);
+  }
+
+  @After
+  public void tearDown() {
+    MediaCodecCapabilityIndex.invalidate(context);
+  }
+
+  private static void addCodec(String name, VideoCodecMimeType type, boolean isEncoder,
+      boolean isHardwareAccelerated, int... colorFormats) {
+    final MediaFormat format = new MediaFormat();
+    format.setString(MediaFormat.KEY_MIME, type.mimeType());
+    ShadowMediaCodecList.addCodec(
+        MediaCodecInfoBuilder.newBuilder()
+            .setName(name)
+            .setIsEncoder(isEncoder)
+            .setIsHardwareAccelerated(isHardwareAccelerated)
+            .setIsSoftwareOnly(!isHardwareAccelerated)
+            .setCapabilities(MediaCodecInfoBuilder.CodecCapabilitiesBuilder.newBuilder()
+                                 .setMediaFormat(format)
+                                 .setIsEncoder(isEncoder)
+                                 .setColorFormats(colorFormats)
+                                 .build())
+            .build());
+  }
+
+  private static List<String> getNames(List<MediaCodecCapabilityIndex.Codec> codecs) {
+    final List<String> names = new ArrayList<>();
+    for (MediaCodecCapabilityIndex.Codec codec : codecs) {
+      names.add(codec.name);
+    }
+    return names;
+  }
+
+  /** Stores the index of the current codecs and drops it from memory only. */
+  private void storeIndex() {
+    MediaCodecCapabilityIndex.getOrCreate(context);
+    MediaCodecCapabilityIndex.invalidate(/* context= */ null);
+  }
+
+  @Test
+  public void loadsStoredIndexWithoutMediaCodecList() {
+    storeIndex();
+    ShadowMediaCodecList.reset();
+
+    final MediaCodecCapabilityIndex index = MediaCodecCapabilityIndex.getOrCreate(context);
+    final List<MediaCodecCapabilityIndex.Codec> decoders = index.getCodecs(/* encoders= */ false);
+    assertEquals(
+        List.of(HARDWARE_VP8_DECODER, SOFTWARE_H264_DECODER), getNames(decoders));
+    assertEquals(
+        List.of(HARDWARE_VP8_ENCODER), getNames(index.getCodecs(/* encoders= */ true)));
+
+    final MediaCodecCapabilityIndex.Codec vp8 = decoders.get(0);
+    assertTrue(vp8.isHardwareAccelerated);
+    assertTrue(vp8.supportsType(VideoCodecMimeType.VP8));
+    assertFalse(vp8.supportsType(VideoCodecMimeType.H264));
+    assertEquals(Integer.valueOf(CodecCapabilities.COLOR_FormatYUV420SemiPlanar),
+        vp8.selectColorFormat(MediaCodecUtils.DECODER_COLOR_FORMATS, VideoCodecMimeType.VP8));
+    final MediaCodecCapabilityIndex.Codec h264 = decoders.get(1);
+    assertFalse(h264.isHardwareAccelerated);
+    assertEquals(Integer.valueOf(CodecCapabilities.COLOR_FormatYUV420Flexible),
+        h264.selectColorFormat(
+            new int[] {CodecCapabilities.COLOR_FormatYUV420Flexible}, VideoCodecMimeType.H264));
+    // The codecs are no longer listed.
+    assertNull(vp8.getInfo());
+  }
+
+  @Test
+  public void resolvesInfosOfLoadedIndexByName() {
+    storeIndex();
+
+    final MediaCodecCapabilityIndex index = MediaCodecCapabilityIndex.getOrCreate(context);
+    for (boolean encoders : new boolean[] {false, true}) {
+      for (MediaCodecCapabilityIndex.Codec codec : index.getCodecs(encoders)) {
+        final MediaCodecInfo info = codec.getInfo();
+        assertNotNull(codec.name, info);
+        assertEquals(codec.name, info.getName());
+        assertEquals(encoders, info.isEncoder());
+      }
+    }
+  }
+
+  @Test
+  public void rebuildsIndexWhenFingerprintChanges() {
+    storeIndex();
+    ShadowMediaCodecList.reset();
+    addCodec("c2.exynos.vp9.decoder", VideoCodecMimeType.VP9, /* isEncoder= */ false,
+        /* isHardwareAccelerated= */ true, CodecCapabilities.COLOR_FormatYUV420Planar);
+    ShadowBuild.setFingerprint("robolectric/updated");
+
+    final MediaCodecCapabilityIndex index = MediaCodecCapabilityIndex.getOrCreate(context);
+    assertEquals(
+        List.of("c2.exynos.vp9.decoder"), getNames(index.getCodecs(/* encoders= */ false)));
+    assertTrue(index.getCodecs(/* encoders= */ true).isEmpty());
+
+    // The rebuilt index replaced the stored one.
+    MediaCodecCapabilityIndex.invalidate(/* context= */ null);
+    ShadowMediaCodecList.reset();
+    assertEquals(List.of("c2.exynos.vp9.decoder"),
+        getNames(MediaCodecCapabilityIndex.getOrCreate(context).getCodecs(
+            /* encoders= */ false)));
+  }
+
+  @Test
+  public void getUsesContextOfPrefetch() throws InterruptedException {
+    storeIndex();
+    ShadowMediaCodecList.reset();
+
+    MediaCodecCapabilityIndex.prefetch(context);
+    // Loads the stored index, whether or not the prefetch thread got to it first.
+    final MediaCodecCapabilityIndex index = MediaCodecCapabilityIndex.get();
+    assertEquals(List.of(HARDWARE_VP8_DECODER, SOFTWARE_H264_DECODER),
+        getNames(index.getCodecs(/* encoders= */ false)));
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals("MediaCodecCapabilityIndex")) {
+        thread.join();
+      }
+    }
+  }
+
+  @Test
+  public void hardwareDecoderFactoryUsesCachedCapabilities() {
+    storeIndex();
+    // Codecs that are not listed have no MediaCodecInfo, which must not be needed to filter them.
+    ShadowMediaCodecList.reset();
+    MediaCodecCapabilityIndex.getOrCreate(context);
+
+    final VideoCodecInfo[] codecs =
+        new HardwareVideoDecoderFactory(/* sharedContext= */ null).getSupportedCodecs();
+    assertEquals(1, codecs.length);
+    assertEquals("VP8", codecs[0].getName());
+  }
+
+  @Test
+  public void hardwareDecoderFactoryAppliesCodecPredicate() {
+    final VideoCodecInfo[] codecs = new HardwareVideoDecoderFactory(/* sharedContext= */ null,
+        info -> !info.getName().equals(HARDWARE_VP8_DECODER))
+                                        .getSupportedCodecs();
+    assertArrayEquals(new VideoCodecInfo[0], codecs);
+  }
+}
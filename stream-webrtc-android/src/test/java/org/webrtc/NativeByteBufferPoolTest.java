@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class NativeByteBufferPoolTest {
+  private static final long NO_IDLE_TIMEOUT_MS = 3_600_000;
+  private static final int SIZE = 640 * 480 * 3 / 2;
+
+  /** Pool of Java direct buffers that records the freed buffers. */
+  private static class TestPool extends NativeByteBufferPool {
+    final List<ByteBuffer> freedBuffers = new ArrayList<>();
+
+    TestPool(long maxPooledBytes, long idleTimeoutMs) {
+      super(maxPooledBytes, idleTimeoutMs);
+    }
+
+    @Override
+    ByteBuffer allocateBuffer(int size) {
+      return ByteBuffer.allocateDirect(size);
+    }
+
+    @Override
+    void freeBuffer(ByteBuffer buffer) {
+      synchronized (freedBuffers) {
+        freedBuffers.add(buffer);
+      }
+    }
+
+    int getFreedCount() {
+      synchronized (freedBuffers) {
+        return freedBuffers.size();
+      }
+    }
+  }
+
+  @Test
+  public void bucketSizeIsAtMostAnEighthAboveTheRequestedSize() {
+    assertEquals(4096, NativeByteBufferPool.getBucketSize(1));
+    assertEquals(4096, NativeByteBufferPool.getBucketSize(4096));
+    for (int size = 4097; size < 16 * 1024 * 1024; size = size * 9 / 8 + 7) {
+      final int bucketSize = NativeByteBufferPool.getBucketSize(size);
+      assertTrue(size + " -> " + bucketSize, bucketSize >= size);
+      assertTrue(size + " -> " + bucketSize, bucketSize <= size + size / 8);
+    }
+  }
+
+  @Test
+  public void acquireReusesRecycledBuffersOfTheSameBucket() {
+    final TestPool pool = new TestPool(NativeByteBufferPool.DEFAULT_MAX_POOLED_BYTES,
+        NO_IDLE_TIMEOUT_MS);
+
+    final ByteBuffer first = pool.acquire(SIZE);
+    assertEquals(0, first.position());
+    assertEquals(SIZE, first.limit());
+    assertEquals(NativeByteBufferPool.getBucketSize(SIZE), first.capacity());
+    pool.recycle(first);
+    assertEquals(first.capacity(), pool.getPooledBytes());
+
+    // A slightly smaller frame falls into the same bucket.
+    final ByteBuffer second = pool.acquire(SIZE - 100);
+    assertSame(first, second);
+    assertEquals(SIZE - 100, second.limit());
+    assertEquals(0, pool.getPooledBytes());
+    // The bucket is empty now.
+    final ByteBuffer third = pool.acquire(SIZE);
+    assertNotSame(first, third);
+
+    assertEquals(1, pool.getHitCount());
+    assertEquals(2, pool.getMissCount());
+    assertEquals(0, pool.getFreedCount());
+  }
+
+  @Test
+  public void recycleKeepsThePooledBytesBelowTheCap() {
+    final int bucketSize = NativeByteBufferPool.getBucketSize(SIZE);
+    final TestPool pool = new TestPool(3L * bucketSize, NO_IDLE_TIMEOUT_MS);
+    final List<ByteBuffer> buffers = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      buffers.add(pool.acquire(SIZE));
+    }
+    for (ByteBuffer buffer : buffers) {
+      pool.recycle(buffer);
+    }
+    assertEquals(3L * bucketSize, pool.getPooledBytes());
+    assertEquals(1, pool.getFreedCount());
+
+    // Buffers larger than the cap are never pooled.
+    final ByteBuffer large = pool.acquire(4 * bucketSize);
+    pool.recycle(large);
+    assertEquals(3L * bucketSize, pool.getPooledBytes());
+    assertSame(large, pool.freedBuffers.get(1));
+  }
+
+  @Test
+  public void loweringTheCapEvictsTheLeastRecentlyUsedSizeFirst() {
+    final TestPool pool = new TestPool(NativeByteBufferPool.DEFAULT_MAX_POOLED_BYTES,
+        NO_IDLE_TIMEOUT_MS);
+    final ByteBuffer small = pool.acquire(SIZE / 4);
+    final ByteBuffer large = pool.acquire(SIZE);
+    pool.recycle(small);
+    pool.recycle(large);
+
+    pool.setMaxPooledBytes(large.capacity());
+    assertEquals(large.capacity(), pool.getPooledBytes());
+    assertEquals(1, pool.getFreedCount());
+    assertSame(small, pool.freedBuffers.get(0));
+    assertSame(large, pool.acquire(SIZE));
+  }
+
+  @Test
+  public void trimFreesAllPooledBuffers() {
+    final TestPool pool = new TestPool(NativeByteBufferPool.DEFAULT_MAX_POOLED_BYTES,
+        NO_IDLE_TIMEOUT_MS);
+    final ByteBuffer first = pool.acquire(SIZE);
+    final ByteBuffer second = pool.acquire(SIZE);
+    final ByteBuffer other = pool.acquire(SIZE / 4);
+    pool.recycle(first);
+    pool.recycle(second);
+    pool.recycle(other);
+
+    pool.trim();
+    assertEquals(0, pool.getPooledBytes());
+    assertEquals(3, pool.getFreedCount());
+    pool.acquire(SIZE);
+    assertEquals(0, pool.getHitCount());
+  }
+
+  @Test
+  public void idleBuffersAreFreedWithoutFurtherCalls() throws InterruptedException {
+    final TestPool pool = new TestPool(NativeByteBufferPool.DEFAULT_MAX_POOLED_BYTES,
+        /* idleTimeoutMs= */ 50);
+    pool.recycle(pool.acquire(SIZE));
+    pool.recycle(pool.acquire(SIZE / 4));
+
+    final long deadlineMs = System.currentTimeMillis() + 5000;
+    while (pool.getFreedCount() < 2 && System.currentTimeMillis() < deadlineMs) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, pool.getFreedCount());
+    assertEquals(0, pool.getPooledBytes());
+  }
+}
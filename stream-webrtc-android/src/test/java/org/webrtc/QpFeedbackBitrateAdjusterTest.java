@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.Nullable;
+import org.junit.Test;
+
+public class QpFeedbackBitrateAdjusterTest {
+  private static final int VP8_MAX_QP = 127;
+  private static final int TARGET_BPS = 1_000_000;
+  private static final double FPS = 30;
+  // Frames that complete the first adjustment interval of half a second. The summed frame
+  // durations of 15 frames fall just short of it.
+  private static final int INTERVAL_FRAMES = 16;
+
+  /**
+   * Codec that outputs `gain` times the configured bitrate, so the adjuster has to configure
+   * 1 / gain times the target.
+   */
+  private static class SimulatedCodec {
+    final QpFeedbackBitrateAdjuster adjuster = new QpFeedbackBitrateAdjuster(VP8_MAX_QP);
+    double gain;
+    long outputBytes;
+
+    SimulatedCodec(double gain) {
+      this.gain = gain;
+      adjuster.setTargets(TARGET_BPS, FPS);
+    }
+
+    void encode(int frames, @Nullable Integer qp, boolean isKeyFrame) {
+      for (int i = 0; i < frames; i++) {
+        final int size = (int) (adjuster.getAdjustedBitrateBps() * gain / FPS / 8);
+        outputBytes += size;
+        adjuster.reportEncodedFrame(size, qp, isKeyFrame);
+      }
+    }
+
+    /** Returns the output bitrate over `frames` frames. */
+    double measureOutputBps(int frames, @Nullable Integer qp) {
+      outputBytes = 0;
+      encode(frames, qp, /* isKeyFrame= */ false);
+      return outputBytes * 8 * FPS / frames;
+    }
+  }
+
+  private static void assertWithinTolerance(double outputBps) {
+    assertTrue("Output " + outputBps, Math.abs(outputBps / TARGET_BPS - 1) <= 0.1);
+  }
+
+  @Test
+  public void convergesOnOvershootingCodec() {
+    final SimulatedCodec codec = new SimulatedCodec(/* gain= */ 1.8);
+    codec.encode(/* frames= */ 300, /* qp= */ 60, /* isKeyFrame= */ false);
+    assertWithinTolerance(codec.measureOutputBps(/* frames= */ 60, /* qp= */ 60));
+    assertTrue(codec.adjuster.getAdjustedBitrateBps() < TARGET_BPS);
+  }
+
+  @Test
+  public void convergesOnUndershootingCodec() {
+    final SimulatedCodec codec = new SimulatedCodec(/* gain= */ 0.5);
+    codec.encode(/* frames= */ 300, /* qp= */ 60, /* isKeyFrame= */ false);
+    assertWithinTolerance(codec.measureOutputBps(/* frames= */ 60, /* qp= */ 60));
+    assertTrue(codec.adjuster.getAdjustedBitrateBps() > TARGET_BPS);
+  }
+
+  @Test
+  public void convergesWithoutQpReports() {
+    final SimulatedCodec codec = new SimulatedCodec(/* gain= */ 0.5);
+    codec.encode(/* frames= */ 300, /* qp= */ null, /* isKeyFrame= */ false);
+    assertWithinTolerance(codec.measureOutputBps(/* frames= */ 60, /* qp= */ null));
+
+    codec.gain = 2;
+    codec.encode(/* frames= */ 300, /* qp= */ null, /* isKeyFrame= */ false);
+    assertWithinTolerance(codec.measureOutputBps(/* frames= */ 60, /* qp= */ null));
+  }
+
+  @Test
+  public void limitsStepOfOneIntervalBothWays() {
+    final SimulatedCodec overshooting = new SimulatedCodec(/* gain= */ 100);
+    overshooting.encode(INTERVAL_FRAMES, /* qp= */ null, /* isKeyFrame= */ false);
+    assertEquals(TARGET_BPS / 2, overshooting.adjuster.getAdjustedBitrateBps());
+
+    final SimulatedCodec undershooting = new SimulatedCodec(/* gain= */ 0.01);
+    undershooting.encode(INTERVAL_FRAMES, /* qp= */ null, /* isKeyFrame= */ false);
+    assertEquals(TARGET_BPS * 2, undershooting.adjuster.getAdjustedBitrateBps());
+  }
+
+  @Test
+  public void keepsScaleWithinRange() {
+    final SimulatedCodec codec = new SimulatedCodec(/* gain= */ 100);
+    codec.encode(/* frames= */ 600, /* qp= */ null, /* isKeyFrame= */ false);
+    assertEquals(TARGET_BPS / 4, codec.adjuster.getAdjustedBitrateBps());
+  }
+
+  @Test
+  public void doesNotRaiseBitrateWhenQpIsAtMinimum() {
+    final SimulatedCodec codec = new SimulatedCodec(/* gain= */ 0.5);
+    codec.encode(/* frames= */ 300, /* qp= */ 5, /* isKeyFrame= */ false);
+    assertEquals(TARGET_BPS, codec.adjuster.getAdjustedBitrateBps());
+  }
+
+  @Test
+  public void doesNotLowerBitrateWhenQpIsAtMaximum() {
+    final SimulatedCodec codec = new SimulatedCodec(/* gain= */ 2);
+    codec.encode(/* frames= */ 300, /* qp= */ 120, /* isKeyFrame= */ false);
+    assertEquals(TARGET_BPS, codec.adjuster.getAdjustedBitrateBps());
+  }
+
+  @Test
+  public void ignoresQpOfKeyFrames() {
+    final SimulatedCodec codec = new SimulatedCodec(/* gain= */ 0.5);
+    codec.encode(/* frames= */ 5, /* qp= */ 60, /* isKeyFrame= */ false);
+    // Key frames at a saturated QP would stop the correction if they were averaged.
+    codec.encode(INTERVAL_FRAMES - 5, /* qp= */ 1, /* isKeyFrame= */ true);
+    assertEquals(TARGET_BPS * Math.sqrt(2), codec.adjuster.getAdjustedBitrateBps(), 1000);
+  }
+
+  @Test
+  public void startsNewIntervalOnTargetChange() {
+    final SimulatedCodec codec = new SimulatedCodec(/* gain= */ 0.5);
+    codec.encode(INTERVAL_FRAMES - 1, /* qp= */ null, /* isKeyFrame= */ false);
+    codec.adjuster.setTargets(2 * TARGET_BPS, FPS);
+    codec.encode(/* frames= */ 1, /* qp= */ null, /* isKeyFrame= */ false);
+    assertEquals(2 * TARGET_BPS, codec.adjuster.getAdjustedBitrateBps());
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.MockedConstruction;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class RecordingVideoEncoderFactoryTest {
+  private static final VideoCodecInfo VP8 = new VideoCodecInfo("VP8", new HashMap<>(), new ArrayList<>());
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 360;
+  private static final int ENCODED_FRAME_SIZE = 100;
+  private static final int IVF_FILE_HEADER_SIZE = 32;
+  private static final int IVF_FRAME_HEADER_SIZE = 12;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Java encoder that outputs frames of a fixed size, key frames for the first frame and on
+   * request.
+   */
+  static class FakeJavaEncoder implements VideoEncoder {
+    private final boolean keyFrameFirst;
+    private Callback callback;
+    private int width;
+    private int height;
+    private int encodedFrames;
+    int keyFrameRequests;
+
+    FakeJavaEncoder() {
+      this(/* keyFrameFirst= */ true);
+    }
+
+    FakeJavaEncoder(boolean keyFrameFirst) {
+      this.keyFrameFirst = keyFrameFirst;
+    }
+
+    @Override
+    public VideoCodecStatus initEncode(Settings settings, Callback callback) {
+      this.callback = callback;
+      this.width = settings.width;
+      this.height = settings.height;
+      // A reconfigured encoder starts over with a key frame.
+      this.encodedFrames = 0;
+      return VideoCodecStatus.OK;
+    }
+
+    @Override
+    public VideoCodecStatus release() {
+      return VideoCodecStatus.OK;
+    }
+
+    @Override
+    public VideoCodecStatus encode(VideoFrame frame, EncodeInfo info) {
+      boolean keyFrame = keyFrameFirst && encodedFrames == 0;
+      for (EncodedImage.FrameType frameType : info.frameTypes) {
+        if (frameType == EncodedImage.FrameType.VideoFrameKey) {
+          keyFrameRequests++;
+          keyFrame = true;
+        }
+      }
+      encodedFrames++;
+      final EncodedImage image =
+          EncodedImage.builder()
+              .setBuffer(ByteBuffer.allocateDirect(ENCODED_FRAME_SIZE), /* releaseCallback= */ null)
+              .setEncodedWidth(width)
+              .setEncodedHeight(height)
+              .setCaptureTimeNs(frame.getTimestampNs())
+              .setFrameType(keyFrame ? EncodedImage.FrameType.VideoFrameKey
+                                     : EncodedImage.FrameType.VideoFrameDelta)
+              .createEncodedImage();
+      callback.onEncodedFrame(image, new CodecSpecificInfo());
+      image.release();
+      return VideoCodecStatus.OK;
+    }
+
+    @Override
+    public VideoCodecStatus setRateAllocation(BitrateAllocation allocation, int framerate) {
+      return VideoCodecStatus.OK;
+    }
+
+    @Override
+    public ScalingSettings getScalingSettings() {
+      return ScalingSettings.OFF;
+    }
+
+    @Override
+    public String getImplementationName() {
+      return "FakeJavaEncoder";
+    }
+
+    @Override
+    public boolean isHardwareEncoder() {
+      return true;
+    }
+  }
+
+  /** Stands in for HardwareVideoEncoderFactory. */
+  static class FakeHardwareEncoderFactory implements VideoEncoderFactory {
+    @Override
+    public VideoEncoder createEncoder(VideoCodecInfo info) {
+      return new FakeJavaEncoder();
+    }
+
+    @Override
+    public VideoCodecInfo[] getSupportedCodecs() {
+      return new VideoCodecInfo[] {VP8};
+    }
+  }
+
+  /** Stands in for the native software encoders. */
+  static class FakeNativeEncoder extends WrappedNativeVideoEncoder {
+    @Override
+    public long createNative(long webrtcEnvRef) {
+      return 0;
+    }
+
+    @Override
+    public boolean isHardwareEncoder() {
+      return false;
+    }
+  }
+
+  static void initEncode(VideoEncoder encoder, int width, int height) {
+    assertEquals(VideoCodecStatus.OK,
+        encoder.initEncode(new VideoEncoder.Settings(/* numberOfCores= */ 1, width, height,
+                               /* startBitrate= */ 300, /* maxFramerate= */ 30,
+                               /* numberOfSimulcastStreams= */ 1, /* automaticResizeOn= */ false,
+                               new VideoEncoder.Capabilities(/* lossNotification= */ false)),
+            (image, info) -> {}));
+  }
+
+  /** Encodes `frames` frames without requesting key frames. */
+  static void encode(VideoEncoder encoder, int frames) {
+    final VideoEncoder.EncodeInfo info = new VideoEncoder.EncodeInfo(
+        new EncodedImage.FrameType[] {EncodedImage.FrameType.VideoFrameDelta});
+    for (int i = 0; i < frames; i++) {
+      final VideoFrame frame =
+          new VideoFrame(mock(VideoFrame.Buffer.class), /* rotation= */ 0, i * 33_000_000L);
+      assertEquals(VideoCodecStatus.OK, encoder.encode(frame, info));
+    }
+  }
+
+  static void encodeFrames(VideoEncoder encoder, int width, int height, int frames) {
+    initEncode(encoder, width, height);
+    encode(encoder, frames);
+    assertEquals(VideoCodecStatus.OK, encoder.release());
+  }
+
+  @Test
+  public void recordsHardwareEncoderOfDefaultVideoEncoderFactory() throws Exception {
+    final File file = folder.newFile("recording.ivf");
+    final EncodedImageRecorder recorder =
+        new EncodedImageRecorder(file.getPath(), EncodedImageRecorder.Container.IVF);
+    try (MockedConstruction<SoftwareVideoEncoderFactory> softwareFactory =
+             mockConstruction(SoftwareVideoEncoderFactory.class,
+                 (factory, context)
+                     -> when(factory.createEncoder(any())).thenReturn(new FakeNativeEncoder()))) {
+      final RecordingVideoEncoderFactory factory = new RecordingVideoEncoderFactory(
+          new DefaultVideoEncoderFactory(new FakeHardwareEncoderFactory()), recorder);
+
+      final VideoEncoder encoder = factory.createEncoder(VP8);
+
+      // The native fallback wrapper is kept, with the hardware encoder tapped inside.
+      assertTrue(encoder instanceof VideoEncoderFallback);
+      final VideoEncoderFallback fallbackEncoder = (VideoEncoderFallback) encoder;
+      assertTrue(fallbackEncoder.fallback instanceof FakeNativeEncoder);
+      assertTrue(fallbackEncoder.primary instanceof RecordingVideoEncoder);
+      // Native code drives the primary encoder through the Java interface.
+      encodeFrames(fallbackEncoder.primary, WIDTH, HEIGHT, /* frames= */ 5);
+    }
+    recorder.release();
+
+    assertEquals(5, recorder.getFramesRecorded());
+    assertEquals(
+        IVF_FILE_HEADER_SIZE + 5 * (IVF_FRAME_HEADER_SIZE + ENCODED_FRAME_SIZE), file.length());
+  }
+
+  @Test
+  public void recordsLayerEncodersOfSimulcastVideoEncoderFactory() throws Exception {
+    final File file = folder.newFile("recording.ivf");
+    final EncodedImageRecorder recorder =
+        new EncodedImageRecorder(file.getPath(), EncodedImageRecorder.Container.IVF);
+    final RecordingVideoEncoderFactory factory = new RecordingVideoEncoderFactory(
+        new SimulcastVideoEncoderFactory(new FakeHardwareEncoderFactory(),
+            /* fallback= */ null),
+        recorder);
+
+    final VideoEncoder encoder = factory.createEncoder(VP8);
+
+    assertTrue(encoder instanceof SimulcastVideoEncoder);
+    final SimulcastVideoEncoder simulcastEncoder = (SimulcastVideoEncoder) encoder;
+    assertTrue(simulcastEncoder.primary instanceof RecordingVideoEncoderFactory);
+    // The native simulcast adapter creates the layer encoders from the primary factory.
+    encodeFrames(simulcastEncoder.primary.createEncoder(VP8), WIDTH, HEIGHT, /* frames= */ 3);
+    recorder.release();
+
+    assertEquals(3, recorder.getFramesRecorded());
+  }
+}
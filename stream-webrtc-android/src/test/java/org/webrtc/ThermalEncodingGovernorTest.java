@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.PowerManager.OnThermalStatusChangedListener;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowPowerManager;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = ThermalEncodingGovernorTest.ShadowThermalPowerManager.class)
+public class ThermalEncodingGovernorTest {
+  private static final int WIDTH = 1280;
+  private static final int HEIGHT = 720;
+  private static final int FRAMERATE = 30;
+
+  /**
+   * Delivers thermal status changes through the executor of the listener, like the platform does.
+   * ShadowPowerManager only implements the listener registration without an executor.
+   */
+  @Implements(PowerManager.class)
+  public static class ShadowThermalPowerManager extends ShadowPowerManager {
+    private final Map<OnThermalStatusChangedListener, OnThermalStatusChangedListener> listeners =
+        new HashMap<>();
+
+    @Implementation(minSdk = Build.VERSION_CODES.Q)
+    protected void addThermalStatusListener(
+        Executor executor, OnThermalStatusChangedListener listener) {
+      final OnThermalStatusChangedListener executorListener =
+          status -> executor.execute(() -> listener.onThermalStatusChanged(status));
+      listeners.put(listener, executorListener);
+      addThermalStatusListener((Object) executorListener);
+      executorListener.onThermalStatusChanged(getCurrentThermalStatus());
+    }
+
+    @Implementation(minSdk = Build.VERSION_CODES.Q)
+    protected void removeThermalStatusListener(OnThermalStatusChangedListener listener) {
+      removeThermalStatusListener((Object) listeners.remove(listener));
+    }
+
+    @Implementation(minSdk = Build.VERSION_CODES.R)
+    protected float getThermalHeadroom(int forecastSeconds) {
+      return Float.NaN;
+    }
+  }
+
+  private VideoSource videoSource;
+  private ShadowThermalPowerManager powerManager;
+  private ThermalEncodingGovernor governor;
+  private Looper governorLooper;
+
+  @Before
+  public void setUp() {
+    final Context context = RuntimeEnvironment.getApplication();
+    videoSource = mock(VideoSource.class);
+    powerManager = Shadow.extract(context.getSystemService(Context.POWER_SERVICE));
+    final Collection<Looper> oldLoopers = new ArrayList<>(ShadowLooper.getAllLoopers());
+    governor = new ThermalEncodingGovernor(context, videoSource, WIDTH, HEIGHT, FRAMERATE);
+    governorLooper = findNewLooper(oldLoopers);
+    governor.start();
+    idleFor(0);
+  }
+
+  @After
+  public void tearDown() {
+    governor.dispose();
+  }
+
+  @Test
+  @Config(sdk = 29)
+  public void recoversAfterDelayWithoutFurtherEventsOnApi29() {
+    recoversAfterDelayWithoutFurtherEvents();
+  }
+
+  @Test
+  @Config(sdk = 30)
+  public void recoversAfterDelayWithoutFurtherEventsOnApi30() {
+    recoversAfterDelayWithoutFurtherEvents();
+  }
+
+  @Test
+  @Config(sdk = 29)
+  public void hotterStatusCancelsRecoveryOnApi29() {
+    hotterStatusCancelsRecovery();
+  }
+
+  @Test
+  @Config(sdk = 30)
+  public void hotterStatusCancelsRecoveryOnApi30() {
+    hotterStatusCancelsRecovery();
+  }
+
+  @Test
+  @Config(sdk = 29)
+  public void stopRestoresUnthrottledFormat() {
+    setThermalStatus(PowerManager.THERMAL_STATUS_SEVERE);
+    governor.stop();
+
+    assertEquals(ThermalEncodingGovernor.Level.NONE, governor.getLevel());
+    verify(videoSource).adaptOutputFormat(WIDTH, HEIGHT, FRAMERATE);
+    // A pending recovery step doesn't run after stop().
+    setThermalStatus(PowerManager.THERMAL_STATUS_NONE);
+    idleFor(2 * ThermalEncodingGovernor.RECOVERY_DELAY_MS);
+    assertEquals(ThermalEncodingGovernor.Level.NONE, governor.getLevel());
+  }
+
+  private void recoversAfterDelayWithoutFurtherEvents() {
+    setThermalStatus(PowerManager.THERMAL_STATUS_SEVERE);
+    assertEquals(ThermalEncodingGovernor.Level.SEVERE, governor.getLevel());
+    verify(videoSource).adaptOutputFormat(WIDTH / 2, HEIGHT / 2, 15);
+
+    // The listener only reports this change; the steps down come from the governor itself.
+    setThermalStatus(PowerManager.THERMAL_STATUS_NONE);
+    idleFor(ThermalEncodingGovernor.RECOVERY_DELAY_MS - 1);
+    assertEquals(ThermalEncodingGovernor.Level.SEVERE, governor.getLevel());
+
+    idleFor(1);
+    assertEquals(ThermalEncodingGovernor.Level.MODERATE, governor.getLevel());
+    verify(videoSource).adaptOutputFormat(960, 540, 20);
+
+    idleFor(ThermalEncodingGovernor.RECOVERY_DELAY_MS);
+    assertEquals(ThermalEncodingGovernor.Level.LIGHT, governor.getLevel());
+    verify(videoSource).adaptOutputFormat(WIDTH, HEIGHT, 24);
+
+    idleFor(ThermalEncodingGovernor.RECOVERY_DELAY_MS);
+    assertEquals(ThermalEncodingGovernor.Level.NONE, governor.getLevel());
+    verify(videoSource).adaptOutputFormat(WIDTH, HEIGHT, FRAMERATE);
+  }
+
+  private void hotterStatusCancelsRecovery() {
+    setThermalStatus(PowerManager.THERMAL_STATUS_SEVERE);
+    setThermalStatus(PowerManager.THERMAL_STATUS_LIGHT);
+    idleFor(ThermalEncodingGovernor.RECOVERY_DELAY_MS / 2);
+
+    // Back at the current level before the delay elapsed: the pending step is dropped.
+    setThermalStatus(PowerManager.THERMAL_STATUS_SEVERE);
+    idleFor(ThermalEncodingGovernor.RECOVERY_DELAY_MS);
+    assertEquals(ThermalEncodingGovernor.Level.SEVERE, governor.getLevel());
+
+    // Cooling down again restarts the full delay.
+    setThermalStatus(PowerManager.THERMAL_STATUS_LIGHT);
+    idleFor(ThermalEncodingGovernor.RECOVERY_DELAY_MS - 1);
+    assertEquals(ThermalEncodingGovernor.Level.SEVERE, governor.getLevel());
+    idleFor(1);
+    assertEquals(ThermalEncodingGovernor.Level.MODERATE, governor.getLevel());
+  }
+
+  private void setThermalStatus(int status) {
+    powerManager.setCurrentThermalStatus(status);
+    idleFor(0);
+  }
+
+  /** Advances the fake clock and runs the tasks that became due on the governor thread. */
+  private void idleFor(long ms) {
+    shadowOf(governorLooper).idleFor(ms, TimeUnit.MILLISECONDS);
+  }
+
+  // Loopers of governors of earlier tests can still be quitting, so look for the new one.
+  private static Looper findNewLooper(Collection<Looper> oldLoopers) {
+    @Nullable Looper newLooper = null;
+    for (Looper looper : ShadowLooper.getAllLoopers()) {
+      if (!oldLoopers.contains(looper)
+          && looper.getThread().getName().equals("ThermalEncodingGovernor")) {
+        newLooper = looper;
+      }
+    }
+    assertNotNull(newLooper);
+    return newLooper;
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2014-2026 Stream.io Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.webrtc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Supplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Checks that the conversions split into parallel stripes write the same bytes as single ones. */
+@RunWith(RobolectricTestRunner.class)
+@Config(instrumentedPackages = {"org.webrtc.JniCommon", "org.webrtc.YuvHelper",
+            "org.webrtc.JavaI420Buffer"},
+    shadows = {LibyuvShadows.ShadowJniCommon.class, LibyuvShadows.ShadowYuvHelper.class,
+        LibyuvShadows.ShadowJavaI420Buffer.class})
+public class YuvHelperTest {
+  private static final int STRIPES = 4;
+  private static final byte PADDING = (byte) 0x5a;
+  // Even sizes with odd chroma widths, and odd sizes.
+  private static final int[][] SIZES = {{38, 22}, {37, 23}};
+
+  private final Random random = new Random(/* seed= */ 42);
+
+  @Before
+  public void setUp() {
+    // Forces striping regardless of the cores of the test machine.
+    YuvHelper.setStripeCount(STRIPES);
+  }
+
+  @After
+  public void tearDown() {
+    YuvHelper.setParallelConversionThreshold(0);
+    YuvHelper.setStripeCount(Math.min(STRIPES, Runtime.getRuntime().availableProcessors()));
+  }
+
+  private ByteBuffer randomBuffer(int size) {
+    final byte[] data = new byte[size];
+    random.nextBytes(data);
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    buffer.put(data);
+    buffer.clear();
+    return buffer;
+  }
+
+  private static ByteBuffer paddedBuffer(int size) {
+    final byte[] padding = new byte[size];
+    Arrays.fill(padding, PADDING);
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    buffer.put(padding);
+    buffer.clear();
+    return buffer;
+  }
+
+  private static byte[] toArray(ByteBuffer... planes) {
+    int size = 0;
+    for (ByteBuffer plane : planes) {
+      size += plane.capacity();
+    }
+    final ByteBuffer data = ByteBuffer.allocate(size);
+    for (ByteBuffer plane : planes) {
+      final ByteBuffer view = plane.duplicate();
+      view.clear();
+      data.put(view);
+    }
+    return data.array();
+  }
+
+  /** Random I420 frame whose strides are larger than its width. */
+  private VideoFrame.I420Buffer createI420Buffer(int width, int height) {
+    final int strideY = width + 3;
+    final int strideUV = (width + 1) / 2 + 5;
+    final int chromaHeight = (height + 1) / 2;
+    return JavaI420Buffer.wrap(width, height, randomBuffer(strideY * height), strideY,
+        randomBuffer(strideUV * chromaHeight), strideUV, randomBuffer(strideUV * chromaHeight),
+        strideUV, /* releaseCallback= */ null);
+  }
+
+  /**
+   * Runs `conversion` at once and in stripes, and checks that both write the same bytes and that
+   * the stripes ran on the stripe threads if `expectStripes` is true.
+   */
+  private static void assertStripesMatch(boolean expectStripes, Supplier<byte[]> conversion) {
+    YuvHelper.setParallelConversionThreshold(0);
+    final byte[] expected = conversion.get();
+    YuvHelper.setParallelConversionThreshold(1);
+    LibyuvShadows.conversionThreads.clear();
+    final byte[] actual = conversion.get();
+    assertArrayEquals(expected, actual);
+    boolean striped = false;
+    for (String thread : LibyuvShadows.conversionThreads) {
+      striped |= thread.startsWith("YuvHelper-stripe-");
+    }
+    assertEquals(expectStripes, striped);
+  }
+
+  @Test
+  public void stripedI420CopyMatches() {
+    for (int[] size : SIZES) {
+      final int width = size[0];
+      final int height = size[1];
+      final VideoFrame.I420Buffer src = createI420Buffer(width, height);
+      final int dstStrideY = width + 4;
+      final int dstStrideUV = (width + 1) / 2 + 2;
+      final int chromaHeight = (height + 1) / 2;
+      assertStripesMatch(/* expectStripes= */ true, () -> {
+        final ByteBuffer dstY = paddedBuffer(dstStrideY * height);
+        final ByteBuffer dstU = paddedBuffer(dstStrideUV * chromaHeight);
+        final ByteBuffer dstV = paddedBuffer(dstStrideUV * chromaHeight);
+        YuvHelper.I420Copy(src.getDataY(), src.getStrideY(), src.getDataU(), src.getStrideU(),
+            src.getDataV(), src.getStrideV(), dstY, dstStrideY, dstU, dstStrideUV, dstV,
+            dstStrideUV, width, height);
+        return toArray(dstY, dstU, dstV);
+      });
+      src.release();
+    }
+  }
+
+  @Test
+  public void stripedI420ToNV12Matches() {
+    for (int[] size : SIZES) {
+      final int width = size[0];
+      final int height = size[1];
+      final VideoFrame.I420Buffer src = createI420Buffer(width, height);
+      final int dstStrideY = width + 4;
+      final int dstStrideUV = (width + 1) / 2 * 2 + 6;
+      final int chromaHeight = (height + 1) / 2;
+      assertStripesMatch(/* expectStripes= */ true, () -> {
+        final ByteBuffer dstY = paddedBuffer(dstStrideY * height);
+        final ByteBuffer dstUV = paddedBuffer(dstStrideUV * chromaHeight);
+        YuvHelper.I420ToNV12(src.getDataY(), src.getStrideY(), src.getDataU(), src.getStrideU(),
+            src.getDataV(), src.getStrideV(), dstY, dstStrideY, dstUV, dstStrideUV, width,
+            height);
+        return toArray(dstY, dstUV);
+      });
+      src.release();
+    }
+  }
+
+  @Test
+  public void stripedI420RotateMatches() {
+    for (int[] size : SIZES) {
+      final int width = size[0];
+      final int height = size[1];
+      final VideoFrame.I420Buffer src = createI420Buffer(width, height);
+      for (int rotationMode : new int[] {0, 90, 180, 270}) {
+        final int dstWidth = rotationMode % 180 == 0 ? width : height;
+        final int dstHeight = rotationMode % 180 == 0 ? height : width;
+        final int dstStrideY = dstWidth + 4;
+        final int dstStrideUV = (dstWidth + 1) / 2 + 2;
+        final int dstChromaHeight = (dstHeight + 1) / 2;
+        // Odd sizes are never striped.
+        assertStripesMatch(/* expectStripes= */ width % 2 == 0 && height % 2 == 0, () -> {
+          final ByteBuffer dstY = paddedBuffer(dstStrideY * dstHeight);
+          final ByteBuffer dstU = paddedBuffer(dstStrideUV * dstChromaHeight);
+          final ByteBuffer dstV = paddedBuffer(dstStrideUV * dstChromaHeight);
+          YuvHelper.I420Rotate(src.getDataY(), src.getStrideY(), src.getDataU(),
+              src.getStrideU(), src.getDataV(), src.getStrideV(), dstY, dstStrideY, dstU,
+              dstStrideUV, dstV, dstStrideUV, width, height, rotationMode);
+          return toArray(dstY, dstU, dstV);
+        });
+      }
+      src.release();
+    }
+  }
+
+  private static void assertStripedScaleMatches(VideoFrame.I420Buffer src, boolean expectStripes,
+      int cropX, int cropY, int cropWidth, int cropHeight, int scaleWidth, int scaleHeight) {
+    assertStripesMatch(expectStripes, () -> {
+      final VideoFrame.I420Buffer scaled = (VideoFrame.I420Buffer) JavaI420Buffer.cropAndScaleI420(
+          src, cropX, cropY, cropWidth, cropHeight, scaleWidth, scaleHeight);
+      final byte[] data = toArray(scaled.getDataY(), scaled.getDataU(), scaled.getDataV());
+      scaled.release();
+      return data;
+    });
+  }
+
+  @Test
+  public void stripedCropAndScaleI420Matches() {
+    final VideoFrame.I420Buffer src = createI420Buffer(41, 47);
+    assertStripedScaleMatches(src, /* expectStripes= */ true, /* cropX= */ 3, /* cropY= */ 5,
+        /* cropWidth= */ 36, /* cropHeight= */ 40, /* scaleWidth= */ 18, /* scaleHeight= */ 20);
+    assertStripedScaleMatches(src, /* expectStripes= */ true, /* cropX= */ 1, /* cropY= */ 3,
+        /* cropWidth= */ 39, /* cropHeight= */ 42, /* scaleWidth= */ 13, /* scaleHeight= */ 14);
+    // Odd output heights subsample the chroma rows unevenly, so they are not striped.
+    assertStripedScaleMatches(src, /* expectStripes= */ false, /* cropX= */ 2, /* cropY= */ 2,
+        /* cropWidth= */ 37, /* cropHeight= */ 42, /* scaleWidth= */ 19, /* scaleHeight= */ 21);
+    // Non-integer vertical ratios are not striped.
+    assertStripedScaleMatches(src, /* expectStripes= */ false, /* cropX= */ 0, /* cropY= */ 0,
+        /* cropWidth= */ 41, /* cropHeight= */ 47, /* scaleWidth= */ 30, /* scaleHeight= */ 20);
+    src.release();
+  }
+}